@@ -11,6 +11,7 @@ package mondrian.calc.impl;
 
 import mondrian.calc.*;
 import mondrian.olap.*;
+import mondrian.server.Locus;
 
 import java.util.*;
 
@@ -25,6 +26,9 @@ public class ArrayTupleList extends AbstractEndToEndTupleList
     private transient Member[] objectData;
     private int size;
 
+    /** Estimated number of bytes used by each slot of the array. */
+    public static final int REFERENCE_BYTES = 8;
+
     /**
      * Creates an empty ArrayTupleList with an initial capacity of 10 tuples.
      *
@@ -248,6 +252,11 @@ public class ArrayTupleList extends AbstractEndToEndTupleList
             final int rem = newCapacity % arity;
             newCapacity += (arity - rem);
             objectData = Util.copyOf(objectData, newCapacity);
+
+            // Charge the growth to the current execution, so that a runaway
+            // crossjoin fails before it exhausts the heap.
+            Locus.allocateMemory(
+                (long) (newCapacity - oldCapacity) * REFERENCE_BYTES);
         }
     }
 }
@@ -105,6 +105,11 @@ public class DelegatingTupleList extends AbstractTupleList
         list.add(index, element);
     }
 
+    @Override
+    public List<Member> remove(int index) {
+        return list.remove(index);
+    }
+
     public void addTuple(Member... members) {
         list.add(Util.flatList(members));
     }
@@ -0,0 +1,138 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.calc.impl;
+
+import mondrian.olap.Member;
+import mondrian.olap.Util;
+
+import java.util.*;
+
+/**
+ * Dictionary that assigns a dense integer ordinal to each distinct
+ * {@link Member} it is given.
+ *
+ * <p>Each column of an {@link OrdinalTupleList} has a dictionary. All members
+ * in a column belong to the same hierarchy, so in practice there is one
+ * dictionary per hierarchy, and it can be shared between lists; for example,
+ * the result of a crossjoin shares the dictionaries of its inputs. A list
+ * copies a shared dictionary (see {@link #MemberDictionary(MemberDictionary)})
+ * before adding a member to it.
+ *
+ * <p>Ordinals are assigned in order of first occurrence, starting at 0. The
+ * null member is a legitimate entry. A dictionary only grows; members are
+ * never removed.
+ *
+ * <p>Not thread-safe for writes. Once populated, a dictionary can be read by
+ * several threads.
+ *
+ * @author jhyde
+ */
+public class MemberDictionary {
+    private final Map<Member, Integer> ordinalMap;
+    private Member[] members;
+    private int size;
+
+    /**
+     * Creates an empty MemberDictionary.
+     */
+    public MemberDictionary() {
+        this(16);
+    }
+
+    /**
+     * Creates an empty MemberDictionary with a given initial capacity.
+     *
+     * @param initialCapacity Expected number of distinct members
+     */
+    public MemberDictionary(int initialCapacity) {
+        this.ordinalMap = new HashMap<Member, Integer>(
+            Math.max(16, initialCapacity * 4 / 3 + 1));
+        this.members = new Member[Math.max(4, initialCapacity)];
+    }
+
+    /**
+     * Creates a MemberDictionary with the same members and ordinals as an
+     * existing dictionary.
+     *
+     * @param dictionary Dictionary to copy
+     */
+    public MemberDictionary(MemberDictionary dictionary) {
+        this.ordinalMap = new HashMap<Member, Integer>(dictionary.ordinalMap);
+        this.members = dictionary.members.clone();
+        this.size = dictionary.size;
+    }
+
+    /**
+     * Returns the ordinal of a member, adding it to the dictionary if it is
+     * not already present.
+     *
+     * @param member Member (may be null)
+     * @return Ordinal of member
+     */
+    public int ordinal(Member member) {
+        final Integer ordinal = ordinalMap.get(member);
+        if (ordinal != null) {
+            return ordinal;
+        }
+        if (size == members.length) {
+            members = Util.copyOf(members, size * 2);
+        }
+        members[size] = member;
+        ordinalMap.put(member, size);
+        return size++;
+    }
+
+    /**
+     * Returns the ordinal of a member, or -1 if the member is not in this
+     * dictionary. Does not modify the dictionary.
+     *
+     * @param member Member (may be null)
+     * @return Ordinal of member, or -1
+     */
+    public int lookup(Member member) {
+        final Integer ordinal = ordinalMap.get(member);
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    /**
+     * Returns the member with a given ordinal.
+     *
+     * @param ordinal Ordinal
+     * @return Member
+     */
+    public Member member(int ordinal) {
+        assert ordinal < size;
+        return members[ordinal];
+    }
+
+    /**
+     * Returns the number of distinct members in this dictionary.
+     *
+     * @return Number of members
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of bits required to represent any ordinal
+     * currently in this dictionary. Never less than 1.
+     *
+     * @return Number of bits per ordinal
+     */
+    public int bitCount() {
+        if (size <= 2) {
+            return 1;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+}
+
+// End MemberDictionary.java
@@ -0,0 +1,687 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.calc.impl;
+
+import mondrian.calc.*;
+import mondrian.olap.*;
+import mondrian.resource.MondrianResource;
+
+import java.util.*;
+
+/**
+ * Implementation of {@link TupleList} that stores tuples end-to-end as
+ * integer ordinals into a {@link MemberDictionary} per column.
+ *
+ * <p>For example, if the arity is 2, the tuples {(A1, B1), (A1, B2),
+ * (A2, B1)} are stored as the ordinals {0, 0, 0, 1, 1, 0}, and the
+ * dictionaries are [A1, A2] and [B1, B2]. {@link Member} objects are only
+ * looked up when a tuple or slice is accessed.
+ *
+ * <p>Compared to {@link ArrayTupleList}, this representation makes
+ * operations that only need to compare or hash tuples (crossjoin,
+ * distinct, except, intersect) much cheaper, because they can work on
+ * {@code int} values and never touch the members. Two tuples in the same list
+ * are equal if and only if their ordinals are equal.
+ *
+ * <p>A list's dictionaries may be shared with other lists; for example, the
+ * result of {@link #crossJoin(java.util.List)} uses the dictionaries of its
+ * inputs. Shared dictionaries are copy-on-write: a list copies them before it
+ * adds a member that is not already in them, so that it never modifies a
+ * dictionary that another list, perhaps in another thread, is reading.
+ *
+ * @author jhyde
+ */
+public class OrdinalTupleList extends AbstractTupleList
+{
+    private MemberDictionary[] dictionaries;
+    private int[] ordinals;
+    private int size;
+
+    /**
+     * Whether {@link #dictionaries} may be used by other lists. If so, they
+     * must be copied before a member is added.
+     */
+    private boolean sharedDictionaries;
+
+    /**
+     * Creates an empty OrdinalTupleList with an initial capacity of 10
+     * tuples.
+     *
+     * @param arity Arity
+     */
+    public OrdinalTupleList(int arity) {
+        this(arity, 10);
+    }
+
+    /**
+     * Creates an empty OrdinalTupleList with new dictionaries.
+     *
+     * @param arity Arity
+     * @param initialCapacity Initial capacity
+     */
+    public OrdinalTupleList(int arity, int initialCapacity) {
+        this(
+            newDictionaries(arity),
+            new int[Math.max(1, initialCapacity) * arity],
+            0,
+            false);
+    }
+
+    /**
+     * Creates an empty OrdinalTupleList that uses existing dictionaries. The
+     * dictionaries are treated as shared, and are copied before the list adds
+     * a member to them.
+     *
+     * @param dictionaries Dictionary for each column
+     * @param initialCapacity Initial capacity
+     */
+    public OrdinalTupleList(
+        MemberDictionary[] dictionaries,
+        int initialCapacity)
+    {
+        this(
+            dictionaries,
+            new int[Math.max(1, initialCapacity) * dictionaries.length],
+            0,
+            true);
+    }
+
+    private OrdinalTupleList(
+        MemberDictionary[] dictionaries,
+        int[] ordinals,
+        int size,
+        boolean sharedDictionaries)
+    {
+        super(dictionaries.length);
+        assert arity > 0;
+        assert ordinals.length >= size * arity;
+        this.dictionaries = dictionaries;
+        this.ordinals = ordinals;
+        this.size = size;
+        this.sharedDictionaries = sharedDictionaries;
+    }
+
+    private static MemberDictionary[] newDictionaries(int arity) {
+        final MemberDictionary[] dictionaries = new MemberDictionary[arity];
+        for (int i = 0; i < arity; i++) {
+            dictionaries[i] = new MemberDictionary();
+        }
+        return dictionaries;
+    }
+
+    /**
+     * Converts a list to ordinal form. If the list is already an
+     * OrdinalTupleList, returns it unchanged.
+     *
+     * @param list List
+     * @return List in ordinal form
+     */
+    public static OrdinalTupleList of(TupleList list) {
+        if (list instanceof OrdinalTupleList) {
+            return (OrdinalTupleList) list;
+        }
+        final int arity = list.getArity();
+        final OrdinalTupleList ordinalList =
+            new OrdinalTupleList(arity, list.size());
+        final TupleCursor cursor = list.tupleCursor();
+        while (cursor.forward()) {
+            ordinalList.addCurrent(cursor);
+        }
+        return ordinalList;
+    }
+
+    /**
+     * Computes the cartesian product of a list of lists.
+     *
+     * <p>The inputs are converted to ordinal form (which is cheap if they
+     * are already OrdinalTupleLists) and the result shares their
+     * dictionaries, so the product is computed by copying {@code int}s;
+     * no {@link Member} or tuple objects are created.
+     *
+     * <p>The caller is responsible for checking that the size of the result
+     * is within limits. If the product has more ordinals than fit in an
+     * array, returns an immutable list that computes each tuple when it is
+     * accessed.
+     *
+     * @param lists Lists to join
+     * @return Cartesian product
+     */
+    public static TupleList crossJoin(List<TupleList> lists) {
+        final OrdinalTupleList[] ordinalLists =
+            new OrdinalTupleList[lists.size()];
+        long size = 1;
+        int arity = 0;
+        for (int i = 0; i < ordinalLists.length; i++) {
+            ordinalLists[i] = of(lists.get(i));
+            ordinalLists[i].sharedDictionaries = true;
+            size *= ordinalLists[i].size;
+            arity += ordinalLists[i].arity;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw MondrianResource.instance().LimitExceededDuringCrossjoin.ex(
+                size, Integer.MAX_VALUE);
+        }
+        if (size * arity > Integer.MAX_VALUE) {
+            return lazyCrossJoin(ordinalLists, (int) size, arity);
+        }
+        final MemberDictionary[] dictionaries = new MemberDictionary[arity];
+        final int[] ordinals = new int[Math.max(1, (int) size) * arity];
+        int offset = 0;
+        int cycles = 1;
+        for (OrdinalTupleList list : ordinalLists) {
+            System.arraycopy(
+                list.dictionaries, 0, dictionaries, offset, list.arity);
+
+            // Each tuple of this list is repeated once for each combination
+            // of the lists to its right, and the whole block is repeated once
+            // for each combination of the lists to its left.
+            if (size > 0) {
+                final int repeat = (int) (size / cycles / list.size);
+                int row = 0;
+                for (int c = 0; c < cycles; c++) {
+                    for (int i = 0; i < list.size; i++) {
+                        for (int r = 0; r < repeat; r++) {
+                            System.arraycopy(
+                                list.ordinals, i * list.arity,
+                                ordinals, row++ * arity + offset,
+                                list.arity);
+                        }
+                    }
+                }
+                cycles *= list.size;
+            }
+            offset += list.arity;
+        }
+        return new OrdinalTupleList(dictionaries, ordinals, (int) size, true);
+    }
+
+    /**
+     * Returns the cartesian product of a list of lists as an immutable list
+     * that computes each tuple when it is accessed. For products too large
+     * to store as ordinals.
+     */
+    private static TupleList lazyCrossJoin(
+        final OrdinalTupleList[] lists,
+        final int size,
+        final int arity)
+    {
+        return new DelegatingTupleList(
+            arity,
+            new AbstractList<List<Member>>() {
+                public List<Member> get(int index) {
+                    if (index < 0 || index >= size) {
+                        throw new IndexOutOfBoundsException(
+                            "Index: " + index + ", Size: " + size);
+                    }
+                    // The rightmost list varies fastest.
+                    final Member[] members = new Member[arity];
+                    int offset = arity;
+                    for (int i = lists.length - 1; i >= 0; i--) {
+                        final OrdinalTupleList list = lists[i];
+                        final int row = index % list.size;
+                        index /= list.size;
+                        offset -= list.arity;
+                        for (int j = 0; j < list.arity; j++) {
+                            members[offset + j] = list.get(j, row);
+                        }
+                    }
+                    return Util.flatList(members);
+                }
+
+                public int size() {
+                    return size;
+                }
+            });
+    }
+
+    /**
+     * Returns the dictionary for a given column.
+     *
+     * @param column Column ordinal
+     * @return Dictionary
+     */
+    public MemberDictionary getDictionary(int column) {
+        return dictionaries[column];
+    }
+
+    /**
+     * Returns whether this list uses the same dictionaries as another list,
+     * and therefore whether their ordinals can be compared directly.
+     *
+     * @param list Other list
+     * @return Whether lists have the same dictionaries
+     */
+    public boolean hasSameDictionaries(OrdinalTupleList list) {
+        return list.dictionaries == dictionaries
+            || Arrays.equals(list.dictionaries, dictionaries);
+    }
+
+    /**
+     * Returns the ordinal, in its column's dictionary, of the member at a
+     * given row and column.
+     *
+     * @param column Column ordinal
+     * @param index Row ordinal
+     * @return Ordinal of member
+     */
+    public int ordinal(int column, int index) {
+        return ordinals[index * arity + column];
+    }
+
+    /**
+     * Computes a hash code for the tuple at a given row, based on ordinals.
+     * Consistent with {@link #tupleEquals(int, int)} but not with
+     * {@link List#hashCode()}.
+     *
+     * @param index Row ordinal
+     * @return Hash code
+     */
+    public int tupleHashCode(int index) {
+        int h = 0;
+        for (int i = 0, x = index * arity; i < arity; i++) {
+            h = h * 31 + ordinals[x + i];
+        }
+        return h;
+    }
+
+    /**
+     * Returns whether the tuples at two rows of this list are equal.
+     *
+     * @param index0 First row ordinal
+     * @param index1 Second row ordinal
+     * @return Whether tuples are equal
+     */
+    public boolean tupleEquals(int index0, int index1) {
+        for (int i = 0, x0 = index0 * arity, x1 = index1 * arity;
+             i < arity;
+             i++)
+        {
+            if (ordinals[x0 + i] != ordinals[x1 + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Member get(int slice, int index) {
+        return dictionaries[slice].member(ordinals[index * arity + slice]);
+    }
+
+    @Override
+    public List<Member> get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(
+                "Index: " + index + ", Size: " + size);
+        }
+        final int startIndex = index * arity;
+        if (mutable) {
+            final Member[] members = new Member[arity];
+            for (int i = 0; i < arity; i++) {
+                members[i] = dictionaries[i].member(ordinals[startIndex + i]);
+            }
+            return Util.flatList(members);
+        }
+        return new AbstractList<Member>() {
+            public Member get(int index) {
+                return dictionaries[index].member(ordinals[startIndex + index]);
+            }
+
+            public int size() {
+                return arity;
+            }
+        };
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public List<Member> set(int index, List<Member> element) {
+        assert mutable;
+        checkArity(element.size());
+        for (int i = 0, startIndex = index * arity; i < arity; i++) {
+            ordinals[startIndex + i] = ordinal(i, element.get(i));
+        }
+        return null; // not compliant with List contract
+    }
+
+    @Override
+    public boolean add(List<Member> members) {
+        assert mutable;
+        checkArity(members.size());
+        int n = size * arity;
+        ensureCapacity(n + arity);
+        for (int i = 0; i < arity; i++) {
+            ordinals[n++] = ordinal(i, members.get(i));
+        }
+        ++size;
+        return true;
+    }
+
+    @Override
+    public void add(int index, List<Member> members) {
+        assert mutable;
+        checkArity(members.size());
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException(
+                "Index: " + index + ", Size: " + size);
+        }
+        int n = index * arity;
+        ensureCapacity((size + 1) * arity);
+        System.arraycopy(ordinals, n, ordinals, n + arity, size * arity - n);
+        for (int i = 0; i < arity; i++) {
+            ordinals[n++] = ordinal(i, members.get(i));
+        }
+        ++size;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends List<Member>> c) {
+        assert mutable;
+        if (c instanceof OrdinalTupleList
+            && hasSameDictionaries((OrdinalTupleList) c))
+        {
+            // Same dictionaries, so we can copy ordinals.
+            final OrdinalTupleList list = (OrdinalTupleList) c;
+            ensureCapacity((size + list.size) * arity);
+            System.arraycopy(
+                list.ordinals, 0, ordinals, size * arity, list.size * arity);
+            size += list.size;
+            return list.size > 0;
+        }
+        ensureCapacity((size + c.size()) * arity);
+        for (List<Member> members : c) {
+            add(members);
+        }
+        return !c.isEmpty();
+    }
+
+    public void addTuple(Member... members) {
+        assert mutable;
+        checkArity(members.length);
+        int n = size * arity;
+        ensureCapacity(n + arity);
+        for (int i = 0; i < arity; i++) {
+            ordinals[n++] = ordinal(i, members[i]);
+        }
+        ++size;
+    }
+
+    @Override
+    public void addCurrent(TupleCursor tupleIter) {
+        assert mutable;
+        int n = size * arity;
+        ensureCapacity(n + arity);
+        for (int i = 0; i < arity; i++) {
+            ordinals[n++] = ordinal(i, tupleIter.member(i));
+        }
+        ++size;
+    }
+
+    /**
+     * Appends the tuple at a given row of another list that has the same
+     * dictionaries as this list.
+     *
+     * @param list List with same dictionaries as this
+     * @param index Row ordinal in other list
+     */
+    public void addOrdinals(OrdinalTupleList list, int index) {
+        assert mutable;
+        assert hasSameDictionaries(list);
+        int n = size * arity;
+        ensureCapacity(n + arity);
+        System.arraycopy(list.ordinals, index * arity, ordinals, n, arity);
+        ++size;
+    }
+
+    @Override
+    public List<Member> remove(int index) {
+        assert mutable;
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(
+                "Index: " + index + ", Size: " + size);
+        }
+        final int n = index * arity;
+        System.arraycopy(
+            ordinals, n + arity, ordinals, n, (size - index - 1) * arity);
+        --size;
+        ++modCount;
+        return null; // not compliant with List contract
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        assert mutable;
+        System.arraycopy(
+            ordinals, toIndex * arity,
+            ordinals, fromIndex * arity,
+            (size - toIndex) * arity);
+        size -= toIndex - fromIndex;
+        ++modCount;
+    }
+
+    @Override
+    public void clear() {
+        assert mutable;
+        size = 0;
+        ++modCount;
+    }
+
+    public List<Member> slice(final int column) {
+        if (column < 0 || column >= arity) {
+            throw new IllegalArgumentException();
+        }
+        return new AbstractList<Member>() {
+            @Override
+            public Member get(int index) {
+                return OrdinalTupleList.this.get(column, index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    public TupleList cloneList(int capacity) {
+        // The copy shares this list's dictionaries.
+        sharedDictionaries = true;
+        if (capacity < 0) {
+            // copy of this list with the same contents
+            return new OrdinalTupleList(
+                dictionaries, Util.copyOf(ordinals, size * arity), size, true);
+        } else {
+            // empty copy of this list with given capacity
+            return new OrdinalTupleList(dictionaries, capacity);
+        }
+    }
+
+    public TupleList project(int[] destIndices) {
+        final int destArity = destIndices.length;
+        final MemberDictionary[] destDictionaries =
+            new MemberDictionary[destArity];
+        for (int i = 0; i < destArity; i++) {
+            destDictionaries[i] = dictionaries[destIndices[i]];
+        }
+        final int[] destOrdinals = new int[Math.max(1, size) * destArity];
+        sharedDictionaries = true;
+        for (int row = 0, n = 0; row < size; row++) {
+            for (int destIndex : destIndices) {
+                destOrdinals[n++] = ordinals[row * arity + destIndex];
+            }
+        }
+        return new OrdinalTupleList(
+            destDictionaries, destOrdinals, size, true);
+    }
+
+    @Override
+    public TupleList subList(final int fromIndex, final int toIndex) {
+        if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException(
+                "fromIndex: " + fromIndex + ", toIndex: " + toIndex
+                + ", size: " + size);
+        }
+        return new DelegatingTupleList(
+            arity,
+            new AbstractList<List<Member>>() {
+                int subSize = toIndex - fromIndex;
+
+                @Override
+                public List<Member> get(int index) {
+                    return OrdinalTupleList.this.get(fromIndex + index);
+                }
+
+                @Override
+                public int size() {
+                    return subSize;
+                }
+
+                @Override
+                public List<Member> set(int index, List<Member> element) {
+                    return OrdinalTupleList.this.set(
+                        fromIndex + index, element);
+                }
+
+                @Override
+                public void add(int index, List<Member> element) {
+                    OrdinalTupleList.this.add(fromIndex + index, element);
+                    ++subSize;
+                }
+
+                @Override
+                public List<Member> remove(int index) {
+                    final List<Member> previous =
+                        OrdinalTupleList.this.remove(fromIndex + index);
+                    --subSize;
+                    return previous;
+                }
+            });
+    }
+
+    public TupleList withPositionCallback(
+        final PositionCallback positionCallback)
+    {
+        return new DelegatingTupleList(
+            arity,
+            new AbstractList<List<Member>>() {
+                @Override
+                public List<Member> get(int index) {
+                    positionCallback.onPosition(index);
+                    return OrdinalTupleList.this.get(index);
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+
+                @Override
+                public List<Member> set(int index, List<Member> element) {
+                    positionCallback.onPosition(index);
+                    return OrdinalTupleList.this.set(index, element);
+                }
+
+                @Override
+                public void add(int index, List<Member> element) {
+                    positionCallback.onPosition(index);
+                    OrdinalTupleList.this.add(index, element);
+                }
+
+                @Override
+                public List<Member> remove(int index) {
+                    positionCallback.onPosition(index);
+                    return OrdinalTupleList.this.remove(index);
+                }
+            });
+    }
+
+    @Override
+    public TupleList fix() {
+        if (mutable) {
+            // A mutable list returns a copy of each tuple, so the tuples
+            // are already invariant.
+            return this;
+        }
+        return super.fix();
+    }
+
+    public TupleIterator tupleIteratorInternal() {
+        return new AbstractTupleListIterator() {
+            public void setContext(Evaluator evaluator) {
+                for (int i = 0, x = lastRet * arity; i < arity; i++) {
+                    evaluator.setContext(
+                        dictionaries[i].member(ordinals[x + i]));
+                }
+            }
+
+            public Member member(int column) {
+                return dictionaries[column].member(
+                    ordinals[lastRet * arity + column]);
+            }
+
+            public void currentToArray(Member[] members, int offset) {
+                for (int i = 0, x = lastRet * arity; i < arity; i++) {
+                    members[offset + i] =
+                        dictionaries[i].member(ordinals[x + i]);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the ordinal of a member in the dictionary of a given column,
+     * adding it if necessary. If the dictionaries are shared and the member
+     * is new, first copies the dictionaries.
+     */
+    private int ordinal(int column, Member member) {
+        if (sharedDictionaries) {
+            final int ordinal = dictionaries[column].lookup(member);
+            if (ordinal >= 0) {
+                return ordinal;
+            }
+            final MemberDictionary[] copies =
+                new MemberDictionary[dictionaries.length];
+            for (int i = 0; i < copies.length; i++) {
+                copies[i] = new MemberDictionary(dictionaries[i]);
+            }
+            dictionaries = copies;
+            sharedDictionaries = false;
+        }
+        return dictionaries[column].ordinal(member);
+    }
+
+    private void checkArity(int length) {
+        if (length != arity) {
+            throw new IllegalArgumentException(
+                "Tuple length does not match arity");
+        }
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        int oldCapacity = ordinals.length;
+        if (minCapacity > oldCapacity) {
+            int newCapacity = (oldCapacity * 3) / 2 + 1;
+            if (newCapacity < minCapacity) {
+                newCapacity = minCapacity;
+            }
+            // Up to next multiple of arity.
+            final int rem = newCapacity % arity;
+            if (rem != 0) {
+                newCapacity += arity - rem;
+            }
+            ordinals = Util.copyOf(ordinals, newCapacity);
+        }
+    }
+}
+
+// End OrdinalTupleList.java
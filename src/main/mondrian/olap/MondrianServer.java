@@ -10,6 +10,7 @@
 package mondrian.olap;
 
 import mondrian.rolap.RolapConnection;
+import mondrian.rolap.RolapResultCache;
 import mondrian.rolap.RolapResultShepherd;
 import mondrian.rolap.agg.AggregationManager;
 import mondrian.server.*;
@@ -115,6 +116,13 @@ public abstract class MondrianServer {
 
     public abstract RolapResultShepherd getResultShepherd();
 
+    /**
+     * Returns the cache of query results of this server.
+     *
+     * @return Result cache
+     */
+    public abstract RolapResultCache getResultCache();
+
     /**
      * Returns the lock box that can be used to pass objects via their string
      * key.
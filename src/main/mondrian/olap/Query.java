@@ -135,7 +135,8 @@ public class Query extends QueryPart {
     private ResultStyle resultStyle =
         Util.Retrowoven ? ResultStyle.LIST : ResultStyle.ITERABLE;
 
-    private Map<String, Object> evalCache = new HashMap<String, Object>();
+    private Map<String, Object> evalCache =
+        Collections.synchronizedMap(new HashMap<String, Object>());
 
     /**
      * List of aliased expressions defined in this query, and where they are
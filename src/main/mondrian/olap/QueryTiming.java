@@ -32,7 +32,17 @@ import java.util.*;
  */
 public class QueryTiming {
     private boolean enabled;
-    private final Stack<TimingInfo> currentTimings = new Stack<TimingInfo>();
+
+    /**
+     * Components in progress. Each thread has its own stack, because a
+     * query may evaluate parts of an expression in parallel.
+     */
+    private final ThreadLocal<Stack<TimingInfo>> currentTimings =
+        new ThreadLocal<Stack<TimingInfo>>() {
+            protected Stack<TimingInfo> initialValue() {
+                return new Stack<TimingInfo>();
+            }
+        };
     private final Map<String, List<StartEnd>> timings =
         new HashMap<String, List<StartEnd>>();
     private final Map<String, DurationCount> fullTimings =
@@ -44,9 +54,9 @@ public class QueryTiming {
      *
      * @param enabled Whether to collect stats in future
      */
-    public void init(boolean enabled) {
+    public synchronized void init(boolean enabled) {
         this.enabled = enabled;
-        currentTimings.clear();
+        currentTimings.get().clear();
         timings.clear();
         fullTimings.clear();
     }
@@ -90,12 +100,12 @@ public class QueryTiming {
     }
 
     private void markStartInternal(String name) {
-        currentTimings.push(new TimingInfo(name));
+        currentTimings.get().push(new TimingInfo(name));
     }
 
-    private void markEndInternal(String name, long tstamp) {
-        if (currentTimings == null
-            || currentTimings.isEmpty()
+    private synchronized void markEndInternal(String name, long tstamp) {
+        final Stack<TimingInfo> currentTimings = this.currentTimings.get();
+        if (currentTimings.isEmpty()
             || !currentTimings.peek().name.equals(name))
         {
             throw new IllegalStateException("end but no start for " + name);
@@ -112,7 +122,7 @@ public class QueryTiming {
         timingList.add(new StartEnd(finished.startTime, finished.endTime));
     }
 
-    private void markFullInternal(String name, long duration) {
+    private synchronized void markFullInternal(String name, long duration) {
         DurationCount p = fullTimings.get(name);
         if (p == null) {
             p = new DurationCount();
@@ -122,7 +132,7 @@ public class QueryTiming {
         p.duration += duration;
     }
 
-    public String toString() {
+    public synchronized String toString() {
         StringBuilder sb = new StringBuilder();
         for (Map.Entry<String, List<StartEnd>> entry
             : timings.entrySet())
@@ -165,7 +175,7 @@ public class QueryTiming {
     /**
      * @return a collection of all Query component names
      */
-    public Collection<String> getTimingKeys() {
+    public synchronized Collection<String> getTimingKeys() {
         Set<String> keys = new HashSet<String>();
         keys.addAll(timings.keySet());
         keys.addAll(fullTimings.keySet());
@@ -176,7 +186,7 @@ public class QueryTiming {
      * @param key Name of the Query component to get timing information on
      * @return a List of durations
      */
-    public List<Long> getTimings(String key) {
+    public synchronized List<Long> getTimings(String key) {
         List<Long> timingList = new ArrayList<Long>();
         List<StartEnd> regTime = timings.get(key);
         if (regTime != null) {
@@ -106,7 +106,9 @@ public class AggregateFunDef extends AbstractAggregateFunDef {
                     null,
                     "Don't know how to rollup aggregator '" + aggregator + "'");
             }
-            if (aggregator != RolapAggregator.DistinctCount) {
+            if (aggregator != RolapAggregator.DistinctCount
+                && aggregator != RolapAggregator.ApproxDistinctCount)
+            {
                 final int savepoint = evaluator.savepoint();
                 evaluator.setNonEmpty(false);
                 final Object o =
@@ -363,6 +363,18 @@ public class CrossJoinFunDef extends FunDefBase {
                     l1.getArity() + l2.getArity());
             }
 
+            // If the product is still large, and empty tuples are going to
+            // be removed anyway, generate only the non-empty tuples.
+            if (evaluator.isNonEmpty()
+                && (long) l1.size() * (long) l2.size()
+                   > MondrianProperties.instance().CrossJoinOptimizerSize.get()
+                && !isHighCardinality(l1)
+                && !isHighCardinality(l2))
+            {
+                return nonEmptyCrossJoin(
+                    evaluator, Arrays.asList(l1, l2), call);
+            }
+
             return makeList(l1, l2);
         }
 
@@ -436,19 +448,21 @@ public class CrossJoinFunDef extends FunDefBase {
             super(call, calcs, true);
         }
 
-        @SuppressWarnings({"unchecked"})
         protected TupleList makeList(final TupleList l1, final TupleList l2) {
-            final int arity = l1.getArity() + l2.getArity();
-            final List<Member> members =
-                new ArrayList<Member>(arity * l1.size() * l2.size());
-            for (List<Member> ma1 : l1) {
-                for (List<Member> ma2 : l2) {
-                    members.addAll(ma1);
-                    members.addAll(ma2);
-                }
+            // Store the product as member ordinals. It is built by copying
+            // ints, and later operations (distinct, except, sort) can hash
+            // and compare tuples without touching the members.
+            return OrdinalTupleList.crossJoin(Arrays.asList(l1, l2));
+        }
+    }
+
+    private static boolean isHighCardinality(TupleList list) {
+        for (Member member : list.get(0)) {
+            if (member.getDimension().isHighCardinality()) {
+                return true;
             }
-            return new ListTupleList(arity, members);
         }
+        return false;
     }
 
     protected TupleList nonEmptyOptimizeList(
@@ -524,45 +538,18 @@ public class CrossJoinFunDef extends FunDefBase {
         // Optimize nonempty(crossjoin(a,b)) ==
         //  nonempty(crossjoin(nonempty(a),nonempty(b))
 
-        // FIXME: If we're going to apply a NON EMPTY constraint later, it's
-        // possible that the ultimate result will be much smaller.
+        // If we're going to apply a NON EMPTY constraint later, the ultimate
+        // result may be much smaller; callers that know that should use
+        // nonEmptyCrossJoin, which never builds the full product.
 
         Util.checkCJResultLimit(size);
 
         // Now we can safely cast size to an integer. It still might be very
         // large - which means we're allocating a huge array which we might
         // pare down later by applying NON EMPTY constraints - which is a
-        // concern.
-        List<Member> result = new ArrayList<Member>((int) size * arity);
-
-        final Member[] partialArray = new Member[arity];
-        final List<Member> partial = Arrays.asList(partialArray);
-        cartesianProductRecurse(0, lists, partial, partialArray, 0, result);
-        return new ListTupleList(arity, result);
-    }
-
-    private static void cartesianProductRecurse(
-        int i,
-        List<TupleList> lists,
-        List<Member> partial,
-        Member[] partialArray,
-        int partialSize,
-        List<Member> result)
-    {
-        final TupleList tupleList = lists.get(i);
-        final int partialSizeNext = partialSize + tupleList.getArity();
-        final int iNext = i + 1;
-        final TupleCursor cursor = tupleList.tupleCursor();
-        while (cursor.forward()) {
-            cursor.currentToArray(partialArray, partialSize);
-            if (i == lists.size() - 1) {
-                result.addAll(partial);
-            } else {
-                cartesianProductRecurse(
-                    iNext, lists, partial, partialArray, partialSizeNext,
-                    result);
-            }
-        }
+        // concern. Storing member ordinals rather than members keeps the
+        // array as small as possible.
+        return OrdinalTupleList.crossJoin(lists);
     }
 
     /**
@@ -755,7 +742,66 @@ public class CrossJoinFunDef extends FunDefBase {
             TupleCollections.createList(
                 list.getArity(), (list.size() + 2) >> 1);
 
-        // Get all of the Measures
+        final Query query = evaluator.getQuery();
+        final Set<Member> measureSet = getMeasureSet(evaluator, call);
+
+        final String allMemberListKey = "ALL_MEMBER_LIST-" + ctag;
+        List<Member> allMemberList =
+            Util.cast((List) query.getEvalCache(allMemberListKey));
+
+        final String nonAllMembersKey = "NON_ALL_MEMBERS-" + ctag;
+        Member[][] nonAllMembers =
+            (Member[][]) query.getEvalCache(nonAllMembersKey);
+        if (nonAllMembers == null) {
+            allMemberList = new ArrayList<Member>();
+            nonAllMembers =
+                computeAllMembers(evaluator, list.get(0), allMemberList);
+            query.putEvalCache(allMemberListKey, allMemberList);
+            query.putEvalCache(nonAllMembersKey, nonAllMembers);
+        }
+
+        //
+        // Determine if there is any data.
+        //
+        // Put all of the All Members into Evaluator
+        final int savepoint = evaluator.savepoint();
+        evaluator.setContext(allMemberList);
+
+        // Iterate over elements of the input list. If for any combination of
+        // Measure and non-All Members evaluation is non-null, then
+        // add it to the result List.
+        final TupleCursor cursor = list.tupleCursor();
+        while (cursor.forward()) {
+            cursor.setContext(evaluator);
+            if (checkData(
+                    nonAllMembers,
+                    nonAllMembers.length - 1,
+                    measureSet,
+                    evaluator))
+            {
+                result.addCurrent(cursor);
+            }
+        }
+
+        evaluator.restore(savepoint);
+        return result;
+    }
+
+    /**
+     * Returns the set of stored measures that determine whether a tuple is
+     * empty: the stored measures used in the query, and those used by the
+     * calculated measures in the query. The set is cached for the duration
+     * of the query.
+     *
+     * @param evaluator Evaluator
+     * @param call Calling ResolvedFunCall; measures that reference this call
+     *             are excluded
+     * @return Set of stored measures, possibly empty
+     */
+    private Set<Member> getMeasureSet(
+        Evaluator evaluator,
+        ResolvedFunCall call)
+    {
         final Query query = evaluator.getQuery();
 
         final String measureSetKey = "MEASURE_SET-" + ctag;
@@ -786,176 +832,415 @@ public class CrossJoinFunDef extends FunDefBase {
 
             query.putEvalCache(measureSetKey, measureSet);
         }
+        return measureSet;
+    }
 
-        final String allMemberListKey = "ALL_MEMBER_LIST-" + ctag;
-        List<Member> allMemberList =
-            Util.cast((List) query.getEvalCache(allMemberListKey));
+    /**
+     * Computes the context in which to test whether tuples are empty. For
+     * each hierarchy not used by the tuples, adds the All member to
+     * {@code allMemberList}; if the hierarchy has no All member, returns its
+     * top-level members, all of which must be tried.
+     *
+     * @param evaluator Evaluator
+     * @param listMembers A tuple; its hierarchies are excluded
+     * @param allMemberList List to which to add All members
+     * @return Arrays of top-level members of hierarchies that have no All
+     * member
+     */
+    private static Member[][] computeAllMembers(
+        Evaluator evaluator,
+        List<Member> listMembers,
+        List<Member> allMemberList)
+    {
+        //
+        // Get all of the All Members and those Hierarchies that
+        // do not have All Members.
+        //
+        Member[] evalMembers = evaluator.getMembers().clone();
+
+        // Remove listMembers from evalMembers and independentSlicerMembers
+        for (Member lm : listMembers) {
+            Hierarchy h = lm.getHierarchy();
+            for (int i = 0; i < evalMembers.length; i++) {
+                Member em = evalMembers[i];
+                if ((em != null) && h.equals(em.getHierarchy())) {
+                    evalMembers[i] = null;
+                }
+            }
+        }
 
-        final String nonAllMembersKey = "NON_ALL_MEMBERS-" + ctag;
-        Member[][] nonAllMembers =
-            (Member[][]) query.getEvalCache(nonAllMembersKey);
-        if (nonAllMembers == null) {
-            //
-            // Get all of the All Members and those Hierarchies that
-            // do not have All Members.
-            //
-            Member[] evalMembers = evaluator.getMembers().clone();
+        List<Member> slicerMembers = null;
+        if (evaluator instanceof RolapEvaluator) {
+            RolapEvaluator rev = (RolapEvaluator) evaluator;
+            slicerMembers = rev.getSlicerMembers();
+        }
+        // Iterate the list of slicer members, grouping them by hierarchy
+        Map<Hierarchy, Set<Member>> mapOfSlicerMembers =
+            new HashMap<Hierarchy, Set<Member>>();
+        if (slicerMembers != null) {
+            for (Member slicerMember : slicerMembers) {
+                Hierarchy hierarchy = slicerMember.getHierarchy();
+                if (!mapOfSlicerMembers.containsKey(hierarchy)) {
+                    mapOfSlicerMembers.put(
+                        hierarchy,
+                        new HashSet<Member>());
+                }
+                mapOfSlicerMembers.get(hierarchy).add(slicerMember);
+            }
+        }
 
-            List<Member> listMembers = list.get(0);
+        // Now we have the non-List-Members, but some of them may not be
+        // All Members (default Member need not be the All Member) and
+        // for some Hierarchies there may not be an All Member.
+        // So we create an array of Objects some elements of which are
+        // All Members and others elements will be an array of all top-level
+        // Members when there is not an All Member.
+        SchemaReader schemaReader = evaluator.getSchemaReader();
+        List<Member[]> nonAllMemberList = new ArrayList<Member[]>();
+
+        Member em;
+        boolean isSlicerMember;
+        for (Member evalMember : evalMembers) {
+            em = evalMember;
+
+            isSlicerMember =
+                slicerMembers != null
+                    && slicerMembers.contains(em);
+
+            if (em == null) {
+                // Above we might have removed some by setting them
+                // to null. These are the CrossJoin axes.
+                continue;
+            }
+            if (em.isMeasure()) {
+                continue;
+            }
 
-            // Remove listMembers from evalMembers and independentSlicerMembers
-            for (Member lm : listMembers) {
-                Hierarchy h = lm.getHierarchy();
-                for (int i = 0; i < evalMembers.length; i++) {
-                    Member em = evalMembers[i];
-                    if ((em != null) && h.equals(em.getHierarchy())) {
-                        evalMembers[i] = null;
+            //
+            // The unconstrained members need to be replaced by the "All"
+            // member based on its usage and property. This is currently
+            // also the behavior of native cross join evaluation. See
+            // SqlConstraintUtils.addContextConstraint()
+            //
+            // on slicer? | calculated? | replace with All?
+            // -----------------------------------------------
+            //     Y      |      Y      |      Y always
+            //     Y      |      N      |      N
+            //     N      |      Y      |      N
+            //     N      |      N      |      Y if not "All"
+            // -----------------------------------------------
+            //
+            if ((isSlicerMember && !em.isCalculated())
+                || (!isSlicerMember && em.isCalculated()))
+            {
+                // If the slicer contains multiple members from this one's
+                // hierarchy, add them to nonAllMemberList
+                if (isSlicerMember) {
+                    Set<Member> hierarchySlicerMembers =
+                        mapOfSlicerMembers.get(em.getHierarchy());
+                    if (hierarchySlicerMembers.size() > 1) {
+                        nonAllMemberList.add(
+                            hierarchySlicerMembers.toArray(
+                                new Member[hierarchySlicerMembers.size()]));
                     }
                 }
+                continue;
             }
 
-            List<Member> slicerMembers = null;
-            if (evaluator instanceof RolapEvaluator) {
-                RolapEvaluator rev = (RolapEvaluator) evaluator;
-                slicerMembers = rev.getSlicerMembers();
-            }
-            // Iterate the list of slicer members, grouping them by hierarchy
-            Map<Hierarchy, Set<Member>> mapOfSlicerMembers =
-                new HashMap<Hierarchy, Set<Member>>();
-            if (slicerMembers != null) {
-                for (Member slicerMember : slicerMembers) {
-                    Hierarchy hierarchy = slicerMember.getHierarchy();
-                    if (!mapOfSlicerMembers.containsKey(hierarchy)) {
-                        mapOfSlicerMembers.put(
-                            hierarchy,
-                            new HashSet<Member>());
+            // If the member is not the All member;
+            // or if it is a slicer member,
+            // replace with the "all" member.
+            if (isSlicerMember || !em.isAll()) {
+                Hierarchy h = em.getHierarchy();
+                final List<Member> rootMemberList =
+                    schemaReader.getHierarchyRootMembers(h);
+                if (h.hasAll()) {
+                    // The Hierarchy has an All member
+                    boolean found = false;
+                    for (Member m : rootMemberList) {
+                        if (m.isAll()) {
+                            allMemberList.add(m);
+                            found = true;
+                            break;
+                        }
                     }
-                    mapOfSlicerMembers.get(hierarchy).add(slicerMember);
+                    if (!found) {
+                        throw Util.newInternal(
+                            "hierarchy " + h.getUniqueName()
+                            + " has no All member among its root members");
+                    }
+                } else {
+                    // The Hierarchy does NOT have an All member
+                    Member[] rootMembers =
+                        rootMemberList.toArray(
+                            new Member[rootMemberList.size()]);
+                    nonAllMemberList.add(rootMembers);
                 }
             }
+        }
+        return nonAllMemberList.toArray(
+            new Member[nonAllMemberList.size()][]);
+    }
+
+    /**
+     * Computes the non-empty tuples of the cartesian product of several
+     * lists, without materializing the product.
+     *
+     * <p>The product is walked depth-first. Before extending a prefix (a
+     * combination of tuples from the first few lists), the prefix is tested
+     * with the All member of the hierarchies of the remaining lists. If a
+     * prefix has no data, no extension of it can have data, so the whole
+     * subtree is skipped. Full tuples are tested the same way as
+     * {@link #nonEmptyList}, and only non-empty tuples are added to the
+     * result. Therefore the result limit applies to the number of non-empty
+     * tuples, not to the size of the product.
+     *
+     * <p>A prefix is only pruned if pruning is safe: if the remaining lists
+     * contain no calculated members, their hierarchies all have an All
+     * member, the prefix contains no calculated members, and emptiness is
+     * decided by stored measures. Otherwise every extension is tested.
+     *
+     * <p>If testing a prefix causes a cache miss, the prefix is not extended
+     * during this pass. Its cells are requested from the cache, and since
+     * there was a miss, the expression will be evaluated again when the
+     * cells have been loaded. So a prefix is tested from the cache where
+     * possible, and its extensions are only requested if it has data.
+     * Likewise, if the result exceeds the result limit while there are
+     * outstanding cache misses, the walk is abandoned rather than failing;
+     * the limit is enforced when the cells have been loaded.
+     *
+     * @param evaluator Evaluator
+     * @param lists Lists to join
+     * @param call Calling ResolvedFunCall used to determine what Measures
+     *             to use
+     * @return Non-empty tuples of the cartesian product, in product order
+     */
+    protected TupleList nonEmptyCrossJoin(
+        Evaluator evaluator,
+        List<TupleList> lists,
+        ResolvedFunCall call)
+    {
+        final int listCount = lists.size();
+        final int[] offsets = new int[listCount + 1];
+        for (int i = 0; i < listCount; i++) {
+            offsets[i + 1] = offsets[i] + lists.get(i).getArity();
+        }
+        final int arity = offsets[listCount];
+        for (TupleList list : lists) {
+            if (list.isEmpty()) {
+                return TupleCollections.emptyList(arity);
+            }
+        }
+        final Member[] members = new Member[arity];
+        for (int i = 0; i < listCount; i++) {
+            final List<Member> first = lists.get(i).get(0);
+            for (int j = 0; j < first.size(); j++) {
+                members[offsets[i] + j] = first.get(j);
+            }
+        }
 
-            // Now we have the non-List-Members, but some of them may not be
-            // All Members (default Member need not be the All Member) and
-            // for some Hierarchies there may not be an All Member.
-            // So we create an array of Objects some elements of which are
-            // All Members and others elements will be an array of all top-level
-            // Members when there is not an All Member.
-            SchemaReader schemaReader = evaluator.getSchemaReader();
-            allMemberList = new ArrayList<Member>();
-            List<Member[]> nonAllMemberList = new ArrayList<Member[]>();
+        final Query query = evaluator.getQuery();
+        final Set<Member> measureSet = getMeasureSet(evaluator, call);
 
-            Member em;
-            boolean isSlicerMember;
-            for (Member evalMember : evalMembers) {
-                em = evalMember;
+        // Unlike nonEmptyList, whose context excludes the hierarchies of
+        // whichever list it first sees, this context must exclude the
+        // hierarchies of every list; so it has its own cache keys.
+        final String allMemberListKey = "CJ_ALL_MEMBER_LIST-" + ctag;
+        List<Member> allMemberList =
+            Util.cast((List) query.getEvalCache(allMemberListKey));
 
-                isSlicerMember =
-                    slicerMembers != null
-                        && slicerMembers.contains(em);
+        final String nonAllMembersKey = "CJ_NON_ALL_MEMBERS-" + ctag;
+        Member[][] nonAllMembers =
+            (Member[][]) query.getEvalCache(nonAllMembersKey);
+        if (nonAllMembers == null) {
+            allMemberList = new ArrayList<Member>();
+            nonAllMembers =
+                computeAllMembers(
+                    evaluator, Arrays.asList(members), allMemberList);
+            query.putEvalCache(allMemberListKey, allMemberList);
+            query.putEvalCache(nonAllMembersKey, nonAllMembers);
+        }
 
-                if (em == null) {
-                    // Above we might have removed some by setting them
-                    // to null. These are the CrossJoin axes.
-                    continue;
-                }
-                if (em.isMeasure()) {
-                    continue;
+        // For each prefix length, the All members with which to test a
+        // prefix, or null if prefixes of that length cannot be pruned.
+        final Member[][] prefixAllMembers = new Member[listCount][];
+        if (isMonotonic(evaluator, measureSet)) {
+            final List<Member> remainingAllMembers = new ArrayList<Member>();
+            for (int i = listCount - 1; i > 0; i--) {
+                if (!addAllMembers(lists.get(i), remainingAllMembers)) {
+                    break;
                 }
+                prefixAllMembers[i - 1] =
+                    remainingAllMembers.toArray(
+                        new Member[remainingAllMembers.size()]);
+            }
+        }
 
-                //
-                // The unconstrained members need to be replaced by the "All"
-                // member based on its usage and property. This is currently
-                // also the behavior of native cross join evaluation. See
-                // SqlConstraintUtils.addContextConstraint()
-                //
-                // on slicer? | calculated? | replace with All?
-                // -----------------------------------------------
-                //     Y      |      Y      |      Y always
-                //     Y      |      N      |      N
-                //     N      |      Y      |      N
-                //     N      |      N      |      Y if not "All"
-                // -----------------------------------------------
-                //
-                if ((isSlicerMember && !em.isCalculated())
-                    || (!isSlicerMember && em.isCalculated()))
-                {
-                    // If the slicer contains multiple members from this one's
-                    // hierarchy, add them to nonAllMemberList
-                    if (isSlicerMember) {
-                        Set<Member> hierarchySlicerMembers =
-                            mapOfSlicerMembers.get(em.getHierarchy());
-                        if (hierarchySlicerMembers.size() > 1) {
-                            nonAllMemberList.add(
-                                hierarchySlicerMembers.toArray(
-                                    new Member[hierarchySlicerMembers.size()]));
-                        }
-                    }
-                    continue;
+        final int savepoint = evaluator.savepoint();
+        try {
+            evaluator.setContext(allMemberList);
+            final NonEmptyCrossJoinState state =
+                new NonEmptyCrossJoinState(
+                    evaluator, lists, offsets, members, nonAllMembers,
+                    measureSet, prefixAllMembers);
+            state.join(0);
+            return state.result;
+        } finally {
+            evaluator.restore(savepoint);
+        }
+    }
+
+    /**
+     * Returns whether emptiness is monotonic in the current context; that
+     * is, whether a cell can only have data if its parent cell has data.
+     * True if emptiness is decided by stored measures.
+     */
+    private static boolean isMonotonic(
+        Evaluator evaluator,
+        Set<Member> measureSet)
+    {
+        if (!measureSet.isEmpty()) {
+            return true;
+        }
+        for (Member member : evaluator.getMembers()) {
+            if (member.isMeasure()) {
+                return !member.isCalculated();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the All members of the hierarchies of a list to a list of
+     * members. Returns false if a hierarchy has no All member or the list
+     * contains a calculated member; in that case, a prefix that does not
+     * include this list cannot be pruned.
+     */
+    private static boolean addAllMembers(
+        TupleList list,
+        List<Member> allMembers)
+    {
+        for (Member member : list.get(0)) {
+            final Hierarchy hierarchy = member.getHierarchy();
+            if (!hierarchy.hasAll() || member.isMeasure()) {
+                return false;
+            }
+            allMembers.add(hierarchy.getAllMember());
+        }
+        final TupleCursor cursor = list.tupleCursor();
+        while (cursor.forward()) {
+            for (int i = 0; i < list.getArity(); i++) {
+                if (cursor.member(i).isCalculated()) {
+                    return false;
                 }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * State of a depth-first walk over the cartesian product of lists, used
+     * by {@link CrossJoinFunDef#nonEmptyCrossJoin}.
+     */
+    private static class NonEmptyCrossJoinState {
+        private final Evaluator evaluator;
+        private final List<TupleList> lists;
+        private final int[] offsets;
+        private final Member[] members;
+        private final Member[][] nonAllMembers;
+        private final Set<Member> measureSet;
+        private final Member[][] prefixAllMembers;
+        private final int resultLimit =
+            MondrianProperties.instance().ResultLimit.get();
+        private final int missCount;
+        private boolean abandoned;
+        final TupleList result;
+
+        NonEmptyCrossJoinState(
+            Evaluator evaluator,
+            List<TupleList> lists,
+            int[] offsets,
+            Member[] members,
+            Member[][] nonAllMembers,
+            Set<Member> measureSet,
+            Member[][] prefixAllMembers)
+        {
+            this.evaluator = evaluator;
+            this.lists = lists;
+            this.offsets = offsets;
+            this.members = members;
+            this.nonAllMembers = nonAllMembers;
+            this.measureSet = measureSet;
+            this.prefixAllMembers = prefixAllMembers;
+            this.result = new OrdinalTupleList(members.length);
+            this.missCount = evaluator.getMissCount();
+        }
 
-                // If the member is not the All member;
-                // or if it is a slicer member,
-                // replace with the "all" member.
-                if (isSlicerMember || !em.isAll()) {
-                    Hierarchy h = em.getHierarchy();
-                    final List<Member> rootMemberList =
-                        schemaReader.getHierarchyRootMembers(h);
-                    if (h.hasAll()) {
-                        // The Hierarchy has an All member
-                        boolean found = false;
-                        for (Member m : rootMemberList) {
-                            if (m.isAll()) {
-                                allMemberList.add(m);
-                                found = true;
-                                break;
+        /**
+         * Extends the current prefix with each tuple of the list at position
+         * {@code depth}.
+         */
+        void join(int depth) {
+            final boolean last = depth == lists.size() - 1;
+            final Member[] allMembers = prefixAllMembers[depth];
+            final TupleCursor cursor = lists.get(depth).tupleCursor();
+            while (cursor.forward()) {
+                cursor.currentToArray(members, offsets[depth]);
+                if (last) {
+                    cursor.setContext(evaluator);
+                    if (checkData(
+                            nonAllMembers,
+                            nonAllMembers.length - 1,
+                            measureSet,
+                            evaluator))
+                    {
+                        result.addTuple(members);
+                        if (resultLimit > 0 && result.size() > resultLimit) {
+                            if (evaluator.getMissCount() == missCount) {
+                                Util.checkCJResultLimit(result.size());
                             }
+                            // Some of the tuples only look non-empty
+                            // because their cells are not loaded yet. The
+                            // expression will be evaluated again when they
+                            // are, so stop now.
+                            abandoned = true;
+                            return;
                         }
-                        if (!found) {
-                            System.out.println(
-                                "CrossJoinFunDef.nonEmptyListNEW: ERROR");
+                    }
+                } else {
+                    if (allMembers != null && !isCalculatedPrefix(depth)) {
+                        cursor.setContext(evaluator);
+                        evaluator.setContext(allMembers);
+                        final int prefixMissCount = evaluator.getMissCount();
+                        if (!checkData(
+                                nonAllMembers,
+                                nonAllMembers.length - 1,
+                                measureSet,
+                                evaluator)
+                            || evaluator.getMissCount() > prefixMissCount)
+                        {
+                            // Prefix has no data, or we will not know until
+                            // its cells have been loaded.
+                            continue;
                         }
-                    } else {
-                        // The Hierarchy does NOT have an All member
-                        Member[] rootMembers =
-                            rootMemberList.toArray(
-                                new Member[rootMemberList.size()]);
-                        nonAllMemberList.add(rootMembers);
+                    }
+                    cursor.setContext(evaluator);
+                    join(depth + 1);
+                    if (abandoned) {
+                        return;
                     }
                 }
             }
-            nonAllMembers =
-                nonAllMemberList.toArray(
-                    new Member[nonAllMemberList.size()][]);
-
-            query.putEvalCache(allMemberListKey, allMemberList);
-            query.putEvalCache(nonAllMembersKey, nonAllMembers);
         }
 
-        //
-        // Determine if there is any data.
-        //
-        // Put all of the All Members into Evaluator
-        final int savepoint = evaluator.savepoint();
-        evaluator.setContext(allMemberList);
-
-        // Iterate over elements of the input list. If for any combination of
-        // Measure and non-All Members evaluation is non-null, then
-        // add it to the result List.
-        final TupleCursor cursor = list.tupleCursor();
-        while (cursor.forward()) {
-            cursor.setContext(evaluator);
-            if (checkData(
-                    nonAllMembers,
-                    nonAllMembers.length - 1,
-                    measureSet,
-                    evaluator))
-            {
-                result.addCurrent(cursor);
+        private boolean isCalculatedPrefix(int depth) {
+            for (int i = 0; i < offsets[depth + 1]; i++) {
+                if (members[i].isCalculated()) {
+                    return true;
+                }
             }
+            return false;
         }
-
-        evaluator.restore(savepoint);
-        return result;
     }
 
     /**
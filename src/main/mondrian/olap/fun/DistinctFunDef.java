@@ -52,6 +52,10 @@ class DistinctFunDef extends FunDefBase {
 
         public TupleList evaluateList(Evaluator evaluator) {
             TupleList list = listCalc.evaluateList(evaluator);
+            final TupleList distinctList = TupleSetOps.distinct(list);
+            if (distinctList != null) {
+                return distinctList;
+            }
             Set<List<Member>> set = new HashSet<List<Member>>(list.size());
             TupleList result = list.cloneList(list.size());
             for (List<Member> element : list) {
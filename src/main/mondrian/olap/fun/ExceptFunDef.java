@@ -51,6 +51,11 @@ class ExceptFunDef extends FunDefBase {
                 if (list1.isEmpty()) {
                     return list0;
                 }
+                final TupleList exceptList =
+                    TupleSetOps.except(list0, list1);
+                if (exceptList != null) {
+                    return exceptList;
+                }
                 final Set<List<Member>> set1 = new HashSet<List<Member>>(list1);
                 final TupleList result =
                     new ArrayTupleList(list0.getArity(), list0.size());
@@ -11,11 +11,12 @@ package mondrian.olap.fun;
 
 import mondrian.calc.*;
 import mondrian.calc.impl.*;
-import mondrian.mdx.ResolvedFunCall;
+import mondrian.mdx.*;
 import mondrian.olap.*;
+import mondrian.rolap.ParallelTupleEvaluator;
 import mondrian.server.Locus;
 
-import java.util.List;
+import java.util.*;
 
 /**
  * Definition of the <code>Filter</code> MDX function.
@@ -65,6 +66,115 @@ class FilterFunDef extends FunDefBase {
         }
     }
 
+    /**
+     * Adds to a list the tuples of another list for which a condition is
+     * true.
+     *
+     * <p>If {@code parallel} is true and the list is large enough, splits
+     * the list into chunks and evaluates them in parallel; see
+     * {@link ParallelTupleEvaluator}. The tuples are added in the same order
+     * either way.
+     *
+     * @param evaluator Evaluator
+     * @param list List of tuples to filter
+     * @param bcalc Condition
+     * @param result List to which to add tuples for which condition is true
+     * @param parallel Whether the condition may be evaluated in parallel
+     * @return Result list
+     */
+    private static TupleList filter(
+        Evaluator evaluator,
+        TupleList list,
+        final BooleanCalc bcalc,
+        final TupleList result,
+        boolean parallel)
+    {
+        final int savepoint = evaluator.savepoint();
+        evaluator.setNonEmpty(false);
+        final List<TupleList> chunkResults =
+            parallel
+                ? ParallelTupleEvaluator.evaluate(
+                    evaluator,
+                    list,
+                    new ParallelTupleEvaluator.ChunkFunction<TupleList>() {
+                        public TupleList evaluate(
+                            Evaluator evaluator, TupleList chunk)
+                        {
+                            // Not result.cloneList: a list of the same
+                            // type might share state with result.
+                            return filter(
+                                evaluator,
+                                chunk,
+                                bcalc,
+                                TupleCollections.createList(
+                                    chunk.getArity(), chunk.size() / 2),
+                                false);
+                        }
+                    })
+                : null;
+        if (chunkResults != null) {
+            for (TupleList chunkResult : chunkResults) {
+                result.addAll(chunkResult);
+            }
+        } else {
+            final TupleCursor cursor = list.tupleCursor();
+            while (cursor.forward()) {
+                cursor.setContext(evaluator);
+                if (bcalc.evaluateBoolean(evaluator)) {
+                    result.addCurrent(cursor);
+                }
+            }
+        }
+        evaluator.restore(savepoint);
+        return result;
+    }
+
+    /**
+     * Returns whether an expression can be evaluated for several tuples of a
+     * set at the same time. Not if it uses the current position in a named
+     * set (<code>&lt;Named Set&gt;.Current</code> or
+     * <code>&lt;Named Set&gt;.CurrentOrdinal</code>), directly or via a
+     * calculated member, because the position is shared.
+     *
+     * @param exp Expression
+     * @return Whether expression can be evaluated in parallel
+     */
+    static boolean canEvaluateInParallel(Exp exp) {
+        final NamedSetPositionFinder finder = new NamedSetPositionFinder();
+        exp.accept(finder);
+        return !finder.found;
+    }
+
+    /**
+     * Visitor that looks for a use of the current position in a named set.
+     */
+    private static class NamedSetPositionFinder extends MdxVisitorImpl {
+        boolean found;
+        private final Set<Member> activeMembers = new HashSet<Member>();
+
+        public Object visit(ResolvedFunCall funCall) {
+            final FunDef funDef = funCall.getFunDef();
+            if (funDef == NamedSetCurrentFunDef.instance
+                || funDef == NamedSetCurrentOrdinalFunDef.instance)
+            {
+                found = true;
+            }
+            return null;
+        }
+
+        public Object visit(MemberExpr memberExpr) {
+            Member member = memberExpr.getMember();
+            if (member.isCalculated()) {
+                if (activeMembers.add(member)) {
+                    Exp memberExp = member.getExpression();
+                    memberExp.accept(this);
+                    activeMembers.remove(member);
+                }
+            }
+            return null;
+        }
+    }
+
     /**
      * Returns an IterCalc.
      *
@@ -100,8 +210,11 @@ class FilterFunDef extends FunDefBase {
     }
 
     private static abstract class BaseIterCalc extends AbstractIterCalc {
+        protected final boolean parallel;
+
         protected BaseIterCalc(ResolvedFunCall call, Calc[] calcs) {
             super(call, calcs);
+            this.parallel = canEvaluateInParallel(call.getArg(1));
         }
 
         public TupleIterable evaluateIterable(Evaluator evaluator) {
@@ -152,17 +265,7 @@ class FilterFunDef extends FunDefBase {
                 TupleList result =
                     TupleCollections.createList(
                         list.getArity(), list.size() / 2);
-                final int savepoint = evaluator.savepoint();
-                evaluator.setNonEmpty(false);
-                TupleCursor cursor = list.tupleCursor();
-                while (cursor.forward()) {
-                    cursor.setContext(evaluator);
-                    if (bcalc.evaluateBoolean(evaluator)) {
-                        result.addCurrent(cursor);
-                    }
-                }
-                evaluator.restore(savepoint);
-                return result;
+                return filter(evaluator, list, bcalc, result, parallel);
             } finally {
                 evaluator.getTiming().markEnd(TIMING_NAME);
             }
@@ -184,17 +287,7 @@ class FilterFunDef extends FunDefBase {
 
             // Not mutable, must create new list
             TupleList result = members.cloneList(members.size() / 2);
-            final int savepoint = evaluator.savepoint();
-            evaluator.setNonEmpty(false);
-            TupleCursor cursor = members.tupleCursor();
-            while (cursor.forward()) {
-                cursor.setContext(evaluator);
-                if (bcalc.evaluateBoolean(evaluator)) {
-                    result.addCurrent(cursor);
-                }
-            }
-            evaluator.restore(savepoint);
-            return result;
+            return filter(evaluator, members, bcalc, result, parallel);
         }
     }
 
@@ -272,8 +365,11 @@ class FilterFunDef extends FunDefBase {
     }
 
     private static abstract class BaseListCalc extends AbstractListCalc {
+        protected final boolean parallel;
+
         protected BaseListCalc(ResolvedFunCall call, Calc[] calcs) {
             super(call, calcs);
+            this.parallel = canEvaluateInParallel(call.getArg(1));
         }
 
         public TupleList evaluateList(Evaluator evaluator) {
@@ -314,17 +410,7 @@ class FilterFunDef extends FunDefBase {
             // make list mutable;
             // for capacity planning, guess selectivity = .5
             TupleList result = members0.cloneList(members0.size() / 2);
-            final int savepoint = evaluator.savepoint();
-            evaluator.setNonEmpty(false);
-            final TupleCursor cursor = members0.tupleCursor();
-            while (cursor.forward()) {
-                cursor.setContext(evaluator);
-                if (bcalc.evaluateBoolean(evaluator)) {
-                    result.addCurrent(cursor);
-                }
-            }
-            evaluator.restore(savepoint);
-            return result;
+            return filter(evaluator, members0, bcalc, result, parallel);
         }
     }
 
@@ -346,17 +432,7 @@ class FilterFunDef extends FunDefBase {
                 // Not mutable, must create new list;
                 // for capacity planning, guess selectivity = .5
                 TupleList result = members0.cloneList(members0.size() / 2);
-                final int savepoint = evaluator.savepoint();
-                evaluator.setNonEmpty(false);
-                final TupleCursor cursor = members0.tupleCursor();
-                while (cursor.forward()) {
-                    cursor.setContext(evaluator);
-                    if (bcalc.evaluateBoolean(evaluator)) {
-                        result.addCurrent(cursor);
-                    }
-                }
-                evaluator.restore(savepoint);
-                return result;
+                return filter(evaluator, members0, bcalc, result, parallel);
             } finally {
                 evaluator.getTiming().markEnd(TIMING_NAME);
             }
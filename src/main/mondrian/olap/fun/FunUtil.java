@@ -34,8 +34,8 @@ import java.util.*;
  * @since 1.0
  */
 public class FunUtil extends Util {
-    private static final String SORT_TIMING_NAME = "Sort";
-    private static final String SORT_EVAL_TIMING_NAME = "EvalForSort";
+    static final String SORT_TIMING_NAME = "Sort";
+    static final String SORT_EVAL_TIMING_NAME = "EvalForSort";
 
     static final String[] emptyStringArray = new String[0];
     private static final boolean debug = false;
@@ -14,6 +14,7 @@ import mondrian.calc.impl.*;
 import mondrian.mdx.ResolvedFunCall;
 import mondrian.olap.*;
 import mondrian.olap.type.*;
+import mondrian.rolap.ParallelTupleEvaluator;
 
 import java.util.*;
 
@@ -87,6 +88,7 @@ class GenerateFunDef extends FunDefBase {
         private final ListCalc listCalc2;
         private final int arityOut;
         private final boolean all;
+        private final boolean parallel;
 
         public GenerateListCalcImpl(
             ResolvedFunCall call,
@@ -100,6 +102,7 @@ class GenerateFunDef extends FunDefBase {
             this.listCalc2 = listCalc2;
             this.arityOut = arityOut;
             this.all = all;
+            this.parallel = FilterFunDef.canEvaluateInParallel(call.getArg(1));
         }
 
         public TupleList evaluateList(Evaluator evaluator) {
@@ -109,7 +112,36 @@ class GenerateFunDef extends FunDefBase {
                 iterCalc1.evaluateIterable(evaluator);
             evaluator.restore(savepoint);
             TupleList result = TupleCollections.createList(arityOut);
-            if (all) {
+            final List<TupleList> chunkResults =
+                parallel && iterable1 instanceof TupleList
+                    ? ParallelTupleEvaluator.evaluate(
+                        evaluator,
+                        (TupleList) iterable1,
+                        new ParallelTupleEvaluator.ChunkFunction<TupleList>()
+                        {
+                            public TupleList evaluate(
+                                Evaluator evaluator,
+                                TupleList chunk)
+                            {
+                                return generateAll(evaluator, chunk);
+                            }
+                        })
+                    : null;
+            if (chunkResults != null) {
+                // Each chunk generated all of its tuples; remove duplicates
+                // in order, as a serial evaluation would have.
+                if (all) {
+                    for (TupleList chunkResult : chunkResults) {
+                        result.addAll(chunkResult);
+                    }
+                } else {
+                    final Set<List<Member>> emitted =
+                        new HashSet<List<Member>>();
+                    for (TupleList chunkResult : chunkResults) {
+                        addDistinctTuples(result, chunkResult, emitted);
+                    }
+                }
+            } else if (all) {
                 final TupleCursor cursor = iterable1.tupleCursor();
                 while (cursor.forward()) {
                     cursor.setContext(evaluator);
@@ -131,6 +163,22 @@ class GenerateFunDef extends FunDefBase {
             return result;
         }
 
+        /**
+         * Evaluates the second argument for each tuple in a chunk, and
+         * returns all generated tuples, including duplicates.
+         */
+        private TupleList generateAll(Evaluator evaluator, TupleList chunk) {
+            final int savepoint = evaluator.savepoint();
+            final TupleList result = TupleCollections.createList(arityOut);
+            final TupleCursor cursor = chunk.tupleCursor();
+            while (cursor.forward()) {
+                cursor.setContext(evaluator);
+                result.addAll(listCalc2.evaluateList(evaluator));
+            }
+            evaluator.restore(savepoint);
+            return result;
+        }
+
         private static void addDistinctTuples(
             TupleList result,
             TupleList result2,
@@ -62,6 +62,13 @@ class IntersectFunDef extends FunDefBase
                 if (rightList.isEmpty()) {
                     return rightList;
                 }
+                if (!containsVisualTotalMember(rightList)) {
+                    final TupleList intersectList =
+                        TupleSetOps.intersect(leftList, rightList, all);
+                    if (intersectList != null) {
+                        return intersectList;
+                    }
+                }
 
                 // Set of members from the right side of the intersect.
                 // We use a RetrievableSet because distinct keys
@@ -95,6 +102,29 @@ class IntersectFunDef extends FunDefBase
                 return result;
             }
 
+            /**
+             * Returns whether a list contains any visual totals members.
+             * If it does, {@link TupleSetOps#intersect} cannot be used,
+             * because members from the right list need to override members
+             * of the left list.
+             *
+             * @param list List
+             * @return Whether list contains a visual totals member
+             */
+            private boolean containsVisualTotalMember(TupleList list) {
+                final TupleCursor cursor = list.tupleCursor();
+                while (cursor.forward()) {
+                    for (int i = 0; i < arity; i++) {
+                        if (cursor.member(i)
+                            instanceof VisualTotalsFunDef.VisualTotalMember)
+                        {
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            }
+
             /**
              * Constructs a tuple consisting of members from
              * {@code leftTuple}, but overridden by any corresponding
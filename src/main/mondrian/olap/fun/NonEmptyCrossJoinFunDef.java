@@ -17,6 +17,7 @@ import mondrian.mdx.ResolvedFunCall;
 import mondrian.olap.*;
 import mondrian.rolap.RolapEvaluator;
 
+import java.util.Arrays;
 
 /**
  * Definition of the <code>NonEmptyCrossJoin</code> MDX function.
@@ -86,10 +87,11 @@ public class NonEmptyCrossJoinFunDef extends CrossJoinFunDef {
                     return list1;
                 }
                 final TupleList list2 = listCalc2.evaluateList(evaluator);
-                TupleList result = mutableCrossJoin(list1, list2);
-
-                // remove any remaining empty crossings from the result
-                result = nonEmptyList(evaluator, result, call);
+                // Generate only the non-empty crossings; the full product
+                // may be far larger than the result.
+                final TupleList result =
+                    nonEmptyCrossJoin(
+                        evaluator, Arrays.asList(list1, list2), call);
                 evaluator.restore(savepoint);
                 return result;
             }
@@ -104,6 +104,15 @@ class TopBottomCountFunDef extends FunDefBase {
                     }
                 }
 
+                // Evaluate the sort key once per tuple and keep the best n
+                // in a heap. Falls back to comparator-based sort if the
+                // keys are not numeric.
+                final TupleList selected =
+                    TopBottomSelector.topBottomCount(
+                        evaluator, list, orderCalc, n, top);
+                if (selected != null) {
+                    return selected;
+                }
                 return partiallySortList(
                     evaluator, list, hasHighCardDimension(list), n);
             }
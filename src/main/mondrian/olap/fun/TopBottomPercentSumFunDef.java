@@ -123,6 +123,12 @@ class TopBottomPercentSumFunDef extends FunDefBase {
             if (list.isEmpty()) {
                 return list;
             }
+            final TupleList selected =
+                TopBottomSelector.topBottomSum(
+                    evaluator, list, calc, target, top, percent);
+            if (selected != null) {
+                return selected;
+            }
             Map<List<Member>, Object> mapMemberToValue =
                 evaluateTuples(evaluator, calc, list);
             final int savepoint = evaluator.savepoint();
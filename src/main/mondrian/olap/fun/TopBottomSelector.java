@@ -0,0 +1,401 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.olap.fun;
+
+import mondrian.calc.*;
+import mondrian.olap.*;
+
+/**
+ * Selects the top or bottom tuples of a list by the value of a numeric
+ * expression, for the <code>TopCount</code>, <code>BottomCount</code>,
+ * <code>TopPercent</code>, <code>BottomPercent</code>, <code>TopSum</code>
+ * and <code>BottomSum</code> functions.
+ *
+ * <p>The expression is evaluated exactly once per tuple, and the values are
+ * held in primitive arrays, in a {@link KeyHeap}. <code>TopCount</code> and
+ * <code>BottomCount</code> keep a heap of at most <i>n</i> tuples, so take
+ * O(<i>N</i> log <i>n</i>) time and O(<i>n</i>) space for a list of
+ * <i>N</i> tuples; <code>TopSum</code> and the like heapify the whole list
+ * and remove tuples until the target is reached, so they do not sort tuples
+ * that are not returned.
+ *
+ * <p>Values are compared by {@link FunUtil#compareValues(double, double)},
+ * so null values are lower than any number except negative infinity, and
+ * tuples with equal values remain in their original order, as in
+ * {@link FunUtil#partiallySortTuples}.
+ *
+ * <p>If the expression returns a value that is not a number (say a string or
+ * an error), the methods return null, and the caller should use the
+ * general, comparator-based algorithm.
+ *
+ * @author jhyde
+ */
+class TopBottomSelector {
+    // prevent instantiation
+    private TopBottomSelector() {
+    }
+
+    /**
+     * Returns the first <i>n</i> tuples of a list sorted by an expression,
+     * descending if {@code top}, ascending otherwise.
+     *
+     * @param evaluator Evaluator
+     * @param list List of tuples
+     * @param calc Expression to sort on
+     * @param n Maximum number of tuples to return
+     * @param top Whether to return the highest values (TopCount) or the
+     *   lowest (BottomCount)
+     * @return Tuples in sorted order, or null if the expression did not
+     *   return numeric values
+     */
+    static TupleList topBottomCount(
+        Evaluator evaluator,
+        TupleList list,
+        Calc calc,
+        int n,
+        boolean top)
+    {
+        final int limit = Math.min(n, list.size());
+        if (limit <= 0) {
+            return TupleCollections.emptyList(list.getArity());
+        }
+        final KeyHeap heap = new KeyHeap(limit, top, true);
+        final int savepoint = evaluator.savepoint();
+        evaluator.getTiming().markStart(FunUtil.SORT_EVAL_TIMING_NAME);
+        try {
+            final TupleCursor cursor = list.tupleCursor();
+            int ordinal = 0;
+            while (cursor.forward()) {
+                cursor.setContext(evaluator);
+                final Object o = calc.evaluate(evaluator);
+                if (o == null || o == Util.nullValue) {
+                    heap.offer(ordinal, FunUtil.DoubleNull, true);
+                } else if (o instanceof Number) {
+                    heap.offer(ordinal, ((Number) o).doubleValue(), false);
+                } else {
+                    return null;
+                }
+                ++ordinal;
+            }
+        } finally {
+            evaluator.restore(savepoint);
+            evaluator.getTiming().markEnd(FunUtil.SORT_EVAL_TIMING_NAME);
+        }
+        return project(list, heap.drain());
+    }
+
+    /**
+     * Returns the shortest prefix of a list sorted by an expression whose
+     * cumulative total is at least a target value.
+     *
+     * <p>As in the general algorithm, if {@code percent}, each value is
+     * converted to a percentage of the total of all non-null values. Null
+     * values do not contribute to the cumulative total. If {@code percent}
+     * and every value is null, returns the first tuple of the list (if
+     * {@code top}) or the last, as MSAS does.
+     *
+     * @param evaluator Evaluator
+     * @param list List of tuples
+     * @param calc Expression to sort on
+     * @param target Target cumulative total
+     * @param top Whether to start from the highest values (TopSum,
+     *   TopPercent) or the lowest (BottomSum, BottomPercent)
+     * @param percent Whether target is a percentage of the total
+     * @return Tuples in sorted order, or null if the expression did not
+     *   return numeric values
+     */
+    static TupleList topBottomSum(
+        Evaluator evaluator,
+        TupleList list,
+        Calc calc,
+        double target,
+        boolean top,
+        boolean percent)
+    {
+        final int size = list.size();
+        final KeyHeap heap = new KeyHeap(size, top, false);
+        double total = 0;
+        int nullCount = 0;
+        final int savepoint = evaluator.savepoint();
+        evaluator.getTiming().markStart(FunUtil.SORT_EVAL_TIMING_NAME);
+        try {
+            final TupleCursor cursor = list.tupleCursor();
+            int ordinal = 0;
+            while (cursor.forward()) {
+                cursor.setContext(evaluator);
+                final Object o = calc.evaluate(evaluator);
+                if (o == null || o == Util.nullValue) {
+                    heap.offer(ordinal, FunUtil.DoubleNull, true);
+                    ++nullCount;
+                } else if (o instanceof Number) {
+                    final double d = ((Number) o).doubleValue();
+                    heap.offer(ordinal, d, false);
+                    total += d;
+                } else {
+                    return null;
+                }
+                ++ordinal;
+            }
+        } finally {
+            evaluator.restore(savepoint);
+            evaluator.getTiming().markEnd(FunUtil.SORT_EVAL_TIMING_NAME);
+        }
+
+        // If every value is null, the general algorithm reaches the end of
+        // the list without meeting the target (unless the target is met
+        // before the first tuple), then applies the MSAS rule.
+        if (percent && size > 0 && nullCount == size && !(target <= 0)) {
+            return project(list, new int[] {top ? 0 : size - 1});
+        }
+
+        evaluator.getTiming().markStart(FunUtil.SORT_TIMING_NAME);
+        try {
+            final int[] ordinals = new int[size];
+            int count = 0;
+            double runningTotal = 0;
+            // Written "!(x >= y)" rather than "x < y" so that a NaN target
+            // returns every tuple, as the general algorithm does.
+            while (!(runningTotal >= target) && heap.size() > 0) {
+                final double d = heap.rootKey();
+                final boolean isNull = heap.rootIsNull();
+                ordinals[count++] = heap.poll();
+                if (isNull) {
+                    continue;
+                }
+                runningTotal += percent ? d / total * (double) 100 : d;
+            }
+            final int[] selected = new int[count];
+            System.arraycopy(ordinals, 0, selected, 0, count);
+            return project(list, selected);
+        } finally {
+            evaluator.getTiming().markEnd(FunUtil.SORT_TIMING_NAME);
+        }
+    }
+
+    /**
+     * Creates a list of the tuples at given positions in a list.
+     */
+    private static TupleList project(TupleList list, int[] ordinals) {
+        final TupleList result =
+            TupleCollections.createList(list.getArity(), ordinals.length);
+        for (int ordinal : ordinals) {
+            result.add(list.get(ordinal));
+        }
+        return result;
+    }
+
+    /**
+     * Binary heap of sort keys, each with the ordinal of its tuple in the
+     * original list. Keys are held in primitive arrays.
+     *
+     * <p>A heap is either <em>bounded</em> or not. A bounded heap holds at
+     * most {@code capacity} entries, and its root is the entry that would be
+     * <em>last</em> in sorted order; when a better entry is offered to a full
+     * heap, it replaces the root. An unbounded heap is built all at once when
+     * its first entry is removed, and its root is the entry that would be
+     * <em>first</em> in sorted order.
+     *
+     * <p>Entries are sorted by key, descending if {@code top}, ascending
+     * otherwise, then by ordinal, ascending.
+     */
+    static class KeyHeap {
+        private final int[] ordinals;
+        private final double[] keys;
+        private final boolean[] nulls;
+        private final boolean top;
+        private final boolean bounded;
+        private int size;
+        private boolean heapified;
+
+        /**
+         * Creates a KeyHeap.
+         *
+         * @param capacity Maximum number of entries
+         * @param top Whether to sort descending
+         * @param bounded Whether to keep only the first {@code capacity}
+         *   entries offered
+         */
+        KeyHeap(int capacity, boolean top, boolean bounded) {
+            this.ordinals = new int[capacity];
+            this.keys = new double[capacity];
+            this.nulls = new boolean[capacity];
+            this.top = top;
+            this.bounded = bounded;
+            this.heapified = bounded;
+        }
+
+        /**
+         * Returns the number of entries in this heap.
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * Offers an entry. Entries must be offered in increasing order of
+         * ordinal.
+         *
+         * @param ordinal Ordinal of tuple
+         * @param key Sort key
+         * @param isNull Whether the value was null
+         */
+        void offer(int ordinal, double key, boolean isNull) {
+            if (size < ordinals.length) {
+                set(size, ordinal, key, isNull);
+                if (bounded) {
+                    siftUp(size);
+                }
+                ++size;
+                return;
+            }
+            assert bounded;
+            // The new entry has a higher ordinal than every entry in the
+            // heap, so ties go to the entries already here.
+            if (compare(key, isNull, keys[0], nulls[0]) > 0) {
+                set(0, ordinal, key, isNull);
+                siftDown(0);
+            }
+        }
+
+        /**
+         * Returns the key of the root entry.
+         */
+        double rootKey() {
+            heapify();
+            return keys[0];
+        }
+
+        /**
+         * Returns whether the value of the root entry was null.
+         */
+        boolean rootIsNull() {
+            heapify();
+            return nulls[0];
+        }
+
+        /**
+         * Removes the root entry, and returns its ordinal.
+         */
+        int poll() {
+            heapify();
+            final int ordinal = ordinals[0];
+            --size;
+            if (size > 0) {
+                set(0, ordinals[size], keys[size], nulls[size]);
+                siftDown(0);
+            }
+            return ordinal;
+        }
+
+        /**
+         * Removes all entries, and returns their ordinals in sorted order.
+         */
+        int[] drain() {
+            final int[] result = new int[size];
+            if (bounded) {
+                for (int i = size - 1; i >= 0; i--) {
+                    result[i] = poll();
+                }
+            } else {
+                for (int i = 0; i < result.length; i++) {
+                    result[i] = poll();
+                }
+            }
+            return result;
+        }
+
+        private void heapify() {
+            if (!heapified) {
+                for (int i = size / 2 - 1; i >= 0; i--) {
+                    siftDown(i);
+                }
+                heapified = true;
+            }
+        }
+
+        private void set(int i, int ordinal, double key, boolean isNull) {
+            ordinals[i] = ordinal;
+            keys[i] = key;
+            nulls[i] = isNull;
+        }
+
+        private void swap(int i, int j) {
+            final int ordinal = ordinals[i];
+            final double key = keys[i];
+            final boolean isNull = nulls[i];
+            set(i, ordinals[j], keys[j], nulls[j]);
+            set(j, ordinal, key, isNull);
+        }
+
+        /**
+         * Compares two keys in sorted order; returns a positive value if
+         * the first key would come first.
+         */
+        private int compare(
+            double key0, boolean null0, double key1, boolean null1)
+        {
+            // As in FunUtil.compareValues(double, double), null is less
+            // than any number except -infinity.
+            final int c;
+            if (null0) {
+                c = null1 ? 0 : key1 == Double.NEGATIVE_INFINITY ? 1 : -1;
+            } else if (null1) {
+                c = key0 == Double.NEGATIVE_INFINITY ? -1 : 1;
+            } else {
+                c = FunUtil.compareValues(key0, key1);
+            }
+            return top ? c : -c;
+        }
+
+        /**
+         * Returns whether entry {@code i} belongs nearer the root than entry
+         * {@code j}.
+         */
+        private boolean above(int i, int j) {
+            int c = compare(keys[i], nulls[i], keys[j], nulls[j]);
+            if (c == 0) {
+                c = ordinals[j] - ordinals[i];
+            }
+            return bounded ? c < 0 : c > 0;
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                final int parent = (i - 1) >> 1;
+                if (!above(i, parent)) {
+                    break;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                final int left = 2 * i + 1;
+                if (left >= size) {
+                    break;
+                }
+                int child = left;
+                final int right = left + 1;
+                if (right < size && above(right, left)) {
+                    child = right;
+                }
+                if (!above(child, i)) {
+                    break;
+                }
+                swap(i, child);
+                i = child;
+            }
+        }
+    }
+}
+
+// End TopBottomSelector.java
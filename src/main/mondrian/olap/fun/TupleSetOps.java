@@ -0,0 +1,392 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.olap.fun;
+
+import mondrian.calc.*;
+import mondrian.calc.impl.*;
+import mondrian.olap.*;
+import mondrian.util.LongHashSet;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Set operations (distinct, except, intersect, union) on lists of tuples,
+ * implemented by hashing packed tuple keys.
+ *
+ * <p>Each tuple is converted to a {@code long} key by looking up its members
+ * in a {@link MemberDictionary} per column and packing the ordinals end to
+ * end. Keys are deduplicated and probed using a {@link LongHashSet}, so no
+ * list or boxed object is created per tuple. If the inputs are
+ * {@link OrdinalTupleList}s, only the distinct members of each column are
+ * looked up, not every tuple.
+ *
+ * <p>If the inputs are larger than
+ * {@link MondrianProperties#SetOperationParallelThreshold}, the keys are
+ * split by hash into partitions which are processed in parallel. Every
+ * operation preserves the order of its input.
+ *
+ * <p>Each method returns null if the keys would not fit into 63 bits (that
+ * is, if the product of the number of distinct members in each column is
+ * too large); the caller should then use a general-purpose algorithm.
+ *
+ * @author jhyde
+ */
+class TupleSetOps {
+    private static final int PARTITION_COUNT =
+        Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Executor for partitions. The calling thread processes the first
+     * partition itself.
+     */
+    private static final ExecutorService executor =
+        Util.getExecutorService(
+            Math.max(1, PARTITION_COUNT - 1),
+            Math.max(1, PARTITION_COUNT - 1),
+            1,
+            -1,
+            "mondrian.olap.fun.TupleSetOps$executor");
+
+    // prevent instantiation
+    private TupleSetOps() {
+    }
+
+    /**
+     * Removes duplicate tuples from a list, retaining the first occurrence
+     * of each.
+     *
+     * @param list List
+     * @return List without duplicates, or null if keys cannot be packed
+     */
+    static TupleList distinct(TupleList list) {
+        final KeyEncoder encoder = new KeyEncoder(list.getArity());
+        final int[] ordinals = encoder.encode(list);
+        final long[] keys = encoder.pack(ordinals);
+        if (keys == null) {
+            return null;
+        }
+        final boolean[] flags = select(keys, null, false, true);
+        return collect(list, flags, 0, list.cloneList(count(flags)));
+    }
+
+    /**
+     * Returns the tuples of one list that do not occur in another list.
+     * Duplicates in the first list are retained.
+     *
+     * @param list0 List
+     * @param list1 List of tuples to remove
+     * @return Tuples in list0 but not in list1, or null if keys cannot be
+     *   packed
+     */
+    static TupleList except(TupleList list0, TupleList list1) {
+        final KeyEncoder encoder = new KeyEncoder(list0.getArity());
+        final int[] ordinals0 = encoder.encode(list0);
+        final int[] ordinals1 = encoder.encode(list1);
+        final long[] keys0 = encoder.pack(ordinals0);
+        final long[] keys1 = encoder.pack(ordinals1);
+        if (keys0 == null || keys1 == null) {
+            return null;
+        }
+        final boolean[] flags = select(keys0, keys1, false, false);
+        return collect(list0, flags, 0, list0.cloneList(count(flags)));
+    }
+
+    /**
+     * Returns the tuples of one list that also occur in another list.
+     *
+     * <p>The tuples in the result are those of the first list. (The
+     * general algorithm in {@link IntersectFunDef} also substitutes
+     * visual-totals members from the second list; the caller must not use
+     * this method if the second list contains any.)
+     *
+     * @param list0 List
+     * @param list1 List of tuples to retain
+     * @param all Whether to retain duplicates in the first list
+     * @return Tuples in both lists, or null if keys cannot be packed
+     */
+    static TupleList intersect(
+        TupleList list0,
+        TupleList list1,
+        boolean all)
+    {
+        final KeyEncoder encoder = new KeyEncoder(list0.getArity());
+        final int[] ordinals0 = encoder.encode(list0);
+        final int[] ordinals1 = encoder.encode(list1);
+        final long[] keys0 = encoder.pack(ordinals0);
+        final long[] keys1 = encoder.pack(ordinals1);
+        if (keys0 == null || keys1 == null) {
+            return null;
+        }
+        final boolean[] flags = select(keys0, keys1, true, !all);
+        return collect(list0, flags, 0, list0.cloneList(count(flags)));
+    }
+
+    /**
+     * Returns the distinct tuples that occur in either of two lists; the
+     * tuples of the first list come first.
+     *
+     * @param list0 List
+     * @param list1 List
+     * @return Union of lists without duplicates, or null if keys cannot be
+     *   packed
+     */
+    static TupleList union(TupleList list0, TupleList list1) {
+        final KeyEncoder encoder = new KeyEncoder(list0.getArity());
+        final int[] ordinals0 = encoder.encode(list0);
+        final int[] ordinals1 = encoder.encode(list1);
+        final long[] keys0 = encoder.pack(ordinals0);
+        final long[] keys1 = encoder.pack(ordinals1);
+        if (keys0 == null || keys1 == null) {
+            return null;
+        }
+        final long[] keys = new long[keys0.length + keys1.length];
+        System.arraycopy(keys0, 0, keys, 0, keys0.length);
+        System.arraycopy(keys1, 0, keys, keys0.length, keys1.length);
+        final boolean[] flags = select(keys, null, false, true);
+        final TupleList result = list0.cloneList(count(flags));
+        collect(list0, flags, 0, result);
+        collect(list1, flags, keys0.length, result);
+        return result;
+    }
+
+    /**
+     * Decides which keys to keep.
+     *
+     * @param keys Keys
+     * @param probeKeys Keys to probe, or null
+     * @param contained If probeKeys is not null, whether to keep keys that
+     *   are in probeKeys (true) or keys that are not (false)
+     * @param distinct Whether to keep only the first occurrence of each key
+     * @return Array with an element set for each key to keep
+     */
+    private static boolean[] select(
+        final long[] keys,
+        final long[] probeKeys,
+        final boolean contained,
+        final boolean distinct)
+    {
+        final boolean[] flags = new boolean[keys.length];
+        final int threshold =
+            MondrianProperties.instance().SetOperationParallelThreshold.get();
+        final int inputSize =
+            keys.length + (probeKeys == null ? 0 : probeKeys.length);
+        if (PARTITION_COUNT <= 1 || threshold <= 0 || inputSize < threshold) {
+            select(keys, probeKeys, contained, distinct, flags, 0, 1);
+            return flags;
+        }
+
+        // Each partition writes only the flags of keys that hash to it, so
+        // the partitions can safely share the array.
+        final List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int i = 1; i < PARTITION_COUNT; i++) {
+            final int partition = i;
+            futures.add(
+                executor.submit(
+                    new Runnable() {
+                        public void run() {
+                            select(
+                                keys, probeKeys, contained, distinct, flags,
+                                partition, PARTITION_COUNT);
+                        }
+                    }));
+        }
+        select(
+            keys, probeKeys, contained, distinct, flags, 0, PARTITION_COUNT);
+        for (Future<?> future : futures) {
+            Util.safeGet(future, "Error while evaluating set operation");
+        }
+        return flags;
+    }
+
+    private static void select(
+        long[] keys,
+        long[] probeKeys,
+        boolean contained,
+        boolean distinct,
+        boolean[] flags,
+        int partition,
+        int partitionCount)
+    {
+        LongHashSet probeSet = null;
+        if (probeKeys != null) {
+            probeSet = new LongHashSet(probeKeys.length / partitionCount);
+            for (long key : probeKeys) {
+                if (partition(key, partitionCount) == partition) {
+                    probeSet.add(key);
+                }
+            }
+        }
+        final LongHashSet seenSet =
+            distinct ? new LongHashSet(keys.length / partitionCount) : null;
+        for (int i = 0; i < keys.length; i++) {
+            final long key = keys[i];
+            if (partitionCount > 1
+                && partition(key, partitionCount) != partition)
+            {
+                continue;
+            }
+            if (probeSet != null && probeSet.contains(key) != contained) {
+                continue;
+            }
+            if (seenSet != null && !seenSet.add(key)) {
+                continue;
+            }
+            flags[i] = true;
+        }
+    }
+
+    private static int partition(long key, int partitionCount) {
+        // Use a different hash function than LongHashSet, so that keys in the
+        // same partition still spread evenly over that partition's table.
+        final long h = key * 0x9e3779b97f4a7c15L;
+        return (int) ((h >>> 32) % partitionCount);
+    }
+
+    private static int count(boolean[] flags) {
+        int count = 0;
+        for (boolean flag : flags) {
+            if (flag) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Adds the flagged tuples of a list to a result list.
+     *
+     * @param list Source list
+     * @param flags Flags
+     * @param offset Offset of the first tuple of the source list in flags
+     * @param result Result list
+     * @return Result list
+     */
+    private static TupleList collect(
+        TupleList list,
+        boolean[] flags,
+        int offset,
+        TupleList result)
+    {
+        if (list instanceof OrdinalTupleList
+            && result instanceof OrdinalTupleList
+            && ((OrdinalTupleList) result).hasSameDictionaries(
+                (OrdinalTupleList) list))
+        {
+            final OrdinalTupleList ordinalList = (OrdinalTupleList) list;
+            final OrdinalTupleList ordinalResult = (OrdinalTupleList) result;
+            for (int i = 0, n = list.size(); i < n; i++) {
+                if (flags[offset + i]) {
+                    ordinalResult.addOrdinals(ordinalList, i);
+                }
+            }
+            return result;
+        }
+        final TupleCursor cursor = list.tupleCursor();
+        for (int i = offset; cursor.forward(); i++) {
+            if (flags[i]) {
+                result.addCurrent(cursor);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Converts tuples to packed keys, via a dictionary per column that is
+     * shared by all lists that are encoded by the same encoder.
+     */
+    private static class KeyEncoder {
+        private final int arity;
+        private final MemberDictionary[] dictionaries;
+
+        KeyEncoder(int arity) {
+            this.arity = arity;
+            this.dictionaries = new MemberDictionary[arity];
+            for (int i = 0; i < arity; i++) {
+                dictionaries[i] = new MemberDictionary();
+            }
+        }
+
+        /**
+         * Converts a list into ordinals, stored end to end.
+         *
+         * @param list List
+         * @return Array of ordinals, arity per tuple
+         */
+        int[] encode(TupleList list) {
+            assert list.getArity() == arity;
+            final int size = list.size();
+            final int[] ordinals = new int[size * arity];
+            if (list instanceof OrdinalTupleList) {
+                // Translate the list's own ordinals. Only its distinct
+                // members need to be looked up.
+                final OrdinalTupleList ordinalList = (OrdinalTupleList) list;
+                for (int c = 0; c < arity; c++) {
+                    final MemberDictionary dictionary =
+                        ordinalList.getDictionary(c);
+                    final int[] map = new int[dictionary.size()];
+                    Arrays.fill(map, -1);
+                    for (int i = 0, x = c; i < size; i++, x += arity) {
+                        final int ordinal = ordinalList.ordinal(c, i);
+                        int mapped = map[ordinal];
+                        if (mapped < 0) {
+                            mapped = map[ordinal] =
+                                dictionaries[c].ordinal(
+                                    dictionary.member(ordinal));
+                        }
+                        ordinals[x] = mapped;
+                    }
+                }
+            } else {
+                final TupleCursor cursor = list.tupleCursor();
+                int x = 0;
+                while (cursor.forward()) {
+                    for (int c = 0; c < arity; c++) {
+                        ordinals[x++] =
+                            dictionaries[c].ordinal(cursor.member(c));
+                    }
+                }
+            }
+            return ordinals;
+        }
+
+        /**
+         * Packs ordinals into keys, using for each column as many bits as
+         * are needed by its dictionary. Call this method only after all lists
+         * have been encoded, so that the layout is the same for each list.
+         *
+         * @param ordinals Ordinals
+         * @return Array of keys, one per tuple, or null if the keys would
+         *   not fit into 63 bits
+         */
+        long[] pack(int[] ordinals) {
+            final int[] bits = new int[arity];
+            int totalBits = 0;
+            for (int c = 0; c < arity; c++) {
+                bits[c] = dictionaries[c].bitCount();
+                totalBits += bits[c];
+            }
+            if (totalBits > 63) {
+                return null;
+            }
+            final long[] keys = new long[ordinals.length / arity];
+            for (int i = 0, x = 0; i < keys.length; i++) {
+                long key = 0;
+                for (int c = 0; c < arity; c++) {
+                    key = (key << bits[c]) | ordinals[x++];
+                }
+                keys[i] = key;
+            }
+            return keys;
+        }
+    }
+}
+
+// End TupleSetOps.java
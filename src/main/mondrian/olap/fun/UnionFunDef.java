@@ -71,6 +71,10 @@ class UnionFunDef extends FunDefBase {
             result.addAll(list1);
             return result;
         } else {
+            final TupleList unionList = TupleSetOps.union(list0, list1);
+            if (unionList != null) {
+                return unionList;
+            }
             Set<List<Member>> added = new HashSet<List<Member>>();
             TupleList result = TupleCollections.createList(list0.getArity());
             FunUtil.addUnique(result, list0, added);
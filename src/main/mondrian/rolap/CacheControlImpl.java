@@ -205,6 +205,9 @@ public class CacheControlImpl implements CacheControl {
             // Figure out the bits.
             flushNonUnion(cellRegion);
         }
+        // Results of queries that read the flushed cells are now stale.
+        MondrianServer.forConnection(connection).getResultCache()
+            .flush(getStarList(region));
     }
 
     /**
@@ -254,6 +257,9 @@ public class CacheControlImpl implements CacheControl {
 
     public void flushSchemaCache() {
         RolapSchema.Pool.instance().clear();
+        if (connection != null) {
+            MondrianServer.forConnection(connection).getResultCache().clear();
+        }
     }
 
     // todo: document
@@ -288,6 +294,10 @@ public class CacheControlImpl implements CacheControl {
     public void flushSchema(Schema schema) {
         if (RolapSchema.class.isInstance(schema)) {
             RolapSchema.Pool.instance().remove((RolapSchema)schema);
+            if (connection != null) {
+                MondrianServer.forConnection(connection).getResultCache()
+                    .flush((RolapSchema) schema);
+            }
         } else {
             throw new UnsupportedOperationException(
                 schema.getClass().getName() + " cannot be flushed");
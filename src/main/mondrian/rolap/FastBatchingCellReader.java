@@ -17,6 +17,7 @@ import mondrian.rolap.aggmatcher.AggGen;
 import mondrian.rolap.aggmatcher.AggStar;
 import mondrian.rolap.cache.SegmentCacheIndex;
 import mondrian.rolap.cache.SegmentCacheIndexImpl;
+import mondrian.rolap.sql.SqlQuery;
 import mondrian.server.Execution;
 import mondrian.server.Locus;
 import mondrian.spi.*;
@@ -164,6 +165,23 @@ public class FastBatchingCellReader implements CellReader {
         }
     }
 
+    /**
+     * Records cell requests that other readers made on behalf of this one;
+     * for example, the readers of chunks of a set that were evaluated in
+     * parallel. Each request counts as a miss, as if this reader had been
+     * asked for the cell.
+     *
+     * @param requests Cell requests
+     */
+    final void recordCellRequests(List<CellRequest> requests) {
+        final int quantum = cellRequests.size() / 5000;
+        missCount += requests.size();
+        cellRequests.addAll(requests);
+        if (cellRequests.size() / 5000 > quantum) {
+            throw CellRequestQuantumExceededException.INSTANCE;
+        }
+    }
+
     /**
      * Returns whether this reader has told a lie. This is the case if there
      * are pending batches to load or if {@link #setDirty(boolean)} has been
@@ -278,6 +296,11 @@ public class FastBatchingCellReader implements CellReader {
                     // all present in the cache.
                     continue;
                 }
+                if (rollup.region != null && !addRegion(map, rollup)) {
+                    // The missing region did not load as requested. The
+                    // cells will come from the cache or SQL next time.
+                    continue;
+                }
 
                 final Set<String> keepColumns = new HashSet<String>();
                 for (RolapStar.Column column : rollup.constrainedColumns) {
@@ -289,7 +312,7 @@ public class FastBatchingCellReader implements CellReader {
                         map,
                         keepColumns,
                         rollup.constrainedColumnsBitKey,
-                        rollup.measure.getAggregator().getRollup());
+                        BatchLoader.getRollupAggregator(rollup.measure));
 
                 final SegmentHeader header = rollupHeaderBody.left;
                 final SegmentBody body = rollupHeaderBody.right;
@@ -449,6 +472,18 @@ public class FastBatchingCellReader implements CellReader {
                     // be in cache.
                     continue candidateLoop;
                 }
+                if (rollup.measure.getAggregator()
+                    == RolapAggregator.DistinctCount
+                    && !holdsBitmaps(body))
+                {
+                    // Segment holds distinct counts, which cannot be rolled
+                    // up. Tell the index, so that we do not choose it again;
+                    // the cells will come from another candidate or SQL. The
+                    // segment stays in the cache, and its own cells are
+                    // still valid.
+                    excludeFromRollup(header);
+                    continue candidateLoop;
+                }
                 map.put(header, body);
             }
             return map;
@@ -456,6 +491,83 @@ public class FastBatchingCellReader implements CellReader {
         return null;
     }
 
+    /**
+     * Waits for the region of a partial rollup to load using SQL, and adds
+     * its segments of the rollup's measure to the segments to be rolled
+     * up.
+     *
+     * <p>Returns false if a segment does not have exactly the columns and
+     * values of the region; for example, if its predicates were widened when
+     * it was loaded. Rolling it up would count some cells twice.</p>
+     *
+     * @param map Segments to be rolled up
+     * @param rollup Rollup
+     * @return Whether region was added
+     */
+    private static boolean addRegion(
+        Map<SegmentHeader, SegmentBody> map,
+        BatchLoader.RollupInfo rollup)
+    {
+        for (Future<Map<Segment, SegmentWithData>> future
+            : rollup.regionFutures)
+        {
+            final Map<Segment, SegmentWithData> segmentMap =
+                Util.safeGet(future, "Waiting for segment to load via SQL");
+            for (SegmentWithData segmentWithData : segmentMap.values()) {
+                // The batch may also have loaded other measures, such as the
+                // fact-count measure; they must not be rolled up with this
+                // one.
+                if (segmentWithData.measure != rollup.measure) {
+                    continue;
+                }
+                final SegmentHeader header = segmentWithData.getHeader();
+                if (!header.getConstrainedColumns().equals(rollup.region)) {
+                    return false;
+                }
+                map.put(header, segmentWithData.createSegmentBody());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tells the segment index that a segment cannot be rolled up.
+     *
+     * @param header Segment header
+     */
+    private void excludeFromRollup(final SegmentHeader header) {
+        final Locus locus = Locus.peek();
+        cacheMgr.execute(
+            new SegmentCacheManager.Command<Void>() {
+                public Void call() throws Exception {
+                    cacheMgr.getIndexRegistry()
+                        .getIndex(cube.getStar())
+                        .excludeFromRollup(header);
+                    return null;
+                }
+
+                public Locus getLocus() {
+                    return locus;
+                }
+            });
+    }
+
+    /**
+     * Returns whether the cells of a segment body of a distinct-count measure
+     * hold bitmaps, and therefore can be rolled up. They hold counts if the
+     * segment was loaded before
+     * {@link MondrianProperties#EnableDistinctCountBitmaps} was set, or if
+     * its bitmaps were too large.
+     */
+    private static boolean holdsBitmaps(SegmentBody body) {
+        for (Object o : body.getValueMap().values()) {
+            if (o != null) {
+                return o instanceof CompressedBitmap;
+            }
+        }
+        return true;
+    }
+
     private SegmentBody loadSegmentFromCache(
         Map<SegmentHeader, SegmentBody> headerBodies,
         SegmentHeader header)
@@ -539,8 +651,42 @@ class BatchLoader {
     }
 
     final boolean shouldUseGroupingFunction() {
-        return MondrianProperties.instance().EnableGroupingSets.get()
-            && dialect.supportsGroupingSets();
+        final MondrianProperties props = MondrianProperties.instance();
+        return props.EnableGroupingSets.get()
+            && (dialect.supportsGroupingSets()
+                || props.EmulateGroupingSets.get()
+                && SqlQuery.canEmulateGroupingSets(dialect));
+    }
+
+    /**
+     * Returns whether cells of a measure can be rolled up in memory from the
+     * cells of cached segments.
+     *
+     * <p>Both the measure's aggregator and its rollup aggregator must support
+     * raw data aggregation. Distinct-count measures can be rolled up only if
+     * their cells hold bitmaps.
+     */
+    static boolean supportsRollup(RolapStar.Measure measure) {
+        if (measure.getAggregator() == RolapAggregator.DistinctCount) {
+            return measure.isLoadedFromDistinctValues();
+        }
+        return measure.getAggregator().supportsFastAggregates(
+                measure.getDatatype())
+            && measure.getAggregator().getRollup().supportsFastAggregates(
+                measure.getDatatype());
+    }
+
+    /**
+     * Returns the aggregator with which to roll up cells of a measure.
+     * Usually the measure aggregator's rollup aggregator; but the bitmaps in
+     * the cells of a distinct-count measure are combined using the
+     * distinct-count aggregator itself.
+     */
+    static Aggregator getRollupAggregator(RolapStar.Measure measure) {
+        if (measure.getAggregator() == RolapAggregator.DistinctCount) {
+            return measure.getAggregator();
+        }
+        return measure.getAggregator().getRollup();
     }
 
     private void recordCellRequest2(final CellRequest request) {
@@ -591,7 +737,7 @@ class BatchLoader {
         if (!headersInCache.isEmpty()) {
             final SegmentHeader headerInCache = headersInCache.get(0);
             final Future<SegmentBody> future =
-                index.getFuture(headerInCache);
+                index.getFuture(locus.execution, headerInCache);
             if (future != null) {
                 // Segment header is in cache, body is being loaded. Worker will
                 // need to wait for load to complete.
@@ -624,15 +770,10 @@ class BatchLoader {
 
         // Also make sure that we don't try to rollup a measure which
         // doesn't support rollup from raw data, like a distinct count
-        // for example. Both the measure's aggregator and its rollup
-        // aggregator must support raw data aggregation. We call
-        // Aggregator.supportsFastAggregates() to verify.
+        // for example. See supportsRollup.
         if (MondrianProperties.instance()
                 .EnableInMemoryRollup.get()
-            && measure.getAggregator().supportsFastAggregates(
-                measure.getDatatype())
-            && measure.getAggregator().getRollup().supportsFastAggregates(
-                measure.getDatatype())
+            && supportsRollup(measure)
             && !rollupBitmaps.contains(request.getConstrainedColumnsBitKey()))
         {
             // Don't even bother doing a segment lookup if we can't
@@ -649,7 +790,16 @@ class BatchLoader {
                     AggregationKey.getCompoundPredicateStringList(
                         star,
                         key.getCompoundPredicateList()));
-            if (!rollup.isEmpty()) {
+            // If choosing by cost, roll up only if it is cheaper than SQL.
+            // The first candidate has the fewest columns, and is the one
+            // most likely to be used.
+            if (!rollup.isEmpty()
+                && (!AggregationCostModel.isEnabled()
+                    || AggregationCostModel.preferRollup(
+                        request,
+                        !key.getCompoundPredicateList().isEmpty(),
+                        rollup.get(0))))
+            {
                 rollups.add(
                     new RollupInfo(
                         request,
@@ -662,6 +812,17 @@ class BatchLoader {
                         key.getCompoundPredicateList()));
                 return;
             }
+
+            // If no set of segments covers the request, perhaps some cover
+            // part of it. Load the rest of the cells using SQL, and roll them
+            // up together.
+            if (rollup.isEmpty()
+                && MondrianProperties.instance().EnablePartialRollup.get()
+                && key.getCompoundPredicateList().isEmpty()
+                && recordPartialRollup(request, key, index, mappedCellValues))
+            {
+                return;
+            }
         }
 
         // Skip the batch if we already have a rollup for it.
@@ -697,6 +858,80 @@ class BatchLoader {
         batch.add(request);
     }
 
+    /**
+     * Records a rollup from segments that contain part of the cells required
+     * by a request, and loads the region that they do not contain using SQL.
+     * The worker waits for the region to load, then rolls it up together
+     * with the segments.
+     *
+     * @param request Cell request
+     * @param key Aggregation key of request
+     * @param index Segment index of request's star
+     * @param mappedCellValues Coordinates of request
+     * @return Whether a rollup was recorded
+     */
+    private boolean recordPartialRollup(
+        CellRequest request,
+        AggregationKey key,
+        SegmentCacheIndex index,
+        Map<String, Comparable> mappedCellValues)
+    {
+        final RolapStar.Measure measure = request.getMeasure();
+        if (measure.getAggregator() == RolapAggregator.DistinctCount) {
+            // The cells of the region might be loaded as counts, not
+            // bitmaps, and could not be rolled up.
+            return false;
+        }
+        final RolapStar star = measure.getStar();
+        final RolapSchema schema = star.getSchema();
+        final SegmentCacheIndex.PartialRollup partialRollup =
+            index.findPartialRollup(
+                schema.getName(),
+                schema.getChecksum(),
+                measure.getCubeName(),
+                measure.getName(),
+                star.getFactTable().getAlias(),
+                request.getConstrainedColumnsBitKey(),
+                mappedCellValues,
+                Collections.<String>emptyList());
+        if (partialRollup == null
+            || (AggregationCostModel.isEnabled()
+                && !AggregationCostModel.preferRollup(
+                    request, false, partialRollup.headers)))
+        {
+            return false;
+        }
+
+        // Create a request with the columns of the segments, none of them
+        // constrained, and a batch that loads the missing region.
+        final CellRequest regionRequest =
+            new CellRequest(measure, false, false);
+        for (int bitPos : partialRollup.bitKey) {
+            regionRequest.addConstrainedColumn(star.getColumn(bitPos), null);
+        }
+        final Batch batch = new Batch(regionRequest);
+        if (!batch.addRegion(regionRequest, partialRollup.region)) {
+            return false;
+        }
+        final List<Future<Map<Segment, SegmentWithData>>> regionFutures =
+            new ArrayList<Future<Map<Segment, SegmentWithData>>>();
+        batch.loadAggregation(regionFutures);
+
+        rollups.add(
+            new RollupInfo(
+                request,
+                Collections.singletonList(partialRollup.headers),
+                partialRollup.region,
+                regionFutures));
+        rollupBitmaps.add(request.getConstrainedColumnsBitKey());
+        converterMap.put(
+            SegmentCacheIndexImpl.makeConverterKey(request, key),
+            new SegmentBuilder.StarSegmentConverter(
+                measure,
+                key.getCompoundPredicateList()));
+        return true;
+    }
+
     /**
      * Determines which segments need to be loaded from external cache,
      * created using roll up, or created using SQL to satisfy a given list
@@ -742,6 +977,11 @@ class BatchLoader {
             }
         }
 
+        // Regions being loaded to complete rollups.
+        for (RollupInfo rollup : rollups) {
+            segmentMapFutures.addAll(rollup.regionFutures);
+        }
+
         if (LOGGER.isDebugEnabled()) {
             final long t2 = System.currentTimeMillis();
             LOGGER.debug("load (millis): " + (t2 - t1));
@@ -761,6 +1001,18 @@ class BatchLoader {
             futures);
     }
 
+    /**
+     * Groups batches into composite batches, each of which can be loaded
+     * using a single query with <code>GROUPING SETS</code>, or, if
+     * {@link MondrianProperties#EmulateGroupingSets} is set, with one
+     * <code>UNION ALL</code> branch per grouping set.
+     *
+     * <p>A batch is merged into a batch whose constraints subsume it; see
+     * {@link Batch#canBatch}.
+     *
+     * @param batchList Batches, in the order they are to be loaded
+     * @return Composite batches
+     */
     static List<CompositeBatch> groupBatches(List<Batch> batchList) {
         Map<AggregationKey, CompositeBatch> batchGroups =
             new HashMap<AggregationKey, CompositeBatch>();
@@ -926,11 +1178,36 @@ class BatchLoader {
         final RolapStar.Measure measure;
         final List<List<SegmentHeader>> candidateLists;
 
+        /**
+         * Region that is not contained in the candidate segments, or null.
+         * It is being loaded using SQL, and is rolled up with them.
+         */
+        final List<SegmentColumn> region;
+
+        /** Futures of the segments of the region. */
+        final List<Future<Map<Segment, SegmentWithData>>> regionFutures;
+
         RollupInfo(
             CellRequest request,
             List<List<SegmentHeader>> candidateLists)
+        {
+            this(
+                request,
+                candidateLists,
+                null,
+                Collections
+                    .<Future<Map<Segment, SegmentWithData>>>emptyList());
+        }
+
+        RollupInfo(
+            CellRequest request,
+            List<List<SegmentHeader>> candidateLists,
+            List<SegmentColumn> region,
+            List<Future<Map<Segment, SegmentWithData>>> regionFutures)
         {
             this.candidateLists = candidateLists;
+            this.region = region;
+            this.regionFutures = regionFutures;
             constrainedColumns = request.getConstrainedColumns();
             constrainedColumnsBitKey = request.getConstrainedColumnsBitKey();
             measure = request.getMeasure();
@@ -1042,6 +1319,44 @@ class BatchLoader {
             return string;
         }
 
+        /**
+         * Adds a region of cells, rather than a single cell, to this batch.
+         * Each column of the region is constrained to a list of values or,
+         * if its values are null, is not constrained.
+         *
+         * @param request Request with the same columns as the region
+         * @param region Region
+         * @return Whether every column of the batch is in the region
+         */
+        final boolean addRegion(
+            CellRequest request,
+            List<SegmentColumn> region)
+        {
+            add(request);
+            for (int j = 0; j < columns.length; j++) {
+                final String expression =
+                    columns[j].getExpression().getGenericExpression();
+                SegmentColumn regionColumn = null;
+                for (SegmentColumn column : region) {
+                    if (column.columnExpression.equals(expression)) {
+                        regionColumn = column;
+                        break;
+                    }
+                }
+                if (regionColumn == null) {
+                    return false;
+                }
+                if (regionColumn.values != null) {
+                    valueSets[j].clear();
+                    for (Comparable value : regionColumn.values) {
+                        valueSets[j].add(
+                            new ValueColumnPredicate(columns[j], value));
+                    }
+                }
+            }
+            return true;
+        }
+
         public final void add(CellRequest request) {
             ++cellRequestCount;
             final int valueCount = request.getNumValues();
@@ -1106,6 +1421,25 @@ class BatchLoader {
             // the members are requested; whether we should get just the cells
             // requested or expand to a n-cube
 
+            // Load measures whose cells hold sketches or bitmaps
+            // individually. Their queries return a row for each distinct
+            // value of the measure's expression in each cell, so cannot
+            // compute other measures.
+            for (RolapStar.Measure measure
+                : getDistinctValueMeasures(measuresList))
+            {
+                AggregationManager.loadAggregation(
+                    cacheMgr,
+                    cellRequestCount,
+                    Collections.singletonList(measure),
+                    columns,
+                    batchKey,
+                    predicates,
+                    groupingSetsCollector,
+                    segmentFutures);
+                measuresList.remove(measure);
+            }
+
             // If the database cannot execute "count(distinct ...)", split the
             // distinct aggregations out.
             int distinctMeasureCount = getDistinctMeasureCount(measuresList);
@@ -1152,6 +1486,7 @@ class BatchLoader {
 
             final int measureCount = measuresList.size();
             if (measureCount > 0) {
+                addFactCountMeasure();
                 AggregationManager.loadAggregation(
                     cacheMgr,
                     cellRequestCount,
@@ -1170,6 +1505,48 @@ class BatchLoader {
             }
         }
 
+        /**
+         * Adds the star's fact-count measure to the measures to be loaded, if
+         * {@link MondrianProperties#CacheFactCount} is enabled, so that the
+         * number of fact rows in each cell is cached for drill-through.
+         *
+         * <p>Does not add the measure if it would prevent the other measures
+         * from being read from an aggregate table.
+         */
+        private void addFactCountMeasure() {
+            final MondrianProperties properties = MondrianProperties.instance();
+            if (!properties.CacheFactCount.get()) {
+                return;
+            }
+            final RolapStar star = getStar();
+            final RolapStar.Measure factCountMeasure =
+                star.getFactCountMeasure();
+            if (factCountMeasure == null
+                || measuresList.contains(factCountMeasure))
+            {
+                return;
+            }
+            if (properties.UseAggregates.get()) {
+                final BitKey levelBitKey = getConstrainedColumnsBitKey();
+                final BitKey measureBitKey = levelBitKey.emptyCopy();
+                for (RolapStar.Measure measure : measuresList) {
+                    measureBitKey.set(measure.getBitPosition());
+                }
+                final boolean[] rollup = {false};
+                if (AggregationManager.findAgg(
+                        star, levelBitKey, measureBitKey, rollup) != null)
+                {
+                    measureBitKey.set(factCountMeasure.getBitPosition());
+                    if (AggregationManager.findAgg(
+                            star, levelBitKey, measureBitKey, rollup) == null)
+                    {
+                        return;
+                    }
+                }
+            }
+            measuresList.add(factCountMeasure);
+        }
+
         private void doSpecialHandlingOfDistinctCountMeasures(
             StarColumnPredicate[] predicates,
             GroupingSetsCollector groupingSetsCollector,
@@ -1222,6 +1599,10 @@ class BatchLoader {
                 StarColumnPredicate predicate;
                 if (valueSet == null) {
                     predicate = LiteralStarPredicate.FALSE;
+                } else if (valueSet.contains(null)) {
+                    // A request that adds a column without a constraint
+                    // wants all of its values.
+                    predicate = new LiteralStarPredicate(columns[j], true);
                 } else {
                     ValueColumnPredicate[] values =
                         valueSet.toArray(
@@ -1287,6 +1668,25 @@ class BatchLoader {
             return null;
         }
 
+        /**
+         * Returns the measures that are loaded from the distinct values of
+         * their expression.
+         *
+         * @see RolapStar.Measure#isLoadedFromDistinctValues()
+         */
+        private List<RolapStar.Measure> getDistinctValueMeasures(
+            List<RolapStar.Measure> measuresList)
+        {
+            final List<RolapStar.Measure> distinctValueMeasureList =
+                new ArrayList<RolapStar.Measure>();
+            for (RolapStar.Measure measure : measuresList) {
+                if (measure.isLoadedFromDistinctValues()) {
+                    distinctValueMeasureList.add(measure);
+                }
+            }
+            return distinctValueMeasureList;
+        }
+
         /**
          * Returns the number of the measures based upon a distinct
          * aggregation.
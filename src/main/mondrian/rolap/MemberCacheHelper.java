@@ -250,6 +250,181 @@ public class MemberCacheHelper implements MemberCache {
         return mapKeyToMember.put(key, null);
     }
 
+    /**
+     * Populates this cache with copies of the members in the cache of an
+     * identical hierarchy; typically, the same hierarchy in the previous
+     * version of a schema that has been reloaded.
+     *
+     * <p>Only regular members are copied, and only lists of members that
+     * were read without a constraint; calculated members and lists that
+     * depend on an evaluation context are not. A member is only copied if its
+     * ancestors can also be copied.
+     *
+     * @param previous Cache of the previous hierarchy
+     * @return Number of members copied
+     */
+    synchronized int carryOver(MemberCacheHelper previous) {
+        final Map<RolapMember, RolapMember> memberMap =
+            new IdentityHashMap<RolapMember, RolapMember>();
+        final Level[] levels = rolapHierarchy.getLevels();
+        final Level[] previousLevels = previous.rolapHierarchy.getLevels();
+        if (levels.length != previousLevels.length) {
+            return 0;
+        }
+        synchronized (previous) {
+            for (Map.Entry<Object, RolapMember> entry
+                : previous.mapKeyToMember)
+            {
+                if (!(entry.getKey() instanceof MemberKey)
+                    || entry.getValue() == null)
+                {
+                    continue;
+                }
+                final MemberKey key = (MemberKey) entry.getKey();
+                final RolapMember member =
+                    copyMember(previous, entry.getValue(), memberMap);
+                if (member == null) {
+                    continue;
+                }
+                final RolapMember parent;
+                if (key.getParent() == null) {
+                    parent = null;
+                } else {
+                    parent = copyMember(previous, key.getParent(), memberMap);
+                    if (parent == null) {
+                        continue;
+                    }
+                }
+                mapKeyToMember.put(
+                    new MemberKey(parent, key.getValue()), member);
+            }
+
+            final Object levelMembersKey =
+                DefaultTupleConstraint.instance().getCacheKey();
+            for (Map.Entry<Pair<RolapLevel, Object>, List<RolapMember>> entry
+                : previous.mapLevelToMembers.getCache())
+            {
+                final RolapLevel previousLevel = entry.getKey().left;
+                final int depth = previousLevel.getDepth();
+                if (entry.getKey().right != levelMembersKey
+                    || depth >= previousLevels.length
+                    || previousLevel != previousLevels[depth])
+                {
+                    continue;
+                }
+                final List<RolapMember> members =
+                    copyMembers(previous, entry.getValue(), memberMap);
+                if (members != null) {
+                    mapLevelToMembers.getCache().put(
+                        new Pair<RolapLevel, Object>(
+                            (RolapLevel) levels[depth], levelMembersKey),
+                        members);
+                }
+            }
+
+            final Object childrenKey =
+                DefaultMemberChildrenConstraint.instance().getCacheKey();
+            for (Map.Entry<Pair<RolapMember, Object>, List<RolapMember>> entry
+                : previous.mapMemberToChildren.getCache())
+            {
+                if (entry.getKey().right != childrenKey) {
+                    continue;
+                }
+                final RolapMember parent =
+                    copyMember(previous, entry.getKey().left, memberMap);
+                final List<RolapMember> children =
+                    copyMembers(previous, entry.getValue(), memberMap);
+                if (parent != null && children != null) {
+                    mapMemberToChildren.getCache().put(
+                        new Pair<RolapMember, Object>(parent, childrenKey),
+                        children);
+                }
+            }
+        }
+
+        // Row counts are expensive to compute, and depend only on the
+        // definition of the level.
+        for (int i = 0; i < levels.length; i++) {
+            final RolapLevel level = (RolapLevel) levels[i];
+            final RolapLevel previousLevel = (RolapLevel) previousLevels[i];
+            if (level.getApproxRowCount() == Integer.MIN_VALUE
+                && previousLevel.getApproxRowCount() != Integer.MIN_VALUE)
+            {
+                level.setApproxRowCount(previousLevel.getApproxRowCount());
+            }
+        }
+
+        int count = 0;
+        for (RolapMember member : memberMap.values()) {
+            if (member != null) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the copy of a member of the previous hierarchy, creating it if
+     * necessary, or null if it cannot be copied.
+     */
+    private RolapMember copyMember(
+        MemberCacheHelper previous,
+        RolapMember member,
+        Map<RolapMember, RolapMember> memberMap)
+    {
+        if (memberMap.containsKey(member)) {
+            return memberMap.get(member);
+        }
+        RolapMember copy = null;
+        final Level[] previousLevels =
+            previous.rolapHierarchy.getLevels();
+        final int depth = member.getLevel().getDepth();
+        if (member == previous.rolapHierarchy.getAllMember()) {
+            copy = rolapHierarchy.getAllMember();
+        } else if (member.getClass() == RolapMemberBase.class
+            && !member.isCalculated()
+            && depth < previousLevels.length
+            && member.getLevel() == previousLevels[depth])
+        {
+            final RolapMember parent = member.getParentMember();
+            final RolapMember parentCopy =
+                parent == null
+                    ? null
+                    : copyMember(previous, parent, memberMap);
+            if (parent == null || parentCopy != null) {
+                final RolapLevel level =
+                    (RolapLevel) rolapHierarchy.getLevels()[depth];
+                copy = ((RolapMemberBase) member).copy(parentCopy, level);
+            }
+        }
+        memberMap.put(member, copy);
+        return copy;
+    }
+
+    /**
+     * Returns copies of a list of members, or null if any of them cannot be
+     * copied.
+     */
+    private List<RolapMember> copyMembers(
+        MemberCacheHelper previous,
+        List<RolapMember> members,
+        Map<RolapMember, RolapMember> memberMap)
+    {
+        if (members == null) {
+            return null;
+        }
+        final List<RolapMember> copies =
+            new ArrayList<RolapMember>(members.size());
+        for (RolapMember member : members) {
+            final RolapMember copy = copyMember(previous, member, memberMap);
+            if (copy == null) {
+                return null;
+            }
+            copies.add(copy);
+        }
+        return copies;
+    }
+
     public synchronized RolapMember removeMemberAndDescendants(Object key) {
         // Can use mapMemberToChildren recursively. No need to update inferior
         // lists of children. Do need to update inferior lists of level-peers.
@@ -51,6 +51,24 @@ class MemberKey {
         return h;
     }
 
+    /**
+     * Returns the parent of the member that this key represents.
+     *
+     * @return Parent member, or null if is root member
+     */
+    RolapMember getParent() {
+        return parent;
+    }
+
+    /**
+     * Returns the key value of the member that this key represents.
+     *
+     * @return Key value
+     */
+    Object getValue() {
+        return value;
+    }
+
     /**
      * Returns the level of the member that this key represents.
      *
@@ -0,0 +1,337 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.calc.*;
+import mondrian.olap.*;
+import mondrian.rolap.agg.*;
+import mondrian.server.Locus;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Evaluates an expression for each tuple of a large list, splitting the list
+ * into chunks and evaluating the chunks in parallel.
+ *
+ * <p>Each chunk is evaluated in its own evaluator, a child of the calling
+ * evaluator, with a cell reader private to the chunk. The chunk's cell reader
+ * answers from cells already in the cache, and records the cells that are
+ * not. When all chunks are finished, the cell requests of all chunks are
+ * handed to the statement's {@link FastBatchingCellReader}. So evaluation
+ * happens in two passes, as it would if the tuples were evaluated in one
+ * thread: in the first pass every chunk records the cells it needs, those
+ * cells are loaded together (one SQL statement per batch, not per chunk),
+ * and in the second pass the chunks are evaluated with the cells in cache.
+ *
+ * <p>Results are returned per chunk, in the order of the input list, so that
+ * callers can produce the same output as a serial evaluation.
+ *
+ * <p>Parallel evaluation is only used if the list has at least
+ * {@link MondrianProperties#ParallelEvaluationThreshold} tuples, if the
+ * calling evaluator reads cells via a {@link FastBatchingCellReader}, and if
+ * the calling thread is not itself evaluating a chunk.
+ *
+ * @author jhyde
+ */
+public class ParallelTupleEvaluator {
+    /**
+     * Executor that evaluates chunks. Created on first use, with
+     * {@link MondrianProperties#ParallelEvaluationThreads} threads, and
+     * created again if that property changes.
+     */
+    private static ExecutorService executor;
+
+    /** Number of threads of {@link #executor}. */
+    private static int threadCount;
+
+    /**
+     * Value of {@link MondrianProperties#ParallelEvaluationThreads} when
+     * {@link #executor} was created.
+     */
+    private static int threadProperty;
+
+    /** Number of lists that have been evaluated in parallel. */
+    private static final AtomicLong parallelCount = new AtomicLong();
+
+    /**
+     * Whether the current thread is evaluating a chunk. Chunks do not
+     * evaluate nested expressions in parallel; if they did, they could wait
+     * for threads which are themselves waiting.
+     */
+    private static final ThreadLocal<Boolean> IN_CHUNK =
+        new ThreadLocal<Boolean>();
+
+    // prevent instantiation
+    private ParallelTupleEvaluator() {
+    }
+
+    /**
+     * Returns whether a list would be evaluated in parallel.
+     *
+     * @param evaluator Calling evaluator
+     * @param list List of tuples
+     * @return Whether {@link #evaluate} would evaluate in parallel
+     */
+    public static boolean canEvaluate(Evaluator evaluator, TupleList list) {
+        final int threshold =
+            MondrianProperties.instance().ParallelEvaluationThreshold.get();
+        return threshold > 0
+            && list.size() >= threshold
+            && IN_CHUNK.get() == null
+            // Subclasses (profiling and dependency-testing evaluators)
+            // track state that is not safe to share between threads.
+            && evaluator.getClass() == RolapEvaluator.class
+            && ((RolapEvaluator) evaluator).cellReader
+                instanceof FastBatchingCellReader
+            && getThreadCount() > 1;
+    }
+
+    /**
+     * Returns the number of lists that have been evaluated in parallel since
+     * this class was loaded. For testing.
+     *
+     * @return Number of parallel evaluations
+     */
+    public static long getParallelCount() {
+        return parallelCount.get();
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        final int n =
+            MondrianProperties.instance().ParallelEvaluationThreads.get();
+        if (executor != null && n != threadProperty) {
+            // Chunks already submitted still run; the old pool's threads
+            // end when they are done.
+            executor.shutdown();
+            executor = null;
+        }
+        if (executor == null) {
+            threadProperty = n;
+            threadCount =
+                n > 0 ? n : Runtime.getRuntime().availableProcessors();
+            executor =
+                Util.getExecutorService(
+                    threadCount,
+                    threadCount,
+                    1,
+                    -1,
+                    "mondrian.rolap.ParallelTupleEvaluator$executor");
+        }
+        return executor;
+    }
+
+    private static synchronized int getThreadCount() {
+        getExecutor();
+        return threadCount;
+    }
+
+    /**
+     * Evaluates a function for each chunk of a list, in parallel.
+     *
+     * <p>The function is called in a thread from a pool. The evaluator passed
+     * to it is private to the chunk; the function may modify the evaluator's
+     * context but should restore it before returning. The chunk is a copy,
+     * also private to the chunk, of part of the list; it shares no state,
+     * such as the member dictionaries of an
+     * {@link mondrian.calc.impl.OrdinalTupleList}, with the list or with
+     * other chunks. The function should collect its results into a list that
+     * it creates, and the caller merges them in the calling thread.
+     *
+     * <p>If any chunk needed cells that were not in the cache, the calling
+     * evaluator's miss count increases, exactly as if the chunks had been
+     * evaluated in the calling thread; the caller's result will be thrown
+     * away and the expression evaluated again once the cells are loaded.
+     *
+     * @param evaluator Calling evaluator
+     * @param list List of tuples
+     * @param function Function to evaluate for each chunk
+     * @param <T> Result type of function
+     * @return Result for each chunk, in order, or null if the list cannot be
+     *   evaluated in parallel
+     */
+    public static <T> List<T> evaluate(
+        Evaluator evaluator,
+        TupleList list,
+        final ChunkFunction<T> function)
+    {
+        if (!canEvaluate(evaluator, list)) {
+            return null;
+        }
+        parallelCount.incrementAndGet();
+        final RolapEvaluator rolapEvaluator = (RolapEvaluator) evaluator;
+        final FastBatchingCellReader batchingReader =
+            (FastBatchingCellReader) rolapEvaluator.cellReader;
+        final Locus locus = Locus.peek();
+
+        // A few chunks per thread, so that a slow chunk does not hold up the
+        // others for long.
+        final ExecutorService pool = getExecutor();
+        final int size = list.size();
+        final int chunkCount = Math.min(getThreadCount() * 4, size);
+        final List<Future<T>> futures = new ArrayList<Future<T>>(chunkCount);
+        final List<ChunkCellReader> readers =
+            new ArrayList<ChunkCellReader>(chunkCount);
+        try {
+            for (int i = 0; i < chunkCount; i++) {
+                final TupleList chunk =
+                    copy(
+                        list.subList(
+                            (int) ((long) size * i / chunkCount),
+                            (int) ((long) size * (i + 1) / chunkCount)));
+                // Create the chunk's evaluator in the calling thread; an
+                // evaluator must not be pushed while its parent is changing.
+                final ChunkCellReader reader = new ChunkCellReader();
+                final RolapEvaluator chunkEvaluator = rolapEvaluator.push();
+                chunkEvaluator.setCellReader(reader);
+                readers.add(reader);
+                futures.add(
+                    pool.submit(
+                        new Callable<T>() {
+                            public T call() throws Exception {
+                                Locus.push(locus);
+                                IN_CHUNK.set(Boolean.TRUE);
+                                try {
+                                    return function.evaluate(
+                                        chunkEvaluator, chunk);
+                                } finally {
+                                    IN_CHUNK.remove();
+                                    reader.clear();
+                                    Locus.pop(locus);
+                                }
+                            }
+                        }));
+            }
+            final List<T> results = new ArrayList<T>(chunkCount);
+            for (Future<T> future : futures) {
+                results.add(
+                    Util.safeGet(
+                        future, "Error while evaluating chunk in parallel"));
+            }
+            final List<CellRequest> cellRequests = new ArrayList<CellRequest>();
+            for (ChunkCellReader reader : readers) {
+                cellRequests.addAll(reader.cellRequests);
+            }
+            if (!cellRequests.isEmpty()) {
+                batchingReader.recordCellRequests(cellRequests);
+            }
+            return results;
+        } finally {
+            // If a chunk failed or the statement was canceled, don't leave
+            // the other chunks running.
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Copies a chunk of a list into a new list, in the calling thread, so
+     * that the chunk's thread does not touch the state of the list.
+     */
+    private static TupleList copy(TupleList chunk) {
+        final TupleList copy =
+            TupleCollections.createList(chunk.getArity(), chunk.size());
+        final TupleCursor cursor = chunk.tupleCursor();
+        while (cursor.forward()) {
+            copy.addCurrent(cursor);
+        }
+        return copy;
+    }
+
+    /**
+     * Function that is evaluated for a chunk of a list.
+     *
+     * @param <T> Result type
+     */
+    public interface ChunkFunction<T> {
+        /**
+         * Evaluates a chunk.
+         *
+         * @param evaluator Evaluator private to this chunk
+         * @param chunk Tuples in chunk
+         * @return Result
+         */
+        T evaluate(Evaluator evaluator, TupleList chunk);
+    }
+
+    /**
+     * Cell reader for a chunk. Reads cells from the cache, and records the
+     * cells that are not in the cache, but never loads cells.
+     *
+     * <p>The star caches that the evaluator reads are local to the thread,
+     * so the reader asks the cache manager for the segment that contains a
+     * cell the first time it misses. Those segments are registered with the
+     * pool thread, and are released when the chunk is finished.
+     */
+    private static class ChunkCellReader implements CellReader {
+        private final AggregationManager aggMgr =
+            Locus.peek().getServer().getAggregationManager();
+        private final RolapAggregationManager.PinSet pinnedSegments =
+            aggMgr.createPinSet();
+        private final List<CellRequest> cellRequests =
+            new ArrayList<CellRequest>();
+        private final Set<RolapStar> stars = new HashSet<RolapStar>();
+
+        public Object get(RolapEvaluator evaluator) {
+            final CellRequest request =
+                RolapAggregationManager.makeRequest(evaluator);
+            if (request == null || request.isUnsatisfiable()) {
+                return Util.nullValue; // request not satisfiable.
+            }
+            final Object o = aggMgr.getCellFromCache(request, pinnedSegments);
+            if (o != null) {
+                return o;
+            }
+
+            // As in FastBatchingCellReader, look in the global cache until
+            // the first real miss.
+            if (cellRequests.isEmpty()) {
+                final SegmentWithData segmentWithData =
+                    aggMgr.cacheMgr.peek(request);
+                if (segmentWithData != null) {
+                    final RolapStar star = segmentWithData.getStar();
+                    stars.add(star);
+                    star.register(segmentWithData);
+                    final Object o2 =
+                        aggMgr.getCellFromCache(request, pinnedSegments);
+                    if (o2 != null) {
+                        return o2;
+                    }
+                }
+            }
+            cellRequests.add(request);
+            return RolapUtil.valueNotReadyException;
+        }
+
+        public int getMissCount() {
+            return cellRequests.size();
+        }
+
+        public boolean isDirty() {
+            return !cellRequests.isEmpty();
+        }
+
+        /**
+         * Releases the segments that this reader registered with the current
+         * thread. The thread belongs to the pool, and the next statement it
+         * works for must not see them.
+         */
+        void clear() {
+            for (RolapStar star : stars) {
+                star.clearCachedAggregations(true);
+            }
+            stars.clear();
+        }
+    }
+}
+
+// End ParallelTupleEvaluator.java
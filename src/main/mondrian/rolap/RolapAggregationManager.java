@@ -694,11 +694,42 @@ public abstract class RolapAggregationManager {
      * <code>null</code> if no additional predicate is necessary.
      * @return SQL statement
      */
+    public String getDrillThroughSql(
+        DrillThroughCellRequest request,
+        StarPredicate starPredicateSlicer,
+        List<Exp> fields,
+        boolean countOnly)
+    {
+        return getDrillThroughSql(
+            request, starPredicateSlicer, fields, countOnly, 0, 0);
+    }
+
+    /**
+     * Generates a SQL statement which will return a page of the rows which
+     * contribute to this request.
+     *
+     * <p>If {@code limit} is positive, the statement skips {@code offset}
+     * rows and returns at most {@code limit} rows. The caller must first
+     * check that the dialect can limit rows; see
+     * {@link mondrian.rolap.sql.SqlQuery#supportsLimit(mondrian.spi.Dialect)}.
+     *
+     * @param request Cell request
+     * @param starPredicateSlicer A StarPredicate representing slicer positions
+     * that could not be represented by the CellRequest, or
+     * <code>null</code> if no additional predicate is necessary.
+     * @param fields List of field expressions to return
+     * @param countOnly If true, return a statment which returns only the count
+     * @param offset Number of rows to skip
+     * @param limit Maximum number of rows to return, or 0 for no limit
+     * @return SQL statement
+     */
     public abstract String getDrillThroughSql(
         DrillThroughCellRequest request,
         StarPredicate starPredicateSlicer,
         List<Exp> fields,
-        boolean countOnly);
+        boolean countOnly,
+        int offset,
+        int limit);
 
     public static RolapCacheRegion makeCacheRegion(
         final RolapStar star,
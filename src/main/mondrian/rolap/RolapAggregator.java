@@ -16,6 +16,8 @@ import mondrian.olap.*;
 import mondrian.olap.fun.AggregateFunDef;
 import mondrian.olap.fun.FunUtil;
 import mondrian.spi.Dialect;
+import mondrian.util.CompressedBitmap;
+import mondrian.util.HyperLogLog;
 
 import java.util.List;
 
@@ -222,6 +224,68 @@ public abstract class RolapAggregator
                 // a distinct-count operation.
                 return false;
             };
+
+            /**
+             * {@inheritDoc}
+             *
+             * <p>If {@link MondrianProperties#EnableDistinctCountBitmaps} is
+             * set, cells hold the bitmaps of their distinct values, and can
+             * be rolled up by taking the union of the bitmaps. (Counts
+             * cannot.)
+             */
+            public Object aggregate(List<Object> rawData) {
+                for (Object o : rawData) {
+                    if (o != null && !(o instanceof CompressedBitmap)) {
+                        throw new IllegalArgumentException(
+                            "cannot roll up distinct-count value " + o);
+                    }
+                }
+                return CompressedBitmap.union(rawData);
+            }
+        };
+
+    /**
+     * Approximate distinct-count aggregator.
+     *
+     * <p>Cells of segments hold a {@link HyperLogLog} sketch of the distinct
+     * values of the measure's expression, rather than a count. Unlike
+     * {@link #DistinctCount}, sketches can be rolled up in memory and stored
+     * in an external segment cache. The value of a cell is the estimate of
+     * its sketch. The precision of new sketches is
+     * {@link MondrianProperties#DistinctCountSketchPrecision}.
+     *
+     * <p>Aggregate tables cannot hold sketches, so are not used to load
+     * measures with this aggregator.
+     */
+    public static final RolapAggregator ApproxDistinctCount =
+        new RolapAggregator("approx-distinct-count", index++, true) {
+            public RolapAggregator getNonDistinctAggregator() {
+                return Count;
+            }
+
+            public Object aggregate(
+                Evaluator evaluator, TupleList members, Calc exp)
+            {
+                throw new UnsupportedOperationException();
+            }
+
+            public String getExpression(String operand) {
+                // Segments are not loaded using this expression: sketches
+                // are built in memory from the distinct values of the
+                // operand in each cell. Other SQL, such as the SQL that
+                // populates an aggregate table, gets the exact count.
+                return "count(distinct " + operand + ")";
+            }
+
+            public boolean supportsFastAggregates(
+                mondrian.spi.Dialect.Datatype dataType)
+            {
+                return true;
+            }
+
+            public Object aggregate(List<Object> rawData) {
+                return HyperLogLog.union(rawData);
+            }
         };
 
     /**
@@ -229,7 +293,9 @@ public abstract class RolapAggregator
      */
     public static final EnumeratedValues<RolapAggregator> enumeration =
         new EnumeratedValues<RolapAggregator>(
-            new RolapAggregator[] {Sum, Count, Min, Max, Avg, DistinctCount});
+            new RolapAggregator[] {
+                Sum, Count, Min, Max, Avg, DistinctCount, ApproxDistinctCount
+            });
 
     /**
      * This is the base class for implementing aggregators over sum and
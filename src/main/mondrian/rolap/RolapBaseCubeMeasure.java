@@ -124,7 +124,8 @@ public class RolapBaseCubeMeasure
         setProperty(Property.AGGREGATION_TYPE.name, aggregator);
         if (datatype == null) {
             if (aggregator == RolapAggregator.Count
-                || aggregator == RolapAggregator.DistinctCount)
+                || aggregator == RolapAggregator.DistinctCount
+                || aggregator == RolapAggregator.ApproxDistinctCount)
             {
                 datatype = "Integer";
             } else {
@@ -16,6 +16,7 @@ import mondrian.olap.fun.AggregateFunDef;
 import mondrian.olap.fun.SetFunDef;
 import mondrian.resource.MondrianResource;
 import mondrian.rolap.agg.*;
+import mondrian.rolap.sql.SqlQuery;
 import mondrian.server.*;
 import mondrian.server.monitor.SqlStatementEvent;
 import mondrian.spi.Dialect;
@@ -102,6 +103,24 @@ public class RolapCell implements Cell {
     public String getDrillThroughSQL(
         List<Exp> fields,
         boolean extendedContext)
+    {
+        return getDrillThroughSQL(fields, extendedContext, 0, 0);
+    }
+
+    /**
+     * Generates SQL to drill through this cell, returning a page of rows.
+     *
+     * @param fields List of field expressions to return
+     * @param extendedContext Whether to add non-constraining columns
+     * @param offset Number of rows to skip
+     * @param limit Maximum number of rows to return, or 0 for no limit
+     * @return SQL statement, or null if cell is not drillable
+     */
+    private String getDrillThroughSQL(
+        List<Exp> fields,
+        boolean extendedContext,
+        int offset,
+        int limit)
     {
         if (!MondrianProperties.instance()
             .EnableDrillThrough.get())
@@ -137,7 +156,9 @@ public class RolapCell implements Cell {
             cellRequest,
             starPredicateSlicer,
             fields,
-            false);
+            false,
+            offset,
+            limit);
     }
 
     public int getDrillThroughCount() {
@@ -160,6 +181,26 @@ public class RolapCell implements Cell {
         final RolapConnection connection =
             result.getExecution().getMondrianStatement()
                 .getMondrianConnection();
+        final Locus locus =
+            new Locus(
+                new Execution(connection.getInternalStatement(), 0),
+                "RolapCell.getDrillThroughCount",
+                "Error while counting drill-through");
+
+        // A compound slicer cannot be expressed as a cell request, so its
+        // rows must be counted in the fact table.
+        if (starPredicateSlicer == null) {
+            final CellRequest factCountRequest =
+                makeFactCountRequest(currentMembers);
+            if (factCountRequest != null) {
+                final int count =
+                    getFactCount(connection, locus, factCountRequest);
+                if (count >= 0) {
+                    return count;
+                }
+            }
+        }
+
         final RolapAggregationManager aggMgr =
             connection.getServer().getAggregationManager();
         final String sql =
@@ -173,10 +214,7 @@ public class RolapCell implements Cell {
             RolapUtil.executeQuery(
                 connection.getDataSource(),
                 sql,
-                new Locus(
-                    new Execution(connection.getInternalStatement(), 0),
-                    "RolapCell.getDrillThroughCount",
-                    "Error while counting drill-through"));
+                locus);
         try {
             ResultSet rs = stmt.getResultSet();
             rs.next();
@@ -189,6 +227,93 @@ public class RolapCell implements Cell {
         }
     }
 
+    /**
+     * Creates a request for the fact-count measure of the cell identified by
+     * the given members, or returns null if the cube has no measure that
+     * counts all fact rows.
+     *
+     * @param members Members of the cell, including a stored measure
+     * @return Cell request for the number of fact rows, or null
+     */
+    private static CellRequest makeFactCountRequest(Member[] members) {
+        final Member[] factCountMembers = members.clone();
+        for (int i = 0; i < factCountMembers.length; i++) {
+            if (factCountMembers[i] instanceof RolapStoredMeasure) {
+                final RolapStoredMeasure measure =
+                    (RolapStoredMeasure) factCountMembers[i];
+                final RolapCube cube = measure.getCube();
+                final RolapMeasure cubeFactCountMeasure =
+                    cube.getFactCountMeasure();
+
+                // Use the cube's fact-count measure only if it is the one
+                // that the star loads into the cache, which counts all rows.
+                final RolapStar.Measure factCountMeasure =
+                    cube.getStar().getFactCountMeasure();
+                if (factCountMeasure == null
+                    || !(cubeFactCountMeasure instanceof RolapStoredMeasure)
+                    || ((RolapStoredMeasure) cubeFactCountMeasure)
+                        .getStarMeasure() != factCountMeasure)
+                {
+                    return null;
+                }
+                factCountMembers[i] = cubeFactCountMeasure;
+                return RolapAggregationManager.makeRequest(factCountMembers);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of fact rows underlying a cell, if it is held in the
+     * segment cache or can be read from an aggregate table; otherwise -1.
+     *
+     * @param connection Connection
+     * @param locus Locus
+     * @param request Request for the cell's fact-count measure
+     * @return Number of fact rows, or -1
+     */
+    private static int getFactCount(
+        RolapConnection connection,
+        Locus locus,
+        CellRequest request)
+    {
+        final Object value;
+        Locus.push(locus);
+        try {
+            value =
+                request.getMeasure().getStar().getCellFromAllCaches(request);
+        } finally {
+            Locus.pop(locus);
+        }
+        if (value == Util.nullValue) {
+            return 0;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+
+        final String sql = AggregationManager.generateAggregateSql(request);
+        if (sql == null) {
+            return -1;
+        }
+        final SqlStatement stmt =
+            RolapUtil.executeQuery(connection.getDataSource(), sql, locus);
+        try {
+            final ResultSet rs = stmt.getResultSet();
+            final int column = rs.getMetaData().getColumnCount();
+            int count = 0;
+            while (rs.next()) {
+                ++stmt.rowCount;
+                count += rs.getInt(column);
+            }
+            return count;
+        } catch (SQLException e) {
+            throw stmt.handle(e);
+        } finally {
+            stmt.close();
+        }
+    }
+
     /**
      * This method handles the case of a compound slicer with more than one
      * {@link Position}. In this case, a simple array of {@link Member}s is not
@@ -430,7 +555,9 @@ public class RolapCell implements Cell {
      *
      * <p>Throws if this cell is not drillable.
      *
-     * <p>Enforces limits on the starting and last row.
+     * <p>Enforces limits on the starting and last row. If the dialect
+     * can limit the rows of a query, the limits are applied in the SQL
+     * statement; otherwise rows are skipped and limited using JDBC.
      *
      * <p>If tabFields is not null, returns the specified columns. (This option
      * is deprecated.)
@@ -458,8 +585,29 @@ public class RolapCell implements Cell {
             throw Util.newError("Cannot do DrillThrough operation on the cell");
         }
 
-        // Generate SQL.
-        String sql = getDrillThroughSQL(fields, extendedContext);
+        final Statement statement =
+            result.getExecution().getMondrianStatement();
+        final Execution execution = new Execution(statement, 0);
+        final Connection connection = statement.getMondrianConnection();
+        final Schema schema = statement.getSchema();
+        Dialect dialect = ((RolapSchema) schema).getDialect();
+
+        // Generate SQL. If the dialect can limit the rows of a query, ask the
+        // database for just the requested page, rather than reading and
+        // discarding the rows before the first row.
+        final int offset = Math.max(firstRowOrdinal, 0);
+        final int limit = maxRowCount - offset;
+        final String sql;
+        if (maxRowCount > 0
+            && limit > 0
+            && SqlQuery.supportsLimit(dialect))
+        {
+            sql = getDrillThroughSQL(fields, extendedContext, offset, limit);
+            maxRowCount = limit;
+            firstRowOrdinal = 0;
+        } else {
+            sql = getDrillThroughSQL(fields, extendedContext);
+        }
         if (logger != null && logger.isDebugEnabled()) {
             logger.debug("drill through sql: " + sql);
         }
@@ -467,14 +615,8 @@ public class RolapCell implements Cell {
         // Choose the appropriate scrollability. If we need to start from an
         // offset row, it is useful that the cursor is scrollable, but not
         // essential.
-        final Statement statement =
-            result.getExecution().getMondrianStatement();
-        final Execution execution = new Execution(statement, 0);
-        final Connection connection = statement.getMondrianConnection();
         int resultSetType = ResultSet.TYPE_SCROLL_INSENSITIVE;
         int resultSetConcurrency = ResultSet.CONCUR_READ_ONLY;
-        final Schema schema = statement.getSchema();
-        Dialect dialect = ((RolapSchema) schema).getDialect();
         if (!dialect.supportsResultSetConcurrency(
                 resultSetType, resultSetConcurrency)
             || firstRowOrdinal <= 1)
@@ -34,6 +34,7 @@ import java.sql.SQLException;
 import java.util.*;
 import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.sql.DataSource;
 
 /**
@@ -74,6 +75,12 @@ public class RolapConnection extends ConnectionBase {
     private final int id;
     private final Statement internalStatement;
 
+    /**
+     * Estimated number of bytes of memory used by the executions of this
+     * connection that are running.
+     */
+    private final AtomicLong memoryUsed = new AtomicLong();
+
     /**
      * Creates a connection.
      *
@@ -300,6 +307,28 @@ public class RolapConnection extends ConnectionBase {
         return id;
     }
 
+    /**
+     * Adds to the estimated memory used by the running executions of this
+     * connection, and returns the new total. Called by
+     * {@link Execution#allocateMemory(long)}.
+     *
+     * @param bytes Number of bytes; negative if memory is released
+     * @return Estimated number of bytes used by this connection's executions
+     */
+    public long allocateMemory(long bytes) {
+        return memoryUsed.addAndGet(bytes);
+    }
+
+    /**
+     * Returns the estimated memory used by the running executions of this
+     * connection.
+     *
+     * @return Estimated number of bytes
+     */
+    public long getMemoryUsed() {
+        return memoryUsed.get();
+    }
+
     protected Logger getLogger() {
         return LOGGER;
     }
@@ -673,14 +702,30 @@ public class RolapConnection extends ConnectionBase {
             Result result;
             try {
                 statement.start(execution);
-                ((RolapCube) query.getCube()).clearCachedAggregations(true);
-                result = new RolapResult(execution, true);
-                int i = 0;
-                for (QueryAxis axis : query.getAxes()) {
-                    if (axis.isNonEmpty()) {
-                        result = new NonEmptyResult(result, execution, i);
+                // A result in the cache is returned as if it had been
+                // computed by this execution, so that the execution still
+                // starts and ends.
+                final RolapResultCache resultCache = server.getResultCache();
+                final RolapResultCache.Key key =
+                    resultCache.createKey(execution);
+                result =
+                    key == null
+                        ? null
+                        : resultCache.get(key, execution);
+                if (result == null) {
+                    ((RolapCube) query.getCube()).clearCachedAggregations(true);
+                    result = new RolapResult(execution, true);
+                    int i = 0;
+                    for (QueryAxis axis : query.getAxes()) {
+                        if (axis.isNonEmpty()) {
+                            result =
+                                new NonEmptyResult(result, execution, i);
+                        }
+                        ++i;
+                    }
+                    if (key != null) {
+                        resultCache.put(key, result);
                     }
-                    ++i;
                 }
             } finally {
                 Locus.pop(locus);
@@ -689,20 +734,12 @@ public class RolapConnection extends ConnectionBase {
             statement.end(execution);
             return result;
         } catch (ResultLimitExceededException e) {
-            // query has been punted
+            // query has been punted; end the execution, so that its memory
+            // is given back to the connection, and rethrow
+            endQuietly(statement, execution);
             throw e;
         } catch (Exception e) {
-            try {
-                statement.end(execution);
-            } catch (Exception e1) {
-                /*
-                 * We can safely ignore that cleanup exception.
-                 * If an error is encountered here, it means that
-                 * one was already encountered at statement.start()
-                 * above and the exception we will throw after the
-                 * cleanup is the same as the original one.
-                 */
-            }
+            endQuietly(statement, execution);
             String queryString;
             try {
                 queryString = Util.unparse(query);
@@ -722,6 +759,26 @@ public class RolapConnection extends ConnectionBase {
         }
     }
 
+    /**
+     * Ends an execution that has failed, ignoring any error.
+     *
+     * @param statement Statement
+     * @param execution Execution
+     */
+    private static void endQuietly(Statement statement, Execution execution) {
+        try {
+            statement.end(execution);
+        } catch (Exception e1) {
+            /*
+             * We can safely ignore that cleanup exception.
+             * If an error is encountered here, it means that
+             * one was already encountered at statement.start()
+             * and the exception we will throw after the
+             * cleanup is the same as the original one.
+             */
+        }
+    }
+
     public void setRole(Role role) {
         assert role != null;
 
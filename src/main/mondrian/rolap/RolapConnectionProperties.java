@@ -165,7 +165,14 @@ public enum RolapConnectionProperties {
      * running in the current JVM. If there are multiple mondrian servers, it
      * ensures that the connection belongs to the correct one.
      */
-    Instance;
+    Instance,
+
+    /**
+     * The "Priority" property is the priority of the connection's queries
+     * when they wait to execute: "HIGH", "NORMAL" or "LOW". Default is
+     * "NORMAL". See {@link RolapResultShepherd.Priority}.
+     */
+    Priority;
 
     /**
      * Any property beginning with this value will be added to the
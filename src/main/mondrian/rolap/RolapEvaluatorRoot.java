@@ -28,14 +28,17 @@ import java.util.*;
  * @since Nov 11, 2008
  */
 class RolapEvaluatorRoot {
-    final Map<Object, Object> expResultCache = new HashMap<Object, Object>();
+    // The caches are synchronized because evaluators of the same statement
+    // may run in several threads; see ParallelTupleEvaluator.
+    final Map<Object, Object> expResultCache =
+        Collections.synchronizedMap(new HashMap<Object, Object>());
     final Map<Object, Object> tmpExpResultCache =
-        new HashMap<Object, Object>();
+        Collections.synchronizedMap(new HashMap<Object, Object>());
     final RolapCube cube;
     final RolapConnection connection;
     final SchemaReader schemaReader;
     final Map<CompiledExpKey, Calc> compiledExps =
-        new HashMap<CompiledExpKey, Calc>();
+        Collections.synchronizedMap(new HashMap<CompiledExpKey, Calc>());
     final Statement statement;
     final Query query;
     private final Date queryStartTime;
@@ -56,7 +59,8 @@ class RolapEvaluatorRoot {
             MondrianProperties.instance().SolveOrderMode.get().toUpperCase(),
             SolveOrderMode.ABSOLUTE);
 
-    final Set<Exp> activeNativeExpansions = new HashSet<Exp>();
+    final Set<Exp> activeNativeExpansions =
+        Collections.synchronizedSet(new HashSet<Exp>());
 
     /**
      * The size of the command stack at which we will next check for recursion.
@@ -496,6 +496,34 @@ public class RolapMemberBase
         return this.key;
     }
 
+    /**
+     * Creates a copy of this member in another level. The level must belong
+     * to an identical hierarchy; for example, the same hierarchy in a new
+     * version of the schema.
+     *
+     * <p>Copies the key, name, caption, properties, ordinal and order key.
+     *
+     * @param parentMember Parent of the copy
+     * @param level Level of the copy
+     * @return Copy of this member
+     */
+    RolapMemberBase copy(RolapMember parentMember, RolapLevel level) {
+        final RolapMemberBase member =
+            new RolapMemberBase(
+                parentMember, level, key, null, getMemberType());
+        synchronized (this) {
+            for (Map.Entry<String, Object> entry
+                : mapPropertyNameToValue.entrySet())
+            {
+                member.setProperty(entry.getKey(), entry.getValue());
+            }
+        }
+        member.caption = caption;
+        member.ordinal = ordinal;
+        member.orderKey = orderKey;
+        return member;
+    }
+
     /**
      * Compares this member to another {@link RolapMemberBase}.
      *
@@ -65,8 +65,12 @@ class RolapNamedSetEvaluator
     /**
      * Evaluates and saves the value of this named set, if it has not been
      * evaluated already.
+     *
+     * <p>Synchronized because chunks of a set may be evaluated in parallel,
+     * and more than one may ask for the value; the others wait, rather than
+     * seeing an evaluation in progress as recursion.
      */
-    private void ensureList() {
+    private synchronized void ensureList() {
         if (list != null) {
             if (list == DUMMY_LIST) {
                 throw rrer.result.slicerEvaluator.newEvalException(
@@ -158,6 +158,13 @@ public class RolapNativeSql {
             if (measure.isCalculated()) {
                 return null; // ??
             }
+            if (measure.getAggregator()
+                == RolapAggregator.ApproxDistinctCount)
+            {
+                // SQL would compute an exact count, which could differ from
+                // the estimate that the measure's cells hold.
+                return null;
+            }
             if (!saveStoredMeasure(measure)) {
                 return null;
             }
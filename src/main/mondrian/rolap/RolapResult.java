@@ -44,6 +44,17 @@ public class RolapResult extends ResultBase {
     private final CellKey point;
 
     private CellInfoContainer cellInfos;
+
+    /**
+     * Number of cells whose memory has been charged to the execution. The
+     * cell container is cleared and refilled in each phase, so only its
+     * high-water mark is charged.
+     */
+    private int chargedCellInfoCount;
+
+    /** Estimated number of bytes used by each {@link CellInfo}. */
+    private static final int CELL_INFO_BYTES = 64;
+
     private FastBatchingCellReader batchingReader;
     private final CellReader aggregatingReader;
     private Modulos modulos = null;
@@ -388,6 +399,7 @@ public class RolapResult extends ResultBase {
             // Execute Axes
             //
             final int savepoint = evaluator.savepoint();
+            final long axisMemoryMark = execution.getMemoryUsed();
             do {
                 try {
                     boolean redo;
@@ -441,6 +453,33 @@ public class RolapResult extends ResultBase {
 
             evaluator.restore(savepoint);
 
+            // The tuple lists built while evaluating the axes, and the axes
+            // of earlier phases, are garbage now. Give back their memory, and
+            // charge only the axes.
+            execution.releaseMemoryTo(axisMemoryMark);
+            long axisBytes = 0;
+            for (Axis axis : axes) {
+                final TupleList tupleList = ((RolapAxis) axis).getTupleList();
+                axisBytes +=
+                    (long) tupleList.size() * tupleList.getArity()
+                    * ArrayTupleList.REFERENCE_BYTES;
+            }
+            execution.allocateMemory(axisBytes);
+            execution.checkCancelOrTimeout();
+
+            // Now that the axes are known, store the cells in columnar
+            // arrays, if possible. The arrays are charged to the execution,
+            // and the budget checked, before they are allocated.
+            final int[] axisLengths = getCellStoreAxisLengths();
+            if (axisLengths != null) {
+                final long cellCount = CellInfoStore.cellCount(axisLengths);
+                execution.allocateMemory(
+                    cellCount * CellInfoStore.CELL_BYTES);
+                execution.checkCancelOrTimeout();
+                cellInfos = new CellInfoStore(axisLengths);
+                chargedCellInfoCount = (int) cellCount;
+            }
+
             // Get value for each Cell
             final Locus locus = new Locus(execution, null, "Loading cells");
             Locus.push(locus);
@@ -873,6 +912,20 @@ public class RolapResult extends ResultBase {
         return batchingReader.isDirty();
     }
 
+    /**
+     * Charges the cells created since the last call to the execution's
+     * memory budget, and fails the execution if it is over budget.
+     */
+    private void chargeCellInfos() {
+        final int size = cellInfos.size();
+        if (size > chargedCellInfoCount) {
+            execution.allocateMemory(
+                (long) (size - chargedCellInfoCount) * CELL_INFO_BYTES);
+            chargedCellInfoCount = size;
+            execution.checkCancelOrTimeout();
+        }
+    }
+
     /**
      * Evaluates an expression. Intended for evaluating named sets.
      *
@@ -941,6 +994,7 @@ public class RolapResult extends ResultBase {
             for (List<Member> members : tupleList) {
                 execution.checkCancelOrTimeout();
                 revaluator.setContext(members);
+                final long memoryMark = execution.getMemoryUsed();
                 Object o;
                 try {
                     o = revaluator.evaluateCurrent();
@@ -949,6 +1003,9 @@ public class RolapResult extends ResultBase {
                     o = e;
                 }
 
+                // Tuple lists built to evaluate the cell are garbage now.
+                execution.releaseMemoryTo(memoryMark);
+
                 CellInfo ci = null;
 
                 // Get the Cell's format string and value formatting
@@ -962,6 +1019,9 @@ public class RolapResult extends ResultBase {
                     // Create a CellInfo object for the given position
                     // integer array.
                     ci = cellInfos.create(point.getOrdinals());
+                    if (cellInfos.size() - chargedCellInfoCount >= 1024) {
+                        chargeCellInfos();
+                    }
 
                     String cachedFormatString = null;
 
@@ -1008,6 +1068,7 @@ public class RolapResult extends ResultBase {
                 }
 
                 ci.value = o;
+                cellInfos.store(ci);
             }
         } else {
             RolapAxis axis = (RolapAxis) axes[axisOrdinal];
@@ -1069,7 +1130,9 @@ public class RolapResult extends ResultBase {
                             RolapBaseCubeMeasure baseCubeMeasure =
                                 (RolapBaseCubeMeasure) measure;
                             if (baseCubeMeasure.getAggregator()
-                                == RolapAggregator.DistinctCount)
+                                == RolapAggregator.DistinctCount
+                                || baseCubeMeasure.getAggregator()
+                                == RolapAggregator.ApproxDistinctCount)
                             {
                                 processDistinctMeasureExpr(
                                     tuple, baseCubeMeasure);
@@ -1090,6 +1153,36 @@ public class RolapResult extends ResultBase {
         }
     }
 
+    /**
+     * Returns the lengths of the axes, if the cells of this result can be
+     * held in a {@link CellInfoStore}, otherwise null. They can if no axis
+     * is high-cardinality (whose cells are evaluated a chunk at a time) and
+     * there are no more cells than
+     * {@link MondrianProperties#CellStoreMaxCells}. Larger results use a
+     * {@link CellInfoMap} or {@link CellInfoPool}, which grow as cells are
+     * evaluated.
+     */
+    private int[] getCellStoreAxisLengths() {
+        final long maxCellCount =
+            Math.min(
+                Integer.MAX_VALUE,
+                MondrianProperties.instance().CellStoreMaxCells.get());
+        final int[] axisLengths = new int[axes.length];
+        long cellCount = 1;
+        for (int i = 0; i < axes.length; i++) {
+            final TupleList tupleList = ((RolapAxis) axes[i]).getTupleList();
+            if (isAxisHighCardinality(i, tupleList)) {
+                return null;
+            }
+            axisLengths[i] = tupleList.size();
+            cellCount *= axisLengths[i];
+            if (cellCount > maxCellCount) {
+                return null;
+            }
+        }
+        return axisLengths;
+    }
+
     private boolean isAxisHighCardinality(
         int axisOrdinal,
         TupleList tupleList)
@@ -1427,7 +1520,7 @@ public class RolapResult extends ResultBase {
             this.result = result;
         }
 
-        protected Evaluator.NamedSetEvaluator evaluateNamedSet(
+        protected synchronized Evaluator.NamedSetEvaluator evaluateNamedSet(
             final NamedSet namedSet,
             boolean create)
         {
@@ -1751,6 +1844,14 @@ public class RolapResult extends ResultBase {
          * @return the CellInfo found or null.
          */
         CellInfo lookup(int[] pos);
+        /**
+         * Saves the contents of a CellInfo object that was returned by
+         * {@link #create(int[])} and has since been modified. Does nothing
+         * if the container holds the CellInfo objects themselves.
+         *
+         * @param ci CellInfo object returned by <code>create</code>
+         */
+        void store(CellInfo ci);
     }
 
     /**
@@ -1797,6 +1898,9 @@ public class RolapResult extends ResultBase {
             CellKey key = CellKey.Generator.newCellKey(pos);
             return this.cellInfoMap.get(key);
         }
+        public void store(CellInfo ci) {
+            // empty
+        }
     }
 
     /**
@@ -1944,6 +2048,224 @@ public class RolapResult extends ResultBase {
             long key = this.cellKeyMaker.generate(pos);
             return this.cellInfoPool.add(new CellInfo(key));
         }
+        public void store(CellInfo ci) {
+            // empty
+        }
+    }
+
+    /**
+     * Implementation of {@link CellInfoContainer} that stores cells in
+     * columnar arrays, sized from the lengths of the axes, rather than as
+     * one {@link CellInfo} object per cell.
+     *
+     * <p>Numeric values ({@link Double} and {@link Integer}) are held in a
+     * <code>double</code> array; empty cells, and cells whose value is an
+     * integer, are flagged in bit sets; other values, including errors, are
+     * held in a sparse map. Each cell has an index into a list of the
+     * distinct (format string, value formatter) pairs of the result.
+     * A cell occupies about 12 bytes, rather than the 100 or so of a
+     * {@link CellInfo} and its boxed value.
+     *
+     * <p>{@link #create(int[])} and {@link #lookup(int[])} return a new
+     * CellInfo that is a view of one cell; changes to it are saved by
+     * {@link #store(CellInfo)}. A {@link RolapCell} built on such a view is
+     * therefore a flyweight, created when the cell is accessed.
+     */
+    static class CellInfoStore implements CellInfoContainer {
+        /** Estimated number of bytes used by each cell. */
+        static final int CELL_BYTES = 12;
+
+        private final int[] axisLengths;
+        private final int cellCount;
+        private final double[] values;
+        private final int[] formatIndexes;
+
+        /** Cells that have been created. */
+        private final BitSet created = new BitSet();
+
+        /** Cells that have a value. */
+        private final BitSet present = new BitSet();
+
+        /** Cells whose value is {@link Util#nullValue}. */
+        private final BitSet nulls = new BitSet();
+
+        /** Cells whose value is an {@link Integer}. */
+        private final BitSet integers = new BitSet();
+
+        /** Values that are not numeric, such as strings and errors. */
+        private final Map<Integer, Object> objects =
+            new HashMap<Integer, Object>();
+
+        /** Distinct (format string, value formatter) pairs. */
+        private final List<CellInfo> formats = new ArrayList<CellInfo>();
+        private int lastFormatIndex;
+        private int size;
+
+        /**
+         * Creates a CellInfoStore.
+         *
+         * @param axisLengths Number of positions on each axis; the product
+         *   must not exceed {@link Integer#MAX_VALUE}
+         */
+        CellInfoStore(int[] axisLengths) {
+            this.axisLengths = axisLengths.clone();
+            final long cellCount = cellCount(axisLengths);
+            assert cellCount <= Integer.MAX_VALUE;
+            this.cellCount = (int) cellCount;
+            this.values = new double[this.cellCount];
+            this.formatIndexes = new int[this.cellCount];
+            // Index 0 is the format of a CellInfo that has just been created.
+            formats.add(new CellInfo(0));
+        }
+
+        /**
+         * Returns the number of cells in a store with the given axis lengths.
+         *
+         * @param axisLengths Number of positions on each axis
+         * @return Number of cells
+         */
+        static long cellCount(int[] axisLengths) {
+            long cellCount = 1;
+            for (int axisLength : axisLengths) {
+                cellCount *= axisLength;
+            }
+            return cellCount;
+        }
+
+        /**
+         * Returns the number of cells that this store can hold.
+         *
+         * @return Number of cells
+         */
+        int getCellCount() {
+            return cellCount;
+        }
+
+        /**
+         * Returns the ordinal of the cell at a given position, or -1 if the
+         * position is out of range.
+         */
+        private int ordinal(int[] pos) {
+            if (pos.length != axisLengths.length) {
+                return -1;
+            }
+            int ordinal = 0;
+            for (int i = pos.length - 1; i >= 0; i--) {
+                if (pos[i] < 0 || pos[i] >= axisLengths[i]) {
+                    return -1;
+                }
+                ordinal = ordinal * axisLengths[i] + pos[i];
+            }
+            return ordinal;
+        }
+
+        public int size() {
+            return size;
+        }
+        public void trimToSize() {
+            // empty
+        }
+        public void clear() {
+            created.clear();
+            present.clear();
+            nulls.clear();
+            integers.clear();
+            objects.clear();
+            Arrays.fill(formatIndexes, 0);
+            size = 0;
+        }
+        public CellInfo create(int[] pos) {
+            final int ordinal = ordinal(pos);
+            assert ordinal >= 0;
+            if (!created.get(ordinal)) {
+                created.set(ordinal);
+                ++size;
+            }
+            return get(ordinal);
+        }
+        public CellInfo lookup(int[] pos) {
+            final int ordinal = ordinal(pos);
+            if (ordinal < 0) {
+                // Let the caller report that the position is out of range.
+                return new CellInfo(0);
+            }
+            return get(ordinal);
+        }
+
+        private CellInfo get(int ordinal) {
+            final CellInfo format = formats.get(formatIndexes[ordinal]);
+            final Object value;
+            if (!present.get(ordinal)) {
+                value = null;
+            } else if (nulls.get(ordinal)) {
+                value = Util.nullValue;
+            } else if (integers.get(ordinal)) {
+                value = (int) values[ordinal];
+            } else if (objects.containsKey(ordinal)) {
+                value = objects.get(ordinal);
+            } else {
+                value = values[ordinal];
+            }
+            return new CellInfo(
+                ordinal, value, format.formatString, format.valueFormatter);
+        }
+
+        public void store(CellInfo ci) {
+            final int ordinal = (int) ci.key;
+            formatIndexes[ordinal] =
+                formatIndex(ci.formatString, ci.valueFormatter);
+            nulls.clear(ordinal);
+            integers.clear(ordinal);
+            objects.remove(ordinal);
+            final Object value = ci.value;
+            if (value == null) {
+                present.clear(ordinal);
+                return;
+            }
+            present.set(ordinal);
+            if (value == Util.nullValue) {
+                nulls.set(ordinal);
+            } else if (value instanceof Double) {
+                values[ordinal] = (Double) value;
+            } else if (value instanceof Integer) {
+                values[ordinal] = (Integer) value;
+                integers.set(ordinal);
+            } else {
+                objects.put(ordinal, value);
+            }
+        }
+
+        /**
+         * Returns the index of a (format string, value formatter) pair,
+         * adding it to the list if it is new. Consecutive cells usually have
+         * the same format, so the last one found is checked first.
+         */
+        private int formatIndex(
+            String formatString,
+            ValueFormatter valueFormatter)
+        {
+            if (matches(formats.get(lastFormatIndex), formatString,
+                    valueFormatter))
+            {
+                return lastFormatIndex;
+            }
+            for (int i = 0; i < formats.size(); i++) {
+                if (matches(formats.get(i), formatString, valueFormatter)) {
+                    return lastFormatIndex = i;
+                }
+            }
+            formats.add(new CellInfo(0, null, formatString, valueFormatter));
+            return lastFormatIndex = formats.size() - 1;
+        }
+
+        private static boolean matches(
+            CellInfo format,
+            String formatString,
+            ValueFormatter valueFormatter)
+        {
+            return format.valueFormatter == valueFormatter
+                && Util.equals(format.formatString, formatString);
+        }
     }
 
     static TupleList mergeAxes(
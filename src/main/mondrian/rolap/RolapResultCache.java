@@ -0,0 +1,636 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.calc.TupleCollections;
+import mondrian.calc.TupleList;
+import mondrian.mdx.*;
+import mondrian.olap.*;
+import mondrian.server.Execution;
+import mondrian.server.Statement;
+
+import org.apache.log4j.Logger;
+
+import org.olap4j.AllocationPolicy;
+import org.olap4j.Scenario;
+
+import java.util.*;
+
+/**
+ * Cache of the results of queries, so that a query that is identical to one
+ * that has been executed recently returns immediately, without evaluating
+ * its axes and cells again.
+ *
+ * <p>The key of a result is the query's MDX (as normalized by the parser),
+ * the values of its parameters, and the connection's schema, role and
+ * locale. A result is not cached if the connection has a scenario, if the
+ * schema has a data source change listener, if the cube has a
+ * high-cardinality dimension, if the statement is being profiled, or if the
+ * query calls a function whose value changes over time, such as
+ * <code>Now()</code>.
+ *
+ * <p>The cache holds a copy of the axes and cells of a result, which does
+ * not refer to the execution, statement or connection that computed it.
+ * The value, format string and formatted value of each cell are copied,
+ * along with its standard cell properties, such as <code>FORE_COLOR</code>.
+ * A cell of a cached result cannot be drilled through.
+ *
+ * <p>Flushing a region of the cell cache via
+ * {@link mondrian.olap.CacheControl} removes the results of queries on the
+ * cubes whose stars the region touches (and of virtual cubes built on those
+ * cubes). Cells that a query reads from another cube via the
+ * <code>LookupCube</code> function are not tracked.
+ *
+ * <p>The cache is enabled by {@link MondrianProperties#EnableResultCache},
+ * and the estimated size of the results it holds is limited by
+ * {@link MondrianProperties#ResultCacheMaxSize}; when the cache is full,
+ * the least recently used results are removed.
+ *
+ * <p>There is one result cache per {@link MondrianServer}. This class is
+ * thread-safe.
+ *
+ * @author jhyde
+ */
+public class RolapResultCache {
+    private static final Logger LOGGER =
+        Logger.getLogger(RolapResultCache.class);
+
+    /** Estimated number of bytes used by each cell of a result. */
+    private static final int CELL_BYTES = 64;
+
+    /** Estimated number of bytes used by each position of an axis. */
+    private static final int POSITION_BYTES = 32;
+
+    /** Entries, least recently used first. */
+    private final LinkedHashMap<Key, Entry> map =
+        new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+
+    /** Estimated total size of the cached results. */
+    private long size;
+
+    /**
+     * Incremented each time the cache is flushed. A result is not cached if
+     * a flush occurred while it was being computed, because it may contain
+     * cells that were flushed.
+     */
+    private long generation;
+
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * Names, in upper case, of functions whose value may be different each
+     * time they are called.
+     */
+    private static final Set<String> NON_DETERMINISTIC_FUNCTIONS =
+        new HashSet<String>(
+            Arrays.asList(
+                "NOW", "DATE", "TIME", "TIMER",
+                "CURRENTDATEMEMBER", "CURRENTDATESTRING"));
+
+    /**
+     * Standard cell properties that are copied into a cached result.
+     * {@link CachedCell} answers the others itself.
+     */
+    private static final List<Property> CELL_PROPERTIES =
+        new ArrayList<Property>();
+
+    static {
+        for (String name : Property.enumeration.getNames()) {
+            final Property property = Property.enumeration.getValue(name, true);
+            if (property.isCellProperty()) {
+                switch (property.ordinal) {
+                case Property.CELL_ORDINAL_ORDINAL:
+                case Property.VALUE_ORDINAL:
+                case Property.FORMAT_STRING_ORDINAL:
+                case Property.FORMATTED_VALUE_ORDINAL:
+                case Property.ACTION_TYPE_ORDINAL:
+                case Property.DRILLTHROUGH_COUNT_ORDINAL:
+                    break;
+                default:
+                    CELL_PROPERTIES.add(property);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a RolapResultCache.
+     */
+    public RolapResultCache() {
+    }
+
+    /**
+     * Returns the key under which the result of an execution would be
+     * cached, or null if the result cannot be cached.
+     *
+     * @param execution Execution
+     * @return Key, or null
+     */
+    public Key createKey(Execution execution) {
+        if (!MondrianProperties.instance().EnableResultCache.get()) {
+            return null;
+        }
+        final Statement statement = execution.getMondrianStatement();
+        final Query query = statement.getQuery();
+        if (query == null || statement.getProfileHandler() != null) {
+            return null;
+        }
+        final RolapConnection connection = statement.getMondrianConnection();
+        final RolapSchema schema = connection.getSchema();
+        if (connection.getScenario() != null
+            || schema.getDataSourceChangeListener() != null)
+        {
+            return null;
+        }
+        final RolapCube cube = (RolapCube) query.getCube();
+        for (Dimension dimension : cube.getDimensions()) {
+            if (dimension.isHighCardinality()) {
+                return null;
+            }
+        }
+        final NonDeterministicFinder finder = new NonDeterministicFinder();
+        query.accept(finder);
+        if (finder.found) {
+            return null;
+        }
+        final List<Object> values = new ArrayList<Object>();
+        values.add(schema);
+        values.add(connection.getRole());
+        values.add(connection.getLocale());
+        values.add(Util.unparse(query));
+        for (Parameter parameter : query.getParameters()) {
+            values.add(parameter.getName());
+            values.add(parameter.getValue());
+        }
+        synchronized (this) {
+            return new Key(values, schema, getStars(cube), generation);
+        }
+    }
+
+    /**
+     * Returns the stars that hold the cells of a cube: its own star, or, if
+     * it is virtual, the stars of the cubes it is built on.
+     */
+    private static Set<RolapStar> getStars(RolapCube cube) {
+        if (!cube.isVirtual()) {
+            return Collections.singleton(cube.getStar());
+        }
+        final Set<RolapStar> stars = new HashSet<RolapStar>();
+        for (RolapMember measure : cube.getMeasuresMembers()) {
+            if (measure instanceof RolapStoredMeasure) {
+                stars.add(((RolapStoredMeasure) measure).getCube().getStar());
+            }
+        }
+        return stars;
+    }
+
+    /**
+     * Returns the cached result for a key, or null if there is none.
+     *
+     * @param key Key
+     * @param execution Execution that the result is for
+     * @return Cached result, or null
+     */
+    public Result get(Key key, Execution execution) {
+        final Entry entry;
+        synchronized (this) {
+            entry = map.get(key);
+            if (entry == null) {
+                ++missCount;
+                return null;
+            }
+            ++hitCount;
+        }
+        return new CachedResult(execution, entry.snapshot);
+    }
+
+    /**
+     * Caches a copy of a result, if it fits within the cache's budget, and if
+     * the cache has not been flushed since the key was created.
+     *
+     * <p>Must be called by the execution that computed the result, before
+     * it ends, because copying the result may evaluate cell properties.
+     *
+     * @param key Key
+     * @param result Result
+     */
+    public void put(Key key, Result result) {
+        final long maxSize =
+            MondrianProperties.instance().ResultCacheMaxSize.get();
+        final long resultSize = estimateSize(result);
+        synchronized (this) {
+            if (key.generation != generation || resultSize > maxSize) {
+                return;
+            }
+        }
+        final Snapshot snapshot = new Snapshot(result);
+        synchronized (this) {
+            if (key.generation != generation) {
+                return;
+            }
+            final Entry previous =
+                map.put(key, new Entry(snapshot, resultSize));
+            if (previous != null) {
+                size -= previous.size;
+            }
+            size += resultSize;
+            for (Iterator<Entry> iterator = map.values().iterator();
+                size > maxSize && iterator.hasNext();)
+            {
+                size -= iterator.next().size;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes the results of queries that read cells from any of the given
+     * stars.
+     *
+     * @param stars Stars whose cells have been flushed
+     */
+    public synchronized void flush(Collection<RolapStar> stars) {
+        ++generation;
+        for (Iterator<Map.Entry<Key, Entry>> iterator =
+                 map.entrySet().iterator();
+             iterator.hasNext();)
+        {
+            final Map.Entry<Key, Entry> entry = iterator.next();
+            if (!Collections.disjoint(entry.getKey().stars, stars)) {
+                size -= entry.getValue().size;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes the results of queries on a given schema.
+     *
+     * @param schema Schema
+     */
+    public synchronized void flush(RolapSchema schema) {
+        ++generation;
+        for (Iterator<Map.Entry<Key, Entry>> iterator =
+                 map.entrySet().iterator();
+             iterator.hasNext();)
+        {
+            final Map.Entry<Key, Entry> entry = iterator.next();
+            if (entry.getKey().schema == schema) {
+                size -= entry.getValue().size;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all results.
+     */
+    public synchronized void clear() {
+        ++generation;
+        map.clear();
+        size = 0;
+    }
+
+    /**
+     * Returns the number of cached results.
+     *
+     * @return Number of results
+     */
+    public synchronized int getResultCount() {
+        return map.size();
+    }
+
+    /**
+     * Returns the estimated total size of the cached results, in bytes.
+     *
+     * @return Estimated size
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the number of executions whose result was found in the cache.
+     *
+     * @return Number of hits
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of executions whose result could have been cached
+     * but was not found in the cache.
+     *
+     * @return Number of misses
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Estimates the number of bytes used by a result.
+     */
+    private static long estimateSize(Result result) {
+        long cellCount = 1;
+        long bytes = 0;
+        for (Axis axis : result.getAxes()) {
+            final List<Position> positions = axis.getPositions();
+            cellCount *= positions.size();
+            bytes += (long) positions.size() * POSITION_BYTES;
+            if (!positions.isEmpty()) {
+                bytes += (long) positions.size() * positions.get(0).size() * 8;
+            }
+        }
+        return bytes + cellCount * CELL_BYTES;
+    }
+
+    /**
+     * Key of a cached result.
+     */
+    public static class Key {
+        private final List<Object> values;
+        private final RolapSchema schema;
+        private final Set<RolapStar> stars;
+        private final long generation;
+
+        private Key(
+            List<Object> values,
+            RolapSchema schema,
+            Set<RolapStar> stars,
+            long generation)
+        {
+            this.values = values;
+            this.schema = schema;
+            this.stars = stars;
+            this.generation = generation;
+        }
+
+        public boolean equals(Object obj) {
+            return obj == this
+                || obj instanceof Key
+                && values.equals(((Key) obj).values);
+        }
+
+        public int hashCode() {
+            return values.hashCode();
+        }
+    }
+
+    private static class Entry {
+        final Snapshot snapshot;
+        final long size;
+
+        Entry(Snapshot snapshot, long size) {
+            this.snapshot = snapshot;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Copy of the axes and cells of a result.
+     */
+    static class Snapshot {
+        final Axis[] axes;
+        final Axis slicerAxis;
+        final CellValue[] cells;
+
+        Snapshot(Result result) {
+            final Axis[] resultAxes = result.getAxes();
+            axes = new Axis[resultAxes.length];
+            int cellCount = 1;
+            for (int i = 0; i < resultAxes.length; i++) {
+                axes[i] = copy(resultAxes[i]);
+                cellCount *= axes[i].getPositions().size();
+            }
+            slicerAxis = copy(result.getSlicerAxis());
+            cells = new CellValue[cellCount];
+            final int[] pos = new int[axes.length];
+            for (int ordinal = 0; ordinal < cellCount; ordinal++) {
+                int k = ordinal;
+                for (int i = 0; i < axes.length; i++) {
+                    final int axisLength = axes[i].getPositions().size();
+                    pos[i] = k % axisLength;
+                    k /= axisLength;
+                }
+                cells[ordinal] = new CellValue(result.getCell(pos));
+            }
+        }
+
+        private static Axis copy(Axis axis) {
+            final List<Position> positions = axis.getPositions();
+            final TupleList list =
+                TupleCollections.createList(
+                    positions.isEmpty() ? 1 : positions.get(0).size(),
+                    positions.size());
+            for (Position position : positions) {
+                list.add(new ArrayList<Member>(position));
+            }
+            return new RolapAxis(list);
+        }
+    }
+
+    /**
+     * Copy of the value and properties of a cell.
+     */
+    static class CellValue {
+        final Object value;
+        final String formatString;
+        final String formattedValue;
+        final boolean nullValue;
+        final boolean error;
+
+        /** Values of standard cell properties that are not null; or null. */
+        final Map<Property, Object> properties;
+
+        CellValue(Cell cell) {
+            value = cell.getValue();
+            formatString =
+                (String) cell.getPropertyValue(Property.FORMAT_STRING.name);
+            formattedValue = cell.getFormattedValue();
+            nullValue = cell.isNull();
+            error = cell.isError();
+            Map<Property, Object> properties = null;
+            for (Property property : CELL_PROPERTIES) {
+                final Object propertyValue =
+                    cell.getPropertyValue(property.name);
+                if (propertyValue != null) {
+                    if (properties == null) {
+                        properties = new HashMap<Property, Object>();
+                    }
+                    properties.put(property, propertyValue);
+                }
+            }
+            this.properties = properties;
+        }
+    }
+
+    /**
+     * Result that is returned to an execution, and whose axes and cells
+     * are copies held in the cache.
+     *
+     * <p>Several executions may read the same copy at the same time; the
+     * copy is not modified after it has been created.
+     */
+    static class CachedResult extends ResultBase {
+        private final Snapshot snapshot;
+
+        CachedResult(Execution execution, Snapshot snapshot) {
+            super(execution, snapshot.axes);
+            this.snapshot = snapshot;
+            this.slicerAxis = snapshot.slicerAxis;
+        }
+
+        protected Logger getLogger() {
+            return LOGGER;
+        }
+
+        public Cell getCell(int[] pos) {
+            int ordinal = 0;
+            for (int i = axes.length - 1; i >= 0; i--) {
+                ordinal = ordinal * axes[i].getPositions().size() + pos[i];
+            }
+            return new CachedCell(this, pos.clone(), snapshot.cells[ordinal]);
+        }
+    }
+
+    /**
+     * Cell of a {@link CachedResult}.
+     */
+    private static class CachedCell implements Cell {
+        private final CachedResult result;
+        private final int[] pos;
+        private final CellValue cellValue;
+
+        CachedCell(CachedResult result, int[] pos, CellValue cellValue) {
+            this.result = result;
+            this.pos = pos;
+            this.cellValue = cellValue;
+        }
+
+        public List<Integer> getCoordinateList() {
+            final List<Integer> list = new ArrayList<Integer>(pos.length);
+            for (int i : pos) {
+                list.add(i);
+            }
+            return list;
+        }
+
+        public Object getValue() {
+            return cellValue.value;
+        }
+
+        public String getCachedFormatString() {
+            return cellValue.formatString;
+        }
+
+        public String getFormattedValue() {
+            return cellValue.formattedValue;
+        }
+
+        public boolean isNull() {
+            return cellValue.nullValue;
+        }
+
+        public boolean isError() {
+            return cellValue.error;
+        }
+
+        public String getDrillThroughSQL(boolean extendedContext) {
+            return null;
+        }
+
+        public boolean canDrillThrough() {
+            return false;
+        }
+
+        public int getDrillThroughCount() {
+            return -1;
+        }
+
+        public Object getPropertyValue(String propertyName) {
+            final boolean matchCase =
+                MondrianProperties.instance().CaseSensitive.get();
+            final Property property = Property.lookup(propertyName, matchCase);
+            if (property == null) {
+                return null;
+            }
+            switch (property.ordinal) {
+            case Property.CELL_ORDINAL_ORDINAL:
+                int ordinal = 0;
+                for (int i = pos.length - 1; i >= 0; i--) {
+                    ordinal =
+                        ordinal * result.getAxes()[i].getPositions().size()
+                        + pos[i];
+                }
+                return ordinal;
+            case Property.VALUE_ORDINAL:
+                return getValue();
+            case Property.FORMAT_STRING_ORDINAL:
+                return cellValue.formatString;
+            case Property.FORMATTED_VALUE_ORDINAL:
+                return getFormattedValue();
+            case Property.ACTION_TYPE_ORDINAL:
+                return 0;
+            case Property.DRILLTHROUGH_COUNT_ORDINAL:
+                return -1;
+            default:
+                return cellValue.properties == null
+                    ? null
+                    : cellValue.properties.get(property);
+            }
+        }
+
+        public Member getContextMember(Hierarchy hierarchy) {
+            return result.getMember(pos, hierarchy);
+        }
+
+        public void setValue(
+            Scenario scenario,
+            Object newValue,
+            AllocationPolicy allocationPolicy,
+            Object... allocationArgs)
+        {
+            throw Util.newError("Cannot write to a cell of a cached result");
+        }
+    }
+
+    /**
+     * Visitor that looks for calls to functions whose value may change over
+     * time, in a query and in the calculated members it uses.
+     */
+    private static class NonDeterministicFinder extends MdxVisitorImpl {
+        private final Set<Member> members = new HashSet<Member>();
+        boolean found;
+
+        public Object visit(ResolvedFunCall call) {
+            if (NON_DETERMINISTIC_FUNCTIONS.contains(
+                    call.getFunDef().getName().toUpperCase()))
+            {
+                found = true;
+            }
+            return null;
+        }
+
+        public Object visit(MemberExpr memberExpr) {
+            final Member member = memberExpr.getMember();
+            if (member.isCalculated()
+                && member.getExpression() != null
+                && members.add(member))
+            {
+                member.getExpression().accept(this);
+            }
+            return null;
+        }
+    }
+}
+
+// End RolapResultCache.java
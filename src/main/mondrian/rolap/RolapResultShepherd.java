@@ -4,18 +4,16 @@
 // http://www.eclipse.org/legal/epl-v10.html.
 // You must accept the terms of that agreement to use this software.
 //
-// Copyright (C) 2011-2011 Pentaho and others
+// Copyright (C) 2011-2012 Pentaho and others
 // All Rights Reserved.
 */
 package mondrian.rolap;
 
 import mondrian.olap.*;
+import mondrian.resource.MondrianResource;
 import mondrian.server.Execution;
-import mondrian.util.Pair;
 
-import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.*;
 import java.util.concurrent.*;
 
 /**
@@ -29,69 +27,93 @@ import java.util.concurrent.*;
  * <li>Gracefully cancel all SQL statements and cleanup in the background.</li>
  * </ul>
  *
+ * <p>The shepherd is also a scheduler. Executions wait in a queue until they
+ * are admitted; at most
+ * {@link MondrianProperties#RolapConnectionShepherdNbThreads} run at a time,
+ * and no more than
+ * {@link MondrianProperties#RolapConnectionShepherdMaxQueriesPerConnection}
+ * per connection and
+ * {@link MondrianProperties#RolapConnectionShepherdMaxQueriesPerRole} per
+ * role. Among the executions that are eligible, those of connections with a
+ * higher {@link Priority} go first, then the ones that have waited longest.
+ * If the queue is full, an execution is rejected.
+ *
+ * <p>After the first phase of an execution, when the number of cells that
+ * were not in the cache is known, an execution that has at least
+ * {@link MondrianProperties#RolapConnectionShepherdHeavyQueryCellCount}
+ * such cells is deemed heavy. It gives up its slot, and waits to run in a
+ * separate lane of at most
+ * {@link MondrianProperties#RolapConnectionShepherdMaxHeavyQueries}
+ * executions; so a burst of large reports does not hold up small queries.
+ *
+ * <p>Cancellation is event-driven: an execution that is canceled or runs out
+ * of memory notifies the shepherd, and a timer fires when an execution's
+ * timeout expires.
+ *
  * @author LBoudreau
  */
 public class RolapResultShepherd {
 
     /**
-     * An executor service used for both the shepherd thread and the
-     * Execution objects.
+     * An executor service used for both the executions and the cleanup of
+     * executions that have been canceled. The scheduler, not the executor,
+     * limits the number of executions that run at a time.
      */
     private final ExecutorService executor =
         Util.getExecutorService(
-            MondrianProperties.instance()
-                .RolapConnectionShepherdNbThreads.get(),
             "mondrian.rolap.RolapResultShepherd$executor");
 
     /**
-     * List of tasks that should be monitored by the shepherd thread.
+     * Timer that fires when executions time out.
+     */
+    private final ScheduledExecutorService timer =
+        Util.getScheduledExecutorService(
+            1, "mondrian.rolap.RolapResultShepherd#timer");
+
+    /**
+     * Executions that are waiting to be admitted, in the order that they
+     * will be considered.
+     */
+    private final SortedSet<Task> queue = new TreeSet<Task>();
+
+    /**
+     * Heavy executions that are waiting to continue, in the order that they
+     * will be considered.
+     */
+    private final SortedSet<Task> heavyQueue = new TreeSet<Task>();
+
+    /**
+     * All executions that are queued or running.
+     */
+    private final Map<Execution, Task> tasks =
+        new IdentityHashMap<Execution, Task>();
+
+    private final Map<Integer, Integer> connectionCounts =
+        new HashMap<Integer, Integer>();
+    private final Map<String, Integer> roleCounts =
+        new HashMap<String, Integer>();
+
+    /**
+     * The task, if any, that the current thread is executing. An execution
+     * started by another execution is not subject to admission control;
+     * otherwise the two could deadlock.
      */
-    private final List<Pair<FutureTask<Result>, Execution>> tasks =
-        new CopyOnWriteArrayList<Pair<FutureTask<Result>,Execution>>();
+    private static final ThreadLocal<Task> CURRENT_TASK =
+        new ThreadLocal<Task>();
 
-    private final Timer timer =
-        Util.newTimer("mondrian.rolap.RolapResultShepherd#timer", true);
+    /** Number of executions holding a regular slot. */
+    private int runningCount;
+
+    /** Number of heavy executions running in the heavy lane. */
+    private int heavyRunningCount;
+
+    private long sequence;
+    private long admittedCount;
+    private long rejectedCount;
+    private long heavyCount;
+    private long queueMillis;
 
     public RolapResultShepherd() {
-        timer.scheduleAtFixedRate(
-            new TimerTask() {
-            public void run() {
-                for (final Pair<FutureTask<Result>, Execution> task
-                    : tasks)
-                {
-                    if (task.left.isDone()) {
-                        tasks.remove(task);
-                        continue;
-                    }
-                    if (task.right.isCancelOrTimeout()) {
-                        // Remove it from the list so that we know
-                        // it was cleaned once.
-                        tasks.remove(task);
-                        // Cancel the FutureTask for which
-                        // the user thread awaits. The user
-                        // thread will call
-                        // Execution.checkCancelOrTimeout
-                        // later and take care of sending
-                        // an exception on the user thread.
-                        task.left.cancel(true);
-                        // The cleanup operation can be done async.
-                        // Let's not interrupt this task.
-                        executor.submit(
-                            new Runnable() {
-                                public void run() {
-                                    // Now cleanup the statement on
-                                    // this thread.
-                                    task.right.cancelSqlStatements();
-                            }
-                        });
-                    }
-                }
-            }
-        },
-        MondrianProperties.instance()
-            .RolapConnectionShepherdThreadPollingInterval.get(),
-        MondrianProperties.instance()
-            .RolapConnectionShepherdThreadPollingInterval.get());
     }
 
     /**
@@ -105,7 +127,8 @@ public class RolapResultShepherd {
      * @param execution An Execution instance.
      * @param callable A callable to monitor returning a Result instance.
      * @throws ResourceLimitExceededException if some resource limit specified
-     * in the property file was exceeded
+     * in the property file was exceeded, or if the queue of executions
+     * waiting to run is full
      * @throws QueryCanceledException if query was canceled during execution
      * @throws QueryTimeoutException if query exceeded timeout specified in
      * the property file
@@ -118,20 +141,17 @@ public class RolapResultShepherd {
     {
         // We must wrap this execution into a task that so that we are able
         // to monitor, cancel and detach from it.
-        FutureTask<Result> task = new FutureTask<Result>(callable);
-        // Register this task with the shepherd thread
-        final Pair<FutureTask<Result>, Execution> pair =
-            new Pair<FutureTask<Result>, Execution>(
-                task,
-                execution);
-        tasks.add(pair);
+        final Task task =
+            new Task(execution, new FutureTask<Result>(callable));
+        submit(task);
         try {
-            // Now run it.
-            executor.execute(task);
-            return task.get();
+            return task.future.get();
         } catch (Exception e) {
             if (e instanceof InterruptedException) {
                 Thread.currentThread().interrupt();
+                // The user thread has given up; don't leave the execution
+                // running, or waiting in the queue.
+                cancel(task);
             }
             Throwable node = e;
             if (e instanceof ExecutionException) {
@@ -166,12 +186,410 @@ public class RolapResultShepherd {
         }
     }
 
+    /**
+     * Queues a task, and starts it if it can be admitted immediately.
+     *
+     * @throws ResourceLimitExceededException if the queue is full
+     */
+    private synchronized void submit(Task task) {
+        if (CURRENT_TASK.get() != null) {
+            task.exempt = true;
+            tasks.put(task.execution, task);
+            start(task);
+            return;
+        }
+        tasks.put(task.execution, task);
+        queue.add(task);
+        dispatch();
+        final int maxQueued =
+            MondrianProperties.instance()
+                .RolapConnectionShepherdMaxQueuedQueries.get();
+        if (maxQueued > 0
+            && queue.size() > maxQueued
+            && queue.remove(task))
+        {
+            tasks.remove(task.execution);
+            ++rejectedCount;
+            throw MondrianResource.instance().QueryRejected.ex(maxQueued);
+        }
+    }
+
+    /**
+     * Starts as many queued tasks as the limits allow. The caller must hold
+     * the lock.
+     */
+    private void dispatch() {
+        final MondrianProperties props = MondrianProperties.instance();
+        final int maxRunning = props.RolapConnectionShepherdNbThreads.get();
+        final int maxPerConnection =
+            props.RolapConnectionShepherdMaxQueriesPerConnection.get();
+        final int maxPerRole =
+            props.RolapConnectionShepherdMaxQueriesPerRole.get();
+        for (Iterator<Task> iterator = queue.iterator();
+            iterator.hasNext()
+            && (maxRunning <= 0 || runningCount < maxRunning);)
+        {
+            final Task task = iterator.next();
+            if (maxPerConnection > 0
+                && count(connectionCounts, task.connectionId)
+                >= maxPerConnection)
+            {
+                continue;
+            }
+            if (maxPerRole > 0
+                && count(roleCounts, task.roleName) >= maxPerRole)
+            {
+                continue;
+            }
+            iterator.remove();
+            ++runningCount;
+            increment(connectionCounts, task.connectionId, 1);
+            increment(roleCounts, task.roleName, 1);
+            ++admittedCount;
+            queueMillis += System.currentTimeMillis() - task.submitMillis;
+            start(task);
+        }
+    }
+
+    /**
+     * Runs a task on the executor, and schedules its timeout. The caller must
+     * hold the lock.
+     */
+    private void start(final Task task) {
+        task.running = true;
+        final long timeout = task.execution.getTimeoutIntervalMillis();
+        if (timeout > 0) {
+            scheduleTimeout(task, timeout);
+        }
+        executor.execute(
+            new Runnable() {
+                public void run() {
+                    CURRENT_TASK.set(task);
+                    try {
+                        task.future.run();
+                    } finally {
+                        CURRENT_TASK.remove();
+                        finished(task);
+                    }
+                }
+            });
+    }
+
+    /**
+     * Schedules a check for the timeout of a task. If the execution has not
+     * timed out when the check fires (it may have started some time after
+     * it was admitted), the check is rescheduled.
+     */
+    private void scheduleTimeout(final Task task, long delayMillis) {
+        task.timeoutFuture =
+            timer.schedule(
+                new Runnable() {
+                    public void run() {
+                        final Execution execution = task.execution;
+                        if (execution.isCancelOrTimeout()) {
+                            cancel(task);
+                            return;
+                        }
+                        synchronized (RolapResultShepherd.this) {
+                            if (!task.running) {
+                                return;
+                            }
+                            final long startTime = execution.getStartTime();
+                            final long timeout =
+                                execution.getTimeoutIntervalMillis();
+                            scheduleTimeout(
+                                task,
+                                startTime == 0
+                                    ? timeout
+                                    : Math.max(
+                                        startTime + timeout
+                                        - System.currentTimeMillis() + 1,
+                                        1));
+                        }
+                    }
+                },
+                delayMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Releases the slot of a task that has finished, and starts any tasks
+     * that were waiting for it.
+     */
+    private synchronized void finished(Task task) {
+        if (!task.running) {
+            return;
+        }
+        task.running = false;
+        if (task.timeoutFuture != null) {
+            task.timeoutFuture.cancel(false);
+        }
+        tasks.remove(task.execution);
+        heavyQueue.remove(task);
+        if (!task.exempt) {
+            if (task.heavyRunning) {
+                --heavyRunningCount;
+            } else if (!task.heavy) {
+                --runningCount;
+            }
+            increment(connectionCounts, task.connectionId, -1);
+            increment(roleCounts, task.roleName, -1);
+        }
+        dispatch();
+        notifyAll();
+    }
+
+    /**
+     * Called by an {@link Execution} when it is canceled, or has run out of
+     * memory. Cancels the task, so that the user thread returns immediately,
+     * and cancels its SQL statements in the background.
+     *
+     * @param execution Execution
+     */
+    public void cancel(Execution execution) {
+        final Task task;
+        synchronized (this) {
+            task = tasks.get(execution);
+        }
+        if (task != null) {
+            cancel(task);
+        }
+    }
+
+    private void cancel(final Task task) {
+        synchronized (this) {
+            if (task.canceled) {
+                return;
+            }
+            task.canceled = true;
+            if (queue.remove(task)) {
+                tasks.remove(task.execution);
+            }
+        }
+        // Cancel the FutureTask for which the user thread awaits. The user
+        // thread will call Execution.checkCancelOrTimeout later and take care
+        // of sending an exception on the user thread.
+        task.future.cancel(true);
+        // The cleanup operation can be done async.
+        executor.submit(
+            new Runnable() {
+                public void run() {
+                    task.execution.cancelSqlStatements();
+                }
+            });
+    }
+
+    /**
+     * Called by an {@link Execution} at the end of each phase. After the
+     * first phase, if the execution needs to load a large number of cells,
+     * it gives up its regular slot and waits for a place in the lane for
+     * heavy executions.
+     *
+     * @param execution Execution
+     * @param phase Phase that has just ended, starting from 0
+     * @param missCount Number of cells that were not in the cache
+     */
+    public void phaseEnded(Execution execution, int phase, int missCount) {
+        final MondrianProperties props = MondrianProperties.instance();
+        final int heavyCellCount =
+            props.RolapConnectionShepherdHeavyQueryCellCount.get();
+        if (phase != 0 || heavyCellCount <= 0 || missCount < heavyCellCount) {
+            return;
+        }
+        synchronized (this) {
+            final Task task = tasks.get(execution);
+            if (task == null || task.exempt || !task.running || task.heavy) {
+                return;
+            }
+            task.heavy = true;
+            ++heavyCount;
+            --runningCount;
+            heavyQueue.add(task);
+            dispatch();
+            try {
+                while (heavyQueue.first() != task
+                    || heavyRunningCount
+                    >= props.RolapConnectionShepherdMaxHeavyQueries.get())
+                {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                heavyQueue.remove(task);
+                notifyAll();
+                Thread.currentThread().interrupt();
+                execution.checkCancelOrTimeout();
+                throw new MondrianException(e);
+            }
+            heavyQueue.remove(task);
+            task.heavyRunning = true;
+            ++heavyRunningCount;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Returns the number of executions waiting to be admitted.
+     *
+     * @return Number of queued executions
+     */
+    public synchronized int getQueuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the number of executions that are running, including heavy
+     * executions running or waiting in the heavy lane.
+     *
+     * @return Number of running executions
+     */
+    public synchronized int getRunningCount() {
+        int count = 0;
+        for (Task task : tasks.values()) {
+            if (task.running && !task.exempt) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of executions that have been admitted since the
+     * shepherd was created.
+     *
+     * @return Number of admitted executions
+     */
+    public synchronized long getAdmittedCount() {
+        return admittedCount;
+    }
+
+    /**
+     * Returns the number of executions that have been rejected because the
+     * queue was full.
+     *
+     * @return Number of rejected executions
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * Returns the number of executions that have been classified as heavy.
+     *
+     * @return Number of heavy executions
+     */
+    public synchronized long getHeavyCount() {
+        return heavyCount;
+    }
+
+    /**
+     * Returns the total time, in milliseconds, that admitted executions
+     * spent in the queue.
+     *
+     * @return Total queueing time
+     */
+    public synchronized long getQueueMillis() {
+        return queueMillis;
+    }
+
     public void shutdown() {
-        this.timer.cancel();
+        final List<Task> queued;
+        synchronized (this) {
+            queued = new ArrayList<Task>(queue);
+            queue.clear();
+            tasks.clear();
+        }
+        for (Task task : queued) {
+            task.future.cancel(true);
+        }
+        this.timer.shutdown();
         this.executor.shutdown();
-        this.tasks.clear();
+    }
+
+    private static <K> int count(Map<K, Integer> map, K key) {
+        final Integer count = map.get(key);
+        return count == null ? 0 : count;
+    }
+
+    private static <K> void increment(Map<K, Integer> map, K key, int delta) {
+        final int count = count(map, key) + delta;
+        if (count == 0) {
+            map.remove(key);
+        } else {
+            map.put(key, count);
+        }
+    }
+
+    /**
+     * Priority of a connection's queries, specified by the
+     * {@link RolapConnectionProperties#Priority} connect string property.
+     */
+    public enum Priority {
+        HIGH,
+        NORMAL,
+        LOW
+    }
+
+    /**
+     * Execution that is queued or running, and the attributes that the
+     * scheduler uses to decide when to run it.
+     */
+    private class Task implements Comparable<Task> {
+        final Execution execution;
+        final FutureTask<Result> future;
+        final Priority priority;
+        final int connectionId;
+        final String roleName;
+        final long seq;
+        final long submitMillis = System.currentTimeMillis();
+        boolean exempt;
+        boolean running;
+        boolean canceled;
+        boolean heavy;
+        boolean heavyRunning;
+        ScheduledFuture<?> timeoutFuture;
+
+        Task(Execution execution, FutureTask<Result> future) {
+            this.execution = execution;
+            this.future = future;
+            final RolapConnection connection =
+                execution.getMondrianStatement().getMondrianConnection();
+            final Util.PropertyList connectInfo =
+                connection.getConnectInfo();
+            this.priority =
+                parsePriority(
+                    connectInfo.get(
+                        RolapConnectionProperties.Priority.name()));
+            this.connectionId = connection.getId();
+            final String role =
+                connectInfo.get(RolapConnectionProperties.Role.name());
+            this.roleName = role == null ? "" : role;
+            synchronized (RolapResultShepherd.this) {
+                this.seq = sequence++;
+            }
+        }
+
+        public int compareTo(Task o) {
+            final int c = priority.compareTo(o.priority);
+            if (c != 0) {
+                return c;
+            }
+            return seq < o.seq ? -1 : seq == o.seq ? 0 : 1;
+        }
+    }
+
+    private static Priority parsePriority(String s) {
+        if (s == null || s.length() == 0) {
+            return Priority.NORMAL;
+        }
+        try {
+            return Priority.valueOf(s.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw Util.newError(
+                "Invalid value '" + s + "' for connect string property '"
+                + RolapConnectionProperties.Priority.name()
+                + "'; expected one of " + Arrays.toString(Priority.values()));
+        }
     }
 }
 
 // End RolapResultShepherd.java
-
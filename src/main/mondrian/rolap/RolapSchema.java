@@ -16,6 +16,7 @@ import mondrian.olap.type.*;
 import mondrian.resource.MondrianResource;
 import mondrian.rolap.aggmatcher.AggTableManager;
 import mondrian.rolap.aggmatcher.JdbcSchema;
+import mondrian.server.Locus;
 import mondrian.spi.CellFormatter;
 import mondrian.spi.*;
 import mondrian.spi.MemberFormatter;
@@ -33,10 +34,12 @@ import org.olap4j.impl.Olap4jUtil;
 import org.olap4j.mdx.IdentifierSegment;
 
 import java.io.*;
-import java.lang.ref.SoftReference;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.sql.DataSource;
 
@@ -84,6 +87,21 @@ public class RolapSchema implements Schema {
     private final Map<String, RolapCube> mapNameToCube =
         new HashMap<String, RolapCube>();
 
+    /**
+     * Definitions of cubes that have not been created yet. Only used if
+     * {@link MondrianProperties#LazyCubeInitialization} is true; see
+     * {@link #initPendingCube(String)}. Guarded by {@link #mapNameToCube}.
+     */
+    private final Map<String, ElementDef> mapNameToPendingCube =
+        new LinkedHashMap<String, ElementDef>();
+
+    /**
+     * Lock held while a pending cube is being created. Cubes are created one
+     * at a time, because a cube modifies its star and shared dimensions as it
+     * is created.
+     */
+    private final Object cubeInitLock = new Object();
+
     /**
      * Maps {@link String shared hierarchy name} to {@link MemberReader}.
      * Shared between all statements which use this connection.
@@ -150,7 +168,8 @@ public class RolapSchema implements Schema {
      * that has
      * {@link mondrian.rolap.RolapConnectionProperties#Ignore Ignore}=true.
      */
-    private final List<Exception> warningList = new ArrayList<Exception>();
+    private final List<Exception> warningList =
+        Collections.synchronizedList(new ArrayList<Exception>());
     private Map<String, Annotation> annotationMap;
 
     /**
@@ -428,6 +447,9 @@ public class RolapSchema implements Schema {
         }
 
         aggTableManager.initialize();
+        for (RolapStar star : getStars()) {
+            star.getStatisticsCache().collect();
+        }
         setSchemaLoadDate();
     }
 
@@ -540,20 +562,39 @@ public class RolapSchema implements Schema {
             Util.discard(param);
         }
 
-        // Create cubes.
-        for (MondrianDef.Cube xmlCube : xmlSchema.cubes) {
-            if (xmlCube.isEnabled()) {
-                RolapCube cube = new RolapCube(this, xmlSchema, xmlCube, true);
-                Util.discard(cube);
+        if (MondrianProperties.instance().LazyCubeInitialization.get()) {
+            // Remember the cubes' definitions. Each cube is created when it
+            // is first looked up.
+            synchronized (mapNameToCube) {
+                for (MondrianDef.Cube xmlCube : xmlSchema.cubes) {
+                    if (xmlCube.isEnabled()) {
+                        mapNameToPendingCube.put(
+                            Util.normalizeName(xmlCube.name), xmlCube);
+                    }
+                }
+                for (MondrianDef.VirtualCube xmlVirtualCube
+                    : xmlSchema.virtualCubes)
+                {
+                    if (xmlVirtualCube.isEnabled()) {
+                        mapNameToPendingCube.put(
+                            Util.normalizeName(xmlVirtualCube.name),
+                            xmlVirtualCube);
+                    }
+                }
             }
-        }
+        } else {
+            // Create cubes.
+            createCubes(xmlSchema);
 
-        // Create virtual cubes.
-        for (MondrianDef.VirtualCube xmlVirtualCube : xmlSchema.virtualCubes) {
-            if (xmlVirtualCube.isEnabled()) {
-                RolapCube cube =
-                    new RolapCube(this, xmlSchema, xmlVirtualCube, true);
-                Util.discard(cube);
+            // Create virtual cubes.
+            for (MondrianDef.VirtualCube xmlVirtualCube
+                : xmlSchema.virtualCubes)
+            {
+                if (xmlVirtualCube.isEnabled()) {
+                    RolapCube cube =
+                        new RolapCube(this, xmlSchema, xmlVirtualCube, true);
+                    Util.discard(cube);
+                }
             }
         }
 
@@ -583,6 +624,151 @@ public class RolapSchema implements Schema {
         }
     }
 
+    /**
+     * Creates the regular (non-virtual) cubes of a schema.
+     *
+     * <p>Cubes that have the same fact table (and therefore the same
+     * {@link RolapStar}), or use the same shared dimension, must be created
+     * in one thread, in schema order: creating a cube adds columns to its
+     * star, and the first cube to use a shared dimension creates the
+     * canonical instance of its hierarchies. So this method divides the cubes
+     * into groups that have nothing in common, and creates the groups in
+     * parallel, using up to {@link MondrianProperties#SchemaLoadThreads}
+     * threads.
+     *
+     * @param xmlSchema XML schema
+     */
+    private void createCubes(final MondrianDef.Schema xmlSchema) {
+        final List<List<MondrianDef.Cube>> groups = groupCubes(xmlSchema);
+        int threadCount =
+            MondrianProperties.instance().SchemaLoadThreads.get();
+        if (threadCount <= 0) {
+            threadCount = Runtime.getRuntime().availableProcessors();
+        }
+        threadCount = Math.min(threadCount, groups.size());
+        if (threadCount <= 1) {
+            for (List<MondrianDef.Cube> group : groups) {
+                createCubes(xmlSchema, group);
+            }
+            return;
+        }
+        final ExecutorService executor =
+            Util.getExecutorService(
+                threadCount,
+                threadCount,
+                1,
+                -1,
+                "mondrian.rolap.RolapSchema$cubeLoader");
+        try {
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (final List<MondrianDef.Cube> group : groups) {
+                futures.add(
+                    executor.submit(
+                        new Callable<Void>() {
+                            public Void call() {
+                                return Locus.execute(
+                                    internalConnection,
+                                    "RolapSchema.createCubes",
+                                    new Locus.Action<Void>() {
+                                        public Void execute() {
+                                            createCubes(xmlSchema, group);
+                                            return null;
+                                        }
+                                    });
+                            }
+                        }));
+            }
+            // Wait for every group, and throw the first error in schema
+            // order, as a serial load would.
+            for (Future<Void> future : futures) {
+                Util.safeGet(
+                    future, "Error while creating cubes of schema " + name);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void createCubes(
+        MondrianDef.Schema xmlSchema,
+        List<MondrianDef.Cube> xmlCubes)
+    {
+        for (MondrianDef.Cube xmlCube : xmlCubes) {
+            RolapCube cube = new RolapCube(this, xmlSchema, xmlCube, true);
+            Util.discard(cube);
+        }
+    }
+
+    /**
+     * Divides the enabled cubes of a schema into groups that can be created
+     * independently: no two groups have a fact table or a shared dimension in
+     * common. Groups, and the cubes within each group, are in schema order.
+     *
+     * @param xmlSchema XML schema
+     * @return List of groups of cubes
+     */
+    static List<List<MondrianDef.Cube>> groupCubes(
+        MondrianDef.Schema xmlSchema)
+    {
+        final List<MondrianDef.Cube> xmlCubes =
+            new ArrayList<MondrianDef.Cube>();
+        for (MondrianDef.Cube xmlCube : xmlSchema.cubes) {
+            if (xmlCube.isEnabled()) {
+                xmlCubes.add(xmlCube);
+            }
+        }
+
+        // Union-find. Each cube points to a cube in the same group; the
+        // root of each group points to itself.
+        final int[] parents = new int[xmlCubes.size()];
+        final Map<String, Integer> keyToCube = new HashMap<String, Integer>();
+        for (int i = 0; i < parents.length; i++) {
+            parents[i] = i;
+            final MondrianDef.Cube xmlCube = xmlCubes.get(i);
+            final List<String> keys = new ArrayList<String>();
+            if (xmlCube.fact != null) {
+                // Same key as RolapStarRegistry.
+                keys.add("fact:" + xmlCube.fact.toString());
+            }
+            for (MondrianDef.CubeDimension xmlDimension : xmlCube.dimensions) {
+                if (xmlDimension instanceof MondrianDef.DimensionUsage) {
+                    keys.add(
+                        "dimension:"
+                        + ((MondrianDef.DimensionUsage) xmlDimension).source);
+                }
+            }
+            for (String key : keys) {
+                final Integer j = keyToCube.get(key);
+                if (j == null) {
+                    keyToCube.put(key, i);
+                } else {
+                    parents[root(parents, i)] = root(parents, j);
+                }
+            }
+        }
+
+        final Map<Integer, List<MondrianDef.Cube>> groups =
+            new LinkedHashMap<Integer, List<MondrianDef.Cube>>();
+        for (int i = 0; i < parents.length; i++) {
+            final int root = root(parents, i);
+            List<MondrianDef.Cube> group = groups.get(root);
+            if (group == null) {
+                group = new ArrayList<MondrianDef.Cube>();
+                groups.put(root, group);
+            }
+            group.add(xmlCubes.get(i));
+        }
+        return new ArrayList<List<MondrianDef.Cube>>(groups.values());
+    }
+
+    private static int root(int[] parents, int i) {
+        while (parents[i] != i) {
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+        return i;
+    }
+
     static Scripts.ScriptDefinition toScriptDef(MondrianDef.Script script) {
         if (script == null) {
             return null;
@@ -856,17 +1042,34 @@ public class RolapSchema implements Schema {
      * (catalog name, JDBC URL, and so forth).
      *
      * <p>To lookup a schema, call <code>Pool.instance().{@link #get}</code>.
+     *
+     * <p>The pool does not block while a schema loads. Each key maps to an
+     * {@link Entry}, which holds a task that loads the schema. The first
+     * connection to ask for a key creates the entry and runs the task in its
+     * own thread; other connections that ask for the same key while it is
+     * loading wait for the same task, and connections that ask for other keys
+     * proceed immediately. If a load fails, its entry is removed, so the next
+     * request tries again.
+     *
+     * <p>The pool holds at most
+     * {@link MondrianProperties#SchemaPoolMaxSize} schemas. When it is full,
+     * it forgets the least recently used schemas.
      */
     static class Pool {
 
         private static Pool pool = new Pool();
 
-        private final Map<String, SoftReference<RolapSchema>> mapUrlToSchema =
-            new HashMap<String, SoftReference<RolapSchema>>();
+        private final ConcurrentMap<String, Entry> mapUrlToSchema =
+            new ConcurrentHashMap<String, Entry>();
 
-        private final Map<ByteString, SoftReference<RolapSchema>>
-            mapMd5ToSchema =
-            new HashMap<ByteString, SoftReference<RolapSchema>>();
+        private final ConcurrentMap<ByteString, Entry> mapMd5ToSchema =
+            new ConcurrentHashMap<ByteString, Entry>();
+
+        /**
+         * Clock that orders accesses to entries, for least-recently-used
+         * eviction. Cheaper, and more precise, than the system clock.
+         */
+        private final AtomicLong clock = new AtomicLong();
 
         private Pool() {
         }
@@ -875,7 +1078,7 @@ public class RolapSchema implements Schema {
             return pool;
         }
 
-        synchronized RolapSchema get(
+        RolapSchema get(
             final String catalogUrl,
             final String connectionKey,
             final String jdbcUser,
@@ -891,7 +1094,7 @@ public class RolapSchema implements Schema {
                 connectInfo);
         }
 
-        synchronized RolapSchema get(
+        RolapSchema get(
             final String catalogUrl,
             final DataSource dataSource,
             final Util.PropertyList connectInfo)
@@ -917,8 +1120,9 @@ public class RolapSchema implements Schema {
                 (dataSource == null)
                 ? makeKey(catalogUrl, connectionKey, jdbcUser, dataSourceStr)
                 : makeKey(catalogUrl, dataSource);
-
-            RolapSchema schema = null;
+            // Identifies the catalog and data source, but not the content of
+            // the catalog; see carryOver.
+            final String sourceKey = key;
 
             String dynProcName = connectInfo.get(
                 RolapConnectionProperties.DynamicSchemaProcessor.name());
@@ -989,7 +1193,7 @@ public class RolapSchema implements Schema {
             }
 
             if (!useSchemaPool) {
-                schema = new RolapSchema(
+                return new RolapSchema(
                     key,
                     null,
                     catalogUrl,
@@ -1020,89 +1224,208 @@ public class RolapSchema implements Schema {
                     ex.printStackTrace();
                 }
 
-                if (md5Bytes != null) {
-                    SoftReference<RolapSchema> ref =
-                        mapMd5ToSchema.get(md5Bytes);
-                    if (ref != null) {
-                        schema = ref.get();
-                        if (schema == null) {
-                            // clear out the reference since schema is null
-                            mapUrlToSchema.remove(key);
-                            mapMd5ToSchema.remove(md5Bytes);
-                        }
-                    }
+                final Entry entry =
+                    new Entry(
+                        key, sourceKey, md5Bytes, catalogUrl, catalogStr,
+                        connectInfo, dataSource);
+                if (md5Bytes == null) {
+                    // Cannot share by content. Load a new schema, and
+                    // replace any schema with the same key.
+                    mapUrlToSchema.put(key, entry);
+                    return load(entry, catalogUrl);
                 }
-
-                if (schema == null
-                    || md5Bytes == null
-                    || !schema.useContentChecksum
-                    || !schema.md5Bytes.equals(md5Bytes))
-                {
-                    schema = new RolapSchema(
-                        key,
-                        md5Bytes,
-                        catalogUrl,
-                        catalogStr,
-                        connectInfo,
-                        dataSource);
-
-                    SoftReference<RolapSchema> ref =
-                        new SoftReference<RolapSchema>(schema);
-                    if (md5Bytes != null) {
-                        mapMd5ToSchema.put(md5Bytes, ref);
-                    }
-                    mapUrlToSchema.put(key, ref);
-
+                final Entry existing =
+                    mapMd5ToSchema.putIfAbsent(md5Bytes, entry);
+                if (existing != null) {
+                    mapUrlToSchema.put(key, existing);
                     if (LOGGER.isDebugEnabled()) {
                         LOGGER.debug(
-                            "Pool.get: create schema \"" + catalogUrl
-                            + "\" with MD5");
+                            "Pool.get: schema \"" + catalogUrl
+                            + "\" exists already with MD5");
                     }
-
-                } else if (LOGGER.isDebugEnabled()) {
+                    return load(existing, catalogUrl);
+                }
+                mapUrlToSchema.put(key, entry);
+                if (LOGGER.isDebugEnabled()) {
                     LOGGER.debug(
-                        "Pool.get: schema \"" + catalogUrl
-                        + "\" exists already with MD5");
+                        "Pool.get: create schema \"" + catalogUrl
+                        + "\" with MD5");
                 }
+                return load(entry, catalogUrl);
 
             } else {
-                SoftReference<RolapSchema> ref = mapUrlToSchema.get(key);
-                if (ref != null) {
-                    schema = ref.get();
-                    if (schema == null) {
-                        // clear out the reference since schema is null
-                        mapUrlToSchema.remove(key);
+                final Entry entry =
+                    new Entry(
+                        key, sourceKey, null, catalogUrl, catalogStr,
+                        connectInfo, dataSource);
+                final Entry existing = mapUrlToSchema.putIfAbsent(key, entry);
+                if (existing != null) {
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug(
+                            "Pool.get: schema \"" + catalogUrl
+                            + "\" exists already ");
                     }
+                    return load(existing, catalogUrl);
+                }
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug(
+                        "Pool.get: create schema \"" + catalogUrl + "\"");
+                }
+                return load(entry, catalogUrl);
+            }
+        }
+
+        /**
+         * Returns the schema of an entry that is in the pool, loading it in
+         * the current thread if no other thread has started to load it, and
+         * otherwise waiting for the thread that has.
+         *
+         * <p>If the load fails, removes the entry from the pool, and throws.
+         *
+         * @param entry Entry
+         * @param catalogUrl URL of catalog, for messages
+         * @return Schema
+         */
+        private RolapSchema load(Entry entry, String catalogUrl) {
+            // Only the thread that runs the task carries over caches and
+            // evicts; the others wait for it.
+            final boolean loading = entry.started.compareAndSet(false, true);
+            if (loading) {
+                entry.task.run();
+            }
+            try {
+                final RolapSchema schema =
+                    Util.safeGet(
+                        entry.task,
+                        "Error while loading schema \"" + catalogUrl + "\"");
+                if (loading) {
+                    carryOver(entry, schema);
+                }
+                entry.lastAccess = clock.incrementAndGet();
+                if (loading) {
+                    evict();
                 }
+                return schema;
+            } catch (RuntimeException e) {
+                forget(entry);
+                throw e;
+            } catch (Error e) {
+                forget(entry);
+                throw e;
+            }
+        }
 
-                if (schema == null) {
-                    schema = new RolapSchema(
-                        key,
-                        null,
-                        catalogUrl,
-                        catalogStr,
-                        connectInfo,
-                        dataSource);
+        /**
+         * Carries over the caches of the previous version of a schema that
+         * has just been loaded, if {@link
+         * MondrianProperties#IncrementalSchemaReload} is true. The previous
+         * version is the most recently used schema in the pool that was
+         * loaded from the same catalog and data source.
+         *
+         * <p>Failure is not fatal: the new schema is correct, just not as
+         * warm as it could be.
+         *
+         * @param entry Entry of new schema
+         * @param schema New schema
+         */
+        private void carryOver(Entry entry, RolapSchema schema) {
+            if (!MondrianProperties.instance().IncrementalSchemaReload.get()) {
+                return;
+            }
+            Entry previous = null;
+            for (Entry e : entries()) {
+                if (e != entry
+                    && e.sourceKey.equals(entry.sourceKey)
+                    && e.task.isDone()
+                    && (previous == null || e.lastAccess > previous.lastAccess))
+                {
+                    previous = e;
+                }
+            }
+            final RolapSchema previousSchema =
+                previous == null ? null : previous.getIfLoaded();
+            if (previousSchema == null || previousSchema == schema) {
+                return;
+            }
+            try {
+                RolapSchemaReloader.carryOver(previousSchema, schema);
+            } catch (RuntimeException e) {
+                LOGGER.warn(
+                    "Error while carrying over caches of schema \""
+                    + schema.getName() + "\"",
+                    e);
+            }
+        }
 
-                    mapUrlToSchema.put(
-                        key,
-                        new SoftReference<RolapSchema>(schema));
+        /**
+         * Removes an entry from the pool. Does not clean up its schema.
+         */
+        private void forget(Entry entry) {
+            mapUrlToSchema.remove(entry.key, entry);
+            if (entry.md5Bytes != null) {
+                mapMd5ToSchema.remove(entry.md5Bytes, entry);
+            }
+        }
 
-                    if (LOGGER.isDebugEnabled()) {
-                        LOGGER.debug(
-                            "Pool.get: create schema \"" + catalogUrl + "\"");
+        /**
+         * Removes the least recently used schemas until the pool holds no
+         * more than {@link MondrianProperties#SchemaPoolMaxSize} schemas.
+         * Entries that are still loading are not removed.
+         *
+         * <p>Like the garbage collector, which used to remove schemas from
+         * the pool when memory was short, eviction does not clean up the
+         * schema; connections that are using the schema continue to work.
+         */
+        private synchronized void evict() {
+            final int maxSize =
+                MondrianProperties.instance().SchemaPoolMaxSize.get();
+            if (maxSize <= 0) {
+                return;
+            }
+            final Set<Entry> entries = entries();
+            if (entries.size() <= maxSize) {
+                return;
+            }
+            final List<Entry> loaded = new ArrayList<Entry>();
+            for (Entry entry : entries) {
+                if (entry.task.isDone()) {
+                    loaded.add(entry);
+                }
+            }
+            Collections.sort(
+                loaded,
+                new Comparator<Entry>() {
+                    public int compare(Entry o1, Entry o2) {
+                        return o1.lastAccess < o2.lastAccess
+                            ? -1
+                            : o1.lastAccess == o2.lastAccess ? 0 : 1;
                     }
-
-                } else if (LOGGER.isDebugEnabled()) {
+                });
+            int excess = entries.size() - maxSize;
+            for (Entry entry : loaded) {
+                if (excess-- <= 0) {
+                    break;
+                }
+                if (LOGGER.isDebugEnabled()) {
                     LOGGER.debug(
-                        "Pool.get: schema \"" + catalogUrl
-                        + "\" exists already ");
+                        "Pool.evict: schema \"" + entry.catalogUrl + "\"");
                 }
+                forget(entry);
             }
-            return schema;
         }
 
-        synchronized void remove(
+        /**
+         * Returns the distinct entries in the pool. An entry can be in the
+         * pool under its key and under its MD5 hash.
+         */
+        private Set<Entry> entries() {
+            final Set<Entry> entries = new LinkedHashSet<Entry>();
+            entries.addAll(mapUrlToSchema.values());
+            entries.addAll(mapMd5ToSchema.values());
+            return entries;
+        }
+
+        void remove(
             final String catalogUrl,
             final String connectionKey,
             final String jdbcUser,
@@ -1121,7 +1444,7 @@ public class RolapSchema implements Schema {
             remove(key);
         }
 
-        synchronized void remove(
+        void remove(
             final String catalogUrl,
             final DataSource dataSource)
         {
@@ -1134,7 +1457,7 @@ public class RolapSchema implements Schema {
             remove(key);
         }
 
-        synchronized void remove(RolapSchema schema) {
+        void remove(RolapSchema schema) {
             if (schema != null) {
                 if (LOGGER.isDebugEnabled()) {
                     LOGGER.debug(
@@ -1146,28 +1469,28 @@ public class RolapSchema implements Schema {
         }
 
         private void remove(String key) {
-            SoftReference<RolapSchema> ref = mapUrlToSchema.get(key);
-            if (ref != null) {
-                RolapSchema schema = ref.get();
+            final Entry entry = mapUrlToSchema.remove(key);
+            if (entry != null) {
+                forget(entry);
+                // If the schema is still loading, the threads waiting for it
+                // will get it, but it is no longer in the pool.
+                final RolapSchema schema = entry.getIfLoaded();
                 if (schema != null) {
                     mapMd5ToSchema.remove(schema.md5Bytes);
                     schema.finalCleanUp();
                 }
             }
-            mapUrlToSchema.remove(key);
         }
 
-        synchronized void clear() {
+        void clear() {
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Pool.clear: clearing all RolapSchemas");
             }
 
-            for (SoftReference<RolapSchema> ref : mapUrlToSchema.values()) {
-                if (ref != null) {
-                    RolapSchema schema = ref.get();
-                    if (schema != null) {
-                        schema.finalCleanUp();
-                    }
+            for (Entry entry : mapUrlToSchema.values()) {
+                final RolapSchema schema = entry.getIfLoaded();
+                if (schema != null) {
+                    schema.finalCleanUp();
                 }
             }
             mapUrlToSchema.clear();
@@ -1176,24 +1499,86 @@ public class RolapSchema implements Schema {
         }
 
         /**
-         * Returns a list of schemas in this pool.
+         * Returns a list of schemas in this pool. Does not include schemas
+         * that are still loading.
          *
          * @return List of schemas in this pool
          */
-        synchronized List<RolapSchema> getRolapSchemas() {
+        List<RolapSchema> getRolapSchemas() {
             List<RolapSchema> list = new ArrayList<RolapSchema>();
-            for (RolapSchema schema
-                : Util.GcIterator.over(mapUrlToSchema.values()))
-            {
-                list.add(schema);
+            for (Entry entry : mapUrlToSchema.values()) {
+                final RolapSchema schema = entry.getIfLoaded();
+                if (schema != null) {
+                    list.add(schema);
+                }
             }
             return list;
         }
 
-        synchronized boolean contains(RolapSchema rolapSchema) {
+        boolean contains(RolapSchema rolapSchema) {
             return mapUrlToSchema.containsKey(rolapSchema.key);
         }
 
+        /**
+         * Entry in the schema pool. Holds the task that loads a schema, and
+         * when the schema was last used.
+         */
+        private static class Entry {
+            final String key;
+            final String sourceKey;
+            final ByteString md5Bytes;
+            final String catalogUrl;
+            final FutureTask<RolapSchema> task;
+
+            /** Whether a thread has claimed the task of loading the schema. */
+            final AtomicBoolean started = new AtomicBoolean();
+            volatile long lastAccess;
+
+            Entry(
+                final String key,
+                final String sourceKey,
+                final ByteString md5Bytes,
+                final String catalogUrl,
+                final String catalogStr,
+                final Util.PropertyList connectInfo,
+                final DataSource dataSource)
+            {
+                this.key = key;
+                this.sourceKey = sourceKey;
+                this.md5Bytes = md5Bytes;
+                this.catalogUrl = catalogUrl;
+                this.task =
+                    new FutureTask<RolapSchema>(
+                        new Callable<RolapSchema>() {
+                            public RolapSchema call() {
+                                return new RolapSchema(
+                                    key,
+                                    md5Bytes,
+                                    catalogUrl,
+                                    catalogStr,
+                                    connectInfo,
+                                    dataSource);
+                            }
+                        });
+            }
+
+            /**
+             * Returns the schema, or null if it is still loading or failed
+             * to load.
+             */
+            RolapSchema getIfLoaded() {
+                if (!task.isDone()) {
+                    return null;
+                }
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    return null;
+                } catch (ExecutionException e) {
+                    return null;
+                }
+            }
+        }
 
         /**
          * Creates a key with which to identify a schema in the cache.
@@ -1262,7 +1647,98 @@ public class RolapSchema implements Schema {
      * cube exists.
      */
     protected RolapCube lookupCube(final String cubeName) {
-        return mapNameToCube.get(Util.normalizeName(cubeName));
+        final String normalizedName = Util.normalizeName(cubeName);
+        synchronized (mapNameToCube) {
+            final RolapCube cube = mapNameToCube.get(normalizedName);
+            if (cube != null
+                || !mapNameToPendingCube.containsKey(normalizedName))
+            {
+                return cube;
+            }
+        }
+        return initPendingCube(normalizedName);
+    }
+
+    /**
+     * Creates a cube whose creation was deferred because
+     * {@link MondrianProperties#LazyCubeInitialization} is true, and loads the
+     * aggregate tables of its star.
+     *
+     * <p>If creating the cube fails, its definition remains pending, so the
+     * next attempt to look it up will fail in the same way.
+     *
+     * @param normalizedName Normalized name of cube
+     * @return Cube, or null if there is no such cube
+     */
+    private RolapCube initPendingCube(final String normalizedName) {
+        synchronized (cubeInitLock) {
+            final ElementDef xmlCube;
+            synchronized (mapNameToCube) {
+                final RolapCube cube = mapNameToCube.get(normalizedName);
+                if (cube != null) {
+                    // Another thread created it while we were waiting.
+                    return cube;
+                }
+                xmlCube = mapNameToPendingCube.remove(normalizedName);
+            }
+            if (xmlCube == null) {
+                return null;
+            }
+            boolean success = false;
+            try {
+                final RolapCube cube =
+                    Locus.execute(
+                        internalConnection,
+                        "RolapSchema.initPendingCube",
+                        new Locus.Action<RolapCube>() {
+                            public RolapCube execute() {
+                                if (xmlCube instanceof MondrianDef.Cube) {
+                                    return new RolapCube(
+                                        RolapSchema.this,
+                                        xmlSchema,
+                                        (MondrianDef.Cube) xmlCube,
+                                        true);
+                                } else {
+                                    return new RolapCube(
+                                        RolapSchema.this,
+                                        xmlSchema,
+                                        (MondrianDef.VirtualCube) xmlCube,
+                                        true);
+                                }
+                            }
+                        });
+                if (!cube.isVirtual() && aggTableManager != null) {
+                    aggTableManager.loadAggregates(cube.getStar());
+                    cube.getStar().getStatisticsCache().collect();
+                }
+                success = true;
+                return cube;
+            } finally {
+                if (!success) {
+                    synchronized (mapNameToCube) {
+                        mapNameToCube.remove(normalizedName);
+                        mapNameToPendingCube.put(normalizedName, xmlCube);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates all cubes whose creation was deferred, in schema order.
+     */
+    private void initPendingCubes() {
+        while (true) {
+            final String normalizedName;
+            synchronized (mapNameToCube) {
+                if (mapNameToPendingCube.isEmpty()) {
+                    return;
+                }
+                normalizedName =
+                    mapNameToPendingCube.keySet().iterator().next();
+            }
+            initPendingCube(normalizedName);
+        }
     }
 
     /**
@@ -1311,9 +1787,11 @@ public class RolapSchema implements Schema {
 
     public List<RolapCube> getCubesWithStar(RolapStar star) {
         List<RolapCube> list = new ArrayList<RolapCube>();
-        for (RolapCube cube : mapNameToCube.values()) {
-            if (star == cube.getStar()) {
-                list.add(cube);
+        synchronized (mapNameToCube) {
+            for (RolapCube cube : mapNameToCube.values()) {
+                if (star == cube.getStar()) {
+                    list.add(cube);
+                }
             }
         }
         return list;
@@ -1324,33 +1802,50 @@ public class RolapSchema implements Schema {
      * @see #lookupCube(String)
      */
     protected void addCube(final RolapCube cube) {
-        mapNameToCube.put(
-            Util.normalizeName(cube.getName()),
-            cube);
+        synchronized (mapNameToCube) {
+            mapNameToCube.put(
+                Util.normalizeName(cube.getName()),
+                cube);
+        }
     }
 
     public boolean removeCube(final String cubeName) {
-        final RolapCube cube =
-            mapNameToCube.remove(Util.normalizeName(cubeName));
-        return cube != null;
+        final String normalizedName = Util.normalizeName(cubeName);
+        synchronized (mapNameToCube) {
+            final ElementDef xmlCube =
+                mapNameToPendingCube.remove(normalizedName);
+            final RolapCube cube = mapNameToCube.remove(normalizedName);
+            return cube != null || xmlCube != null;
+        }
     }
 
     public Cube[] getCubes() {
-        Collection<RolapCube> cubes = mapNameToCube.values();
+        final List<RolapCube> cubes = getCubeList();
         return cubes.toArray(new RolapCube[cubes.size()]);
     }
 
+    /**
+     * Returns a list of the cubes in this schema.
+     *
+     * <p>If {@link MondrianProperties#LazyCubeInitialization} is true, first
+     * creates all cubes that have not been created yet.
+     *
+     * @return List of cubes
+     */
     public List<RolapCube> getCubeList() {
-        return new ArrayList<RolapCube>(mapNameToCube.values());
+        initPendingCubes();
+        synchronized (mapNameToCube) {
+            return new ArrayList<RolapCube>(mapNameToCube.values());
+        }
     }
 
-    public Hierarchy[] getSharedHierarchies() {
+    public synchronized Hierarchy[] getSharedHierarchies() {
         Collection<RolapHierarchy> hierarchies =
             mapSharedHierarchyNameToHierarchy.values();
         return hierarchies.toArray(new RolapHierarchy[hierarchies.size()]);
     }
 
-    RolapHierarchy getSharedHierarchy(final String name) {
+    synchronized RolapHierarchy getSharedHierarchy(final String name) {
         return mapSharedHierarchyNameToHierarchy.get(name);
     }
 
@@ -1706,7 +2201,9 @@ System.out.println("RolapSchema.createMemberReader: CONTAINS NAME");
         }
 
         synchronized Collection<RolapStar> getStars() {
-            return stars.values();
+            // Return a copy. Stars may be created while the caller is
+            // iterating, if cubes are initialized lazily.
+            return new ArrayList<RolapStar>(stars.values());
         }
     }
 
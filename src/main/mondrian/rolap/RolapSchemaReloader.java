@@ -0,0 +1,340 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.*;
+import mondrian.rolap.agg.SegmentCacheManager;
+import mondrian.server.Locus;
+import mondrian.spi.SegmentBody;
+import mondrian.spi.SegmentHeader;
+
+import org.apache.log4j.Logger;
+
+import java.util.*;
+
+/**
+ * Carries the caches of a schema over to a new version of the same schema,
+ * for those parts of the schema that have not changed.
+ *
+ * <p>When a catalog changes, the schema pool loads a new {@link RolapSchema}
+ * with a new checksum, and by default the new schema starts with empty
+ * caches. If {@link MondrianProperties#IncrementalSchemaReload} is true,
+ * the pool calls {@link #carryOver} after loading the new version. It
+ * compares the two versions, and:
+ *
+ * <ul>
+ * <li>For each shared dimension whose definition is identical in both
+ *     versions, copies the members cached by the previous version's
+ *     hierarchies into the new version's hierarchies (see
+ *     {@link MemberCacheHelper#carryOver(MemberCacheHelper)}).</li>
+ * <li>For each cell segment of the previous version, if the measure and the
+ *     constrained columns of the segment are defined identically in the
+ *     corresponding star of the new version, registers the segment's body
+ *     under a header with the new checksum.</li>
+ * </ul>
+ *
+ * <p>So a change to one measure, or one cube, does not throw away the
+ * members and cells of the rest of the schema.
+ *
+ * @author jhyde
+ */
+class RolapSchemaReloader {
+    private static final Logger LOGGER =
+        Logger.getLogger(RolapSchemaReloader.class);
+
+    private final RolapSchema previous;
+    private final RolapSchema schema;
+
+    private RolapSchemaReloader(RolapSchema previous, RolapSchema schema) {
+        this.previous = previous;
+        this.schema = schema;
+    }
+
+    /**
+     * Carries over the caches of the previous version of a schema to a new
+     * version.
+     *
+     * @param previous Previous version of schema
+     * @param schema New version of schema
+     */
+    static void carryOver(
+        final RolapSchema previous,
+        final RolapSchema schema)
+    {
+        if (!previous.getName().equals(schema.getName())) {
+            return;
+        }
+        final RolapSchemaReloader reloader =
+            new RolapSchemaReloader(previous, schema);
+        Locus.execute(
+            schema.getInternalConnection(),
+            "RolapSchemaReloader.carryOver",
+            new Locus.Action<Void>() {
+                public Void execute() {
+                    final int memberCount = reloader.carryOverMembers();
+                    final int segmentCount = reloader.carryOverSegments();
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug(
+                            "Schema \"" + schema.getName() + "\": carried over "
+                            + memberCount + " members and " + segmentCount
+                            + " segments from previous version");
+                    }
+                    return null;
+                }
+            });
+    }
+
+    /**
+     * Copies the cached members of shared hierarchies whose dimension has
+     * the same definition in both versions.
+     *
+     * @return Number of members copied
+     */
+    private int carryOverMembers() {
+        final Map<String, MondrianDef.Dimension> previousDimensions =
+            dimensionMap(previous);
+        final Map<String, MondrianDef.Dimension> dimensions =
+            dimensionMap(schema);
+        final Map<String, RolapHierarchy> previousHierarchies =
+            new HashMap<String, RolapHierarchy>();
+        for (Hierarchy hierarchy : previous.getSharedHierarchies()) {
+            previousHierarchies.put(
+                hierarchy.getUniqueName(), (RolapHierarchy) hierarchy);
+        }
+        int count = 0;
+        for (Hierarchy h : schema.getSharedHierarchies()) {
+            final RolapHierarchy hierarchy = (RolapHierarchy) h;
+            final RolapHierarchy previousHierarchy =
+                previousHierarchies.get(hierarchy.getUniqueName());
+            if (previousHierarchy == null) {
+                continue;
+            }
+            final String dimensionName = hierarchy.getDimension().getName();
+            final MondrianDef.Dimension xmlDimension =
+                dimensions.get(dimensionName);
+            final MondrianDef.Dimension previousXmlDimension =
+                previousDimensions.get(dimensionName);
+            if (xmlDimension == null
+                || previousXmlDimension == null
+                || !xmlDimension.toXML().equals(previousXmlDimension.toXML()))
+            {
+                continue;
+            }
+            final MemberCacheHelper cache = getCache(hierarchy);
+            final MemberCacheHelper previousCache =
+                getCache(previousHierarchy);
+            if (cache != null && previousCache != null) {
+                count += cache.carryOver(previousCache);
+            }
+        }
+        return count;
+    }
+
+    private static Map<String, MondrianDef.Dimension> dimensionMap(
+        RolapSchema schema)
+    {
+        final Map<String, MondrianDef.Dimension> map =
+            new HashMap<String, MondrianDef.Dimension>();
+        final MondrianDef.Schema xmlSchema = schema.getXMLSchema();
+        if (xmlSchema != null) {
+            for (MondrianDef.Dimension xmlDimension : xmlSchema.dimensions) {
+                map.put(xmlDimension.name, xmlDimension);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Returns the member cache of a hierarchy, or null if its member reader
+     * does not cache.
+     */
+    private static MemberCacheHelper getCache(RolapHierarchy hierarchy) {
+        final MemberReader memberReader = hierarchy.getMemberReader();
+        if (!(memberReader instanceof SmartMemberReader)) {
+            return null;
+        }
+        final MemberCache cache =
+            ((SmartMemberReader) memberReader).getMemberCache();
+        if (cache == null
+            || cache.getClass() != MemberCacheHelper.class)
+        {
+            // MemberNoCacheHelper, for instance, must not be populated.
+            return null;
+        }
+        return (MemberCacheHelper) cache;
+    }
+
+    /**
+     * Registers segments of the previous version under headers of the new
+     * version, if they are still valid.
+     *
+     * @return Number of segments carried over
+     */
+    private int carryOverSegments() {
+        if (previous.getChecksum().equals(schema.getChecksum())) {
+            // Headers are identical. Nothing to do.
+            return 0;
+        }
+        final SegmentCacheManager cacheMgr =
+            schema.getInternalConnection().getServer()
+                .getAggregationManager().cacheMgr;
+        final Map<RolapStar, List<SegmentHeader>> headersByStar =
+            new LinkedHashMap<RolapStar, List<SegmentHeader>>();
+        int count = 0;
+        for (SegmentHeader header
+            : cacheMgr.compositeCache.getSegmentHeaders())
+        {
+            if (!header.schemaChecksum.equals(previous.getChecksum())
+                || !header.schemaName.equals(previous.getName()))
+            {
+                continue;
+            }
+            final RolapStar previousStar = findStar(previous, header);
+            if (previousStar == null) {
+                continue;
+            }
+            final RolapStar star =
+                schema.getStar(
+                    previousStar.getFactTable().getRelation().toString());
+            if (star == null) {
+                // Star does not exist, or its cube has not been created yet.
+                continue;
+            }
+            final BitKey bitKey = translate(previousStar, star, header);
+            if (bitKey == null) {
+                continue;
+            }
+            final SegmentBody body = cacheMgr.compositeCache.get(header);
+            if (body == null) {
+                continue;
+            }
+            final SegmentHeader newHeader =
+                new SegmentHeader(
+                    schema.getName(),
+                    schema.getChecksum(),
+                    header.cubeName,
+                    header.measureName,
+                    header.getConstrainedColumns(),
+                    header.compoundPredicates,
+                    header.rolapStarFactTableName,
+                    bitKey,
+                    header.getExcludedRegions());
+            cacheMgr.compositeCache.put(newHeader, body);
+            List<SegmentHeader> headers = headersByStar.get(star);
+            if (headers == null) {
+                headers = new ArrayList<SegmentHeader>();
+                headersByStar.put(star, headers);
+            }
+            headers.add(newHeader);
+            ++count;
+        }
+        for (Map.Entry<RolapStar, List<SegmentHeader>> entry
+            : headersByStar.entrySet())
+        {
+            cacheMgr.addSegments(entry.getKey(), entry.getValue());
+        }
+        return count;
+    }
+
+    /**
+     * Finds the star that a segment of a schema belongs to. Several stars may
+     * have the same fact table alias, but only one has the segment's measure.
+     */
+    private static RolapStar findStar(RolapSchema schema, SegmentHeader header)
+    {
+        for (RolapStar star : schema.getStars()) {
+            if (star.getFactTable().getAlias().equals(
+                    header.rolapStarFactTableName)
+                && star.getFactTable().lookupMeasureByName(
+                    header.cubeName, header.measureName) != null)
+            {
+                return star;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the constrained columns of a segment as a bit key of the new
+     * star, or null if the segment's measure or any of its columns is
+     * defined differently in the new star.
+     */
+    private static BitKey translate(
+        RolapStar previousStar,
+        RolapStar star,
+        SegmentHeader header)
+    {
+        final RolapStar.Measure previousMeasure =
+            previousStar.getFactTable().lookupMeasureByName(
+                header.cubeName, header.measureName);
+        final RolapStar.Measure measure =
+            star.getFactTable().lookupMeasureByName(
+                header.cubeName, header.measureName);
+        if (measure == null || !sameColumn(previousMeasure, measure)) {
+            return null;
+        }
+        final BitKey bitKey = BitKey.Factory.makeBitKey(star.getColumnCount());
+        for (int bit : header.getConstrainedColumnsBitKey()) {
+            if (bit >= star.getColumnCount()
+                || !sameColumn(
+                    previousStar.getColumn(bit), star.getColumn(bit)))
+            {
+                return null;
+            }
+            bitKey.set(bit);
+        }
+        return bitKey;
+    }
+
+    /**
+     * Returns whether two columns, in different stars, have the same
+     * definition, and are reached from the fact table by the same joins.
+     * Relations are compared by their XML, which includes a table's alias
+     * and SQL filter, and a view's SQL.
+     */
+    private static boolean sameColumn(
+        RolapStar.Column column0,
+        RolapStar.Column column1)
+    {
+        if (column0.getClass() != column1.getClass()
+            || !column0.getName().equals(column1.getName())
+            || column0.getDatatype() != column1.getDatatype()
+            || !Util.equals(column0.getExpression(), column1.getExpression()))
+        {
+            return false;
+        }
+        if (column0 instanceof RolapStar.Measure) {
+            final RolapStar.Measure measure0 = (RolapStar.Measure) column0;
+            final RolapStar.Measure measure1 = (RolapStar.Measure) column1;
+            if (!measure0.getCubeName().equals(measure1.getCubeName())
+                || measure0.getAggregator() != measure1.getAggregator())
+            {
+                return false;
+            }
+        }
+        RolapStar.Table table0 = column0.getTable();
+        RolapStar.Table table1 = column1.getTable();
+        while (table0 != null && table1 != null) {
+            if (!table0.getAlias().equals(table1.getAlias())
+                || !table0.getRelation().toXML().equals(
+                    table1.getRelation().toXML())
+                || !Util.equals(
+                    table0.getJoinCondition(), table1.getJoinCondition()))
+            {
+                return false;
+            }
+            table0 = table0.getParentTable();
+            table1 = table1.getParentTable();
+        }
+        return table0 == null && table1 == null;
+    }
+}
+
+// End RolapSchemaReloader.java
@@ -485,6 +485,29 @@ public class RolapStar {
         return factTable;
     }
 
+    /**
+     * Returns a measure that counts the rows of the fact table, that is, a
+     * <code>count(*)</code> measure, or null if there is none.
+     *
+     * <p>Every cube has a fact-count measure, but if the cube defines a
+     * count measure on a column, that measure counts the rows where the
+     * column is not null, and is not returned by this method.
+     *
+     * @return Fact count measure, or null
+     */
+    public Measure getFactCountMeasure() {
+        for (Column column : factTable.getColumns()) {
+            if (column instanceof Measure
+                && ((Measure) column).getAggregator()
+                == RolapAggregator.Count
+                && column.getExpression() == null)
+            {
+                return (Measure) column;
+            }
+        }
+        return null;
+    }
+
     /**
      * Clones an existing SqlQuery to create a new one (this cloning creates one
      * with an empty sql query).
@@ -1018,9 +1041,16 @@ public class RolapStar {
          */
         public int getCardinality() {
             if (approxCardinality < 0) {
-                approxCardinality =
-                    table.star.getStatisticsCache().getColumnCardinality(
+                final RolapStatisticsCache statisticsCache =
+                    table.star.getStatisticsCache();
+                final int cardinality =
+                    statisticsCache.getColumnCardinality(
                         table.relation, expression, approxCardinality);
+                if (!statisticsCache.isFinal()) {
+                    // May be an estimate; ask the cache again next time.
+                    return cardinality;
+                }
+                approxCardinality = cardinality;
             }
             return approxCardinality;
         }
@@ -1189,6 +1219,26 @@ public class RolapStar {
             return aggregator;
         }
 
+        /**
+         * Returns whether segments of this measure are loaded from the
+         * distinct values of its expression in each cell, rather than from
+         * an aggregate computed in SQL.
+         *
+         * <p>True for approximate distinct-count measures, whose cells hold
+         * sketches; and for distinct-count measures, whose cells hold
+         * bitmaps, if {@link MondrianProperties#EnableDistinctCountBitmaps}
+         * is set.
+         *
+         * @return Whether segments are loaded from distinct values
+         */
+        public boolean isLoadedFromDistinctValues() {
+            return aggregator == RolapAggregator.ApproxDistinctCount
+                || aggregator == RolapAggregator.DistinctCount
+                && getExpression() != null
+                && MondrianProperties.instance()
+                    .EnableDistinctCountBitmaps.get();
+        }
+
         public boolean equals(Object o) {
             if (! (o instanceof RolapStar.Measure)) {
                 return false;
@@ -10,12 +10,22 @@
 package mondrian.rolap;
 
 import mondrian.olap.MondrianDef;
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
+import mondrian.rolap.aggmatcher.AggStar;
 import mondrian.rolap.sql.SqlQuery;
 import mondrian.server.Execution;
 import mondrian.spi.Dialect;
 import mondrian.spi.StatisticsProvider;
+import mondrian.spi.impl.JdbcStatisticsProvider;
 
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.lang.ref.WeakReference;
+import java.sql.*;
 import java.util.*;
+import java.util.concurrent.*;
 import javax.sql.DataSource;
 
 /**
@@ -23,13 +33,75 @@ import javax.sql.DataSource;
  *
  * <p>Wrapper around a chain of {@link mondrian.spi.StatisticsProvider}s,
  * followed by a cache to store the results.</p>
+ *
+ * <p>Thread-safe. Statistics are read while generating SQL, and, to choose
+ * between aggregate tables (see
+ * {@link mondrian.rolap.agg.AggregationCostModel}), in the cache manager's
+ * thread; there, only statistics that are already known are used (see
+ * {@link #getCachedRelationCardinality}).</p>
+ *
+ * <p>If {@link MondrianProperties#StatisticsBackground} is true, statistics
+ * are collected by a pool of background threads shared by all stars. The
+ * schema calls {@link #collect()} when a star is ready, and the pool starts
+ * collecting the size of each table and the cardinality of each column of
+ * the star. A caller that asks for a statistic that has not arrived yet gets
+ * an estimate (see {@link #estimate}). Statistics are collected again every
+ * {@link MondrianProperties#StatisticsRefreshInterval} seconds, and are
+ * saved to a file in {@link MondrianProperties#StatisticsSnapshotDir}, if
+ * set, so that a restarted server does not collect them again.</p>
  */
 public class RolapStatisticsCache {
+    private static final Logger LOGGER =
+        Logger.getLogger(RolapStatisticsCache.class);
+
+    private static final String TABLE = "table";
+    private static final String COLUMN = "column";
+    private static final String QUERY = "query";
+
+    private static final String SNAPSHOT_HEADER = "# Mondrian statistics 1";
+    private static final String SNAPSHOT_ENCODING = "UTF-8";
+
+    /**
+     * Executor for background collection. Its number of threads is the
+     * maximum number of statements that collect statistics at the same
+     * time. Created on first use.
+     */
+    private static ScheduledExecutorService executor;
+
     private final RolapStar star;
-    private final Map<List, Integer> columnMap = new HashMap<List, Integer>();
-    private final Map<List, Integer> tableMap = new HashMap<List, Integer>();
-    private final Map<String, Integer> queryMap =
-        new HashMap<String, Integer>();
+
+    /**
+     * Statistics, keyed by kind ({@link #TABLE}, {@link #COLUMN} or
+     * {@link #QUERY}) followed by the names that identify the table, column
+     * or query. A value of -1 means that all providers failed; we put it in
+     * the cache to ensure that we won't try again.
+     */
+    private final Map<List<String>, Integer> valueMap =
+        new HashMap<List<String>, Integer>();
+
+    /** Time that each statistic in {@link #valueMap} was collected. */
+    private final Map<List<String>, Long> timeMap =
+        new HashMap<List<String>, Long>();
+
+    /** Estimates of statistics that are being collected in the background. */
+    private final Map<List<String>, Integer> estimateMap =
+        new HashMap<List<String>, Integer>();
+
+    /** Statistics that are being collected in the background. */
+    private final Set<List<String>> pendingSet = new HashSet<List<String>>();
+
+    private boolean collecting;
+    private String snapshotKey;
+
+    /**
+     * Whether a save of the snapshot is scheduled. Cleared by
+     * {@link #saveSnapshot()}, so that a scheduled save that has been
+     * overtaken by an explicit one does nothing.
+     */
+    private boolean saveScheduled;
+
+    /** Serializes saves of the snapshot file. */
+    private final Object saveLock = new Object();
 
     public RolapStatisticsCache(RolapStar star) {
         this.star = star;
@@ -43,82 +115,43 @@ public class RolapStatisticsCache {
         if (approxRowCount >= 0) {
             return approxRowCount;
         }
-        if (relation instanceof MondrianDef.Table) {
-            final MondrianDef.Table table = (MondrianDef.Table) relation;
-            return getTableCardinality(
-                null, table.schema, table.name);
-        } else {
-            final SqlQuery sqlQuery = star.getSqlQuery();
-            sqlQuery.addSelect("*", null);
-            sqlQuery.addFrom(relation, null, true);
-            return getQueryCardinality(sqlQuery.toString());
-        }
+        return get(relationKey(relation));
     }
 
-    private int getTableCardinality(
-        String catalog,
-        String schema,
-        String table)
+    /**
+     * Returns the number of rows in a relation if it is known without
+     * executing SQL, otherwise -1. If statistics are collected in the
+     * background, starts collecting it.
+     *
+     * <p>For use in the cache manager's thread, which must not wait for
+     * SQL statements.</p>
+     *
+     * @param relation Relation
+     * @param approxRowCount Approximate row count from the schema, or -1
+     * @return Cached row count or estimate, or -1 if not known
+     */
+    public int getCachedRelationCardinality(
+        MondrianDef.Relation relation,
+        int approxRowCount)
     {
-        final List<String> key = Arrays.asList(catalog, schema, table);
-        int rowCount = -1;
-        if (tableMap.containsKey(key)) {
-            rowCount = tableMap.get(key);
-        } else {
-            final Dialect dialect = star.getSqlQueryDialect();
-            final List<StatisticsProvider> statisticsProviders =
-                dialect.getStatisticsProviders();
-            final Execution execution =
-                new Execution(
-                    star.getSchema().getInternalConnection()
-                        .getInternalStatement(),
-                    0);
-            for (StatisticsProvider statisticsProvider : statisticsProviders) {
-                rowCount = statisticsProvider.getTableCardinality(
-                    dialect,
-                    star.getDataSource(),
-                    catalog,
-                    schema,
-                    table,
-                    execution);
-                if (rowCount >= 0) {
-                    break;
-                }
-            }
-
-            // Note: If all providers fail, we put -1 into the cache, to ensure
-            // that we won't try again.
-            tableMap.put(key, rowCount);
+        if (approxRowCount >= 0) {
+            return approxRowCount;
         }
-        return rowCount;
-    }
-
-    private int getQueryCardinality(String sql) {
-        int rowCount = -1;
-        if (queryMap.containsKey(sql)) {
-            rowCount = queryMap.get(sql);
-        } else {
-            final Dialect dialect = star.getSqlQueryDialect();
-            final List<StatisticsProvider> statisticsProviders =
-                dialect.getStatisticsProviders();
-            final Execution execution =
-                new Execution(
-                    star.getSchema().getInternalConnection()
-                        .getInternalStatement(),
-                    0);
-            for (StatisticsProvider statisticsProvider : statisticsProviders) {
-                rowCount = statisticsProvider.getQueryCardinality(
-                    dialect, star.getDataSource(), sql, execution);
-                if (rowCount >= 0) {
-                    break;
-                }
+        final List<String> key = relationKey(relation);
+        synchronized (this) {
+            final Integer value = valueMap.get(key);
+            if (value != null) {
+                return value;
             }
-
-            // Note: If all providers fail, we put -1 into the cache, to ensure
-            // that we won't try again.
-            queryMap.put(sql, rowCount);
+            final Integer estimate = estimateMap.get(key);
+            if (estimate != null) {
+                return estimate;
+            }
+        }
+        if (isBackground()) {
+            submit(key);
         }
-        return rowCount;
+        return -1;
     }
 
     public int getColumnCardinality(
@@ -129,75 +162,603 @@ public class RolapStatisticsCache {
         if (approxCardinality >= 0) {
             return approxCardinality;
         }
+        return get(columnKey(relation, expression));
+    }
+
+    private List<String> relationKey(MondrianDef.Relation relation) {
+        if (relation instanceof MondrianDef.Table) {
+            final MondrianDef.Table table = (MondrianDef.Table) relation;
+            return Arrays.asList(TABLE, null, table.schema, table.name);
+        } else {
+            final SqlQuery sqlQuery = star.getSqlQuery();
+            sqlQuery.addSelect("*", null);
+            sqlQuery.addFrom(relation, null, true);
+            return Arrays.asList(QUERY, sqlQuery.toString());
+        }
+    }
+
+    private List<String> columnKey(
+        MondrianDef.Relation relation,
+        MondrianDef.Expression expression)
+    {
         if (relation instanceof MondrianDef.Table
             && expression instanceof MondrianDef.Column)
         {
             final MondrianDef.Table table = (MondrianDef.Table) relation;
             final MondrianDef.Column column = (MondrianDef.Column) expression;
-            return getColumnCardinality(
-                null,
-                table.schema,
-                table.name,
-                column.name);
+            return Arrays.asList(
+                COLUMN, null, table.schema, table.name, column.name);
         } else {
             final SqlQuery sqlQuery = star.getSqlQuery();
             sqlQuery.setDistinct(true);
             sqlQuery.addSelect(expression.getExpression(sqlQuery), null);
             sqlQuery.addFrom(relation, null, true);
-            return getQueryCardinality(sqlQuery.toString());
+            return Arrays.asList(QUERY, sqlQuery.toString());
         }
     }
 
-    private int getColumnCardinality(
+    public int getColumnCardinality2(
+        DataSource dataSource,
+        Dialect dialect,
         String catalog,
         String schema,
         String table,
         String column)
     {
-        final List<String> key = Arrays.asList(catalog, schema, table, column);
-        int rowCount = -1;
-        if (columnMap.containsKey(key)) {
-            rowCount = columnMap.get(key);
-        } else {
-            final Dialect dialect = star.getSqlQueryDialect();
-            final List<StatisticsProvider> statisticsProviders =
-                dialect.getStatisticsProviders();
-            final Execution execution =
-                new Execution(
-                    star.getSchema().getInternalConnection()
-                        .getInternalStatement(),
-                    0);
-            for (StatisticsProvider statisticsProvider : statisticsProviders) {
-                rowCount = statisticsProvider.getColumnCardinality(
-                    dialect,
-                    star.getDataSource(),
-                    catalog,
-                    schema,
-                    table,
-                    column,
-                    execution);
-                if (rowCount >= 0) {
-                    break;
+        return -1;
+    }
+
+    private static boolean isBackground() {
+        return MondrianProperties.instance().StatisticsBackground.get();
+    }
+
+    /**
+     * Returns whether a statistic, once this cache has returned it, will
+     * never change. Not true if statistics are collected in the background:
+     * the first value may be an estimate, and values are refreshed. A caller
+     * must not memoize a statistic unless this method returns true.
+     */
+    public boolean isFinal() {
+        return !isBackground();
+    }
+
+    /**
+     * Returns a statistic. If it is not cached, collects it now, or, if
+     * statistics are collected in the background, starts collecting it and
+     * returns an estimate.
+     *
+     * <p>Statistics are collected without holding the lock on this cache, so
+     * that a slow SQL statement does not block callers that want other
+     * statistics. Two threads may collect the same statistic at the same
+     * time; the first value to arrive is kept.
+     */
+    private int get(List<String> key) {
+        if (!isBackground()) {
+            synchronized (this) {
+                final Integer value = valueMap.get(key);
+                if (value != null) {
+                    return value;
                 }
             }
+            final int value = collect(key);
+            synchronized (this) {
+                final Integer previous = valueMap.get(key);
+                if (previous != null) {
+                    return previous;
+                }
+                valueMap.put(key, value);
+                timeMap.put(key, System.currentTimeMillis());
+            }
+            return value;
+        }
+        synchronized (this) {
+            final Integer value = valueMap.get(key);
+            if (value != null) {
+                return value;
+            }
+            final Integer estimate = estimateMap.get(key);
+            if (estimate != null) {
+                return estimate;
+            }
+        }
+        submit(key);
+        final int estimate = estimate(key);
+        synchronized (this) {
+            if (pendingSet.contains(key)) {
+                estimateMap.put(key, estimate);
+            }
+        }
+        return estimate;
+    }
 
-            // Note: If all providers fail, we put -1 into the cache, to ensure
-            // that we won't try again.
-            columnMap.put(key, rowCount);
+    /**
+     * Collects a statistic by asking each provider in turn.
+     *
+     * @param key Kind of statistic and names
+     * @return Value of statistic, or -1 if all providers failed
+     */
+    private int collect(List<String> key) {
+        final Dialect dialect = star.getSqlQueryDialect();
+        final DataSource dataSource = star.getDataSource();
+        final Execution execution =
+            new Execution(
+                star.getSchema().getInternalConnection()
+                    .getInternalStatement(),
+                0);
+        for (StatisticsProvider provider : dialect.getStatisticsProviders()) {
+            final int value =
+                collect(provider, key, dialect, dataSource, execution);
+            if (value >= 0) {
+                return value;
+            }
         }
-        return rowCount;
+        return -1;
     }
 
-    public int getColumnCardinality2(
-        DataSource dataSource,
+    private static int collect(
+        StatisticsProvider provider,
+        List<String> key,
         Dialect dialect,
-        String catalog,
-        String schema,
-        String table,
-        String column)
+        DataSource dataSource,
+        Execution execution)
     {
+        final String kind = key.get(0);
+        if (kind.equals(TABLE)) {
+            return provider.getTableCardinality(
+                dialect, dataSource, key.get(1), key.get(2), key.get(3),
+                execution);
+        } else if (kind.equals(COLUMN)) {
+            return provider.getColumnCardinality(
+                dialect, dataSource, key.get(1), key.get(2), key.get(3),
+                key.get(4), execution);
+        } else {
+            return provider.getQueryCardinality(
+                dialect, dataSource, key.get(1), execution);
+        }
+    }
+
+    /**
+     * Returns an estimate of a statistic, for use until the precise value has
+     * been collected. Asks only the providers that read JDBC metadata, which
+     * is much cheaper than executing a query; returns -1 if there are no such
+     * providers or they do not know.
+     */
+    private int estimate(List<String> key) {
+        final Dialect dialect = star.getSqlQueryDialect();
+        for (StatisticsProvider provider : dialect.getStatisticsProviders()) {
+            if (!(provider instanceof JdbcStatisticsProvider)) {
+                continue;
+            }
+            try {
+                final int value =
+                    collect(provider, key, dialect, star.getDataSource(), null);
+                if (value >= 0) {
+                    return value;
+                }
+            } catch (RuntimeException e) {
+                LOGGER.debug("Error while estimating statistic " + key, e);
+            }
+        }
         return -1;
     }
+
+    private static synchronized ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            executor =
+                Util.getScheduledExecutorService(
+                    Math.max(
+                        1,
+                        MondrianProperties.instance().StatisticsThreads.get()),
+                    "mondrian.rolap.RolapStatisticsCache$executor");
+        }
+        return executor;
+    }
+
+    /**
+     * Starts collecting a statistic in the background, unless it is already
+     * being collected.
+     */
+    private void submit(final List<String> key) {
+        synchronized (this) {
+            if (!pendingSet.add(key)) {
+                return;
+            }
+        }
+        getExecutor().execute(
+            new Runnable() {
+                public void run() {
+                    Integer value = null;
+                    try {
+                        value = collect(key);
+                    } catch (Throwable e) {
+                        LOGGER.warn(
+                            "Error while collecting statistic " + key, e);
+                    } finally {
+                        synchronized (RolapStatisticsCache.this) {
+                            pendingSet.remove(key);
+                            estimateMap.remove(key);
+                            if (value != null || !valueMap.containsKey(key)) {
+                                // On failure, keep the previous value, if any.
+                                valueMap.put(key, value == null ? -1 : value);
+                                timeMap.put(key, System.currentTimeMillis());
+                            }
+                            // Schedule the save before the statistic stops
+                            // being pending, so that a caller that waits for
+                            // collection to finish and then saves overtakes
+                            // the scheduled save.
+                            scheduleSave();
+                        }
+                    }
+                }
+            });
+    }
+
+    /**
+     * Starts collecting, in the background, the statistics of every table and
+     * column of the star, and of its aggregate tables. Reads the snapshot
+     * first, if there is one, and schedules refreshes.
+     *
+     * <p>Does nothing unless {@link MondrianProperties#StatisticsBackground}
+     * is true, or if called a second time.
+     */
+    public void collect() {
+        if (!isBackground()) {
+            return;
+        }
+        synchronized (this) {
+            if (collecting) {
+                return;
+            }
+            collecting = true;
+        }
+        readSnapshot();
+        final Set<List<String>> keys = new LinkedHashSet<List<String>>();
+        final RolapStar.Table factTable = star.getFactTable();
+        keys.add(relationKey(factTable.getRelation()));
+        for (int i = 0; i < star.getColumnCount(); i++) {
+            final RolapStar.Column column = star.getColumn(i);
+            if (column instanceof RolapStar.Measure) {
+                continue;
+            }
+            final RolapStar.Table table = column.getTable();
+            keys.add(relationKey(table.getRelation()));
+            if (column.getExpression() != null) {
+                keys.add(
+                    columnKey(table.getRelation(), column.getExpression()));
+            }
+        }
+        for (AggStar aggStar : star.getAggStars()) {
+            keys.add(relationKey(aggStar.getFactTable().getRelation()));
+        }
+        for (List<String> key : keys) {
+            synchronized (this) {
+                if (valueMap.containsKey(key)) {
+                    continue;
+                }
+            }
+            submit(key);
+        }
+        final int refreshInterval =
+            MondrianProperties.instance().StatisticsRefreshInterval.get();
+        if (refreshInterval > 0) {
+            final Refresher refresher = new Refresher(this);
+            refresher.future =
+                getExecutor().scheduleWithFixedDelay(
+                    refresher,
+                    refreshInterval,
+                    refreshInterval,
+                    TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Starts collecting again, in the background, each statistic that is
+     * older than the refresh interval. Until the new value arrives, callers
+     * get the old one.
+     */
+    void refresh() {
+        final long expiry =
+            System.currentTimeMillis()
+            - MondrianProperties.instance().StatisticsRefreshInterval.get()
+            * 1000L;
+        final List<List<String>> keys = new ArrayList<List<String>>();
+        synchronized (this) {
+            for (Map.Entry<List<String>, Long> entry : timeMap.entrySet()) {
+                if (entry.getValue() <= expiry) {
+                    keys.add(entry.getKey());
+                }
+            }
+        }
+        for (List<String> key : keys) {
+            submit(key);
+        }
+    }
+
+    /**
+     * Returns whether any statistics are being collected in the background.
+     */
+    synchronized boolean isCollecting() {
+        return !pendingSet.isEmpty();
+    }
+
+    private synchronized String getSnapshotKey() {
+        return snapshotKey;
+    }
+
+    /**
+     * Returns the snapshot file of this star, or null if snapshots are not
+     * enabled or the database cannot be identified.
+     */
+    private File getSnapshotFile() {
+        final String dir =
+            MondrianProperties.instance().StatisticsSnapshotDir.get();
+        if (dir == null || dir.length() == 0) {
+            return null;
+        }
+        String key;
+        synchronized (this) {
+            key = snapshotKey;
+        }
+        if (key == null) {
+            // Read the metadata without holding the lock. Two threads may do
+            // so at the same time; they compute the same key.
+            Connection connection = null;
+            try {
+                connection = star.getDataSource().getConnection();
+                final DatabaseMetaData metaData = connection.getMetaData();
+                key =
+                    ("url=" + metaData.getURL()
+                     + ", user=" + metaData.getUserName()
+                     + ", schema=" + star.getSchema().getName()
+                     + ", fact=" + star.getFactTable().getAlias())
+                        .replace('\t', ' ')
+                        .replace('\n', ' ')
+                        .replace('\r', ' ');
+            } catch (SQLException e) {
+                LOGGER.warn(
+                    "Could not identify database for statistics", e);
+                return null;
+            } finally {
+                Util.close(null, null, connection);
+            }
+            synchronized (this) {
+                snapshotKey = key;
+            }
+        }
+        // Different stars may hash to the same file; the key inside the file
+        // tells them apart.
+        return new File(
+            dir,
+            "stats-" + Integer.toHexString(key.hashCode()) + ".txt");
+    }
+
+    /**
+     * Reads statistics from the snapshot file, if there is one. Statistics
+     * older than the refresh interval are read too, and are refreshed by
+     * {@link #refresh}. If the file cannot be read, it is ignored.
+     */
+    private void readSnapshot() {
+        final File file = getSnapshotFile();
+        if (file == null || !file.exists()) {
+            return;
+        }
+        final Map<List<String>, Integer> values =
+            new HashMap<List<String>, Integer>();
+        final Map<List<String>, Long> times = new HashMap<List<String>, Long>();
+        BufferedReader reader = null;
+        try {
+            reader =
+                new BufferedReader(
+                    new InputStreamReader(
+                        new FileInputStream(file), SNAPSHOT_ENCODING));
+            if (!SNAPSHOT_HEADER.equals(reader.readLine())
+                || !getSnapshotKey().equals(reader.readLine()))
+            {
+                return;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // value, time, kind, names...
+                final String[] fields = line.split("\t", -1);
+                if (fields.length < 4) {
+                    LOGGER.warn(
+                        "Invalid line in statistics snapshot " + file + ": "
+                        + line);
+                    return;
+                }
+                final List<String> key = new ArrayList<String>();
+                for (int i = 2; i < fields.length; i++) {
+                    key.add(
+                        i > 2 && fields[i].length() == 0 ? null : fields[i]);
+                }
+                values.put(key, Integer.valueOf(fields[0]));
+                times.put(key, Long.valueOf(fields[1]));
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Could not read statistics snapshot " + file, e);
+            return;
+        } catch (NumberFormatException e) {
+            LOGGER.warn("Invalid statistics snapshot " + file, e);
+            return;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+        // The whole file is valid; now populate the cache.
+        synchronized (this) {
+            for (Map.Entry<List<String>, Integer> entry : values.entrySet()) {
+                if (!valueMap.containsKey(entry.getKey())) {
+                    valueMap.put(entry.getKey(), entry.getValue());
+                    timeMap.put(entry.getKey(), times.get(entry.getKey()));
+                }
+            }
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(
+                "Read " + values.size() + " statistics from snapshot " + file);
+        }
+    }
+
+    /**
+     * Schedules a save of the snapshot, unless one is already scheduled. The
+     * delay lets one save cover many statistics that arrive together.
+     */
+    private synchronized void scheduleSave() {
+        if (MondrianProperties.instance().StatisticsSnapshotDir.get() == null
+            || saveScheduled)
+        {
+            return;
+        }
+        saveScheduled = true;
+        getExecutor().schedule(
+            new Runnable() {
+                public void run() {
+                    saveSnapshot(true);
+                }
+            },
+            1,
+            TimeUnit.SECONDS);
+    }
+
+    /**
+     * Saves the statistics to the snapshot file, if snapshots are enabled.
+     *
+     * <p>The file is written under a temporary name and then renamed, so
+     * that a reader never sees a partial file. Failure to save is logged,
+     * not thrown. A save that has been scheduled, and has not started, will
+     * do nothing.
+     */
+    void saveSnapshot() {
+        saveSnapshot(false);
+    }
+
+    /**
+     * Saves the statistics to the snapshot file.
+     *
+     * <p>Copies the statistics while holding the lock on this cache, and
+     * writes the file without it. Saves are serialized by
+     * {@link #saveLock}, so that a later copy is never overwritten by an
+     * earlier one.
+     *
+     * @param scheduled Whether this is a scheduled save; if so, and an
+     *     explicit save has happened since it was scheduled, does nothing
+     */
+    private void saveSnapshot(boolean scheduled) {
+        synchronized (saveLock) {
+            final Map<List<String>, Integer> values;
+            final Map<List<String>, Long> times;
+            synchronized (this) {
+                if (scheduled && !saveScheduled) {
+                    return;
+                }
+                saveScheduled = false;
+                values = new HashMap<List<String>, Integer>(valueMap);
+                times = new HashMap<List<String>, Long>(timeMap);
+            }
+            writeSnapshot(values, times);
+        }
+    }
+
+    private void writeSnapshot(
+        Map<List<String>, Integer> values,
+        Map<List<String>, Long> times)
+    {
+        final File file = getSnapshotFile();
+        if (file == null) {
+            return;
+        }
+        final File tempFile = new File(file.getPath() + ".tmp");
+        PrintWriter pw = null;
+        try {
+            file.getParentFile().mkdirs();
+            pw = new PrintWriter(
+                new OutputStreamWriter(
+                    new FileOutputStream(tempFile), SNAPSHOT_ENCODING));
+            pw.println(SNAPSHOT_HEADER);
+            pw.println(getSnapshotKey());
+            for (Map.Entry<List<String>, Integer> entry : values.entrySet()) {
+                if (!isSnapshotSafe(entry.getKey())) {
+                    continue;
+                }
+                final StringBuilder buf = new StringBuilder();
+                buf.append(entry.getValue())
+                    .append('\t')
+                    .append(times.get(entry.getKey()));
+                for (String name : entry.getKey()) {
+                    buf.append('\t');
+                    if (name != null) {
+                        buf.append(name);
+                    }
+                }
+                pw.println(buf);
+            }
+            pw.flush();
+            if (pw.checkError()) {
+                throw new IOException("Error writing " + tempFile);
+            }
+            pw.close();
+            pw = null;
+            if (file.exists() && !file.delete()
+                || !tempFile.renameTo(file))
+            {
+                throw new IOException(
+                    "Could not rename " + tempFile + " to " + file);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Could not save statistics snapshot " + file, e);
+        } finally {
+            if (pw != null) {
+                pw.close();
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns whether a key can be written to a snapshot file. Fields are
+     * separated by tabs, and entries by line breaks. An empty name would be
+     * read back as null.
+     */
+    private static boolean isSnapshotSafe(List<String> key) {
+        for (String name : key) {
+            if (name != null
+                && (name.length() == 0
+                    || name.indexOf('\t') >= 0
+                    || name.indexOf('\n') >= 0
+                    || name.indexOf('\r') >= 0))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Task that refreshes the statistics of a cache periodically, and
+     * cancels itself when the cache has been garbage-collected.
+     */
+    private static class Refresher implements Runnable {
+        private final WeakReference<RolapStatisticsCache> cacheRef;
+        private ScheduledFuture<?> future;
+
+        Refresher(RolapStatisticsCache cache) {
+            this.cacheRef = new WeakReference<RolapStatisticsCache>(cache);
+        }
+
+        public void run() {
+            final RolapStatisticsCache cache = cacheRef.get();
+            if (cache == null) {
+                future.cancel(false);
+                return;
+            }
+            cache.refresh();
+        }
+    }
 }
 
 // End RolapStatisticsCache.java
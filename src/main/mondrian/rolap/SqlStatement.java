@@ -9,6 +9,7 @@
 */
 package mondrian.rolap;
 
+import mondrian.olap.MondrianProperties;
 import mondrian.olap.Util;
 import mondrian.server.Execution;
 import mondrian.server.Locus;
@@ -160,9 +161,20 @@ public class SqlStatement {
             if (maxRows > 0) {
                 statement.setMaxRows(maxRows);
             }
+            if (getPurpose() == SqlStatementEvent.Purpose.DRILL_THROUGH) {
+                final int fetchSize =
+                    MondrianProperties.instance().DrillThroughFetchSize.get();
+                if (fetchSize > 0) {
+                    statement.setFetchSize(fetchSize);
+                }
+            }
 
             // First make sure to register with the execution instance.
-            locus.execution.registerStatement(locus, statement);
+            if (locus instanceof StatementLocus) {
+                ((StatementLocus) locus).registerStatement(statement);
+            } else {
+                locus.execution.registerStatement(locus, statement);
+            }
 
             locus.getServer().getMonitor().sendEvent(
                 new SqlStatementStartEvent(
@@ -634,6 +646,21 @@ public class SqlStatement {
             this.purpose = purpose;
             this.cellRequestCount = cellRequestCount;
         }
+
+        /**
+         * Registers a JDBC statement so that it is canceled if its execution
+         * is canceled.
+         *
+         * <p>By default, registers the statement with the execution. A
+         * statement whose results are shared between several executions,
+         * such as one that loads segments, can override this method and
+         * arrange to be canceled only when none of them needs it.</p>
+         *
+         * @param statement JDBC statement
+         */
+        public void registerStatement(Statement statement) {
+            execution.registerStatement(this, statement);
+        }
     }
 }
 
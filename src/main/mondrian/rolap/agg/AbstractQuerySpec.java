@@ -74,6 +74,20 @@ public abstract class AbstractQuerySpec implements QuerySpec {
             measure.getExpression() == null
                 ? "*"
                 : measure.generateExprString(sqlQuery);
+        if (measure.isLoadedFromDistinctValues()) {
+            // The sketch or bitmap of each cell is built from the distinct
+            // values of the expression, so the query returns one row per
+            // value.
+            final String alias =
+                sqlQuery.addSelect(
+                    exprInner,
+                    measure.getInternalType(),
+                    getMeasureAlias(i));
+            if (isAggregate()) {
+                sqlQuery.addGroupBy(exprInner, alias);
+            }
+            return;
+        }
         String exprOuter = measure.getAggregator().getExpression(exprInner);
         sqlQuery.addSelect(
             exprOuter,
@@ -219,7 +233,8 @@ public abstract class AbstractQuerySpec implements QuerySpec {
 
     /**
      * Returns the number of measures whose aggregation function is
-     * distinct-count.
+     * distinct-count. Measures loaded from distinct values do not count,
+     * because they do not generate <code>count(distinct ...)</code>.
      *
      * @return Number of distinct-count measures
      */
@@ -227,7 +242,9 @@ public abstract class AbstractQuerySpec implements QuerySpec {
         int k = 0;
         for (int i = 0, count = getMeasureCount(); i < count; i++) {
             RolapStar.Measure measure = getMeasure(i);
-            if (measure.getAggregator().isDistinct()) {
+            if (measure.getAggregator().isDistinct()
+                && !measure.isLoadedFromDistinctValues())
+            {
                 ++k;
             }
         }
@@ -0,0 +1,386 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.olap.MondrianDef;
+import mondrian.olap.MondrianProperties;
+import mondrian.rolap.*;
+import mondrian.rolap.aggmatcher.AggStar;
+import mondrian.server.Locus;
+import mondrian.spi.SegmentColumn;
+import mondrian.spi.SegmentHeader;
+
+import org.apache.log4j.Logger;
+
+import java.util.*;
+
+/**
+ * Estimates the cost of the ways of computing a set of cells, and chooses the
+ * cheapest.
+ *
+ * <p>The cells for a combination of levels and measures can be read by a SQL
+ * statement on the fact table, by a SQL statement on any aggregate table
+ * that has those levels and measures, or, if the cache holds segments of a
+ * finer granularity, by rolling up those segments in memory.
+ *
+ * <p>Cost is measured in rows read. The cost of a SQL statement is a fixed
+ * {@link #STATEMENT_COST} plus the number of rows in the fact or aggregate
+ * table plus the number of rows in each dimension table it joins to. Row
+ * counts come from the star's {@link RolapStatisticsCache}, and therefore
+ * from the dialect's {@link mondrian.spi.StatisticsProvider}s, or from the
+ * <code>approxRowCount</code> attribute if the schema gives one. The cost of
+ * a rollup is the number of cells in the segments rolled up, times
+ * {@link #ROLLUP_CELL_COST}.
+ *
+ * <p>Used only if {@link MondrianProperties#ChooseAggregateByCost} is true.
+ * Each choice is logged at DEBUG level, with the cost of every candidate, and
+ * recorded in the {@link mondrian.olap.QueryTiming} of the current execution
+ * as a component called "Aggregate choice: <i>source</i>".
+ *
+ * @author jhyde
+ */
+public class AggregationCostModel {
+    private static final Logger LOGGER =
+        Logger.getLogger(AggregationCostModel.class);
+
+    /**
+     * Fixed cost of executing a SQL statement, in rows. Parsing, planning and
+     * a round trip to the database cost about as much as reading this many
+     * rows.
+     */
+    static final double STATEMENT_COST = 1000d;
+
+    /**
+     * Cost of aggregating one cell of a cached segment in memory, relative to
+     * the cost of reading one row in a SQL statement.
+     */
+    static final double ROLLUP_CELL_COST = 0.1d;
+
+    // prevent instantiation
+    private AggregationCostModel() {
+    }
+
+    /**
+     * Returns whether choices are cost-based.
+     */
+    public static boolean isEnabled() {
+        return MondrianProperties.instance().ChooseAggregateByCost.get();
+    }
+
+    /**
+     * Returns the estimated number of rows read by a query on the fact table
+     * of a star that groups by the given columns; infinity if the size of the
+     * fact table is not known.
+     *
+     * @param star Star
+     * @param levelBitKey Columns to group by
+     * @return Estimated rows read
+     */
+    static double factCost(RolapStar star, BitKey levelBitKey) {
+        return factCost(star, levelBitKey, false);
+    }
+
+    /**
+     * Returns the estimated number of rows read by a query on the fact table
+     * of a star, optionally using only statistics that are already known.
+     *
+     * @param star Star
+     * @param levelBitKey Columns to group by
+     * @param cachedOnly Whether to use only statistics that are known without
+     *   executing SQL; unknown sizes of dimension tables count as 0
+     * @return Estimated rows read
+     */
+    static double factCost(
+        RolapStar star,
+        BitKey levelBitKey,
+        boolean cachedOnly)
+    {
+        final RolapStar.Table factTable = star.getFactTable();
+        final RolapStatisticsCache statisticsCache = star.getStatisticsCache();
+        final int rowCount =
+            rowCount(
+                statisticsCache,
+                factTable.getRelation(),
+                factTable.getAlias(),
+                cachedOnly);
+        if (rowCount < 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double cost = rowCount;
+        final Set<RolapStar.Table> joined = new HashSet<RolapStar.Table>();
+        for (int bit : levelBitKey) {
+            for (RolapStar.Table table = star.getColumn(bit).getTable();
+                table != null && table != factTable;
+                table = table.getParentTable())
+            {
+                if (joined.add(table)) {
+                    cost +=
+                        Math.max(
+                            rowCount(
+                                statisticsCache,
+                                table.getRelation(),
+                                table.getAlias(),
+                                cachedOnly),
+                            0);
+                }
+            }
+        }
+        return cost;
+    }
+
+    /**
+     * Returns the estimated number of rows read by a query on an aggregate
+     * table that groups by the given columns.
+     *
+     * @param aggStar Aggregate table
+     * @param levelBitKey Columns to group by
+     * @return Estimated rows read
+     */
+    static double aggCost(AggStar aggStar, BitKey levelBitKey) {
+        return aggCost(aggStar, levelBitKey, false);
+    }
+
+    /**
+     * Returns the estimated number of rows read by a query on an aggregate
+     * table, optionally using only statistics that are already known;
+     * infinity if the size of the aggregate table is not known.
+     *
+     * @param aggStar Aggregate table
+     * @param levelBitKey Columns to group by
+     * @param cachedOnly Whether to use only statistics that are known without
+     *   executing SQL
+     * @return Estimated rows read
+     */
+    static double aggCost(
+        AggStar aggStar,
+        BitKey levelBitKey,
+        boolean cachedOnly)
+    {
+        final RolapStatisticsCache statisticsCache =
+            aggStar.getStar().getStatisticsCache();
+        final int rowCount =
+            cachedOnly
+                ? aggStar.getFactTable().getCachedNumberOfRows()
+                : aggStar.getFactTable().getNumberOfRows();
+        if (rowCount < 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double cost = rowCount;
+        final Set<AggStar.Table> joined = new HashSet<AggStar.Table>();
+        for (int bit : levelBitKey) {
+            final AggStar.Table.Column column = aggStar.lookupColumn(bit);
+            if (column == null) {
+                continue;
+            }
+            for (AggStar.Table table = column.getTable();
+                table.hasParent();
+                table = table.getParent())
+            {
+                if (joined.add(table)) {
+                    cost +=
+                        Math.max(
+                            rowCount(
+                                statisticsCache,
+                                table.getRelation(),
+                                table.getName(),
+                                cachedOnly),
+                            0);
+                }
+            }
+        }
+        return cost;
+    }
+
+    /**
+     * Returns the estimated cost, relative to a row read by SQL, of rolling up
+     * a list of segments. If the number of cells in any segment is not
+     * known, returns 0, so that the rollup is preferred, as it would be if
+     * choices were not cost-based.
+     *
+     * @param headers Headers of segments to roll up
+     * @return Estimated cost
+     */
+    static double rollupCost(List<SegmentHeader> headers) {
+        double cellCount = 0;
+        for (SegmentHeader header : headers) {
+            double headerCellCount = 1;
+            for (SegmentColumn column : header.getConstrainedColumns()) {
+                final int valueCount =
+                    column.values != null
+                        ? column.values.size()
+                        : column.valueCount;
+                if (valueCount < 0) {
+                    return 0;
+                }
+                headerCellCount *= valueCount;
+            }
+            cellCount += headerCellCount;
+        }
+        return cellCount * ROLLUP_CELL_COST;
+    }
+
+    /**
+     * Returns the number of rows in a relation, or -1 if not known.
+     */
+    private static int rowCount(
+        RolapStatisticsCache statisticsCache,
+        MondrianDef.Relation relation,
+        String alias,
+        boolean cachedOnly)
+    {
+        return cachedOnly
+            ? statisticsCache.getCachedRelationCardinality(relation, -1)
+            : statisticsCache.getRelationCardinality(relation, alias, -1);
+    }
+
+    /**
+     * Chooses the cheapest of the fact table and a list of aggregate tables
+     * for a query. Among aggregate tables of equal cost, chooses the first;
+     * between an aggregate table and the fact table of equal cost, chooses
+     * the aggregate table.
+     *
+     * @param star Star
+     * @param levelBitKey Columns to group by
+     * @param candidates Aggregate tables that can answer the query, ordered
+     *   by size
+     * @return Cheapest aggregate table, or null if the fact table is cheapest
+     */
+    static AggStar chooseAggStar(
+        RolapStar star,
+        BitKey levelBitKey,
+        List<AggStar> candidates)
+    {
+        final long start = System.currentTimeMillis();
+        final double factCost = factCost(star, levelBitKey);
+        final StringBuilder buf =
+            LOGGER.isDebugEnabled() ? new StringBuilder() : null;
+        if (buf != null) {
+            buf.append("Cost of reading star ")
+                .append(star.getFactTable().getAlias())
+                .append(", columns ")
+                .append(levelBitKey)
+                .append(": fact table ")
+                .append(format(factCost));
+        }
+        AggStar best = null;
+        double bestCost = Double.POSITIVE_INFINITY;
+        for (AggStar aggStar : candidates) {
+            final double cost = aggCost(aggStar, levelBitKey);
+            if (buf != null) {
+                buf.append(", ")
+                    .append(aggStar.getFactTable().getName())
+                    .append(' ')
+                    .append(format(cost));
+            }
+            if (best == null || cost < bestCost) {
+                best = aggStar;
+                bestCost = cost;
+            }
+        }
+        if (best != null && bestCost > factCost) {
+            best = null;
+        }
+        final String choice =
+            best == null
+                ? star.getFactTable().getAlias()
+                : best.getFactTable().getName();
+        if (buf != null) {
+            LOGGER.debug(buf.append("; chose ").append(choice).toString());
+        }
+        record(choice, start);
+        return best;
+    }
+
+    /**
+     * Returns whether to compute a cell request by rolling up cached
+     * segments, rather than by executing SQL.
+     *
+     * <p>Called in the cache manager's thread, so uses only statistics that
+     * are known without executing SQL. If the cost of SQL cannot be
+     * estimated, rolls up, as it would if choices were not cost-based.</p>
+     *
+     * @param request Cell request
+     * @param hasCompoundPredicates Whether the request has compound
+     *   predicates (if so, it cannot use an aggregate table)
+     * @param headers Segments that would be rolled up
+     * @return Whether to roll up
+     */
+    public static boolean preferRollup(
+        CellRequest request,
+        boolean hasCompoundPredicates,
+        List<SegmentHeader> headers)
+    {
+        final long start = System.currentTimeMillis();
+        final RolapStar.Measure measure = request.getMeasure();
+        final RolapStar star = measure.getStar();
+        final BitKey levelBitKey = request.getConstrainedColumnsBitKey();
+        final double factCost = factCost(star, levelBitKey, true);
+        AggStar aggStar = null;
+        double aggCost = Double.POSITIVE_INFINITY;
+        if (MondrianProperties.instance().UseAggregates.get()
+            && !hasCompoundPredicates)
+        {
+            final BitKey measureBitKey = levelBitKey.emptyCopy();
+            measureBitKey.set(measure.getBitPosition());
+            for (AggStar candidate
+                : AggregationManager.findAggCandidates(
+                    star, levelBitKey, measureBitKey))
+            {
+                final double cost = aggCost(candidate, levelBitKey, true);
+                if (aggStar == null || cost < aggCost) {
+                    aggStar = candidate;
+                    aggCost = cost;
+                }
+            }
+            if (aggStar != null && aggCost > factCost) {
+                aggStar = null;
+            }
+        }
+        final double sqlCost =
+            STATEMENT_COST + (aggStar == null ? factCost : aggCost);
+        final double rollupCost = rollupCost(headers);
+        final boolean rollup = rollupCost <= sqlCost;
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(
+                "Cost of cells of measure " + measure.getName()
+                + ", columns " + levelBitKey
+                + ": rollup of " + headers.size() + " segments "
+                + format(rollupCost)
+                + ", SQL on "
+                + (aggStar == null
+                    ? star.getFactTable().getAlias()
+                    : aggStar.getFactTable().getName())
+                + " " + format(sqlCost)
+                + "; chose " + (rollup ? "rollup" : "SQL"));
+        }
+        record(rollup ? "rollup" : "SQL", start);
+        return rollup;
+    }
+
+    private static String format(double cost) {
+        return Double.isInfinite(cost)
+            ? "unknown"
+            : String.valueOf(Math.round(cost));
+    }
+
+    /**
+     * Records a choice in the timings of the current execution, if any.
+     */
+    private static void record(String choice, long start) {
+        if (Locus.isEmpty()) {
+            return;
+        }
+        Locus.peek().execution.getQueryTiming().markFull(
+            "Aggregate choice: " + choice,
+            System.currentTimeMillis() - start);
+    }
+}
+
+// End AggregationCostModel.java
@@ -193,13 +193,17 @@ public class AggregationManager extends RolapAggregationManager {
         final DrillThroughCellRequest request,
         final StarPredicate starPredicateSlicer,
         List<Exp> fields,
-        final boolean countOnly)
+        final boolean countOnly,
+        int offset,
+        int limit)
     {
         DrillThroughQuerySpec spec =
             new DrillThroughQuerySpec(
                 request,
                 starPredicateSlicer,
-                countOnly);
+                countOnly,
+                offset,
+                limit);
         Pair<String, List<SqlStatement.Type>> pair = spec.generateSqlQuery();
 
         if (getLogger().isDebugEnabled()) {
@@ -212,6 +216,62 @@ public class AggregationManager extends RolapAggregationManager {
         return pair.left;
     }
 
+    /**
+     * Generates a query that computes a cell from an aggregate table, or
+     * returns null if aggregate tables are disabled or none can answer the
+     * request.
+     *
+     * <p>The query returns a row for each combination of values of the
+     * request's constrained columns, with the value of the measure in the
+     * last column. Since each column of a cell request is constrained to a
+     * single value, there is at most one row.
+     *
+     * @param request Cell request
+     * @return SQL statement, or null
+     */
+    public static String generateAggregateSql(CellRequest request) {
+        if (!MondrianProperties.instance().UseAggregates.get()) {
+            return null;
+        }
+        final RolapStar.Measure measure = request.getMeasure();
+        final RolapStar star = measure.getStar();
+        final BitKey levelBitKey = request.getConstrainedColumnsBitKey();
+        final BitKey measureBitKey = levelBitKey.emptyCopy();
+        measureBitKey.set(measure.getBitPosition());
+        final boolean[] rollup = {false};
+        final AggStar aggStar =
+            findAgg(star, levelBitKey, measureBitKey, rollup);
+        if (aggStar == null) {
+            return null;
+        }
+        final RolapStar.Column[] columns = request.getConstrainedColumns();
+        final StarColumnPredicate[] predicates =
+            new StarColumnPredicate[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            predicates[i] = request.getValueAt(i);
+        }
+        final Segment segment =
+            new Segment(
+                star,
+                levelBitKey,
+                columns,
+                measure,
+                predicates,
+                Collections.<Segment.ExcludedRegion>emptyList(),
+                Collections.<StarPredicate>emptyList());
+        final GroupingSetsList groupingSetsList =
+            new GroupingSetsList(
+                Collections.singletonList(
+                    new GroupingSet(
+                        Collections.singletonList(segment),
+                        levelBitKey,
+                        measureBitKey,
+                        predicates,
+                        columns)));
+        return new AggQuerySpec(aggStar, rollup[0], groupingSetsList)
+            .generateSqlQuery().left;
+    }
+
     /**
      * Generates the query to retrieve the cells for a list of segments.
      * Called by Segment.load.
@@ -331,6 +391,12 @@ public class AggregationManager extends RolapAggregationManager {
      * If one or more of the measures are distinct-count measures
      * rollup is possible only in limited circumstances.
      *
+     * <p>If {@link MondrianProperties#ChooseAggregateByCost} is true,
+     * considers every suitable aggregate, and returns the one that
+     * {@link AggregationCostModel} estimates is cheapest, or null if the fact
+     * table is cheaper than all of them. Otherwise returns the first suitable
+     * aggregate.
+     *
      * @param star Star
      * @param levelBitKey Set of levels
      * @param measureBitKey Set of measures
@@ -356,124 +422,194 @@ public class AggregationManager extends RolapAggregationManager {
         assert rollup != null;
         BitKey fullBitKey = levelBitKey.or(measureBitKey);
 
+        // Aggregate tables cannot hold the sketches of approximate
+        // distinct-count measures, or the bitmaps of distinct-count measures.
+        for (int bit : measureBitKey) {
+            final RolapStar.Column column = star.getColumn(bit);
+            if (column instanceof RolapStar.Measure
+                && ((RolapStar.Measure) column).isLoadedFromDistinctValues())
+            {
+                return null;
+            }
+        }
+
         // The AggStars are already ordered from smallest to largest so
-        // we need only find the first one and return it.
+        // we need only find the first one and return it; unless choosing by
+        // cost, in which case we find all of them.
+        if (!AggregationCostModel.isEnabled()) {
+            for (AggStar aggStar : star.getAggStars()) {
+                if (isSuitable(
+                        aggStar, levelBitKey, measureBitKey, fullBitKey))
+                {
+                    rollup[0] = !aggStar.getLevelBitKey().equals(levelBitKey);
+                    return aggStar;
+                }
+            }
+            return null;
+        }
+        final List<AggStar> candidates =
+            findAggCandidates(star, levelBitKey, measureBitKey);
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        final AggStar aggStar =
+            AggregationCostModel.chooseAggStar(star, levelBitKey, candidates);
+        if (aggStar != null) {
+            rollup[0] = !aggStar.getLevelBitKey().equals(levelBitKey);
+        }
+        return aggStar;
+    }
+
+    /**
+     * Returns every aggregate table in the given star that can answer a query
+     * for a given set of levels and measures, ordered from smallest to
+     * largest. Unlike {@link #findAgg}, does not choose between them, and
+     * therefore never needs statistics.
+     *
+     * @param star Star
+     * @param levelBitKey Set of levels
+     * @param measureBitKey Set of measures
+     * @return Suitable aggregate tables; empty if there are none
+     */
+    static List<AggStar> findAggCandidates(
+        RolapStar star,
+        BitKey levelBitKey,
+        BitKey measureBitKey)
+    {
+        final List<AggStar> candidates = new ArrayList<AggStar>();
+        for (int bit : measureBitKey) {
+            final RolapStar.Column column = star.getColumn(bit);
+            if (column instanceof RolapStar.Measure
+                && ((RolapStar.Measure) column).isLoadedFromDistinctValues())
+            {
+                return candidates;
+            }
+        }
+        final BitKey fullBitKey = levelBitKey.or(measureBitKey);
         for (AggStar aggStar : star.getAggStars()) {
-            // superset match
-            if (!aggStar.superSetMatch(fullBitKey)) {
-                continue;
+            if (isSuitable(aggStar, levelBitKey, measureBitKey, fullBitKey)) {
+                candidates.add(aggStar);
             }
+        }
+        return candidates;
+    }
+
+    /**
+     * Returns whether an aggregate table can answer a query for a given set
+     * of levels and measures. See {@link #findAgg}.
+     */
+    private static boolean isSuitable(
+        AggStar aggStar,
+        BitKey levelBitKey,
+        BitKey measureBitKey,
+        BitKey fullBitKey)
+    {
+        // superset match
+        if (!aggStar.superSetMatch(fullBitKey)) {
+            return false;
+        }
 
-            boolean isDistinct = measureBitKey.intersects(
-                aggStar.getDistinctMeasureBitKey());
+        boolean isDistinct = measureBitKey.intersects(
+            aggStar.getDistinctMeasureBitKey());
 
-            // The AggStar has no "distinct count" measures so
-            // we can use it without looking any further.
-            if (!isDistinct) {
-                rollup[0] = !aggStar.getLevelBitKey().equals(levelBitKey);
-                return aggStar;
-            }
+        // The AggStar has no "distinct count" measures so
+        // we can use it without looking any further.
+        if (!isDistinct) {
+            return true;
+        }
 
-            // If there are distinct measures, we can only rollup in limited
-            // circumstances.
-
-            // No foreign keys (except when its used as a distinct count
-            //   measure).
-            // Level key exact match.
-            // Measure superset match.
-
-            // Compute the core levels -- those which can be safely
-            // rolled up to. For example,
-            // if the measure is 'distinct customer count',
-            // and the agg table has levels customer_id,
-            // then gender is a core level.
-            final BitKey distinctMeasuresBitKey =
-                measureBitKey.and(aggStar.getDistinctMeasureBitKey());
-            final BitSet distinctMeasures = distinctMeasuresBitKey.toBitSet();
-            BitKey combinedLevelBitKey = null;
-            for (int k = distinctMeasures.nextSetBit(0); k >= 0;
-                k = distinctMeasures.nextSetBit(k + 1))
-            {
-                final AggStar.FactTable.Measure distinctMeasure =
-                    aggStar.lookupMeasure(k);
-                BitKey rollableLevelBitKey =
-                    distinctMeasure.getRollableLevelBitKey();
-                if (combinedLevelBitKey == null) {
-                    combinedLevelBitKey = rollableLevelBitKey;
-                } else {
-                    // TODO use '&=' to remove unnecessary copy
-                    combinedLevelBitKey =
-                        combinedLevelBitKey.and(rollableLevelBitKey);
-                }
+        // If there are distinct measures, we can only rollup in limited
+        // circumstances.
+
+        // No foreign keys (except when its used as a distinct count
+        //   measure).
+        // Level key exact match.
+        // Measure superset match.
+
+        // Compute the core levels -- those which can be safely
+        // rolled up to. For example,
+        // if the measure is 'distinct customer count',
+        // and the agg table has levels customer_id,
+        // then gender is a core level.
+        final BitKey distinctMeasuresBitKey =
+            measureBitKey.and(aggStar.getDistinctMeasureBitKey());
+        final BitSet distinctMeasures = distinctMeasuresBitKey.toBitSet();
+        BitKey combinedLevelBitKey = null;
+        for (int k = distinctMeasures.nextSetBit(0); k >= 0;
+            k = distinctMeasures.nextSetBit(k + 1))
+        {
+            final AggStar.FactTable.Measure distinctMeasure =
+                aggStar.lookupMeasure(k);
+            BitKey rollableLevelBitKey =
+                distinctMeasure.getRollableLevelBitKey();
+            if (combinedLevelBitKey == null) {
+                combinedLevelBitKey = rollableLevelBitKey;
+            } else {
+                // TODO use '&=' to remove unnecessary copy
+                combinedLevelBitKey =
+                    combinedLevelBitKey.and(rollableLevelBitKey);
             }
+        }
 
-            if (aggStar.hasForeignKeys()) {
+        if (aggStar.hasForeignKeys()) {
 /*
-                    StringBuilder buf = new StringBuilder(256);
-                    buf.append("");
-                    buf.append(star.getFactTable().getAlias());
+                StringBuilder buf = new StringBuilder(256);
+                buf.append("");
+                buf.append(star.getFactTable().getAlias());
+                buf.append(Util.nl);
+                buf.append("foreign =");
+                buf.append(levelBitKey);
+                buf.append(Util.nl);
+                buf.append("measure =");
+                buf.append(measureBitKey);
+                buf.append(Util.nl);
+                buf.append("aggstar =");
+                buf.append(aggStar.getBitKey());
+                buf.append(Util.nl);
+                buf.append("distinct=");
+                buf.append(aggStar.getDistinctMeasureBitKey());
+                buf.append(Util.nl);
+                buf.append("AggStar=");
+                buf.append(aggStar.getFactTable().getName());
+                buf.append(Util.nl);
+                for (Iterator columnIter =
+                        aggStar.getFactTable().getColumns().iterator();
+                     columnIter.hasNext();) {
+                    AggStar.Table.Column column =
+                            (AggStar.Table.Column) columnIter.next();
+                    buf.append("   ");
+                    buf.append(column);
                     buf.append(Util.nl);
-                    buf.append("foreign =");
-                    buf.append(levelBitKey);
-                    buf.append(Util.nl);
-                    buf.append("measure =");
-                    buf.append(measureBitKey);
-                    buf.append(Util.nl);
-                    buf.append("aggstar =");
-                    buf.append(aggStar.getBitKey());
-                    buf.append(Util.nl);
-                    buf.append("distinct=");
-                    buf.append(aggStar.getDistinctMeasureBitKey());
-                    buf.append(Util.nl);
-                    buf.append("AggStar=");
-                    buf.append(aggStar.getFactTable().getName());
-                    buf.append(Util.nl);
-                    for (Iterator columnIter =
-                            aggStar.getFactTable().getColumns().iterator();
-                         columnIter.hasNext();) {
-                        AggStar.Table.Column column =
-                                (AggStar.Table.Column) columnIter.next();
-                        buf.append("   ");
-                        buf.append(column);
-                        buf.append(Util.nl);
-                    }
+                }
 System.out.println(buf.toString());
 */
-                // This is a little pessimistic. If the measure is
-                // 'count(distinct customer_id)' and one of the foreign keys is
-                // 'customer_id' then it is OK to roll up.
-
-                // Some of the measures in this query are distinct count.
-                // Get all of the foreign key columns.
-                // For each such measure, is it based upon a foreign key.
-                // Are there any foreign keys left over. No, can use AggStar.
-                BitKey fkBitKey = aggStar.getForeignKeyBitKey().copy();
-                for (AggStar.FactTable.Measure measure
-                    : aggStar.getFactTable().getMeasures())
-                {
-                    if (measure.isDistinct()) {
-                        if (measureBitKey.get(measure.getBitPosition())) {
-                            fkBitKey.clear(measure.getBitPosition());
-                        }
+            // This is a little pessimistic. If the measure is
+            // 'count(distinct customer_id)' and one of the foreign keys is
+            // 'customer_id' then it is OK to roll up.
+
+            // Some of the measures in this query are distinct count.
+            // Get all of the foreign key columns.
+            // For each such measure, is it based upon a foreign key.
+            // Are there any foreign keys left over. No, can use AggStar.
+            BitKey fkBitKey = aggStar.getForeignKeyBitKey().copy();
+            for (AggStar.FactTable.Measure measure
+                : aggStar.getFactTable().getMeasures())
+            {
+                if (measure.isDistinct()) {
+                    if (measureBitKey.get(measure.getBitPosition())) {
+                        fkBitKey.clear(measure.getBitPosition());
                     }
                 }
-                if (!fkBitKey.isEmpty()) {
-                    // there are foreign keys left so we can not use this
-                    // AggStar.
-                    continue;
-                }
             }
-
-            if (!aggStar.select(
-                    levelBitKey, combinedLevelBitKey, measureBitKey))
-            {
-                continue;
+            if (!fkBitKey.isEmpty()) {
+                // there are foreign keys left so we can not use this
+                // AggStar.
+                return false;
             }
-
-            rollup[0] = !aggStar.getLevelBitKey().equals(levelBitKey);
-            return aggStar;
         }
-        return null;
+
+        return aggStar.select(
+            levelBitKey, combinedLevelBitKey, measureBitKey);
     }
 
     public PinSet createPinSet() {
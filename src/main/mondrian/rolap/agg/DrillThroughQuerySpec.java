@@ -34,14 +34,37 @@ class DrillThroughQuerySpec extends AbstractQuerySpec {
     private final List<StarPredicate> listOfStarPredicates;
     private final List<String> columnNames;
     private final int maxColumnNameLength;
+    private final int offset;
+    private final int limit;
 
     public DrillThroughQuerySpec(
         DrillThroughCellRequest request,
         StarPredicate starPredicateSlicer,
         boolean countOnly)
+    {
+        this(request, starPredicateSlicer, countOnly, 0, 0);
+    }
+
+    /**
+     * Creates a DrillThroughQuerySpec that returns a page of rows.
+     *
+     * @param request Request
+     * @param starPredicateSlicer Slicer predicate, or null
+     * @param countOnly Whether to return only the count of rows
+     * @param offset Number of rows to skip
+     * @param limit Maximum number of rows to return, or 0 for no limit
+     */
+    public DrillThroughQuerySpec(
+        DrillThroughCellRequest request,
+        StarPredicate starPredicateSlicer,
+        boolean countOnly,
+        int offset,
+        int limit)
     {
         super(request.getMeasure().getStar(), countOnly);
         this.request = request;
+        this.offset = offset;
+        this.limit = limit;
         if (starPredicateSlicer != null) {
             this.listOfStarPredicates =
                 Collections.singletonList(starPredicateSlicer);
@@ -155,6 +178,10 @@ class DrillThroughQuerySpec extends AbstractQuerySpec {
     public Pair<String, List<SqlStatement.Type>> generateSqlQuery() {
         SqlQuery sqlQuery = newSqlQuery();
         nonDistinctGenerateSql(sqlQuery);
+        if (limit > 0 && !countOnly) {
+            // Rows are sorted (see isOrdered), so pages are stable.
+            sqlQuery.setLimit(offset, limit);
+        }
         return sqlQuery.toSqlAndTypes();
     }
 
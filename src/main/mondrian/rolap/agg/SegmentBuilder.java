@@ -173,15 +173,10 @@ public class SegmentBuilder {
         BitKey targetBitkey,
         Aggregator rollupAggregator)
     {
-        class AxisInfo {
-            SegmentColumn column;
-            SortedSet<Comparable> requestedValues;
-            SortedSet<Comparable> valueSet;
-            Comparable[] values;
-            boolean hasNull;
-            int src;
-            boolean lostPredicate;
-        }
+        // Cells in the excluded regions of the source segments are no longer
+        // valid, and must not contribute to the rollup.
+        map = removeExcludedCells(map);
+
         final SegmentHeader firstHeader = map.keySet().iterator().next();
         final AxisInfo[] axes =
             new AxisInfo[keepColumns.size()];
@@ -250,6 +245,249 @@ public class SegmentBuilder {
                 axis.valueSet.toArray(new Comparable[axis.valueSet.size()]);
         }
 
+        // Build the axis list.
+        final List<Pair<SortedSet<Comparable>, Boolean>> axisList =
+            new ArrayList<Pair<SortedSet<Comparable>, Boolean>>();
+        for (AxisInfo axis : axes) {
+            axisList.add(
+                new Pair<SortedSet<Comparable>, Boolean>(
+                    axis.valueSet, axis.hasNull));
+        }
+
+        // Roll up numeric values in primitive arrays, if the aggregator and
+        // the source segments allow it; otherwise roll up boxed values.
+        SegmentBody body =
+            SegmentRollup.rollup(map, axes, axisList, rollupAggregator);
+        if (body == null) {
+            body =
+                rollupObjects(
+                    map, keepColumns, axes, axisList, rollupAggregator);
+        }
+
+        // Create header.
+        final List<SegmentColumn> constrainedColumns =
+            new ArrayList<SegmentColumn>();
+        for (int i = 0; i < axes.length; i++) {
+            AxisInfo axisInfo = axes[i];
+            constrainedColumns.add(
+                new SegmentColumn(
+                    axisInfo.column.getColumnExpression(),
+                    axisInfo.column.getValueCount(),
+                    axisInfo.lostPredicate
+                        ? axisList.get(i).left
+                        : axisInfo.column.values));
+        }
+        final SegmentHeader header =
+            new SegmentHeader(
+                firstHeader.schemaName,
+                firstHeader.schemaChecksum,
+                firstHeader.cubeName,
+                firstHeader.measureName,
+                constrainedColumns,
+                firstHeader.compoundPredicates,
+                firstHeader.rolapStarFactTableName,
+                targetBitkey,
+                Collections.<SegmentColumn>emptyList());
+
+        return Pair.of(header, body);
+    }
+
+    /**
+     * Returns a map of segments in which the body of each segment that has an
+     * excluded region holds only the cells outside that region. Returns the
+     * map unchanged if no segment has an excluded region.
+     */
+    private static Map<SegmentHeader, SegmentBody> removeExcludedCells(
+        Map<SegmentHeader, SegmentBody> map)
+    {
+        Map<SegmentHeader, SegmentBody> map2 = null;
+        for (Map.Entry<SegmentHeader, SegmentBody> entry : map.entrySet()) {
+            final SegmentHeader header = entry.getKey();
+            if (header.getExcludedRegions().isEmpty()) {
+                continue;
+            }
+            if (map2 == null) {
+                map2 = new HashMap<SegmentHeader, SegmentBody>(map);
+            }
+            map2.put(header, removeExcludedCells(header, entry.getValue()));
+        }
+        return map2 == null ? map : map2;
+    }
+
+    /**
+     * Creates a segment body that contains the cells of a segment that are
+     * not in its excluded region. A dense body stays dense, with the excluded
+     * cells set to null; a sparse body loses its excluded cells.
+     *
+     * <p>As in {@link ExcludedRegionList#wouldContain}, a cell is excluded
+     * if the value of any of its columns is in that column's excluded
+     * values. The null value is excluded if the column's excluded values
+     * contain {@link RolapUtil#sqlNullValue}, or if all of its values are
+     * excluded.</p>
+     */
+    private static SegmentBody removeExcludedCells(
+        SegmentHeader header,
+        SegmentBody body)
+    {
+        final List<SegmentColumn> columns = header.getConstrainedColumns();
+        final SortedSet<Comparable>[] axisValueSets = body.getAxisValueSets();
+        final boolean[] nullAxisFlags = body.getNullAxisFlags();
+        final List<Pair<SortedSet<Comparable>, Boolean>> axisList =
+            new ArrayList<Pair<SortedSet<Comparable>, Boolean>>();
+
+        // For each axis, the number of ordinals, and the ordinals of the
+        // excluded values, or null. The null value, if present, has the last
+        // ordinal.
+        final int[] lengths = new int[columns.size()];
+        final BitSet[] excludedOrdinals = new BitSet[columns.size()];
+        long cellCount = 1;
+        for (int i = 0; i < columns.size(); i++) {
+            axisList.add(Pair.of(axisValueSets[i], nullAxisFlags[i]));
+            lengths[i] = axisValueSets[i].size() + (nullAxisFlags[i] ? 1 : 0);
+            cellCount *= lengths[i];
+            final SegmentColumn excluded =
+                header.getExcludedRegion(columns.get(i).columnExpression);
+            if (excluded == null) {
+                continue;
+            }
+            excludedOrdinals[i] = new BitSet();
+            int ordinal = 0;
+            for (Comparable value : axisValueSets[i]) {
+                if (excluded.values == null
+                    || excluded.values.contains(value))
+                {
+                    excludedOrdinals[i].set(ordinal);
+                }
+                ++ordinal;
+            }
+            if (nullAxisFlags[i]
+                && (excluded.values == null
+                    || excluded.values.contains(RolapUtil.sqlNullValue)))
+            {
+                excludedOrdinals[i].set(ordinal);
+            }
+        }
+
+        if (body instanceof DenseDoubleSegmentBody
+            || body instanceof DenseIntSegmentBody
+            || body instanceof DenseObjectSegmentBody)
+        {
+            final SegmentBody denseBody =
+                removeExcludedDenseCells(
+                    body, axisList, lengths, excludedOrdinals, cellCount);
+            if (denseBody != null) {
+                return denseBody;
+            }
+        }
+
+        final Map<CellKey, Object> data = new HashMap<CellKey, Object>();
+        cellLoop:
+        for (Map.Entry<CellKey, Object> entry : body.getValueMap().entrySet()) {
+            final int[] ordinals = entry.getKey().getOrdinals();
+            for (int i = 0; i < ordinals.length; i++) {
+                if (excludedOrdinals[i] != null
+                    && excludedOrdinals[i].get(ordinals[i]))
+                {
+                    continue cellLoop;
+                }
+            }
+            data.put(entry.getKey(), entry.getValue());
+        }
+        return new SparseSegmentBody(data, axisList);
+    }
+
+    /**
+     * Creates a copy of a dense segment body in which the cells of the
+     * excluded region are null. Works on the value array, without boxing
+     * each value. Returns null if the array does not have the expected
+     * number of cells.
+     */
+    private static SegmentBody removeExcludedDenseCells(
+        SegmentBody body,
+        List<Pair<SortedSet<Comparable>, Boolean>> axisList,
+        int[] lengths,
+        BitSet[] excludedOrdinals,
+        long cellCount)
+    {
+        final Object valueArray = body.getValueArray();
+        final int length =
+            valueArray instanceof double[]
+                ? ((double[]) valueArray).length
+                : valueArray instanceof int[]
+                ? ((int[]) valueArray).length
+                : ((Object[]) valueArray).length;
+        if (length != cellCount) {
+            return null;
+        }
+
+        // Walk the cells in order, the last axis varying fastest, and note
+        // which are excluded.
+        final BitSet excludedCells = new BitSet(length);
+        final int[] ordinals = new int[lengths.length];
+        for (int i = 0; i < length; i++) {
+            for (int k = 0; k < ordinals.length; k++) {
+                if (excludedOrdinals[k] != null
+                    && excludedOrdinals[k].get(ordinals[k]))
+                {
+                    excludedCells.set(i);
+                    break;
+                }
+            }
+            for (int k = ordinals.length - 1; k >= 0; k--) {
+                if (++ordinals[k] < lengths[k]) {
+                    break;
+                }
+                ordinals[k] = 0;
+            }
+        }
+
+        if (valueArray instanceof double[]) {
+            final double[] values = ((double[]) valueArray).clone();
+            final BitSet nullIndicators = (BitSet) body.getIndicators().clone();
+            for (int i = excludedCells.nextSetBit(0); i >= 0;
+                i = excludedCells.nextSetBit(i + 1))
+            {
+                values[i] = 0d;
+                nullIndicators.set(i);
+            }
+            return new DenseDoubleSegmentBody(nullIndicators, values, axisList);
+        } else if (valueArray instanceof int[]) {
+            final int[] values = ((int[]) valueArray).clone();
+            final BitSet nullIndicators = (BitSet) body.getIndicators().clone();
+            for (int i = excludedCells.nextSetBit(0); i >= 0;
+                i = excludedCells.nextSetBit(i + 1))
+            {
+                values[i] = 0;
+                nullIndicators.set(i);
+            }
+            return new DenseIntSegmentBody(nullIndicators, values, axisList);
+        } else {
+            final Object[] values = ((Object[]) valueArray).clone();
+            for (int i = excludedCells.nextSetBit(0); i >= 0;
+                i = excludedCells.nextSetBit(i + 1))
+            {
+                values[i] = null;
+            }
+            return new DenseObjectSegmentBody(values, axisList);
+        }
+    }
+
+    /**
+     * Rolls up the cells of a collection of segments by boxing each value
+     * and aggregating lists of values with
+     * {@link Aggregator#aggregate(java.util.List)}. Works for any aggregator
+     * and value type.
+     */
+    private static SegmentBody rollupObjects(
+        Map<SegmentHeader, SegmentBody> map,
+        Set<String> keepColumns,
+        AxisInfo[] axes,
+        List<Pair<SortedSet<Comparable>, Boolean>> axisList,
+        Aggregator rollupAggregator)
+    {
+        final SegmentHeader firstHeader = map.keySet().iterator().next();
+        int z;
+
         // Populate cells.
         //
         // (This is a rough implementation, very inefficient. It makes all
@@ -259,9 +497,8 @@ public class SegmentBuilder {
         // target axes had the same set of values. And it always creates a
         // sparse segment.
         //
-        // We should do really efficient rollup if the source is an array: we
-        // should box values (e.g double to Double and back), and we should read
-        // a stripe of values from the and add them up into a single cell.
+        // SegmentRollup does efficient rollup of numeric values with the
+        // common aggregators; this is the general case.
         final Map<CellKey, List<Object>> cellValues =
             new HashMap<CellKey, List<Object>>();
         for (Map.Entry<SegmentHeader, SegmentBody> entry : map.entrySet()) {
@@ -321,15 +558,9 @@ public class SegmentBuilder {
             }
         }
 
-        // Build the axis list.
-        final List<Pair<SortedSet<Comparable>, Boolean>> axisList =
-            new ArrayList<Pair<SortedSet<Comparable>, Boolean>>();
         final BitSet nullIndicators = new BitSet(axes.length);
         int nbValues = 1;
         for (int i = 0; i < axes.length; i++) {
-            axisList.add(
-                new Pair<SortedSet<Comparable>, Boolean>(
-                    axes[i].valueSet, axes[i].hasNull));
             nullIndicators.set(i, axes[i].hasNull);
             nbValues *= axes[i].hasNull
                 ? axes[i].values.length + 1
@@ -421,33 +652,7 @@ public class SegmentBuilder {
                         axisList);
             }
         }
-
-        // Create header.
-        final List<SegmentColumn> constrainedColumns =
-            new ArrayList<SegmentColumn>();
-        for (int i = 0; i < axes.length; i++) {
-            AxisInfo axisInfo = axes[i];
-            constrainedColumns.add(
-                new SegmentColumn(
-                    axisInfo.column.getColumnExpression(),
-                    axisInfo.column.getValueCount(),
-                    axisInfo.lostPredicate
-                        ? axisList.get(i).left
-                        : axisInfo.column.values));
-        }
-        final SegmentHeader header =
-            new SegmentHeader(
-                firstHeader.schemaName,
-                firstHeader.schemaChecksum,
-                firstHeader.cubeName,
-                firstHeader.measureName,
-                constrainedColumns,
-                firstHeader.compoundPredicates,
-                firstHeader.rolapStarFactTableName,
-                targetBitkey,
-                Collections.<SegmentColumn>emptyList());
-
-        return Pair.of(header, body);
+        return body;
     }
 
     private static int[] computeAxisMultipliers(
@@ -462,6 +667,19 @@ public class SegmentBuilder {
         return axisMultipliers;
     }
 
+    /**
+     * Target axis of a rollup, and the source axis that it comes from.
+     */
+    static class AxisInfo {
+        SegmentColumn column;
+        SortedSet<Comparable> requestedValues;
+        SortedSet<Comparable> valueSet;
+        Comparable[] values;
+        boolean hasNull;
+        int src;
+        boolean lostPredicate;
+    }
+
     private static class ExcludedRegionList
         extends AbstractList<Segment.ExcludedRegion>
         implements Segment.ExcludedRegion
@@ -285,6 +285,40 @@ public class SegmentCacheManager {
         return indexRegistry;
     }
 
+    /**
+     * Tells the cache manager that an execution has been canceled, and no
+     * longer needs the segments it is waiting for.
+     *
+     * <p>Several executions may wait for the same segment load. The SQL
+     * statement of a load is canceled only if no other execution is waiting
+     * for any of the segments it loads; otherwise it carries on, and the
+     * surviving executions receive their segments as usual.</p>
+     *
+     * <p>Must not be called from the cache manager's thread.</p>
+     *
+     * @param execution Execution that has been canceled
+     */
+    public void cancel(final Execution execution) {
+        final Locus locus =
+            new Locus(execution, "SegmentCacheManager.cancel", null);
+        final List<java.sql.Statement> statements =
+            execute(
+                new Command<List<java.sql.Statement>>() {
+                    public List<java.sql.Statement> call() {
+                        return indexRegistry.cancelExecutionSegments(
+                            execution);
+                    }
+
+                    public Locus getLocus() {
+                        return locus;
+                    }
+                });
+        // Cancel outside of the actor. Canceling a statement may block.
+        for (java.sql.Statement statement : statements) {
+            Util.cancelAndCloseStatement(statement);
+        }
+    }
+
     /**
      * Adds a segment to segment index.
      *
@@ -417,6 +451,23 @@ public class SegmentCacheManager {
                 header));
     }
 
+    /**
+     * Adds segments to the index of a star. The bodies of the segments must
+     * already be in the external cache.
+     *
+     * <p>Called when a schema is reloaded, for segments of the previous
+     * version of the schema that are still valid.</p>
+     *
+     * @param star Star
+     * @param headers Segment headers
+     */
+    public void addSegments(
+        RolapStar star,
+        List<SegmentHeader> headers)
+    {
+        execute(new AddSegmentsCommand(star, headers, Locus.peek()));
+    }
+
     public void printCacheState(
         CellRegion region,
         PrintWriter pw,
@@ -811,6 +862,47 @@ public class SegmentCacheManager {
         }
     }
 
+    private class AddSegmentsCommand
+        implements SegmentCacheManager.Command<Void>
+    {
+        private final RolapStar star;
+        private final List<SegmentHeader> headers;
+        private final Locus locus;
+
+        public AddSegmentsCommand(
+            RolapStar star,
+            List<SegmentHeader> headers,
+            Locus locus)
+        {
+            this.star = star;
+            this.headers = headers;
+            this.locus = locus;
+        }
+
+        public Void call() {
+            final SegmentCacheIndex index = indexRegistry.getIndex(star);
+            for (SegmentHeader header : headers) {
+                index.add(header, false, null);
+                locus.getServer().getMonitor().sendEvent(
+                    new CellCacheSegmentCreateEvent(
+                        System.currentTimeMillis(),
+                        locus.getServer().getId(),
+                        locus.execution.getMondrianStatement()
+                            .getMondrianConnection().getId(),
+                        locus.execution.getMondrianStatement().getId(),
+                        locus.execution.getId(),
+                        header.getConstrainedColumns().size(),
+                        0,
+                        CellCacheEvent.Source.EXTERNAL));
+            }
+            return null;
+        }
+
+        public Locus getLocus() {
+            return locus;
+        }
+    }
+
     /**
      * Result of a {@link FlushCommand}. Contains a list of tasks that must
      * be executed by the caller (or by an executor) to flush segments from the
@@ -1449,7 +1541,7 @@ public class SegmentCacheManager {
             for (final SegmentHeader header : headers) {
                 final Future<SegmentBody> bodyFuture =
                     indexRegistry.getIndex(star)
-                        .getFuture(header);
+                        .getFuture(locus.execution, header);
                 if (bodyFuture != null) {
                     // Check if the DataSourceChangeListener wants us to clear
                     // the current segment
@@ -1522,6 +1614,21 @@ public class SegmentCacheManager {
             }
             return indexes.get(star);
         }
+        /**
+         * Removes an execution from the clients of the segments it is
+         * waiting for, in all indexes, and returns the SQL statements that
+         * no execution needs any more.
+         */
+        private List<java.sql.Statement> cancelExecutionSegments(
+            Execution execution)
+        {
+            final List<java.sql.Statement> statements =
+                new ArrayList<java.sql.Statement>();
+            for (SegmentCacheIndex index : indexes.values()) {
+                statements.addAll(index.cancel(execution));
+            }
+            return statements;
+        }
         /**
          * Returns the {@link SegmentCacheIndex} for a given
          * {@link SegmentHeader}.
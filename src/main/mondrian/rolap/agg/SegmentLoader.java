@@ -15,7 +15,9 @@ import mondrian.olap.MondrianProperties;
 import mondrian.olap.Util;
 import mondrian.resource.MondrianResource;
 import mondrian.rolap.*;
+import mondrian.rolap.aggtab.AggAdvisor;
 import mondrian.rolap.cache.SegmentCacheIndex;
+import mondrian.server.Execution;
 import mondrian.server.Locus;
 import mondrian.server.monitor.SqlStatementEvent;
 import mondrian.spi.*;
@@ -50,6 +52,9 @@ public class SegmentLoader {
 
     private static final Logger LOGGER = Logger.getLogger(SegmentLoader.class);
 
+    /** Estimated number of bytes used by each value of a loaded row. */
+    private static final int VALUE_BYTES = 8;
+
     private final SegmentCacheManager cacheMgr;
 
     /**
@@ -101,6 +106,7 @@ public class SegmentLoader {
         List<StarPredicate> compoundPredicateList,
         List<Future<Map<Segment, SegmentWithData>>> segmentFutures)
     {
+        final Execution execution = Locus.peek().execution;
         for (GroupingSet groupingSet : groupingSets) {
             for (Segment segment : groupingSet.getSegments()) {
                 final SegmentCacheIndex index =
@@ -111,6 +117,9 @@ public class SegmentLoader {
                     new SegmentBuilder.StarSegmentConverter(
                         segment.measure,
                         compoundPredicateList));
+                // The execution that requested the segment waits for it,
+                // like any other.
+                index.getFuture(execution, segment.getHeader());
             }
         }
         try {
@@ -168,9 +177,10 @@ public class SegmentLoader {
         List<GroupingSet> groupingSets,
         List<StarPredicate> compoundPredicateList)
     {
-        // Simple assertion. Is this Execution instance still valid,
-        // or should we get outa here.
-        Locus.peek().execution.checkCancelOrTimeout();
+        // Do not give up if the execution that requested the segments has
+        // been canceled; other executions may be waiting for them. The
+        // statement is abandoned when it is linked to the segment index, if
+        // no execution is waiting any more.
 
         SqlStatement stmt = null;
         GroupingSetsList groupingSetsList =
@@ -181,6 +191,8 @@ public class SegmentLoader {
         final Map<Segment, SegmentWithData> segmentMap =
             new HashMap<Segment, SegmentWithData>();
         Throwable throwable = null;
+        final Execution execution = Locus.peek().execution;
+        long rowBytes = 0;
         try {
             int arity = defaultColumns.length;
             SortedSet<Comparable>[] axisValueSets =
@@ -199,6 +211,18 @@ public class SegmentLoader {
                     axisValueSets,
                     groupingSetsList);
 
+            if (MondrianProperties.instance().AggregateAdvisor.get()) {
+                recordWorkload(groupingSetsList, rows.size());
+            }
+
+            // Charge the rows to the execution that requested the segments,
+            // until they have been copied into the segments, which belong to
+            // the cache. Do not fail here if it is over budget; other
+            // executions may be waiting for the same segments.
+            rowBytes =
+                (long) rows.size() * rows.getTypes().size() * VALUE_BYTES;
+            execution.allocateMemory(rowBytes);
+
             boolean sparse =
                 setAxisDataAndDecideSparseUse(
                     axisValueSets,
@@ -235,6 +259,7 @@ public class SegmentLoader {
             }
             throw stmt.handle(e);
         } finally {
+            execution.allocateMemory(-rowBytes);
             if (stmt != null) {
                 stmt.close();
             }
@@ -243,6 +268,24 @@ public class SegmentLoader {
         }
     }
 
+    /**
+     * Records the columns grouped by, and the number of rows read, for the
+     * aggregate table advisor. If the statement used grouping sets, the
+     * number of rows of each grouping set is not known.
+     */
+    private void recordWorkload(
+        GroupingSetsList groupingSetsList,
+        int rowCount)
+    {
+        final RolapStar star = groupingSetsList.getStar();
+        for (GroupingSet groupingSet : groupingSetsList.getGroupingSets()) {
+            AggAdvisor.record(
+                star,
+                groupingSet.getLevelBitKey(),
+                groupingSetsList.useGroupingSets() ? -1 : rowCount);
+        }
+    }
+
     /**
      * Called when a segment has been loaded from SQL, to put into the segment
      * index and the external cache.
@@ -308,6 +351,35 @@ public class SegmentLoader {
         SegmentAxis[] axes = groupingSetsList.getDefaultAxes();
         int segmentLength = groupingSetsList.getDefaultSegments().size();
 
+        // For each measure, the precision of its sketches, or 0 if it is not
+        // an approximate distinct-count measure.
+        final int[] sketchPrecisions = new int[segmentLength];
+
+        // For each distinct-count measure whose cells hold bitmaps, the
+        // estimated size of its bitmaps so far; otherwise -1.
+        final long[] bitmapSizes = new long[segmentLength];
+
+        // Whether each measure's cells hold counts of the rows read so far.
+        // A distinct-count measure switches from bitmaps to counts if its
+        // bitmaps become too large.
+        final boolean[] counting = new boolean[segmentLength];
+
+        final MondrianProperties props = MondrianProperties.instance();
+        final long maxBitmapSize = props.DistinctCountBitmapMaxSize.get();
+        for (int j = 0; j < segmentLength; j++) {
+            final Segment segment =
+                groupingSetsList.getDefaultSegments().get(j);
+            bitmapSizes[j] = -1;
+            if (!segment.measure.isLoadedFromDistinctValues()) {
+                continue;
+            }
+            if (isSketch(segment)) {
+                sketchPrecisions[j] = props.DistinctCountSketchPrecision.get();
+            } else {
+                bitmapSizes[j] = 0;
+            }
+        }
+
         final List<SqlStatement.Type> types = rows.getTypes();
         final boolean useGroupingSet = groupingSetsList.useGroupingSets();
         for (rows.first(); rows.next();) {
@@ -356,10 +428,180 @@ public class SegmentLoader {
             }
 
             for (int j = 0; j < segmentLength; j++) {
-                cohort.segmentDatasetList.get(j).populateFrom(
-                    pos, rows, arity + j);
+                final SegmentDataset dataset =
+                    cohort.segmentDatasetList.get(j);
+                if (sketchPrecisions[j] > 0) {
+                    addToSketch(
+                        dataset, pos, rows, arity + j, sketchPrecisions[j]);
+                } else if (bitmapSizes[j] >= 0) {
+                    final long size =
+                        addToBitmap(dataset, pos, rows, arity + j);
+                    if (size >= 0
+                        && (bitmapSizes[j] += size) <= maxBitmapSize)
+                    {
+                        continue;
+                    }
+                    // The value is not an integer, or the bitmaps are too
+                    // large. The rows are distinct, so we can carry on by
+                    // counting them; but the segment will not be able to
+                    // roll up.
+                    LOGGER.debug(
+                        "Distinct-count measure "
+                        + groupingSetsList.getDefaultSegments().get(j)
+                            .measure.getName()
+                        + (size < 0
+                            ? " has non-integer value "
+                              + rows.getObject(arity + j)
+                            : " exceeded bitmap size " + maxBitmapSize)
+                        + "; counting values instead");
+                    bitmapSizes[j] = -1;
+                    counting[j] = true;
+                    for (GroupingSetsList.Cohort cohort2
+                        : groupingDataSetMap.values())
+                    {
+                        bitmapsToCounts(cohort2.segmentDatasetList.get(j));
+                    }
+                    if (size < 0) {
+                        addToCount(dataset, pos, rows, arity + j);
+                    }
+                } else if (counting[j]) {
+                    addToCount(dataset, pos, rows, arity + j);
+                } else {
+                    dataset.populateFrom(pos, rows, arity + j);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns whether a segment's measure is an approximate distinct-count,
+     * whose cells hold sketches.
+     */
+    private static boolean isSketch(Segment segment) {
+        return segment.measure.getAggregator()
+            == RolapAggregator.ApproxDistinctCount;
+    }
+
+    /**
+     * Adds the value in a column of the current row to the sketch of a cell,
+     * creating the sketch if this is the cell's first row. If the value is
+     * null, the cell still gets a sketch, so that its count is 0.
+     */
+    private static void addToSketch(
+        SegmentDataset dataset,
+        int[] pos,
+        RowList rows,
+        int column,
+        int precision)
+    {
+        final CellKey key = CellKey.Generator.newCellKey(pos);
+        HyperLogLog sketch = (HyperLogLog) dataset.getObject(key);
+        if (sketch == null) {
+            sketch = new HyperLogLog(precision);
+            put(dataset, key, sketch);
+        }
+        final Object o = getValue(rows, column);
+        if (o != null) {
+            sketch.add(o);
+        }
+    }
+
+    /**
+     * Adds the value in a column of the current row to the bitmap of a cell,
+     * creating the bitmap if this is the cell's first row. If the value is
+     * null, the cell still gets a bitmap, so that its count is 0.
+     *
+     * @return Number of bytes by which the bitmaps grew, or -1 if the value
+     *   is not an integer and was not added
+     */
+    private static long addToBitmap(
+        SegmentDataset dataset,
+        int[] pos,
+        RowList rows,
+        int column)
+    {
+        final Object o = getValue(rows, column);
+        if (o != null
+            && !(o instanceof Number
+                 && ((Number) o).doubleValue() == ((Number) o).intValue()))
+        {
+            return -1;
+        }
+        final CellKey key = CellKey.Generator.newCellKey(pos);
+        CompressedBitmap bitmap = (CompressedBitmap) dataset.getObject(key);
+        long size = 0;
+        if (bitmap == null) {
+            bitmap = new CompressedBitmap();
+            put(dataset, key, bitmap);
+        } else {
+            size = -bitmap.sizeInBytes();
+        }
+        if (o != null) {
+            bitmap.add(((Number) o).intValue());
+        }
+        return size + bitmap.sizeInBytes();
+    }
+
+    /**
+     * Adds one to the count of a cell if the value in a column of the current
+     * row is not null.
+     */
+    private static void addToCount(
+        SegmentDataset dataset,
+        int[] pos,
+        RowList rows,
+        int column)
+    {
+        final CellKey key = CellKey.Generator.newCellKey(pos);
+        final Integer count = (Integer) dataset.getObject(key);
+        final int increment = getValue(rows, column) == null ? 0 : 1;
+        put(dataset, key, count == null ? increment : count + increment);
+    }
+
+    /**
+     * Replaces each bitmap in a dataset with the number of values in it.
+     */
+    private static void bitmapsToCounts(SegmentDataset dataset) {
+        final List<Pair<CellKey, Object>> list =
+            new ArrayList<Pair<CellKey, Object>>();
+        for (Map.Entry<CellKey, Object> entry : dataset) {
+            if (entry.getValue() != null) {
+                list.add(Pair.of(entry.getKey(), entry.getValue()));
             }
         }
+        for (Pair<CellKey, Object> pair : list) {
+            put(
+                dataset,
+                pair.left,
+                (int) ((CompressedBitmap) pair.right).cardinality());
+        }
+    }
+
+    /**
+     * Returns the value in a column of the current row, or null if it is
+     * null.
+     */
+    private static Object getValue(RowList rows, int column) {
+        final Object o = rows.getObject(column);
+        if (o == null
+            || o == Util.nullValue
+            || o == RolapUtil.sqlNullValue
+            || rows.isNull(column))
+        {
+            return null;
+        }
+        return o;
+    }
+
+    /**
+     * Sets the value of a cell in a sparse or dense object dataset.
+     */
+    private static void put(SegmentDataset dataset, CellKey key, Object o) {
+        if (dataset instanceof SparseSegmentDataset) {
+            ((SparseSegmentDataset) dataset).put(key, o);
+        } else {
+            ((DenseObjectSegmentDataset) dataset).put(key, o);
+        }
     }
 
     private boolean setAxisDataAndDecideSparseUse(
@@ -427,22 +669,7 @@ public class SegmentLoader {
                 segmentSlotMap.put(segment, segmentWithData);
 
                 final SegmentHeader header = segmentWithData.getHeader();
-                final SegmentBody body =
-                    segmentWithData.getData().createSegmentBody(
-                        new AbstractList<
-                                Pair<SortedSet<Comparable>, Boolean>>()
-                        {
-                            public Pair<SortedSet<Comparable>, Boolean> get(
-                                int index)
-                            {
-                                return segmentWithData.axes[index]
-                                    .getValuesAndIndicator();
-                            }
-
-                            public int size() {
-                                return segmentWithData.axes.length;
-                            }
-                        });
+                final SegmentBody body = segmentWithData.createSegmentBody();
 
                 // Send a message to the agg manager. It will place the segment
                 // in the index.
@@ -506,7 +733,14 @@ public class SegmentLoader {
         }
         for (int i = 0; i < segments.size(); i++) {
             final Segment segment = segments.get(i);
-            datasets.add(segment.createDataset(axes, sparse, types.get(i), n));
+            datasets.add(
+                segment.createDataset(
+                    axes,
+                    sparse,
+                    segment.measure.isLoadedFromDistinctValues()
+                        ? SqlStatement.Type.OBJECT
+                        : types.get(i),
+                    n));
         }
         return new GroupingSetsList.Cohort(datasets, axes);
     }
@@ -546,7 +780,7 @@ public class SegmentLoader {
      */
     SqlStatement createExecuteSql(
         int cellRequestCount,
-        GroupingSetsList groupingSetsList,
+        final GroupingSetsList groupingSetsList,
         List<StarPredicate> compoundPredicateList)
     {
         RolapStar star = groupingSetsList.getStar();
@@ -564,11 +798,62 @@ public class SegmentLoader {
                 "Segment.load",
                 "Error while loading segment",
                 SqlStatementEvent.Purpose.CELL_SEGMENT,
-                cellRequestCount),
+                cellRequestCount)
+            {
+                public void registerStatement(java.sql.Statement statement) {
+                    linkSqlStatement(groupingSetsList, statement);
+                }
+            },
             -1,
             -1);
     }
 
+    /**
+     * Links the JDBC statement that loads the segments of some grouping sets
+     * to the segment index, instead of to the execution that requested the
+     * segments. Other executions may be waiting for the same segments, so
+     * the statement is canceled only when all of them have been canceled.
+     *
+     * <p>If no execution is waiting for the segments any more, throws if
+     * the requesting execution has been canceled or has timed out.</p>
+     *
+     * @param groupingSetsList Grouping sets being loaded
+     * @param statement JDBC statement
+     */
+    private void linkSqlStatement(
+        final GroupingSetsList groupingSetsList,
+        final java.sql.Statement statement)
+    {
+        final Locus locus = Locus.peek();
+        final boolean waitedFor =
+            cacheMgr.execute(
+                new SegmentCacheManager.Command<Boolean>() {
+                    public Boolean call() {
+                        final SegmentCacheIndex index =
+                            cacheMgr.getIndexRegistry().getIndex(
+                                groupingSetsList.getStar());
+                        boolean waitedFor = false;
+                        for (GroupingSet groupingSet
+                            : groupingSetsList.getGroupingSets())
+                        {
+                            for (Segment segment : groupingSet.getSegments())
+                            {
+                                waitedFor |= index.linkSqlStatement(
+                                    segment.getHeader(), statement);
+                            }
+                        }
+                        return waitedFor;
+                    }
+
+                    public Locus getLocus() {
+                        return locus;
+                    }
+                });
+        if (!waitedFor) {
+            locus.execution.checkCancelOrTimeout();
+        }
+    }
+
     RowList processData(
         SqlStatement stmt,
         final boolean[] axisContainsNull,
@@ -685,11 +970,14 @@ public class SegmentLoader {
                 }
             }
 
-            // pre-compute which measures are numeric
+            // pre-compute which measures are numeric. The values of a
+            // measure loaded from distinct values go into a sketch or a
+            // bitmap, whatever their type.
             final boolean[] numeric = new boolean[measureCount];
             int k = 0;
             for (Segment segment : segments) {
-                numeric[k++] = segment.measure.getDatatype().isNumeric();
+                numeric[k++] = segment.measure.getDatatype().isNumeric()
+                    && !segment.measure.isLoadedFromDistinctValues();
             }
 
             // get the measure
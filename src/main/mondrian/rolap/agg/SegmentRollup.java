@@ -0,0 +1,680 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.olap.*;
+import mondrian.rolap.CellKey;
+import mondrian.rolap.RolapAggregator;
+import mondrian.spi.SegmentBody;
+import mondrian.spi.SegmentHeader;
+import mondrian.util.Pair;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rolls up segments of numeric values using primitive arrays.
+ *
+ * <p>Each axis of a source segment is mapped to the target segment by a table
+ * from source ordinal to the offset of the corresponding target ordinal in
+ * the target array, or -1 if the value is not in the target. (Axes that are
+ * rolled up map every ordinal to 0.) So the offset of the target cell of a
+ * source cell is a sum of table lookups; values are not boxed, hashed or
+ * compared. Values are accumulated into a <code>double</code> or
+ * <code>long</code> array the size of the target segment.
+ *
+ * <p>If the source segments have at least
+ * {@link MondrianProperties#RollupParallelThreshold} cells in total, and the
+ * target is much smaller than the source, the source cells are split into one
+ * partition per thread (see {@link MondrianProperties#RollupParallelThreads});
+ * each partition is rolled up into its own array in a separate thread, and
+ * the arrays are combined.
+ *
+ * <p>Supports the <code>sum</code>, <code>min</code> and <code>max</code>
+ * aggregators, and source segments that are dense arrays of
+ * <code>double</code> or <code>int</code> values, or sparse segments whose
+ * values are {@link Double} or {@link Integer}. {@link #rollup} returns null
+ * in other cases, and {@link SegmentBuilder#rollup} falls back to rolling up
+ * boxed values.
+ *
+ * @author jhyde
+ */
+class SegmentRollup {
+    /**
+     * Executor for partitions. The calling thread processes the first
+     * partition itself. Created on first use, and created again if
+     * {@link MondrianProperties#RollupParallelThreads} changes.
+     */
+    private static ExecutorService executor;
+
+    /** Number of partitions that {@link #executor} was created for. */
+    private static int executorPartitionCount;
+
+    /** Number of rollups that have been done in parallel. */
+    private static final AtomicLong parallelCount = new AtomicLong();
+
+    // prevent instantiation
+    private SegmentRollup() {
+    }
+
+    /**
+     * Returns the number of rollups that have been done in parallel since
+     * this class was loaded. For testing.
+     */
+    static long getParallelCount() {
+        return parallelCount.get();
+    }
+
+    /**
+     * Returns the number of partitions to split a large rollup into.
+     */
+    private static int getPartitionCount() {
+        final int n =
+            MondrianProperties.instance().RollupParallelThreads.get();
+        return n > 0 ? n : Runtime.getRuntime().availableProcessors();
+    }
+
+    private static synchronized ExecutorService getExecutor(
+        int partitionCount)
+    {
+        if (executor != null && executorPartitionCount != partitionCount) {
+            // Partitions already submitted still run; the old pool's
+            // threads end when they are done.
+            executor.shutdown();
+            executor = null;
+        }
+        if (executor == null) {
+            executorPartitionCount = partitionCount;
+            executor =
+                Util.getExecutorService(
+                    partitionCount - 1,
+                    partitionCount - 1,
+                    1,
+                    -1,
+                    "mondrian.rolap.agg.SegmentRollup$executor");
+        }
+        return executor;
+    }
+
+    /**
+     * Rolls up a collection of segments, all of the same dimensionality, to
+     * create the body of a segment with the given axes. Returns null if the
+     * aggregator or the segments are not supported.
+     *
+     * @param map Source segment headers and bodies
+     * @param axes Target axes, and the source axes they come from
+     * @param axisList Value sets and null flags of the target axes
+     * @param aggregator Rollup aggregator
+     * @return Body of target segment, or null
+     */
+    static SegmentBody rollup(
+        Map<SegmentHeader, SegmentBody> map,
+        SegmentBuilder.AxisInfo[] axes,
+        List<Pair<SortedSet<Comparable>, Boolean>> axisList,
+        Aggregator aggregator)
+    {
+        final Op op;
+        if (aggregator == RolapAggregator.Sum) {
+            op = Op.SUM;
+        } else if (aggregator == RolapAggregator.Min) {
+            op = Op.MIN;
+        } else if (aggregator == RolapAggregator.Max) {
+            op = Op.MAX;
+        } else {
+            return null;
+        }
+
+        // Lay out the target array. The null value of an axis, if present,
+        // has the last ordinal.
+        final int[] lengths = new int[axes.length];
+        final int[] multipliers = new int[axes.length];
+        long targetCount = 1;
+        for (int i = axes.length - 1; i >= 0; --i) {
+            lengths[i] = axes[i].values.length + (axes[i].hasNull ? 1 : 0);
+            multipliers[i] = (int) targetCount;
+            targetCount *= lengths[i];
+            if (targetCount > Integer.MAX_VALUE) {
+                return null;
+            }
+        }
+
+        final List<Source> sources = new ArrayList<Source>();
+        boolean integer = true;
+        long cellCount = 0;
+        for (SegmentBody body : map.values()) {
+            final Source source = Source.create(body, axes, multipliers);
+            if (source == null) {
+                return null;
+            }
+            sources.add(source);
+            integer &= source.integer;
+            cellCount += source.cellCount;
+        }
+
+        final Accumulator accumulator =
+            accumulate(sources, op, integer, (int) targetCount, cellCount);
+        return accumulator.toBody(lengths, multipliers, axisList);
+    }
+
+    /**
+     * Rolls up the cells of the sources into an accumulator, in parallel if
+     * there are enough of them.
+     */
+    private static Accumulator accumulate(
+        List<Source> sources,
+        final Op op,
+        final boolean integer,
+        final int targetCount,
+        long cellCount)
+    {
+        final int threshold =
+            MondrianProperties.instance().RollupParallelThreshold.get();
+        final int partitionCount = getPartitionCount();
+        if (partitionCount <= 1
+            || threshold <= 0
+            || cellCount < threshold
+            || (long) targetCount * partitionCount > cellCount)
+        {
+            final Accumulator accumulator =
+                new Accumulator(op, integer, targetCount);
+            for (Source source : sources) {
+                source.rollup(accumulator, 0, source.cellCount);
+            }
+            return accumulator;
+        }
+
+        parallelCount.incrementAndGet();
+        final ExecutorService pool = getExecutor(partitionCount);
+
+        // Split the sources into ranges of about the same size, and deal
+        // them to the partitions. Each partition has its own accumulator.
+        final int rangeSize = (int) (cellCount / partitionCount) + 1;
+        final List<List<Pair<Source, Integer>>> partitions =
+            new ArrayList<List<Pair<Source, Integer>>>();
+        for (int i = 0; i < partitionCount; i++) {
+            partitions.add(new ArrayList<Pair<Source, Integer>>());
+        }
+        int p = 0;
+        for (Source source : sources) {
+            for (int start = 0; start < source.cellCount; start += rangeSize) {
+                partitions.get(p++ % partitionCount).add(
+                    Pair.of(source, start));
+            }
+        }
+        final List<Future<Accumulator>> futures =
+            new ArrayList<Future<Accumulator>>();
+        for (final List<Pair<Source, Integer>> partition
+            : partitions.subList(1, partitionCount))
+        {
+            futures.add(
+                pool.submit(
+                    new Callable<Accumulator>() {
+                        public Accumulator call() {
+                            return accumulate(
+                                partition, rangeSize, op, integer,
+                                targetCount);
+                        }
+                    }));
+        }
+        final Accumulator accumulator =
+            accumulate(partitions.get(0), rangeSize, op, integer, targetCount);
+        for (Future<Accumulator> future : futures) {
+            accumulator.addAll(
+                Util.safeGet(future, "Error while rolling up segment"));
+        }
+        return accumulator;
+    }
+
+    private static Accumulator accumulate(
+        List<Pair<Source, Integer>> ranges,
+        int rangeSize,
+        Op op,
+        boolean integer,
+        int targetCount)
+    {
+        final Accumulator accumulator =
+            new Accumulator(op, integer, targetCount);
+        for (Pair<Source, Integer> range : ranges) {
+            final Source source = range.left;
+            final int start = range.right;
+            source.rollup(
+                accumulator,
+                start,
+                Math.min(source.cellCount, start + rangeSize));
+        }
+        return accumulator;
+    }
+
+    /**
+     * Rollup aggregation.
+     */
+    private enum Op {
+        SUM, MIN, MAX
+    }
+
+    /**
+     * Cells of a source segment, and how to map them to the target segment.
+     */
+    private static abstract class Source {
+        /** For each axis, number of ordinals (including null). */
+        final int[] lengths;
+
+        /** For each axis, the target offset of each ordinal, or -1. */
+        final int[][] maps;
+
+        /** Number of cells (for a dense source) or entries (sparse). */
+        final int cellCount;
+
+        /** Whether all values are integers. */
+        final boolean integer;
+
+        Source(
+            int[] lengths,
+            int[][] maps,
+            int cellCount,
+            boolean integer)
+        {
+            this.lengths = lengths;
+            this.maps = maps;
+            this.cellCount = cellCount;
+            this.integer = integer;
+        }
+
+        /**
+         * Creates a Source for a segment body, or returns null if the body
+         * is not supported.
+         */
+        static Source create(
+            SegmentBody body,
+            SegmentBuilder.AxisInfo[] axes,
+            int[] multipliers)
+        {
+            final SortedSet<Comparable>[] valueSets =
+                body.getAxisValueSets();
+            final boolean[] nullFlags = body.getNullAxisFlags();
+            final int[] lengths = new int[valueSets.length];
+            final int[][] maps = new int[valueSets.length][];
+            long length = 1;
+            for (int k = 0; k < valueSets.length; k++) {
+                lengths[k] = valueSets[k].size() + (nullFlags[k] ? 1 : 0);
+                maps[k] = new int[lengths[k]];
+                length *= lengths[k];
+            }
+            for (int z = 0; z < axes.length; z++) {
+                final SegmentBuilder.AxisInfo axis = axes[z];
+                final int[] map = maps[axis.src];
+                int o = 0;
+                for (Comparable value : valueSets[axis.src]) {
+                    final int ordinal =
+                        Util.binarySearch(
+                            axis.values, 0, axis.values.length, value);
+                    map[o++] = ordinal < 0 ? -1 : ordinal * multipliers[z];
+                }
+                if (nullFlags[axis.src]) {
+                    map[o] =
+                        axis.hasNull
+                            ? axis.values.length * multipliers[z]
+                            : -1;
+                }
+            }
+
+            if (body instanceof DenseDoubleSegmentBody
+                || body instanceof DenseIntSegmentBody)
+            {
+                final Object values = body.getValueArray();
+                final int valueCount =
+                    values instanceof double[]
+                        ? ((double[]) values).length
+                        : ((int[]) values).length;
+                if (valueCount != length) {
+                    return null;
+                }
+                return new DenseSource(
+                    lengths, maps, values, body.getIndicators());
+            } else if (body instanceof SparseSegmentBody) {
+                final SparseSegmentBody sparseBody = (SparseSegmentBody) body;
+                boolean integer = true;
+                for (Object o : sparseBody.data) {
+                    if (o instanceof Double) {
+                        integer = false;
+                    } else if (o != null && !(o instanceof Integer)) {
+                        return null;
+                    }
+                }
+                return new SparseSource(
+                    lengths, maps, sparseBody.keys, sparseBody.data, integer);
+            } else {
+                return null;
+            }
+        }
+
+        /**
+         * Adds a range of cells to an accumulator.
+         *
+         * @param accumulator Accumulator
+         * @param start Ordinal of first cell
+         * @param end Ordinal of last cell, plus one
+         */
+        abstract void rollup(Accumulator accumulator, int start, int end);
+    }
+
+    /**
+     * Source segment whose values are in an array of <code>double</code> or
+     * <code>int</code>.
+     */
+    private static class DenseSource extends Source {
+        private final double[] doubles;
+        private final int[] ints;
+        private final BitSet nullIndicators;
+
+        DenseSource(
+            int[] lengths,
+            int[][] maps,
+            Object values,
+            BitSet nullIndicators)
+        {
+            super(
+                lengths,
+                maps,
+                values instanceof double[]
+                    ? ((double[]) values).length
+                    : ((int[]) values).length,
+                values instanceof int[]);
+            this.doubles =
+                values instanceof double[] ? (double[]) values : null;
+            this.ints = values instanceof int[] ? (int[]) values : null;
+            this.nullIndicators = nullIndicators;
+        }
+
+        void rollup(Accumulator accumulator, int start, int end) {
+            final int n = lengths.length;
+            if (n == 0) {
+                if (start < end) {
+                    add(accumulator, 0, 0);
+                }
+                return;
+            }
+
+            // Compute the ordinals of the first cell, then walk a row (all
+            // cells with the same ordinals but the last) at a time.
+            final int[] ordinals = new int[n];
+            int remainder = start;
+            for (int k = n - 1; k >= 0; --k) {
+                ordinals[k] = remainder % lengths[k];
+                remainder /= lengths[k];
+            }
+            final int last = n - 1;
+            final int[] lastMap = maps[last];
+            int i = start;
+            while (i < end) {
+                int base = 0;
+                for (int k = 0; k < last; k++) {
+                    final int offset = maps[k][ordinals[k]];
+                    if (offset < 0) {
+                        base = -1;
+                        break;
+                    }
+                    base += offset;
+                }
+                final int rowEnd =
+                    Math.min(end, i + lengths[last] - ordinals[last]);
+                if (base < 0) {
+                    i = rowEnd;
+                } else {
+                    for (int o = ordinals[last]; i < rowEnd; ++i, ++o) {
+                        final int offset = lastMap[o];
+                        if (offset >= 0) {
+                            add(accumulator, base + offset, i);
+                        }
+                    }
+                }
+                ordinals[last] = 0;
+                for (int k = last - 1; k >= 0; --k) {
+                    if (++ordinals[k] < lengths[k]) {
+                        break;
+                    }
+                    ordinals[k] = 0;
+                }
+            }
+        }
+
+        private void add(Accumulator accumulator, int offset, int i) {
+            // As in DenseDoubleSegmentBody.getObject, a cell is null only if
+            // its value is 0.
+            if (ints != null) {
+                final int value = ints[i];
+                if (value != 0 || !nullIndicators.get(i)) {
+                    accumulator.add(offset, value);
+                }
+            } else {
+                final double value = doubles[i];
+                if (value != 0d || !nullIndicators.get(i)) {
+                    accumulator.add(offset, value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Source segment whose values are held as (key, value) pairs.
+     */
+    private static class SparseSource extends Source {
+        private final CellKey[] keys;
+        private final Object[] data;
+
+        SparseSource(
+            int[] lengths,
+            int[][] maps,
+            CellKey[] keys,
+            Object[] data,
+            boolean integer)
+        {
+            super(lengths, maps, keys.length, integer);
+            this.keys = keys;
+            this.data = data;
+        }
+
+        void rollup(Accumulator accumulator, int start, int end) {
+            entryLoop:
+            for (int i = start; i < end; i++) {
+                final Object value = data[i];
+                if (value == null) {
+                    continue;
+                }
+                final int[] ordinals = keys[i].getOrdinals();
+                int offset = 0;
+                for (int k = 0; k < ordinals.length; k++) {
+                    final int axisOffset = maps[k][ordinals[k]];
+                    if (axisOffset < 0) {
+                        continue entryLoop;
+                    }
+                    offset += axisOffset;
+                }
+                if (value instanceof Integer) {
+                    accumulator.add(offset, (Integer) value);
+                } else {
+                    accumulator.add(offset, (Double) value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Values of the cells of a target segment, as they are rolled up.
+     *
+     * <p>Integer values are accumulated as <code>long</code>, so that a sum
+     * cannot overflow. If every result fits in an <code>int</code>, the
+     * body holds <code>int</code> values, as it would if the cells had been
+     * read from the database; otherwise it holds <code>double</code>
+     * values.
+     */
+    private static class Accumulator {
+        private final Op op;
+        private final double[] doubles;
+        private final long[] longs;
+
+        /** Cells that have received at least one value. */
+        private final BitSet present;
+
+        Accumulator(Op op, boolean integer, int targetCount) {
+            this.op = op;
+            this.doubles = integer ? null : new double[targetCount];
+            this.longs = integer ? new long[targetCount] : null;
+            this.present = new BitSet(targetCount);
+        }
+
+        void add(int offset, double value) {
+            if (!present.get(offset)) {
+                present.set(offset);
+                doubles[offset] = value;
+                return;
+            }
+            switch (op) {
+            case SUM:
+                doubles[offset] += value;
+                break;
+            case MIN:
+                if (value < doubles[offset]) {
+                    doubles[offset] = value;
+                }
+                break;
+            case MAX:
+                if (value > doubles[offset]) {
+                    doubles[offset] = value;
+                }
+                break;
+            }
+        }
+
+        void add(int offset, long value) {
+            if (longs == null) {
+                add(offset, (double) value);
+                return;
+            }
+            if (!present.get(offset)) {
+                present.set(offset);
+                longs[offset] = value;
+                return;
+            }
+            switch (op) {
+            case SUM:
+                longs[offset] += value;
+                break;
+            case MIN:
+                if (value < longs[offset]) {
+                    longs[offset] = value;
+                }
+                break;
+            case MAX:
+                if (value > longs[offset]) {
+                    longs[offset] = value;
+                }
+                break;
+            }
+        }
+
+        /**
+         * Combines the values of another accumulator of the same size into
+         * this one.
+         */
+        void addAll(Accumulator accumulator) {
+            final BitSet present = accumulator.present;
+            for (int i = present.nextSetBit(0); i >= 0;
+                i = present.nextSetBit(i + 1))
+            {
+                if (longs != null) {
+                    add(i, accumulator.longs[i]);
+                } else {
+                    add(i, accumulator.doubles[i]);
+                }
+            }
+        }
+
+        /**
+         * Returns whether every accumulated value is an integer that fits
+         * in an <code>int</code>.
+         */
+        private boolean fitsInt() {
+            if (longs == null) {
+                return false;
+            }
+            for (int i = present.nextSetBit(0); i >= 0;
+                i = present.nextSetBit(i + 1))
+            {
+                if (longs[i] != (int) longs[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Creates a segment body from the accumulated values. Like
+         * {@link SegmentLoader}, uses a sparse body if few cells have
+         * values.
+         */
+        SegmentBody toBody(
+            int[] lengths,
+            int[] multipliers,
+            List<Pair<SortedSet<Comparable>, Boolean>> axisList)
+        {
+            final int targetCount =
+                longs != null ? longs.length : doubles.length;
+            final int valueCount = present.cardinality();
+            if (valueCount == 0) {
+                return new DenseObjectSegmentBody(new Object[0], axisList);
+            }
+            final boolean fitsInt = fitsInt();
+            if (SegmentLoader.useSparse(targetCount, valueCount)) {
+                final Map<CellKey, Object> data =
+                    new HashMap<CellKey, Object>(valueCount * 3 / 2);
+                for (int i = present.nextSetBit(0); i >= 0;
+                    i = present.nextSetBit(i + 1))
+                {
+                    final int[] ordinals = new int[lengths.length];
+                    for (int k = 0; k < lengths.length; k++) {
+                        ordinals[k] = i / multipliers[k] % lengths[k];
+                    }
+                    data.put(
+                        CellKey.Generator.newCellKey(ordinals),
+                        fitsInt ? (Object) (int) longs[i] : getDouble(i));
+                }
+                return new SparseSegmentBody(data, axisList);
+            }
+            final BitSet nullIndicators = new BitSet(targetCount);
+            nullIndicators.set(0, targetCount);
+            nullIndicators.andNot(present);
+            if (fitsInt) {
+                final int[] ints = new int[targetCount];
+                for (int i = 0; i < targetCount; i++) {
+                    ints[i] = (int) longs[i];
+                }
+                return new DenseIntSegmentBody(nullIndicators, ints, axisList);
+            } else if (longs != null) {
+                final double[] values = new double[targetCount];
+                for (int i = 0; i < targetCount; i++) {
+                    values[i] = longs[i];
+                }
+                return new DenseDoubleSegmentBody(
+                    nullIndicators, values, axisList);
+            } else {
+                return new DenseDoubleSegmentBody(
+                    nullIndicators, doubles, axisList);
+            }
+        }
+
+        private double getDouble(int i) {
+            return longs != null ? (double) longs[i] : doubles[i];
+        }
+    }
+}
+
+// End SegmentRollup.java
@@ -11,6 +11,10 @@ package mondrian.rolap.agg;
 
 import mondrian.olap.Util;
 import mondrian.rolap.*;
+import mondrian.spi.SegmentBody;
+import mondrian.util.CompressedBitmap;
+import mondrian.util.HyperLogLog;
+import mondrian.util.Pair;
 
 import java.util.*;
 
@@ -179,6 +183,12 @@ public class SegmentWithData extends Segment {
             Object o = data.getObject(cellKey);
             if (o == null) {
                 o = Util.nullValue;
+            } else if (o instanceof HyperLogLog) {
+                // Cell of an approximate distinct-count measure.
+                o = (int) ((HyperLogLog) o).estimate();
+            } else if (o instanceof CompressedBitmap) {
+                // Cell of a distinct-count measure that holds bitmaps.
+                o = (int) ((CompressedBitmap) o).cardinality();
             }
             return o;
         }
@@ -348,6 +358,25 @@ public class SegmentWithData extends Segment {
     public final SegmentDataset getData() {
         return data;
     }
+
+    /**
+     * Creates a {@link SegmentBody} that holds the data set of
+     * this segment, to be placed in cache.
+     *
+     * @return Segment body
+     */
+    public SegmentBody createSegmentBody() {
+        return data.createSegmentBody(
+            new AbstractList<Pair<SortedSet<Comparable>, Boolean>>() {
+                public Pair<SortedSet<Comparable>, Boolean> get(int index) {
+                    return axes[index].getValuesAndIndicator();
+                }
+
+                public int size() {
+                    return axes.length;
+                }
+            });
+    }
 }
 
 // End SegmentWithData.java
@@ -51,16 +51,39 @@ public class AggGen {
     private final List<JdbcSchema.Table.Column.Usage> measures =
         new ArrayList<JdbcSchema.Table.Column.Usage>();
 
+    /** name of collapsed aggregate table, or null to generate one */
+    private final String collapsedTableName;
+
     private boolean isReady;
 
     public AggGen(
         String cubeName,
         RolapStar star,
         RolapStar.Column[] columns)
+    {
+        this(cubeName, star, columns, null);
+    }
+
+    /**
+     * Creates an AggGen that gives the collapsed aggregate table a
+     * particular name.
+     *
+     * @param cubeName Name of cube whose measures to aggregate
+     * @param star Star
+     * @param columns Columns to group by
+     * @param collapsedTableName Name of collapsed aggregate table, or null to
+     *   generate a name from the fact table name
+     */
+    public AggGen(
+        String cubeName,
+        RolapStar star,
+        RolapStar.Column[] columns,
+        String collapsedTableName)
     {
         this.cubeName = cubeName;
         this.star = star;
         this.columns = columns;
+        this.collapsedTableName = collapsedTableName;
         init();
     }
 
@@ -532,6 +555,9 @@ public class AggGen {
     private static final String AGG_COLLAPSED_PREFIX = "agg_c_XXX_";
 
     String makeCollapsedAggregateTableName(String factTableName) {
+        if (collapsedTableName != null) {
+            return collapsedTableName;
+        }
         return AGG_COLLAPSED_PREFIX
                + factTableName;
     }
@@ -1121,6 +1121,19 @@ public class AggStar {
          */
         public int getNumberOfRows() {
             if (numberOfRows < 0) {
+                final RolapStatisticsCache statisticsCache =
+                    star.getStatisticsCache();
+                if (!statisticsCache.isFinal()) {
+                    // The cache returns an estimate until the statistic has
+                    // been collected in the background, so ask it each time.
+                    // If it knows nothing, count the rows.
+                    final int rowCount =
+                        statisticsCache.getRelationCardinality(
+                            getRelation(), getName(), approxRowCount);
+                    if (rowCount >= 0) {
+                        return rowCount;
+                    }
+                }
                 numberOfRows =
                     star.getStatisticsCache().getRelationCardinality(
                         getRelation(), getName(), approxRowCount);
@@ -1129,6 +1142,18 @@ public class AggStar {
             return numberOfRows;
         }
 
+        /**
+         * Returns the number of rows in this aggregate table if it is known
+         * without executing SQL, otherwise -1.
+         */
+        public int getCachedNumberOfRows() {
+            if (numberOfRows >= 0) {
+                return numberOfRows;
+            }
+            return star.getStatisticsCache().getCachedRelationCardinality(
+                getRelation(), approxRowCount);
+        }
+
         /**
          * This is for testing ONLY.
          *
@@ -22,6 +22,7 @@ import org.eigenbase.util.property.Trigger;
 
 import java.sql.SQLException;
 import java.util.*;
+import java.util.regex.Pattern;
 import javax.sql.DataSource;
 
 /**
@@ -200,111 +201,12 @@ public class AggTableManager {
                 // loads tables, not their columns
                 db.load();
 
-                loop:
-                for (RolapStar star : getStars()) {
-                    // This removes any AggStars from any previous invocation of
-                    // this method (if any)
-                    star.prepareToLoadAggregates();
-
-                    List<ExplicitRules.Group> aggGroups = getAggGroups(star);
-                    for (ExplicitRules.Group group : aggGroups) {
-                        group.validate(msgRecorder);
-                    }
-
-                    String factTableName = star.getFactTable().getAlias();
-
-                    JdbcSchema.Table dbFactTable = db.getTable(factTableName);
-                    if (dbFactTable == null) {
-                        msgRecorder.reportWarning(
-                            "No Table found for fact name="
-                                + factTableName);
-                        continue loop;
-                    }
-
-                    // For each column in the dbFactTable, figure out it they
-                    // are measure or foreign key columns
-
-                    bindToStar(dbFactTable, star, msgRecorder);
-                    String schema = dbFactTable.table.schema;
-
-                    // Now look at all tables in the database and per table,
-                    // first see if it is a match for an aggregate table for
-                    // this fact table and second see if its columns match
-                    // foreign key and level columns.
-
-                    for (JdbcSchema.Table dbTable : db.getTables()) {
-                        String name = dbTable.getName();
-
-                        // Do the catalog schema aggregate excludes, exclude
-                        // this table name.
-                        if (ExplicitRules.excludeTable(name, aggGroups)) {
-                            continue;
-                        }
-
-                        // First see if there is an ExplicitRules match. If so,
-                        // then if all of the columns match up, then make an
-                        // AggStar. On the other hand, if there is no
-                        // ExplicitRules match, see if there is a Default
-                        // match. If so and if all the columns match up, then
-                        // also make an AggStar.
-                        ExplicitRules.TableDef tableDef =
-                            ExplicitRules.getIncludeByTableDef(name, aggGroups);
-
-                        boolean makeAggStar = false;
-                        int approxRowCount = Integer.MIN_VALUE;
-                        // Is it handled by the ExplicitRules
-                        if (tableDef != null) {
-                            // load columns
-                            dbTable.load();
-                            makeAggStar = tableDef.columnsOK(
-                                star,
-                                dbFactTable,
-                                dbTable,
-                                msgRecorder);
-                            approxRowCount = tableDef.getApproxRowCount();
-                        }
-                        if (! makeAggStar) {
-                            // Is it handled by the DefaultRules
-                            if (rules.matchesTableName(factTableName, name)) {
-                                // load columns
-                                dbTable.load();
-                                makeAggStar = rules.columnsOK(
-                                    star,
-                                    dbFactTable,
-                                    dbTable,
-                                    msgRecorder);
-                            }
-                        }
-
-                        if (makeAggStar) {
-                            dbTable.setTableUsageType(
-                                JdbcSchema.TableUsageType.AGG);
-                            dbTable.table = new MondrianDef.Table(
-                                schema,
-                                name,
-                                null, // null alias
-                                null); // don't know about table hints
-                            AggStar aggStar = AggStar.makeAggStar(
-                                star,
-                                dbTable,
-                                msgRecorder,
-                                approxRowCount);
-                            if (aggStar.getSize() > 0) {
-                                star.addAggStar(aggStar);
-                            } else {
-                                getLogger().warn(
-                                    mres.AggTableZeroSize.str(
-                                        aggStar.getFactTable().getName(),
-                                        factTableName));
-                            }
-                        }
-                        // Note: if the dbTable name matches but the columnsOK
-                        // does not, then this is an error and the aggregate
-                        // tables can not be loaded.
-                        // We do not "reset" the column usages in the dbTable
-                        // allowing it maybe to match another rule.
-                    }
+                final Collection<RolapStar> stars = getStars();
+                loadCandidateColumns(db, stars, rules);
+                for (RolapStar star : stars) {
+                    loadRolapStarAggregates(db, star, rules, msgRecorder);
                 }
+                db.saveSnapshot();
             }
         } catch (RecorderException ex) {
             throw new MondrianException(ex);
@@ -319,6 +221,226 @@ public class AggTableManager {
         }
     }
 
+    /**
+     * Loads the aggregate tables of one star. Called when a cube is created
+     * after the schema has been loaded; see
+     * {@link mondrian.olap.MondrianProperties#LazyCubeInitialization}.
+     *
+     * @param star Star
+     */
+    public void loadAggregates(RolapStar star) {
+        if (!MondrianProperties.instance().ReadAggregates.get()) {
+            return;
+        }
+        ListRecorder msgRecorder = new ListRecorder();
+        try {
+            DefaultRules rules = DefaultRules.getInstance();
+            JdbcSchema db = getJdbcSchema();
+            synchronized (db) {
+                db.flushUsages();
+                db.load();
+                loadCandidateColumns(
+                    db, Collections.singletonList(star), rules);
+                loadRolapStarAggregates(db, star, rules, msgRecorder);
+                db.saveSnapshot();
+            }
+        } catch (SQLException ex) {
+            throw mres.AggLoadingError.ex(ex);
+        } catch (RecorderException ex) {
+            throw new MondrianException(ex);
+        } finally {
+            msgRecorder.logInfoMessage(getLogger());
+            msgRecorder.logWarningMessage(getLogger());
+            msgRecorder.logErrorMessage(getLogger());
+            if (msgRecorder.hasErrors()) {
+                throw mres.AggLoadingExceededErrorCount.ex(
+                    msgRecorder.getErrorCount());
+            }
+        }
+    }
+
+    /**
+     * Loads the columns of the fact tables of some stars, and of every table
+     * that might be an aggregate table of one of them. Columns are read in
+     * parallel (see {@link JdbcSchema#loadColumns(Collection)}), so that
+     * matching tables to stars, which happens one table at a time, finds
+     * them already loaded.
+     *
+     * <p>Caller must hold the lock on {@code db}.
+     */
+    private void loadCandidateColumns(
+        JdbcSchema db,
+        Collection<RolapStar> stars,
+        DefaultRules rules)
+        throws SQLException
+    {
+        final Pattern tablePattern = getTablePattern();
+        final Set<JdbcSchema.Table> candidates =
+            new LinkedHashSet<JdbcSchema.Table>();
+        for (RolapStar star : stars) {
+            String factTableName = star.getFactTable().getAlias();
+            JdbcSchema.Table dbFactTable = db.getTable(factTableName);
+            if (dbFactTable == null) {
+                continue;
+            }
+            candidates.add(dbFactTable);
+            List<ExplicitRules.Group> aggGroups = getAggGroups(star);
+            for (JdbcSchema.Table dbTable : db.getTables()) {
+                String name = dbTable.getName();
+                if (ExplicitRules.excludeTable(name, aggGroups)) {
+                    continue;
+                }
+                if (ExplicitRules.getIncludeByTableDef(name, aggGroups)
+                    != null
+                    || (matchesTablePattern(tablePattern, name)
+                        && rules.matchesTableName(factTableName, name)))
+                {
+                    candidates.add(dbTable);
+                }
+            }
+        }
+        db.loadColumns(candidates);
+    }
+
+    /**
+     * Returns the pattern that the names of candidate aggregate tables must
+     * match, or null if all tables are candidates.
+     *
+     * @see MondrianProperties#AggregateTablePattern
+     */
+    private static Pattern getTablePattern() {
+        final String regex =
+            MondrianProperties.instance().AggregateTablePattern.get();
+        if (regex == null || regex.length() == 0) {
+            return null;
+        }
+        return Pattern.compile(regex);
+    }
+
+    private static boolean matchesTablePattern(Pattern pattern, String name) {
+        return pattern == null || pattern.matcher(name).matches();
+    }
+
+    /**
+     * Finds the aggregate tables of a star, and creates an {@link AggStar}
+     * for each.
+     *
+     * <p>Caller must hold the lock on {@code db}.
+     */
+    private void loadRolapStarAggregates(
+        JdbcSchema db,
+        RolapStar star,
+        DefaultRules rules,
+        ListRecorder msgRecorder)
+        throws SQLException
+    {
+        // This removes any AggStars from any previous invocation of
+        // this method (if any)
+        star.prepareToLoadAggregates();
+
+        List<ExplicitRules.Group> aggGroups = getAggGroups(star);
+        for (ExplicitRules.Group group : aggGroups) {
+            group.validate(msgRecorder);
+        }
+
+        String factTableName = star.getFactTable().getAlias();
+
+        JdbcSchema.Table dbFactTable = db.getTable(factTableName);
+        if (dbFactTable == null) {
+            msgRecorder.reportWarning(
+                "No Table found for fact name="
+                    + factTableName);
+            return;
+        }
+
+        // For each column in the dbFactTable, figure out it they
+        // are measure or foreign key columns
+
+        bindToStar(dbFactTable, star, msgRecorder);
+        String schema = dbFactTable.table.schema;
+        final Pattern tablePattern = getTablePattern();
+
+        // Now look at all tables in the database and per table,
+        // first see if it is a match for an aggregate table for
+        // this fact table and second see if its columns match
+        // foreign key and level columns.
+
+        for (JdbcSchema.Table dbTable : db.getTables()) {
+            String name = dbTable.getName();
+
+            // Do the catalog schema aggregate excludes, exclude
+            // this table name.
+            if (ExplicitRules.excludeTable(name, aggGroups)) {
+                continue;
+            }
+
+            // First see if there is an ExplicitRules match. If so,
+            // then if all of the columns match up, then make an
+            // AggStar. On the other hand, if there is no
+            // ExplicitRules match, see if there is a Default
+            // match. If so and if all the columns match up, then
+            // also make an AggStar.
+            ExplicitRules.TableDef tableDef =
+                ExplicitRules.getIncludeByTableDef(name, aggGroups);
+
+            boolean makeAggStar = false;
+            int approxRowCount = Integer.MIN_VALUE;
+            // Is it handled by the ExplicitRules
+            if (tableDef != null) {
+                // load columns
+                dbTable.load();
+                makeAggStar = tableDef.columnsOK(
+                    star,
+                    dbFactTable,
+                    dbTable,
+                    msgRecorder);
+                approxRowCount = tableDef.getApproxRowCount();
+            }
+            if (! makeAggStar) {
+                // Is it handled by the DefaultRules
+                if (matchesTablePattern(tablePattern, name)
+                    && rules.matchesTableName(factTableName, name))
+                {
+                    // load columns
+                    dbTable.load();
+                    makeAggStar = rules.columnsOK(
+                        star,
+                        dbFactTable,
+                        dbTable,
+                        msgRecorder);
+                }
+            }
+
+            if (makeAggStar) {
+                dbTable.setTableUsageType(
+                    JdbcSchema.TableUsageType.AGG);
+                dbTable.table = new MondrianDef.Table(
+                    schema,
+                    name,
+                    null, // null alias
+                    null); // don't know about table hints
+                AggStar aggStar = AggStar.makeAggStar(
+                    star,
+                    dbTable,
+                    msgRecorder,
+                    approxRowCount);
+                if (aggStar.getSize() > 0) {
+                    star.addAggStar(aggStar);
+                } else {
+                    getLogger().warn(
+                        mres.AggTableZeroSize.str(
+                            aggStar.getFactTable().getName(),
+                            factTableName));
+                }
+            }
+            // Note: if the dbTable name matches but the columnsOK
+            // does not, then this is an error and the aggregate
+            // tables can not be loaded.
+            // We do not "reset" the column usages in the dbTable
+            // allowing it maybe to match another rule.
+        }
+    }
+
     private boolean runTrigger() {
         if (RolapSchema.cacheContains(schema)) {
             return true;
@@ -12,6 +12,7 @@ package mondrian.rolap.aggmatcher;
 
 import mondrian.olap.MondrianDef;
 import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
 import mondrian.resource.MondrianResource;
 import mondrian.rolap.RolapAggregator;
 import mondrian.rolap.RolapLevel;
@@ -22,11 +23,11 @@ import org.apache.log4j.Logger;
 
 import org.olap4j.impl.Olap4jUtil;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.io.*;
 import java.lang.ref.SoftReference;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.*;
 import javax.sql.DataSource;
 
 /**
@@ -822,6 +823,13 @@ public class JdbcSchema {
 
         private boolean allColumnsLoaded;
 
+        /**
+         * When the columns of this table were read from JDBC, in
+         * milliseconds since the epoch. If they were read from a snapshot,
+         * when the snapshot read them.
+         */
+        private long columnsLoadTime;
+
         private Table(final String name, String tableType) {
             this.name = name;
             this.tableUsageType = TableUsageType.UNKNOWN;
@@ -1003,9 +1011,12 @@ public class JdbcSchema {
          * Column objects with the column's name, type, type name and column
          * size.
          *
+         * <p>Synchronized, because {@link JdbcSchema#loadColumns} may load
+         * tables in several threads.
+         *
          * @throws SQLException
          */
-        private void loadColumns() throws SQLException {
+        private synchronized void loadColumns() throws SQLException {
             if (! allColumnsLoaded) {
                 Connection conn = getDataSource().getConnection();
                 try {
@@ -1018,7 +1029,6 @@ public class JdbcSchema {
 
                     ResultSet rs = null;
                     try {
-                        Map<String, Column> map = getColumnMap();
                         rs = dmd.getColumns(
                             catalog,
                             schema,
@@ -1034,17 +1044,15 @@ public class JdbcSchema {
                             int charOctetLength = rs.getInt(16);
                             String isNullable = rs.getString(18);
 
-                            Column column = new Column(name);
-                            column.setType(type);
-                            column.setTypeName(typeName);
-                            column.setColumnSize(columnSize);
-                            column.setDecimalDigits(decimalDigits);
-                            column.setNumPrecRadix(numPrecRadix);
-                            column.setCharOctetLength(charOctetLength);
-                            column.setIsNullable(!"NO".equals(isNullable));
-
-                            map.put(name, column);
-                            totalColumnSize += column.getColumnSize();
+                            addColumn(
+                                name,
+                                type,
+                                typeName,
+                                columnSize,
+                                decimalDigits,
+                                numPrecRadix,
+                                charOctetLength,
+                                !"NO".equals(isNullable));
                         }
                     } finally {
                         if (rs != null) {
@@ -1060,9 +1068,37 @@ public class JdbcSchema {
                 }
 
                 allColumnsLoaded = true;
+                columnsLoadTime = System.currentTimeMillis();
+                snapshotDirty = true;
             }
         }
 
+        /**
+         * Creates a column and adds it to this table.
+         */
+        private void addColumn(
+            String name,
+            int type,
+            String typeName,
+            int columnSize,
+            int decimalDigits,
+            int numPrecRadix,
+            int charOctetLength,
+            boolean isNullable)
+        {
+            Column column = new Column(name);
+            column.setType(type);
+            column.setTypeName(typeName);
+            column.setColumnSize(columnSize);
+            column.setDecimalDigits(decimalDigits);
+            column.setNumPrecRadix(numPrecRadix);
+            column.setCharOctetLength(charOctetLength);
+            column.setIsNullable(isNullable);
+
+            getColumnMap().put(name, column);
+            totalColumnSize += column.getColumnSize();
+        }
+
         private Map<String, Column> getColumnMap() {
             if (columnMap == null) {
                 columnMap = new HashMap<String, Column>();
@@ -1071,11 +1107,32 @@ public class JdbcSchema {
         }
     }
 
+    /**
+     * First line of a metadata snapshot file. Change the version if the
+     * format changes.
+     */
+    private static final String SNAPSHOT_HEADER =
+        "# Mondrian JDBC metadata snapshot, version 1";
+
+    private static final String SNAPSHOT_ENCODING = "UTF-8";
+
     private DataSource dataSource;
     private String schema;
     private String catalog;
     private boolean allTablesLoaded;
 
+    /**
+     * Identifies the database in a metadata snapshot file: JDBC URL, user,
+     * catalog and schema. Set when tables are loaded.
+     */
+    private String snapshotKey;
+
+    /**
+     * Whether the columns of any table have been read from JDBC since the
+     * snapshot was last read or saved.
+     */
+    private volatile boolean snapshotDirty;
+
     /**
      * Tables by name. We use a sorted map so {@link #getTables()}'s output
      * is in deterministic order.
@@ -1101,6 +1158,8 @@ public class JdbcSchema {
         allTablesLoaded = false;
         schema = null;
         catalog = null;
+        snapshotKey = null;
+        snapshotDirty = false;
         tables.clear();
     }
 
@@ -1227,6 +1286,15 @@ public class JdbcSchema {
                 loadTablesOfType(databaseMetaData, tableTypes);
             }
             allTablesLoaded = true;
+            snapshotKey =
+                ("url=" + databaseMetaData.getURL()
+                 + ", user=" + databaseMetaData.getUserName()
+                 + ", catalog=" + getCatalogName()
+                 + ", schema=" + getSchemaName())
+                    .replace('\t', ' ')
+                    .replace('\n', ' ')
+                    .replace('\r', ' ');
+            readSnapshot(databaseMetaData);
         } finally {
             if (conn != null) {
                 conn.close();
@@ -1286,6 +1354,362 @@ public class JdbcSchema {
         return tables;
     }
 
+    /**
+     * Loads the columns of several tables, in parallel if
+     * {@link MondrianProperties#AggregateMetadataThreads} allows. Each
+     * thread reads JDBC metadata over its own connection. Tables whose
+     * columns are already loaded are skipped.
+     *
+     * @param tableList Tables
+     * @throws SQLException if reading the metadata of any table fails
+     */
+    public void loadColumns(Collection<Table> tableList) throws SQLException {
+        final List<Table> pending = new ArrayList<Table>();
+        for (Table table : tableList) {
+            if (!table.allColumnsLoaded) {
+                pending.add(table);
+            }
+        }
+        int threadCount =
+            MondrianProperties.instance().AggregateMetadataThreads.get();
+        if (threadCount <= 0) {
+            threadCount = Runtime.getRuntime().availableProcessors();
+        }
+        threadCount = Math.min(threadCount, pending.size());
+        if (threadCount <= 1) {
+            for (Table table : pending) {
+                table.loadColumns();
+            }
+            return;
+        }
+        final ExecutorService executor =
+            Util.getExecutorService(
+                threadCount,
+                threadCount,
+                1,
+                -1,
+                "mondrian.rolap.aggmatcher.JdbcSchema$columnLoader");
+        try {
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (final Table table : pending) {
+                futures.add(
+                    executor.submit(
+                        new Callable<Void>() {
+                            public Void call() throws SQLException {
+                                table.loadColumns();
+                                return null;
+                            }
+                        }));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    throw Util.newError(
+                        e, "Interrupted while loading columns");
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof SQLException) {
+                        throw (SQLException) cause;
+                    }
+                    Util.safeGet(future, "Error while loading columns");
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(
+                "Loaded columns of " + pending.size() + " tables in "
+                + threadCount + " threads");
+        }
+    }
+
+    /**
+     * Returns the file in which the metadata of this database is saved, or
+     * null if snapshots are not enabled.
+     */
+    private File getSnapshotFile() {
+        final String dir =
+            MondrianProperties.instance().AggregateMetadataSnapshotDir.get();
+        if (dir == null || dir.length() == 0 || snapshotKey == null) {
+            return null;
+        }
+        // Different databases may hash to the same file; the key inside the
+        // file tells them apart.
+        return new File(
+            dir,
+            "jdbc-" + Integer.toHexString(snapshotKey.hashCode()) + ".txt");
+    }
+
+    /**
+     * Reads the columns of tables from the snapshot file, if there is one.
+     *
+     * <p>The columns of a table are read only if the table still exists in
+     * the database with the same type, if it still has the same columns
+     * (by name and JDBC type), and if its entry is no older than
+     * {@link MondrianProperties#AggregateMetadataSnapshotTtl}. The columns
+     * are checked with one metadata request for the whole schema, rather
+     * than one per table. If the file cannot be read, it is ignored, and
+     * columns are read from JDBC.
+     *
+     * @param databaseMetaData Metadata of the database
+     */
+    private void readSnapshot(DatabaseMetaData databaseMetaData) {
+        final File file = getSnapshotFile();
+        if (file == null || !file.exists()) {
+            return;
+        }
+        final long expiry =
+            System.currentTimeMillis()
+            - MondrianProperties.instance().AggregateMetadataSnapshotTtl.get()
+            * 1000L;
+        final Map<Table, List<String[]>> columnsByTable =
+            new LinkedHashMap<Table, List<String[]>>();
+        final Map<Table, Long> loadTimes = new HashMap<Table, Long>();
+        BufferedReader reader = null;
+        try {
+            reader =
+                new BufferedReader(
+                    new InputStreamReader(
+                        new FileInputStream(file), SNAPSHOT_ENCODING));
+            if (!SNAPSHOT_HEADER.equals(reader.readLine())
+                || !snapshotKey.equals(reader.readLine()))
+            {
+                return;
+            }
+            List<String[]> columns = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] fields = line.split("\t", -1);
+                if (fields[0].equals("table") && fields.length == 4) {
+                    final Table table = tables.get(fields[1]);
+                    final long loadTime = Long.parseLong(fields[3]);
+                    if (table == null
+                        || table.allColumnsLoaded
+                        || !String.valueOf(table.getTableType()).equals(
+                            fields[2])
+                        || loadTime < expiry)
+                    {
+                        columns = null;
+                    } else {
+                        columns = new ArrayList<String[]>();
+                        columnsByTable.put(table, columns);
+                        loadTimes.put(table, loadTime);
+                    }
+                } else if (fields[0].equals("column") && fields.length == 9) {
+                    if (columns != null) {
+                        columns.add(fields);
+                    }
+                } else {
+                    LOGGER.warn(
+                        "Invalid line in metadata snapshot " + file + ": "
+                        + line);
+                    return;
+                }
+            }
+            // The whole file is valid. Skip tables whose columns have
+            // changed since the snapshot was saved.
+            if (!columnsByTable.isEmpty()) {
+                final Map<String, List<String>> signatures =
+                    loadColumnSignatures(databaseMetaData);
+                for (Iterator<Map.Entry<Table, List<String[]>>> iterator =
+                         columnsByTable.entrySet().iterator();
+                     iterator.hasNext();)
+                {
+                    final Map.Entry<Table, List<String[]>> entry =
+                        iterator.next();
+                    final List<String> signature = new ArrayList<String>();
+                    for (String[] fields : entry.getValue()) {
+                        signature.add(fields[1] + "\t" + fields[2]);
+                    }
+                    Collections.sort(signature);
+                    if (!signature.equals(
+                            signatures.get(entry.getKey().getName())))
+                    {
+                        iterator.remove();
+                    }
+                }
+            }
+            // Now populate the tables.
+            for (Map.Entry<Table, List<String[]>> entry
+                : columnsByTable.entrySet())
+            {
+                final Table table = entry.getKey();
+                for (String[] fields : entry.getValue()) {
+                    table.addColumn(
+                        fields[1],
+                        Integer.parseInt(fields[2]),
+                        fields[3],
+                        Integer.parseInt(fields[4]),
+                        Integer.parseInt(fields[5]),
+                        Integer.parseInt(fields[6]),
+                        Integer.parseInt(fields[7]),
+                        Boolean.valueOf(fields[8]));
+                }
+                table.allColumnsLoaded = true;
+                table.columnsLoadTime = loadTimes.get(table);
+            }
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug(
+                    "Read columns of " + columnsByTable.size()
+                    + " tables from metadata snapshot " + file);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Could not read metadata snapshot " + file, e);
+        } catch (SQLException e) {
+            LOGGER.warn("Could not validate metadata snapshot " + file, e);
+        } catch (NumberFormatException e) {
+            LOGGER.warn("Invalid metadata snapshot " + file, e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns, for each table in this schema, the names and JDBC types of its
+     * columns, sorted, in the form "name&lt;tab&gt;type".
+     */
+    private Map<String, List<String>> loadColumnSignatures(
+        DatabaseMetaData databaseMetaData)
+        throws SQLException
+    {
+        final Map<String, List<String>> signatures =
+            new HashMap<String, List<String>>();
+        ResultSet rs = null;
+        try {
+            rs = databaseMetaData.getColumns(
+                getCatalogName(), getSchemaName(), "%", "%");
+            while (rs.next()) {
+                final String tableName = rs.getString(3);
+                List<String> signature = signatures.get(tableName);
+                if (signature == null) {
+                    signature = new ArrayList<String>();
+                    signatures.put(tableName, signature);
+                }
+                signature.add(rs.getString(4) + "\t" + rs.getInt(5));
+            }
+        } finally {
+            if (rs != null) {
+                rs.close();
+            }
+        }
+        for (List<String> signature : signatures.values()) {
+            Collections.sort(signature);
+        }
+        return signatures;
+    }
+
+    /**
+     * Saves the tables whose columns have been loaded, and their columns, to
+     * the snapshot file, if snapshots are enabled and columns have been read
+     * from JDBC since the snapshot was last read or saved.
+     *
+     * <p>The file is written under a temporary name and then renamed, so
+     * that a reader never sees a partial file. Failure to save is logged,
+     * not thrown.
+     */
+    public synchronized void saveSnapshot() {
+        final File file = getSnapshotFile();
+        if (file == null || !snapshotDirty) {
+            return;
+        }
+        final File tempFile = new File(file.getPath() + ".tmp");
+        PrintWriter pw = null;
+        try {
+            file.getParentFile().mkdirs();
+            pw = new PrintWriter(
+                new OutputStreamWriter(
+                    new FileOutputStream(tempFile), SNAPSHOT_ENCODING));
+            pw.println(SNAPSHOT_HEADER);
+            pw.println(snapshotKey);
+            int count = 0;
+            for (Table table : tables.values()) {
+                if (!table.allColumnsLoaded || !isSnapshotSafe(table)) {
+                    continue;
+                }
+                pw.println(
+                    "table\t" + table.getName()
+                    + "\t" + table.getTableType()
+                    + "\t" + table.columnsLoadTime);
+                for (Table.Column column : table.getColumns()) {
+                    pw.println(
+                        "column\t" + column.getName()
+                        + "\t" + column.getType()
+                        + "\t" + column.getTypeName()
+                        + "\t" + column.getColumnSize()
+                        + "\t" + column.getDecimalDigits()
+                        + "\t" + column.getNumPrecRadix()
+                        + "\t" + column.getCharOctetLength()
+                        + "\t" + column.isNullable());
+                }
+                ++count;
+            }
+            pw.flush();
+            if (pw.checkError()) {
+                throw new IOException("Error writing " + tempFile);
+            }
+            pw.close();
+            pw = null;
+            if (file.exists() && !file.delete()
+                || !tempFile.renameTo(file))
+            {
+                throw new IOException(
+                    "Could not rename " + tempFile + " to " + file);
+            }
+            snapshotDirty = false;
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug(
+                    "Saved columns of " + count
+                    + " tables to metadata snapshot " + file);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Could not save metadata snapshot " + file, e);
+        } finally {
+            if (pw != null) {
+                pw.close();
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns whether a table can be written to a snapshot file: its name and
+     * the names and type names of all of its columns must be safe. A table
+     * with an unsafe column is left out of the snapshot, rather than saved
+     * without that column, and is read from JDBC the next time.
+     */
+    private static boolean isSnapshotSafe(Table table) {
+        if (!isSnapshotSafe(table.getName())) {
+            return false;
+        }
+        for (Table.Column column : table.getColumns()) {
+            if (!isSnapshotSafe(column.getName())
+                || !isSnapshotSafe(column.getTypeName()))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether a name can be written to a snapshot file. Fields are
+     * separated by tabs, and entries by line breaks.
+     */
+    private static boolean isSnapshotSafe(String name) {
+        return name != null
+            && name.indexOf('\t') < 0
+            && name.indexOf('\n') < 0
+            && name.indexOf('\r') < 0;
+    }
+
     public static synchronized void clearAllDBs() {
         factory = null;
         makeFactory();
@@ -0,0 +1,600 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.rolap.aggtab;
+
+import mondrian.olap.*;
+import mondrian.rolap.*;
+import mondrian.rolap.aggmatcher.AggGen;
+import mondrian.rolap.aggmatcher.AggStar;
+
+import org.apache.log4j.Logger;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.*;
+
+/**
+ * Recommends aggregate tables for a cube, based on the SQL statements that
+ * its star has executed.
+ *
+ * <p>If {@link MondrianProperties#AggregateAdvisor} is set, the segment
+ * loader calls {@link #record} for each grouping set it reads from the
+ * database, with the columns grouped by and the number of rows returned.
+ * Each distinct set of columns is a <dfn>pattern</dfn> of the star's
+ * workload.
+ *
+ * <p>{@link #recommend} chooses tables using the greedy algorithm of
+ * Harinarayan, Rajaraman and Ullman, "Implementing Data Cubes Efficiently"
+ * (SIGMOD 1996). The candidates are the patterns of the workload and the
+ * unions of pairs of patterns. The cost of a pattern is the number of rows
+ * in the smallest table whose columns include the pattern's columns: the fact
+ * table, an existing aggregate table, or a candidate already chosen. At each
+ * step the advisor chooses the candidate that most reduces the cost of the
+ * workload, weighted by the number of times each pattern occurred, per row
+ * stored; it stops when the budget of rows is used up or no candidate
+ * reduces the cost.
+ *
+ * <p>{@link #generate} emits, for each recommended table, the CREATE TABLE
+ * and INSERT statements (generated by {@link AggGen}) and an
+ * <code>&lt;AggName&gt;</code> element to add to the cube's fact table in the
+ * schema.
+ *
+ * @author jhyde
+ */
+public class AggAdvisor {
+    private static final Logger LOGGER = Logger.getLogger(AggAdvisor.class);
+
+    /**
+     * Workload of each star. Weak, so that the workload of a star goes away
+     * with its schema.
+     */
+    private static final Map<RolapStar, Map<BitKey, Pattern>> WORKLOADS =
+        new WeakHashMap<RolapStar, Map<BitKey, Pattern>>();
+
+    /**
+     * Maximum number of patterns for which the unions of pairs of patterns
+     * are candidates. Beyond this, only the patterns themselves are.
+     */
+    private static final int MAX_UNION_PATTERNS = 100;
+
+    private final RolapCube cube;
+    private final RolapStar star;
+
+    /**
+     * Creates an advisor for a cube.
+     *
+     * @param cube Cube; must not be virtual
+     */
+    public AggAdvisor(RolapCube cube) {
+        assert !cube.isVirtual();
+        this.cube = cube;
+        this.star = cube.getStar();
+    }
+
+    /**
+     * Records that a SQL statement read cells grouped by a set of columns.
+     *
+     * @param star Star
+     * @param levelBitKey Columns grouped by
+     * @param rowCount Number of rows returned, or -1 if not known
+     */
+    public static void record(RolapStar star, BitKey levelBitKey, int rowCount)
+    {
+        synchronized (WORKLOADS) {
+            Map<BitKey, Pattern> workload = WORKLOADS.get(star);
+            if (workload == null) {
+                workload = new HashMap<BitKey, Pattern>();
+                WORKLOADS.put(star, workload);
+            }
+            Pattern pattern = workload.get(levelBitKey);
+            if (pattern == null) {
+                pattern = new Pattern();
+                workload.put(levelBitKey.copy(), pattern);
+            }
+            ++pattern.count;
+            pattern.rowCount = Math.max(pattern.rowCount, rowCount);
+        }
+    }
+
+    /**
+     * Discards the workload recorded for a star.
+     *
+     * @param star Star
+     */
+    public static void clear(RolapStar star) {
+        synchronized (WORKLOADS) {
+            WORKLOADS.remove(star);
+        }
+    }
+
+    /**
+     * Returns a copy of the workload recorded for a star.
+     *
+     * @param star Star
+     * @return Map from columns grouped by to the pattern's statistics
+     */
+    static Map<BitKey, Pattern> getWorkload(RolapStar star) {
+        final Map<BitKey, Pattern> copy = new LinkedHashMap<BitKey, Pattern>();
+        synchronized (WORKLOADS) {
+            final Map<BitKey, Pattern> workload = WORKLOADS.get(star);
+            if (workload != null) {
+                for (Map.Entry<BitKey, Pattern> entry : workload.entrySet()) {
+                    final Pattern pattern = new Pattern();
+                    pattern.count = entry.getValue().count;
+                    pattern.rowCount = entry.getValue().rowCount;
+                    copy.put(entry.getKey(), pattern);
+                }
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Recommends aggregate tables for the workload recorded so far.
+     *
+     * @param budget Maximum total number of rows in recommended tables
+     * @param maxTables Maximum number of tables to recommend
+     * @return List of recommended tables, most beneficial first
+     */
+    public List<Recommendation> recommend(long budget, int maxTables) {
+        final Map<BitKey, Pattern> workload = getWorkload(star);
+        if (workload.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final RolapStar.Table factTable = star.getFactTable();
+        final int factRowCount =
+            star.getStatisticsCache().getRelationCardinality(
+                factTable.getRelation(), factTable.getAlias(), -1);
+        if (factRowCount < 0) {
+            LOGGER.warn(
+                "AggAdvisor: number of rows in fact table \""
+                + factTable.getAlias() + "\" is not known");
+            return Collections.emptyList();
+        }
+
+        final Lattice lattice = new Lattice();
+        final BitKey allColumns =
+            BitKey.Factory.makeBitKey(star.getColumnCount());
+        for (int i = 0; i < star.getColumnCount(); i++) {
+            allColumns.set(i);
+        }
+        lattice.addMaterialized(allColumns, factRowCount);
+        for (AggStar aggStar : star.getAggStars()) {
+            lattice.addMaterialized(
+                aggStar.getLevelBitKey(),
+                aggStar.getFactTable().getNumberOfRows());
+        }
+        for (Map.Entry<BitKey, Pattern> entry : workload.entrySet()) {
+            lattice.addQuery(entry.getKey(), entry.getValue().count);
+        }
+        for (BitKey bitKey : candidates(workload.keySet())) {
+            lattice.addCandidate(
+                bitKey, estimateRowCount(bitKey, workload, factRowCount));
+        }
+
+        final List<Recommendation> list = new ArrayList<Recommendation>();
+        for (Lattice.View view : lattice.select(budget, maxTables)) {
+            list.add(
+                new Recommendation(
+                    "agg_a" + (list.size() + 1) + "_" + factTable.getAlias(),
+                    view.bitKey,
+                    view.rowCount,
+                    view.benefit));
+        }
+        return list;
+    }
+
+    /**
+     * Returns the candidate views: each pattern, and the union of each pair
+     * of patterns.
+     */
+    private static Set<BitKey> candidates(Set<BitKey> patterns) {
+        final Set<BitKey> candidates = new LinkedHashSet<BitKey>(patterns);
+        if (patterns.size() <= MAX_UNION_PATTERNS) {
+            final List<BitKey> list = new ArrayList<BitKey>(patterns);
+            for (int i = 0; i < list.size(); i++) {
+                for (int j = i + 1; j < list.size(); j++) {
+                    candidates.add(list.get(i).or(list.get(j)));
+                }
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Estimates the number of rows in a table grouped by a set of columns.
+     * Uses the number of rows observed, if the workload grouped by exactly
+     * those columns; otherwise the product of the columns' cardinalities, at
+     * most the number of rows in the fact table.
+     */
+    private long estimateRowCount(
+        BitKey bitKey,
+        Map<BitKey, Pattern> workload,
+        int factRowCount)
+    {
+        final Pattern pattern = workload.get(bitKey);
+        if (pattern != null && pattern.rowCount >= 0) {
+            return pattern.rowCount;
+        }
+        double rowCount = 1;
+        for (int bit : bitKey) {
+            final int cardinality = star.getColumn(bit).getCardinality();
+            if (cardinality < 0) {
+                return factRowCount;
+            }
+            rowCount *= cardinality;
+        }
+        return (long) Math.min(rowCount, factRowCount);
+    }
+
+    /**
+     * Generates a script that creates and populates recommended aggregate
+     * tables. The script ends with a comment containing the
+     * <code>&lt;AggName&gt;</code> elements that map the tables to the cube.
+     *
+     * @param recommendations Recommended tables
+     * @return SQL script
+     */
+    public String generate(List<Recommendation> recommendations) {
+        final StringWriter sw = new StringWriter();
+        final PrintWriter pw = new PrintWriter(sw);
+        final List<Recommendation> generated = new ArrayList<Recommendation>();
+        for (Recommendation recommendation : recommendations) {
+            final AggGen aggGen =
+                new AggGen(
+                    cube.getName(),
+                    star,
+                    recommendation.getColumns(star),
+                    recommendation.getTableName());
+            if (!aggGen.isReady()) {
+                LOGGER.warn(
+                    "AggAdvisor: could not generate SQL for aggregate table "
+                    + recommendation.getTableName());
+                continue;
+            }
+            pw.println(
+                "-- " + recommendation.getTableName()
+                + ": about " + recommendation.getRowCount()
+                + " rows, saves about " + recommendation.getBenefit()
+                + " rows read by the workload");
+            pw.println(aggGen.createCollapsed());
+            pw.println(aggGen.insertIntoCollapsed());
+            generated.add(recommendation);
+        }
+        if (!generated.isEmpty()) {
+            pw.println("/*");
+            pw.println(
+                "Add to the <Table name=\"" + star.getFactTable().getAlias()
+                + "\"> element of cube \"" + cube.getName() + "\":");
+            pw.println();
+            for (Recommendation recommendation : generated) {
+                pw.print(toAggName(recommendation));
+            }
+            pw.println("*/");
+        }
+        pw.flush();
+        return sw.toString();
+    }
+
+    /**
+     * Generates an <code>&lt;AggName&gt;</code> element that maps a
+     * recommended table's columns to the cube's measures and levels.
+     */
+    String toAggName(Recommendation recommendation) {
+        final StringBuilder buf = new StringBuilder();
+        buf.append("<AggName name=\"")
+            .append(quote(recommendation.getTableName()))
+            .append("\">")
+            .append(Util.nl)
+            .append("    <AggFactCount column=\"fact_count\"/>")
+            .append(Util.nl);
+        for (RolapStar.Column column : star.getFactTable().getColumns()) {
+            if (!(column instanceof RolapStar.Measure)
+                || !((RolapStar.Measure) column).getCubeName().equals(
+                    cube.getName())
+                || !(column.getExpression() instanceof MondrianDef.Column))
+            {
+                continue;
+            }
+            buf.append("    <AggMeasure name=\"")
+                .append(
+                    quote(
+                        "[Measures]."
+                        + Util.quoteMdxIdentifier(column.getName())))
+                .append("\" column=\"")
+                .append(
+                    quote(
+                        ((MondrianDef.Column) column.getExpression())
+                            .getColumnName()))
+                .append("\"/>")
+                .append(Util.nl);
+        }
+        for (RolapCubeLevel level : getLevels(recommendation.getBitKey())) {
+            final RolapStar.Column column = level.getStarKeyColumn();
+            buf.append("    <AggLevel name=\"")
+                .append(quote(level.getUniqueName()))
+                .append("\" column=\"")
+                .append(
+                    quote(
+                        (column.getUsagePrefix() == null
+                            ? ""
+                            : column.getUsagePrefix())
+                        + ((MondrianDef.Column) column.getExpression())
+                            .getColumnName()))
+                .append("\"/>")
+                .append(Util.nl);
+        }
+        buf.append("</AggName>").append(Util.nl);
+        return buf.toString();
+    }
+
+    /**
+     * Returns the levels of the cube that an aggregate table grouped by a
+     * set of columns contains. For each hierarchy, these are the deepest
+     * level whose column is in the set, and its ancestors whose columns are
+     * in the same table (the aggregate table collapses them too).
+     */
+    private List<RolapCubeLevel> getLevels(BitKey bitKey) {
+        final List<RolapCubeLevel> list = new ArrayList<RolapCubeLevel>();
+        for (RolapHierarchy hierarchy : cube.getHierarchies()) {
+            final Level[] levels = hierarchy.getLevels();
+            for (int i = levels.length - 1; i >= 0; i--) {
+                final RolapStar.Column column = getColumn(levels[i]);
+                if (column == null || !bitKey.get(column.getBitPosition())) {
+                    continue;
+                }
+                for (int j = 0; j <= i; j++) {
+                    final RolapStar.Column ancestorColumn =
+                        getColumn(levels[j]);
+                    if (ancestorColumn != null
+                        && ancestorColumn.getTable() == column.getTable())
+                    {
+                        list.add((RolapCubeLevel) levels[j]);
+                    }
+                }
+                break;
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Returns the star column of a level, or null if the level is not a
+     * level of this star whose key is a plain column.
+     */
+    private RolapStar.Column getColumn(Level level) {
+        if (!(level instanceof RolapCubeLevel) || level.isAll()) {
+            return null;
+        }
+        final RolapStar.Column column =
+            ((RolapCubeLevel) level).getStarKeyColumn();
+        if (column == null
+            || column.getStar() != star
+            || !(column.getExpression() instanceof MondrianDef.Column))
+        {
+            return null;
+        }
+        return column;
+    }
+
+    private static String quote(String s) {
+        return s.replace("&", "&amp;")
+            .replace("<", "&lt;")
+            .replace(">", "&gt;")
+            .replace("\"", "&quot;");
+    }
+
+    /**
+     * Statistics of one pattern of a workload.
+     */
+    static class Pattern {
+        /** Number of SQL statements that grouped by this pattern. */
+        int count;
+        /** Largest number of rows returned, or -1 if not known. */
+        int rowCount = -1;
+    }
+
+    /**
+     * Aggregate table recommended by the advisor.
+     */
+    public static class Recommendation {
+        private final String tableName;
+        private final BitKey bitKey;
+        private final long rowCount;
+        private final long benefit;
+
+        Recommendation(
+            String tableName,
+            BitKey bitKey,
+            long rowCount,
+            long benefit)
+        {
+            this.tableName = tableName;
+            this.bitKey = bitKey;
+            this.rowCount = rowCount;
+            this.benefit = benefit;
+        }
+
+        /**
+         * Returns the name of the table.
+         */
+        public String getTableName() {
+            return tableName;
+        }
+
+        /**
+         * Returns the columns of the star that the table groups by.
+         */
+        public BitKey getBitKey() {
+            return bitKey;
+        }
+
+        /**
+         * Returns the columns that the table groups by.
+         *
+         * @param star Star
+         * @return Columns
+         */
+        public RolapStar.Column[] getColumns(RolapStar star) {
+            final List<RolapStar.Column> columns =
+                new ArrayList<RolapStar.Column>();
+            for (int bit : bitKey) {
+                columns.add(star.getColumn(bit));
+            }
+            return columns.toArray(new RolapStar.Column[columns.size()]);
+        }
+
+        /**
+         * Returns the estimated number of rows in the table.
+         */
+        public long getRowCount() {
+            return rowCount;
+        }
+
+        /**
+         * Returns the estimated number of rows that the workload would not
+         * have read had the table existed.
+         */
+        public long getBenefit() {
+            return benefit;
+        }
+
+        public String toString() {
+            return tableName + bitKey + ": " + rowCount + " rows, benefit "
+                + benefit;
+        }
+    }
+
+    /**
+     * Lattice of views, and the greedy algorithm that chooses which to
+     * materialize.
+     */
+    static class Lattice {
+        private final List<View> materialized = new ArrayList<View>();
+        private final List<View> candidates = new ArrayList<View>();
+        private final Map<BitKey, Integer> queries =
+            new LinkedHashMap<BitKey, Integer>();
+
+        /**
+         * Adds a view that is already materialized, such as the fact table or
+         * an existing aggregate table.
+         */
+        void addMaterialized(BitKey bitKey, long rowCount) {
+            materialized.add(new View(bitKey, rowCount));
+        }
+
+        /**
+         * Adds a view that could be materialized.
+         */
+        void addCandidate(BitKey bitKey, long rowCount) {
+            candidates.add(new View(bitKey, rowCount));
+        }
+
+        /**
+         * Adds a query, and the number of times it is executed.
+         */
+        void addQuery(BitKey bitKey, int count) {
+            final Integer previous = queries.get(bitKey);
+            queries.put(bitKey, previous == null ? count : previous + count);
+        }
+
+        /**
+         * Chooses views to materialize.
+         *
+         * @param budget Maximum total number of rows in chosen views
+         * @param maxViews Maximum number of views to choose
+         * @return Chosen views, in the order chosen
+         */
+        List<View> select(long budget, int maxViews) {
+            // Cost of each query, given the views materialized so far.
+            final Map<BitKey, Long> costs = new HashMap<BitKey, Long>();
+            for (BitKey query : queries.keySet()) {
+                long cost = Long.MAX_VALUE;
+                for (View view : materialized) {
+                    if (view.bitKey.isSuperSetOf(query)) {
+                        cost = Math.min(cost, view.rowCount);
+                    }
+                }
+                costs.put(query, cost);
+            }
+            final List<View> remaining = new ArrayList<View>(candidates);
+            final List<View> selected = new ArrayList<View>();
+            long space = budget;
+            while (selected.size() < maxViews) {
+                View best = null;
+                long bestBenefit = 0;
+                double bestRatio = 0;
+                for (View view : remaining) {
+                    if (view.rowCount > space) {
+                        continue;
+                    }
+                    final long benefit = benefit(view, costs);
+                    final double ratio =
+                        (double) benefit / Math.max(view.rowCount, 1);
+                    if (benefit > 0 && ratio > bestRatio) {
+                        best = view;
+                        bestBenefit = benefit;
+                        bestRatio = ratio;
+                    }
+                }
+                if (best == null) {
+                    break;
+                }
+                best.benefit = bestBenefit;
+                remaining.remove(best);
+                selected.add(best);
+                space -= best.rowCount;
+                for (Map.Entry<BitKey, Long> entry : costs.entrySet()) {
+                    if (best.bitKey.isSuperSetOf(entry.getKey())
+                        && best.rowCount < entry.getValue())
+                    {
+                        entry.setValue(best.rowCount);
+                    }
+                }
+            }
+            return selected;
+        }
+
+        /**
+         * Returns the reduction in the cost of the queries if a view were
+         * materialized.
+         */
+        private long benefit(View view, Map<BitKey, Long> costs) {
+            long benefit = 0;
+            for (Map.Entry<BitKey, Integer> entry : queries.entrySet()) {
+                final long cost = costs.get(entry.getKey());
+                if (cost != Long.MAX_VALUE
+                    && cost > view.rowCount
+                    && view.bitKey.isSuperSetOf(entry.getKey()))
+                {
+                    benefit += (cost - view.rowCount) * entry.getValue();
+                }
+            }
+            return benefit;
+        }
+
+        /**
+         * View of the lattice: a table grouped by a set of columns.
+         */
+        static class View {
+            final BitKey bitKey;
+            final long rowCount;
+            /** Reduction in cost of queries when chosen. */
+            long benefit;
+
+            View(BitKey bitKey, long rowCount) {
+                this.bitKey = bitKey;
+                this.rowCount = rowCount;
+            }
+        }
+    }
+}
+
+// End AggAdvisor.java
@@ -11,6 +11,7 @@ package mondrian.rolap.cache;
 
 import mondrian.rolap.BitKey;
 import mondrian.rolap.agg.SegmentBuilder;
+import mondrian.server.Execution;
 import mondrian.spi.*;
 import mondrian.util.ByteString;
 
@@ -76,6 +77,37 @@ public interface SegmentCacheIndex {
         Map<String, Comparable> coordinates,
         List<String> compoundPredicates);
 
+    /**
+     * Returns a set of segments that can be rolled up to satisfy part of a
+     * given cell request, and the region that must be loaded to satisfy the
+     * rest of it.
+     *
+     * <p>Called if {@link #findRollupCandidates} finds no set of segments
+     * that covers the whole request. The segments and the region are
+     * disjoint, so the cells of the region, once loaded using SQL, can be
+     * rolled up with the cells of the segments.</p>
+     *
+     * @param schemaName Schema name
+     * @param schemaChecksum Schema checksum
+     * @param cubeName Cube name
+     * @param measureName Measure name
+     * @param rolapStarFactTableName Fact table table
+     * @param constrainedColsBitKey Bit key
+     * @param coordinates Coordinates
+     * @param compoundPredicates Compound predicates
+     *
+     * @return Partial rollup, or null if there is none
+     */
+    PartialRollup findPartialRollup(
+        String schemaName,
+        ByteString schemaChecksum,
+        String cubeName,
+        String measureName,
+        String rolapStarFactTableName,
+        BitKey constrainedColsBitKey,
+        Map<String, Comparable> coordinates,
+        List<String> compoundPredicates);
+
     /**
      * Finds a list of headers that intersect a given region.
      *
@@ -150,6 +182,17 @@ public interface SegmentCacheIndex {
         SegmentHeader header,
         Throwable throwable);
 
+    /**
+     * Marks a header as unable to be rolled up; for example, a segment of a
+     * distinct-count measure whose cells hold counts rather than bitmaps.
+     * The header stays in the index, so that its cells can still be read,
+     * but {@link #findRollupCandidates} and {@link #findPartialRollup} no
+     * longer return it.
+     *
+     * @param header Segment header
+     */
+    void excludeFromRollup(SegmentHeader header);
+
     /**
      * Removes a header from the index.
      *
@@ -174,6 +217,46 @@ public interface SegmentCacheIndex {
      */
     Future<SegmentBody> getFuture(SegmentHeader header);
 
+    /**
+     * Returns a future slot for a segment body, if a segment is currently
+     * loading, otherwise null, and registers the execution as one of the
+     * clients waiting for the segment.
+     *
+     * <p>The SQL statement that is loading the segment is canceled only
+     * when all of the executions waiting for it have been canceled; see
+     * {@link #cancel(mondrian.server.Execution)}.</p>
+     *
+     * @param exec Execution that will wait for the segment
+     * @param header Segment header
+     * @return Slot, or null
+     */
+    Future<SegmentBody> getFuture(Execution exec, SegmentHeader header);
+
+    /**
+     * Records the SQL statement that is loading a segment, so that it can be
+     * canceled when no execution is waiting for the segment any more.
+     *
+     * @param header Segment header
+     * @param statement JDBC statement loading the segment
+     * @return Whether any execution is still waiting for the segment
+     */
+    boolean linkSqlStatement(
+        SegmentHeader header,
+        java.sql.Statement statement);
+
+    /**
+     * Removes an execution from the clients of the segments it is waiting
+     * for. Returns the SQL statements that are loading segments that no
+     * execution is waiting for any more; the caller should cancel them.
+     *
+     * <p>A statement that loads several segments is returned only if none of
+     * those segments has any clients left.</p>
+     *
+     * @param exec Execution that has been canceled
+     * @return Statements to cancel; never null
+     */
+    List<java.sql.Statement> cancel(Execution exec);
+
     /**
      * Returns a converter that can convert the given header to internal
      * format.
@@ -214,6 +297,36 @@ public interface SegmentCacheIndex {
         String measureName,
         List<String> compoundPredicates,
         SegmentBuilder.SegmentConverter converter);
+
+    /**
+     * Segments that cover part of the cells required by a rollup, and the
+     * region that they do not cover.
+     *
+     * @see SegmentCacheIndex#findPartialRollup
+     */
+    class PartialRollup {
+        /** Segments to roll up. They all have the same dimensionality. */
+        public final List<SegmentHeader> headers;
+
+        /** Bit key of the segments, and of the region. */
+        public final BitKey bitKey;
+
+        /**
+         * Region to load, with one column for each column of the segments.
+         * A column whose values are null is not constrained.
+         */
+        public final List<SegmentColumn> region;
+
+        PartialRollup(
+            List<SegmentHeader> headers,
+            BitKey bitKey,
+            List<SegmentColumn> region)
+        {
+            this.headers = headers;
+            this.bitKey = bitKey;
+            this.region = region;
+        }
+    }
 }
 
 // End SegmentCacheIndex.java
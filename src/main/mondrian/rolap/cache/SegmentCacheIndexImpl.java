@@ -9,15 +9,16 @@
 */
 package mondrian.rolap.cache;
 
+import mondrian.olap.MondrianProperties;
 import mondrian.rolap.BitKey;
 import mondrian.rolap.RolapUtil;
 import mondrian.rolap.agg.*;
+import mondrian.server.Execution;
 import mondrian.spi.*;
 import mondrian.util.*;
 
 import java.io.PrintWriter;
 import java.util.*;
-import java.util.Map.Entry;
 import java.util.concurrent.Future;
 
 /**
@@ -187,6 +188,7 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
         assert headerInfo.slot != null
             : "segment header " + header.getUniqueID() + " is not loading";
         headerInfo.slot.put(body);
+        headerInfo.clearClients();
         if (headerInfo.removeAfterLoad) {
             remove(header);
         }
@@ -201,6 +203,7 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
         assert headerInfo.slot != null
             : "segment header " + header.getUniqueID() + " is not loading";
         headerInfo.slot.fail(throwable);
+        headerInfo.clearClients();
         remove(header);
     }
 
@@ -247,6 +250,24 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
         headerMap.remove(header);
     }
 
+    public void excludeFromRollup(SegmentHeader header) {
+        checkThread();
+
+        final HeaderInfo headerInfo = headerMap.get(header);
+        if (headerInfo != null) {
+            headerInfo.excludedFromRollup = true;
+        }
+    }
+
+    /**
+     * Returns whether a header has been excluded from rollups by
+     * {@link #excludeFromRollup}.
+     */
+    private boolean isExcludedFromRollup(SegmentHeader header) {
+        final HeaderInfo headerInfo = headerMap.get(header);
+        return headerInfo != null && headerInfo.excludedFromRollup;
+    }
+
     private void checkThread() {
         assert thread == Thread.currentThread()
             : "expected " + thread + ", but was " + Thread.currentThread();
@@ -405,6 +426,61 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
         return headerMap.get(header).slot;
     }
 
+    public Future<SegmentBody> getFuture(Execution exec, SegmentHeader header) {
+        checkThread();
+
+        final HeaderInfo headerInfo = headerMap.get(header);
+        if (headerInfo.slot != null
+            && !headerInfo.slot.isDone()
+            && !headerInfo.clients.contains(exec))
+        {
+            headerInfo.clients.add(exec);
+        }
+        return headerInfo.slot;
+    }
+
+    public boolean linkSqlStatement(
+        SegmentHeader header,
+        java.sql.Statement statement)
+    {
+        checkThread();
+
+        final HeaderInfo headerInfo = headerMap.get(header);
+        if (headerInfo == null) {
+            // The header was removed while it was loading. We cannot tell
+            // who is waiting for it, so let the load carry on.
+            return true;
+        }
+        headerInfo.statement = statement;
+        return !headerInfo.clients.isEmpty();
+    }
+
+    public List<java.sql.Statement> cancel(Execution exec) {
+        checkThread();
+
+        final Set<java.sql.Statement> statements =
+            new LinkedHashSet<java.sql.Statement>();
+        for (HeaderInfo headerInfo : headerMap.values()) {
+            if (headerInfo.clients.remove(exec)
+                && headerInfo.clients.isEmpty()
+                && headerInfo.statement != null)
+            {
+                statements.add(headerInfo.statement);
+            }
+        }
+        if (statements.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // A statement that loads several segments must keep running while
+        // any of them has a client.
+        for (HeaderInfo headerInfo : headerMap.values()) {
+            if (!headerInfo.clients.isEmpty()) {
+                statements.remove(headerInfo.statement);
+            }
+        }
+        return new ArrayList<java.sql.Statement>(statements);
+    }
+
     public SegmentBuilder.SegmentConverter getConverter(
         String schemaName,
         ByteString schemaChecksum,
@@ -565,6 +641,8 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
         // set first. These will contain fewer cells, and therefore be less
         // effort to roll up.
 
+        final boolean partialRollup =
+            MondrianProperties.instance().EnablePartialRollup.get();
         final List<List<SegmentHeader>> list =
             new ArrayList<List<SegmentHeader>>();
         final List<BitKey> ancestors =
@@ -586,7 +664,11 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
             // Of the columns that are being aggregated away, are all of
             // them wildcarded? If so, this segment is a match. If not, we
             // will need to combine with other segments later.
-            findRollupCandidatesAmong(coordinates, list, headers);
+            if (partialRollup) {
+                findRollupCandidatesAmong(coordinates, list, headers);
+            } else {
+                findStrictRollupCandidatesAmong(coordinates, list, headers);
+            }
         }
         return list;
     }
@@ -637,6 +719,11 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
      * prove covering, it is sufficient to prove that all combinations involving
      * Canada are covered.</p>
      *
+     * <p>A segment whose header has an excluded region does not contain the
+     * excluded values, and (because {@link SegmentBuilder#rollup} leaves out
+     * excluded cells) can still be used if the region constrains only
+     * columns that are aggregated away.</p>
+     *
      * @param coordinates Coordinates
      * @param list List to write candidates to
      * @param headers Headers of candidate segments
@@ -645,6 +732,49 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
         Map<String, Comparable> coordinates,
         List<List<SegmentHeader>> list,
         List<SegmentHeader> headers)
+    {
+        final List<SegmentHeader> matchingHeaders =
+            new ArrayList<SegmentHeader>();
+        for (SegmentHeader header : headers) {
+            if (isExcludedFromRollup(header)) {
+                continue;
+            }
+            final List<String> columns = rollupColumns(header, coordinates);
+            if (columns == null) {
+                continue;
+            }
+            if (columns.isEmpty()) {
+                list.add(Collections.singletonList(header));
+            } else {
+                matchingHeaders.add(header);
+            }
+        }
+        if (matchingHeaders.isEmpty()) {
+            return;
+        }
+        final Cover cover =
+            new Cover(matchingHeaders, headers, coordinates, false);
+        if (cover.uncovered.isEmpty()) {
+            list.add(cover.used);
+        }
+    }
+
+    /**
+     * Finds rollup candidates among a list of headers with the same
+     * dimensionality, when partial rollup is disabled.
+     *
+     * <p>Unlike {@link #findRollupCandidatesAmong}, skips headers that have
+     * excluded regions, and requires that the segments mention as many
+     * values of each column that is aggregated away as the column has.</p>
+     *
+     * @param coordinates Coordinates
+     * @param list List to write candidates to
+     * @param headers Headers of candidate segments
+     */
+    private void findStrictRollupCandidatesAmong(
+        Map<String, Comparable> coordinates,
+        List<List<SegmentHeader>> list,
+        List<SegmentHeader> headers)
     {
         final List<Pair<SegmentHeader, List<SegmentColumn>>> matchingHeaders =
             new ArrayList<Pair<SegmentHeader, List<SegmentColumn>>>();
@@ -653,7 +783,9 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
             // Skip headers that have exclusions.
             //
             // TODO: This is a bit harsh.
-            if (!header.getExcludedRegions().isEmpty()) {
+            if (!header.getExcludedRegions().isEmpty()
+                || isExcludedFromRollup(header))
+            {
                 continue;
             }
 
@@ -736,7 +868,8 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
                         column.columnExpression);
                 if (column1.getValues() == null) {
                     // Wildcard. Mark all values as present.
-                    for (Entry<Comparable, BitSet> entry : valueMap.entrySet())
+                    for (Map.Entry<Comparable, BitSet> entry
+                        : valueMap.entrySet())
                     {
                         for (int pos = 0;
                             pos < entry.getValue().cardinality();
@@ -806,8 +939,12 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
         final CartesianProductList<Comparable> tuples =
             new CartesianProductList<Comparable>(valueLists);
         final List<SegmentHeader> usedSegments = new ArrayList<SegmentHeader>();
+        // Only segments that contain the requested coordinates may be used.
         final List<SegmentHeader> unusedSegments =
-            new ArrayList<SegmentHeader>(headers);
+            new ArrayList<SegmentHeader>();
+        for (SegmentHeader header : Pair.leftIter(matchingHeaders)) {
+            unusedSegments.add(header);
+        }
         tupleLoop:
         for (List<Comparable> tuple : tuples) {
             // If the value combination is handled by one of the used segments,
@@ -833,7 +970,7 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
         list.add(usedSegments);
     }
 
-    private boolean contains(
+    private static boolean contains(
         SegmentHeader segment,
         List<Comparable> values,
         List<String> columns)
@@ -850,6 +987,463 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
         return true;
     }
 
+    /**
+     * Returns the columns of a segment that are aggregated away when rolling
+     * up to the given coordinates and whose values are restricted, by a list
+     * of values or by an excluded region; or null if the segment cannot be
+     * used for the rollup.
+     *
+     * @param header Segment header
+     * @param coordinates Coordinates
+     * @return List of column expressions, or null
+     */
+    private static List<String> rollupColumns(
+        SegmentHeader header,
+        Map<String, Comparable> coordinates)
+    {
+        final List<String> columns = new ArrayList<String>();
+        for (SegmentColumn column : header.getConstrainedColumns()) {
+            final SegmentColumn excluded =
+                header.getExcludedRegion(column.columnExpression);
+
+            // REVIEW: How are null key values represented in coordinates?
+            // Assuming that they are represented by null ref.
+            if (coordinates.containsKey(column.columnExpression)) {
+                // Matching column. Will not be aggregated away. Needs
+                // to be in range. If some of its values are excluded, the
+                // rolled up segment would claim cells that it does not have.
+                if (excluded != null) {
+                    return null;
+                }
+                Comparable value = coordinates.get(column.columnExpression);
+                if (value == null) {
+                    value = RolapUtil.sqlNullValue;
+                }
+                if (column.values != null && !column.values.contains(value)) {
+                    return null;
+                }
+            } else if (column.values != null || excluded != null) {
+                // Non-matching column. Will be aggregated away. Needs
+                // to be combined with other segments to have all values.
+                columns.add(column.columnExpression);
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Returns whether a segment contains cells with a given value of a
+     * column. A segment does not contain the values in its excluded region.
+     *
+     * <p>A null value stands for all values that no segment mentions; only
+     * a segment whose column is wildcarded contains those.</p>
+     *
+     * @param header Segment header
+     * @param columnExpression Column expression
+     * @param value Value, or null
+     * @return Whether segment contains cells with value
+     */
+    private static boolean contains(
+        SegmentHeader header,
+        String columnExpression,
+        Comparable value)
+    {
+        final SegmentColumn excluded =
+            header.getExcludedRegion(columnExpression);
+        if (excluded != null
+            && (excluded.values == null
+                || (value != null && excluded.values.contains(value))))
+        {
+            return false;
+        }
+        final SegmentColumn column =
+            header.getConstrainedColumn(columnExpression);
+        return column.values == null
+            || (value != null && column.values.contains(value));
+    }
+
+    public PartialRollup findPartialRollup(
+        String schemaName,
+        ByteString schemaChecksum,
+        String cubeName,
+        String measureName,
+        String rolapStarFactTableName,
+        BitKey constrainedColsBitKey,
+        Map<String, Comparable> coordinates,
+        List<String> compoundPredicates)
+    {
+        final List factKey = makeFactKey(
+            schemaName,
+            schemaChecksum,
+            cubeName,
+            rolapStarFactTableName,
+            measureName,
+            compoundPredicates);
+        final FactInfo factInfo = factMap.get(factKey);
+        if (factInfo == null) {
+            return null;
+        }
+        for (BitKey bitKey
+            : factInfo.bitkeyPoset.getAncestors(constrainedColsBitKey))
+        {
+            final List bitkeyKey = makeBitkeyKey(
+                schemaName,
+                schemaChecksum,
+                cubeName,
+                rolapStarFactTableName,
+                bitKey,
+                measureName,
+                compoundPredicates);
+            final List<SegmentHeader> headers = bitkeyMap.get(bitkeyKey);
+            assert headers != null : "bitkeyPoset / bitkeyMap inconsistency";
+
+            // Group segments by their constraints on the columns that are
+            // kept. The cells of the rolled up segment are complete only if
+            // the segments, and the region loaded to complete them, have the
+            // same values of those columns.
+            final Map<List<SegmentColumn>, List<SegmentHeader>> groups =
+                new LinkedHashMap<List<SegmentColumn>, List<SegmentHeader>>();
+            for (SegmentHeader header : headers) {
+                if (isExcludedFromRollup(header)) {
+                    continue;
+                }
+                final List<String> columns =
+                    rollupColumns(header, coordinates);
+                if (columns == null || columns.isEmpty()) {
+                    continue;
+                }
+                final List<SegmentColumn> keptColumns =
+                    new ArrayList<SegmentColumn>();
+                for (SegmentColumn column : header.getConstrainedColumns()) {
+                    if (coordinates.containsKey(column.columnExpression)) {
+                        keptColumns.add(column);
+                    }
+                }
+                List<SegmentHeader> group = groups.get(keptColumns);
+                if (group == null) {
+                    group = new ArrayList<SegmentHeader>();
+                    groups.put(keptColumns, group);
+                }
+                group.add(header);
+            }
+
+            for (List<SegmentHeader> group : groups.values()) {
+                final Cover cover =
+                    new Cover(group, headers, coordinates, true);
+                if (cover.used.isEmpty() || cover.uncovered.isEmpty()) {
+                    continue;
+                }
+                final List<SegmentColumn> region =
+                    cover.uncoveredRegion(cover.used.get(0));
+                if (region != null) {
+                    return new PartialRollup(cover.used, bitKey, region);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Works out which combinations of values of the aggregated-away columns
+     * are covered by a list of segments of the same dimensionality, and
+     * chooses segments to cover them.
+     *
+     * <p>See {@link #findRollupCandidatesAmong} for the algorithm.</p>
+     */
+    private static class Cover {
+        private final List<SegmentHeader> headers;
+
+        /**
+         * Columns that are aggregated away and that are restricted in at
+         * least one segment.
+         */
+        private final List<String> columns = new ArrayList<String>();
+
+        /**
+         * For each column, the equivalence classes of its values. Each class
+         * is represented by the set of segments that contain its values.
+         */
+        private final List<List<BitSet>> classes =
+            new ArrayList<List<BitSet>>();
+
+        /**
+         * For each column, the values in each equivalence class; null for the
+         * class of values that no segment mentions.
+         */
+        private final List<List<SortedSet<Comparable>>> classValues =
+            new ArrayList<List<SortedSet<Comparable>>>();
+
+        /** Segments chosen to cover the combinations. */
+        final List<SegmentHeader> used = new ArrayList<SegmentHeader>();
+
+        /**
+         * Combinations of equivalence classes, one per column, that are not
+         * covered by the chosen segments.
+         */
+        final List<List<Integer>> uncovered = new ArrayList<List<Integer>>();
+
+        /**
+         * Creates a Cover.
+         *
+         * @param headers Segments that contain the coordinates
+         * @param allHeaders All segments of the same dimensionality; the
+         *     values that they mention are the known values of each column
+         * @param coordinates Coordinates
+         * @param disjoint Whether the chosen segments must not overlap
+         */
+        Cover(
+            List<SegmentHeader> headers,
+            List<SegmentHeader> allHeaders,
+            Map<String, Comparable> coordinates,
+            boolean disjoint)
+        {
+            this.headers = headers;
+            for (SegmentHeader header : headers) {
+                for (String column : rollupColumns(header, coordinates)) {
+                    if (!columns.contains(column)) {
+                        columns.add(column);
+                    }
+                }
+            }
+            for (String column : columns) {
+                addClasses(column, allHeaders);
+            }
+
+            // Iterate over every combination of classes, and make sure that
+            // some segment can satisfy each.
+            //
+            // TODO: A greedy algorithm would probably be better. Rather than
+            // adding the first segment that contains a particular value
+            // combination, add the segment that contains the most value
+            // combinations that we are are not currently covering.
+            final List<List<Integer>> ordinalLists =
+                new ArrayList<List<Integer>>();
+            for (List<BitSet> columnClasses : classes) {
+                final List<Integer> ordinals = new ArrayList<Integer>();
+                for (int i = 0; i < columnClasses.size(); i++) {
+                    ordinals.add(i);
+                }
+                ordinalLists.add(ordinals);
+            }
+            final BitSet usedBits = new BitSet();
+            tupleLoop:
+            for (List<Integer> tuple
+                : new CartesianProductList<Integer>(ordinalLists))
+            {
+                // Which segments contain this combination?
+                final BitSet bitSet = new BitSet();
+                bitSet.set(0, headers.size());
+                for (int i = 0; i < tuple.size(); i++) {
+                    bitSet.and(classes.get(i).get(tuple.get(i)));
+                }
+
+                // If the combination is handled by one of the used segments,
+                // great!
+                if (bitSet.intersects(usedBits)) {
+                    continue;
+                }
+
+                // Does one of the unused segments contain it? Use the first
+                // one we find.
+                for (int h = bitSet.nextSetBit(0);
+                    h >= 0;
+                    h = bitSet.nextSetBit(h + 1))
+                {
+                    if (!disjoint || !overlaps(h, usedBits)) {
+                        usedBits.set(h);
+                        used.add(headers.get(h));
+                        continue tupleLoop;
+                    }
+                }
+                uncovered.add(tuple);
+            }
+        }
+
+        /**
+         * Computes the equivalence classes of the values of a column.
+         *
+         * <p>Values that are used identically in segments are in the same
+         * class. For instance, given segments Sx over column c,</p>
+         *
+         * <pre>
+         * S1: c = {1, 2, 3, 4}
+         * S2: c = {3, 4, 5}
+         * S3: c = {3, 6, 7, 8}
+         * </pre>
+         *
+         * <p>the equivalence classes are:</p>
+         *
+         * <pre>
+         * E1 = {1, 2} used in {S1}
+         * E2 = {3} used in {S1, S2, S3}
+         * E3 = {4} used in {S1, S2}
+         * E4 = {5} used in {S2}
+         * E5 = {6, 7, 8} used in {S3}
+         * </pre>
+         *
+         * <p>The equivalence classes reduce the size of the search space. (In
+         * this case, from 8 values to 5 classes.) We can use any value in a
+         * class to stand for all values.</p>
+         *
+         * @param column Column expression
+         * @param allHeaders Segments whose values are known values
+         */
+        private void addClasses(
+            String column,
+            List<SegmentHeader> allHeaders)
+        {
+            // Gather the values mentioned by the segments, and the number of
+            // values of the column in the database.
+            final SortedSet<Comparable> values =
+                new TreeSet<Comparable>(RolapUtil.ROLAP_COMPARATOR);
+            int valueCount = 0;
+            for (SegmentHeader header : allHeaders) {
+                final SegmentColumn column1 =
+                    header.getConstrainedColumn(column);
+                valueCount = Math.max(valueCount, column1.getValueCount());
+                if (column1.values != null) {
+                    values.addAll(column1.values);
+                }
+                final SegmentColumn excluded =
+                    header.getExcludedRegion(column);
+                if (excluded != null && excluded.values != null) {
+                    values.addAll(excluded.values);
+                }
+            }
+
+            // If we don't know the number of values, or if the segments do not
+            // mention all of them, the other values form a class of their own.
+            // It is represented by the null value.
+            final List<Comparable> valueList =
+                new ArrayList<Comparable>(values);
+            if (valueCount <= 0 || values.size() < valueCount) {
+                valueList.add(null);
+            }
+
+            final List<BitSet> columnClasses = new ArrayList<BitSet>();
+            final List<SortedSet<Comparable>> columnClassValues =
+                new ArrayList<SortedSet<Comparable>>();
+            final Map<BitSet, SortedSet<Comparable>> classMap =
+                new HashMap<BitSet, SortedSet<Comparable>>();
+            for (Comparable value : valueList) {
+                final BitSet bitSet = new BitSet();
+                for (int h = 0; h < headers.size(); h++) {
+                    if (contains(headers.get(h), column, value)) {
+                        bitSet.set(h);
+                    }
+                }
+                if (value == null) {
+                    columnClasses.add(bitSet);
+                    columnClassValues.add(null);
+                    continue;
+                }
+                SortedSet<Comparable> classValueSet = classMap.get(bitSet);
+                if (classValueSet == null) {
+                    classValueSet = new TreeSet<Comparable>();
+                    classMap.put(bitSet, classValueSet);
+                    columnClasses.add(bitSet);
+                    columnClassValues.add(classValueSet);
+                }
+                classValueSet.add(value);
+            }
+            classes.add(columnClasses);
+            classValues.add(columnClassValues);
+        }
+
+        /**
+         * Returns whether a segment has cells in common with any of a set of
+         * segments. Two segments of the same dimensionality overlap if, for
+         * every column, they both contain some class of values.
+         */
+        private boolean overlaps(int h, BitSet others) {
+            for (int g = others.nextSetBit(0);
+                g >= 0;
+                g = others.nextSetBit(g + 1))
+            {
+                if (overlaps(h, g)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean overlaps(int h, int g) {
+            columnLoop:
+            for (List<BitSet> columnClasses : classes) {
+                for (BitSet bitSet : columnClasses) {
+                    if (bitSet.get(h) && bitSet.get(g)) {
+                        continue columnLoop;
+                    }
+                }
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Returns the region that consists of the uncovered combinations, or
+         * null if they do not form a region. They form a region if they are
+         * the cartesian product of a set of values of each column, and if
+         * those values can be listed.
+         *
+         * @param header Segment whose columns to use
+         * @return One column for each column of the segment, or null
+         */
+        List<SegmentColumn> uncoveredRegion(SegmentHeader header) {
+            final List<BitSet> ordinalSets = new ArrayList<BitSet>();
+            for (int i = 0; i < columns.size(); i++) {
+                ordinalSets.add(new BitSet());
+            }
+            for (List<Integer> tuple : uncovered) {
+                for (int i = 0; i < tuple.size(); i++) {
+                    ordinalSets.get(i).set(tuple.get(i));
+                }
+            }
+            long combinationCount = 1;
+            for (BitSet ordinalSet : ordinalSets) {
+                combinationCount *= ordinalSet.cardinality();
+            }
+            if (combinationCount != uncovered.size()) {
+                return null;
+            }
+
+            final List<SegmentColumn> region = new ArrayList<SegmentColumn>();
+            for (SegmentColumn column : header.getConstrainedColumns()) {
+                final int i = columns.indexOf(column.columnExpression);
+                if (i < 0) {
+                    // Column is kept, or is wildcarded in all segments.
+                    region.add(column);
+                    continue;
+                }
+                final BitSet ordinalSet = ordinalSets.get(i);
+                if (ordinalSet.cardinality() == classes.get(i).size()) {
+                    // All values are missing.
+                    region.add(
+                        new SegmentColumn(
+                            column.columnExpression, column.valueCount, null));
+                    continue;
+                }
+                final SortedSet<Comparable> values = new TreeSet<Comparable>();
+                for (int k = ordinalSet.nextSetBit(0);
+                    k >= 0;
+                    k = ordinalSet.nextSetBit(k + 1))
+                {
+                    final SortedSet<Comparable> classValueSet =
+                        classValues.get(i).get(k);
+                    if (classValueSet == null) {
+                        // We cannot list the values that no segment mentions.
+                        return null;
+                    }
+                    values.addAll(classValueSet);
+                }
+                region.add(
+                    new SegmentColumn(
+                        column.columnExpression, column.valueCount, values));
+            }
+            return region;
+        }
+    }
+
     private static class FactInfo {
         private static final PartiallyOrderedSet.Ordering<BitKey> ORDERING =
             new PartiallyOrderedSet.Ordering<BitKey>() {
@@ -882,9 +1476,30 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
         private SlotFuture<SegmentBody> slot;
         private boolean removeAfterLoad;
 
+        /**
+         * Whether the segment cannot be rolled up; see
+         * {@link SegmentCacheIndex#excludeFromRollup}.
+         */
+        private boolean excludedFromRollup;
+
+        /**
+         * Executions that are waiting for the segment to load.
+         */
+        private final List<Execution> clients = new ArrayList<Execution>();
+
+        /**
+         * SQL statement that is loading the segment, or null.
+         */
+        private java.sql.Statement statement;
+
         HeaderInfo(SlotFuture<SegmentBody> slot) {
             this.slot = slot;
         }
+
+        void clearClients() {
+            clients.clear();
+            statement = null;
+        }
     }
 }
 
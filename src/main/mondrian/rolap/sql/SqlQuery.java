@@ -16,6 +16,7 @@ import mondrian.olap.*;
 import mondrian.rolap.*;
 import mondrian.spi.Dialect;
 import mondrian.spi.DialectManager;
+import mondrian.spi.impl.JdbcDialectImpl;
 import mondrian.util.Pair;
 
 import java.util.*;
@@ -76,6 +77,14 @@ public class SqlQuery {
     private boolean distinct;
 
     private final ClauseList select;
+
+    /**
+     * Expression and alias (possibly null) of each item in the select
+     * clause. Used to emulate grouping sets.
+     */
+    private final List<Pair<String, String>> selectItems =
+        new ArrayList<Pair<String, String>>();
+
     private final FromClauseList from;
     private final ClauseList where;
     private final ClauseList groupBy;
@@ -84,6 +93,9 @@ public class SqlQuery {
     private final List<ClauseList> groupingSets;
     private final ClauseList groupingFunctions;
 
+    /** Clause that limits the rows returned, or null if there is no limit. */
+    private String limit;
+
     private final List<SqlStatement.Type> types =
         new ArrayList<SqlStatement.Type>();
 
@@ -179,6 +191,51 @@ public class SqlQuery {
         this.distinct = distinct;
     }
 
+    /**
+     * Limits the rows returned by this query, if the dialect can do so.
+     *
+     * <p>The limit is applied after the rows are sorted, so the query should
+     * have an ORDER BY clause if the rows are to be returned a page at a time.
+     *
+     * @param offset Number of rows to skip
+     * @param limit Maximum number of rows to return; must be positive
+     * @return Whether the dialect can limit the rows of a query; if false,
+     *   the caller must skip and limit the rows itself
+     */
+    public boolean setLimit(int offset, int limit) {
+        assert offset >= 0 && limit > 0;
+        this.limit = generateLimitOffset(dialect, offset, limit);
+        return this.limit != null;
+    }
+
+    /**
+     * Returns whether a dialect can limit the rows returned by a query; see
+     * {@link #setLimit(int, int)}.
+     *
+     * @param dialect Dialect
+     * @return Whether the dialect can limit the rows of a query
+     */
+    public static boolean supportsLimit(Dialect dialect) {
+        return generateLimitOffset(dialect, 0, 1) != null;
+    }
+
+    /**
+     * Generates the clause that limits the rows of a query, or returns null
+     * if the dialect cannot. Only dialects that extend
+     * {@link JdbcDialectImpl} can.
+     */
+    private static String generateLimitOffset(
+        Dialect dialect,
+        int offset,
+        int limit)
+    {
+        if (dialect instanceof JdbcDialectImpl) {
+            return ((JdbcDialectImpl) dialect).generateLimitOffset(
+                offset, limit);
+        }
+        return null;
+    }
+
     /**
      * Chooses whether table optimization hints may be used
      * (assuming the dialect supports it).
@@ -524,6 +581,7 @@ public class SqlQuery {
         }
 
         select.add(buf.toString());
+        selectItems.add(Pair.of(expression, alias));
         addType(type);
         columnAliases.put(expression, alias);
         return alias;
@@ -643,6 +701,10 @@ public class SqlQuery {
      * @param prefix Prefix for each line
      */
     public void toBuffer(StringBuilder buf, String prefix) {
+        if (!groupingSets.isEmpty() && !dialect.supportsGroupingSets()) {
+            unionToBuffer(buf, prefix);
+            return;
+        }
         final String first = distinct ? "select distinct " : "select ";
         select.toBuffer(buf, generateFormattedSql, prefix, first, ", ", "", "");
         groupingFunctionsToBuffer(buf, prefix);
@@ -667,6 +729,124 @@ public class SqlQuery {
             buf, generateFormattedSql, prefix, " having ", " and ", "", "");
         orderBy.toBuffer(
             buf, generateFormattedSql, prefix, " order by ", ", ", "", "");
+        limitToBuffer(buf, prefix);
+    }
+
+    /**
+     * Returns whether queries with grouping sets can be emulated, using
+     * <code>UNION ALL</code>, for a dialect that does not support
+     * <code>GROUPING SETS</code>.
+     *
+     * <p>The emulated query selects NULL for the columns that a branch rolls
+     * up. Derby and DB2 do not allow an untyped NULL in a select list, and
+     * the SQL types of the columns are not known, so queries for those
+     * databases are not emulated.
+     *
+     * @param dialect Dialect
+     * @return Whether grouping sets can be emulated
+     */
+    public static boolean canEmulateGroupingSets(Dialect dialect) {
+        switch (dialect.getDatabaseProduct().getFamily()) {
+        case DERBY:
+        case DB2:
+            return false;
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * Writes this SqlQuery as the <code>UNION ALL</code> of one query per
+     * grouping set, for dialects that do not support <code>GROUPING
+     * SETS</code>.
+     *
+     * <p>Each branch has the same FROM, WHERE and HAVING clauses, and groups
+     * by the columns of its grouping set. Columns that the branch rolls up are
+     * selected as NULL, and the grouping functions become the constants 1 (if
+     * the column is rolled up) and 0, so the result has the same shape as a
+     * query with <code>GROUPING SETS</code>. The first grouping set is the
+     * most detailed, so the first branch determines the column types.
+     *
+     * @see #canEmulateGroupingSets(Dialect)
+     *
+     * @param buf String builder
+     * @param prefix Prefix for each line
+     */
+    private void unionToBuffer(StringBuilder buf, String prefix) {
+        final Set<String> groupingColumns = new HashSet<String>();
+        for (ClauseList groupingSet : groupingSets) {
+            groupingColumns.addAll(groupingSet);
+        }
+        final String first = distinct ? "select distinct " : "select ";
+        int n = 0;
+        for (ClauseList groupingSet : groupingSets) {
+            if (n++ > 0) {
+                if (generateFormattedSql) {
+                    buf.append(Util.nl).append(prefix).append("union all")
+                        .append(Util.nl).append(prefix);
+                } else {
+                    buf.append(" union all ");
+                }
+            }
+            final ClauseList branchSelect = new ClauseList(true);
+            for (int i = 0; i < selectItems.size(); i++) {
+                final Pair<String, String> item = selectItems.get(i);
+                if (!groupingColumns.contains(item.left)
+                    || groupingSet.contains(item.left))
+                {
+                    branchSelect.add(select.get(i));
+                    continue;
+                }
+                final StringBuilder itemBuf = new StringBuilder("null");
+                if (item.right != null) {
+                    itemBuf.append(" as ");
+                    dialect.quoteIdentifier(item.right, itemBuf);
+                }
+                branchSelect.add(itemBuf.toString());
+            }
+            int g = 0;
+            for (String groupingFunction : groupingFunctions) {
+                final StringBuilder itemBuf = new StringBuilder(
+                    groupingSet.contains(groupingFunction) ? "0" : "1");
+                itemBuf.append(" as ");
+                dialect.quoteIdentifier("g" + g++, itemBuf);
+                branchSelect.add(itemBuf.toString());
+            }
+            final ClauseList branchGroupBy = new ClauseList(false);
+            for (String column : groupingSet) {
+                final String alias = columnAliases.get(column);
+                if (alias != null && dialect.requiresGroupByAlias()) {
+                    branchGroupBy.add(dialect.quoteIdentifier(alias));
+                } else {
+                    branchGroupBy.add(column);
+                }
+            }
+            branchSelect.toBuffer(
+                buf, generateFormattedSql, prefix, first, ", ", "", "");
+            from.toBuffer(
+                buf, generateFormattedSql, prefix, " from ", ", ", "", "");
+            where.toBuffer(
+                buf, generateFormattedSql, prefix, " where ", " and ", "", "");
+            branchGroupBy.toBuffer(
+                buf, generateFormattedSql, prefix, " group by ", ", ", "", "");
+            having.toBuffer(
+                buf, generateFormattedSql, prefix, " having ", " and ", "", "");
+        }
+        orderBy.toBuffer(
+            buf, generateFormattedSql, prefix, " order by ", ", ", "", "");
+        limitToBuffer(buf, prefix);
+    }
+
+    private void limitToBuffer(StringBuilder buf, String prefix) {
+        if (limit == null) {
+            return;
+        }
+        if (generateFormattedSql) {
+            buf.append(Util.nl).append(prefix);
+        } else {
+            buf.append(' ');
+        }
+        buf.append(limit);
     }
 
     private void groupingFunctionsToBuffer(StringBuilder buf, String prefix) {
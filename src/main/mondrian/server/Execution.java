@@ -12,6 +12,7 @@ package mondrian.server;
 import mondrian.olap.*;
 import mondrian.resource.MondrianResource;
 import mondrian.rolap.RolapConnection;
+import mondrian.rolap.RolapResultShepherd;
 import mondrian.server.monitor.*;
 
 import org.apache.log4j.MDC;
@@ -77,6 +78,17 @@ public class Execution {
     private int cellCacheMissCount;
     private int cellCachePendingCount;
 
+    /**
+     * Estimated number of bytes of memory used by this execution. All
+     * operations on it and on {@link #memoryReleased} must be synchronized
+     * on {@link #memoryLock}.
+     */
+    private long memoryUsed;
+    private boolean memoryReleased;
+    private final Object memoryLock = new Object();
+
+    private static final long MEGABYTE = 1024L * 1024L;
+
     /**
      * Execution id, global within this JVM instance.
      */
@@ -175,7 +187,9 @@ public class Execution {
                 phase,
                 hitCountInc,
                 missCountInc,
-                pendingCountInc));
+                pendingCountInc,
+                getMemoryUsed()));
+        server.getResultShepherd().phaseEnded(this, phase, missCount);
         ++phase;
         this.cellCacheHitCount = hitCount;
         this.cellCacheMissCount = missCount;
@@ -193,6 +207,7 @@ public class Execution {
             parent.cancel();
         }
         fireExecutionEndEvent();
+        getShepherd().cancel(this);
     }
 
     /**
@@ -207,6 +222,116 @@ public class Execution {
         assert msg != null;
         this.outOfMemoryMsg = msg;
         this.state = State.ERROR;
+        getShepherd().cancel(this);
+    }
+
+    /**
+     * Records that this execution has allocated, or released, memory for its
+     * tuple lists, cells, or the segments loaded on its behalf.
+     *
+     * <p>If the execution exceeds its budget,
+     * {@link MondrianProperties#QueryMemoryLimit}, or takes its connection
+     * over the connection's budget,
+     * {@link MondrianProperties#ConnectionMemoryLimit}, this execution, and
+     * no other, fails as if it had run out of memory: the next call to
+     * {@link #checkCancelOrTimeout()} throws
+     * {@link MemoryLimitExceededException}.</p>
+     *
+     * <p>This method does not throw, because it may be called by a thread
+     * that is working for several executions, such as a thread that loads
+     * segments. A user thread that can stop early should call
+     * {@link #checkCancelOrTimeout()} afterwards.</p>
+     *
+     * @param bytes Estimated number of bytes; negative if memory was released
+     */
+    public void allocateMemory(long bytes) {
+        if (statement == null) {
+            return;
+        }
+        final long used;
+        final long connectionUsed;
+        synchronized (memoryLock) {
+            if (memoryReleased || state != State.RUNNING) {
+                return;
+            }
+            if (bytes < -memoryUsed) {
+                // Never give back more than was charged.
+                bytes = -memoryUsed;
+            }
+            used = memoryUsed += bytes;
+            connectionUsed =
+                statement.getMondrianConnection().allocateMemory(bytes);
+        }
+        if (bytes <= 0) {
+            return;
+        }
+        final MondrianProperties props = MondrianProperties.instance();
+        final long queryLimit = props.QueryMemoryLimit.get() * MEGABYTE;
+        final long connectionLimit =
+            props.ConnectionMemoryLimit.get() * MEGABYTE;
+        if (queryLimit > 0 && used > queryLimit) {
+            releaseMemory();
+            setOutOfMemory(
+                MondrianResource.instance().QueryMemoryLimitExceeded.str(
+                    used, queryLimit));
+        } else if (connectionLimit > 0 && connectionUsed > connectionLimit) {
+            releaseMemory();
+            setOutOfMemory(
+                MondrianResource.instance().ConnectionMemoryLimitExceeded.str(
+                    connectionUsed, connectionLimit));
+        }
+    }
+
+    /**
+     * Gives back the memory allocated since a mark, because the data
+     * structures allocated since then are no longer reachable. The mark is
+     * a value returned by {@link #getMemoryUsed()}.
+     *
+     * <p>Memory is charged as it is allocated, so the budget is enforced
+     * against the high-water mark of live allocations; calling this method
+     * when temporary structures are discarded stops their memory from
+     * accumulating.</p>
+     *
+     * @param mark Memory used at the mark
+     */
+    public void releaseMemoryTo(long mark) {
+        final long bytes;
+        synchronized (memoryLock) {
+            bytes = memoryUsed - mark;
+        }
+        if (bytes > 0) {
+            allocateMemory(-bytes);
+        }
+    }
+
+    /**
+     * Returns the estimated number of bytes of memory used by this
+     * execution.
+     *
+     * @return Estimated number of bytes
+     */
+    public long getMemoryUsed() {
+        synchronized (memoryLock) {
+            return memoryUsed;
+        }
+    }
+
+    /**
+     * Gives the memory used by this execution back to its connection. Called
+     * when the execution ends, is canceled, or fails; the memory it
+     * allocates after that is not counted.
+     */
+    private void releaseMemory() {
+        if (statement == null) {
+            return;
+        }
+        synchronized (memoryLock) {
+            if (memoryReleased) {
+                return;
+            }
+            memoryReleased = true;
+            statement.getMondrianConnection().allocateMemory(-memoryUsed);
+        }
     }
 
     /**
@@ -280,6 +405,13 @@ public class Execution {
         if (parent != null) {
             parent.cancelSqlStatements();
         }
+        // Statements that load segments are not registered with this
+        // execution, because other executions may be waiting for the same
+        // segments. The cache manager cancels them when the last execution
+        // waiting for them goes away.
+        statement.getMondrianConnection().getServer().getAggregationManager()
+            .cacheMgr.cancel(this);
+        releaseMemory();
         synchronized (sqlStateLock) {
             if (sqlState == SqlState.CLEAN) {
                 return;
@@ -305,12 +437,23 @@ public class Execution {
         this.state = State.DONE;
         statements.clear();
         fireExecutionEndEvent();
+        releaseMemory();
     }
 
     public final long getStartTime() {
         return startTimeMillis;
     }
 
+    /**
+     * Returns the interval after which this execution times out, or 0 if it
+     * has no timeout.
+     *
+     * @return Timeout interval in milliseconds
+     */
+    public final long getTimeoutIntervalMillis() {
+        return timeoutIntervalMillis;
+    }
+
     public final mondrian.server.Statement getMondrianStatement() {
         return statement;
     }
@@ -345,6 +488,11 @@ public class Execution {
         }
     }
 
+    private RolapResultShepherd getShepherd() {
+        return statement.getMondrianConnection().getServer()
+            .getResultShepherd();
+    }
+
     private void fireExecutionEndEvent() {
         final RolapConnection connection =
             statement.getMondrianConnection();
@@ -360,7 +508,8 @@ public class Execution {
                 this.state,
                 this.cellCacheHitCount,
                 this.cellCacheMissCount,
-                this.cellCachePendingCount));
+                this.cellCachePendingCount,
+                getMemoryUsed()));
     }
 
     private void fireExecutionStartEvent() {
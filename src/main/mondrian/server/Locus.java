@@ -62,6 +62,33 @@ public class Locus {
         return THREAD_LOCAL.get().peek();
     }
 
+    /**
+     * Returns whether the current thread has no locus; if so, {@link #peek()}
+     * would throw.
+     */
+    public static boolean isEmpty() {
+        return THREAD_LOCAL.get().isEmpty();
+    }
+
+    /**
+     * Charges memory to the execution of the current thread, if there is
+     * one, and throws if that execution has exceeded its memory budget (or
+     * has been canceled or timed out).
+     *
+     * @param bytes Estimated number of bytes
+     *
+     * @see Execution#allocateMemory(long)
+     */
+    public static void allocateMemory(long bytes) {
+        final Stack<Locus> stack = THREAD_LOCAL.get();
+        if (stack.isEmpty()) {
+            return;
+        }
+        final Execution execution = stack.peek().execution;
+        execution.allocateMemory(bytes);
+        execution.checkCancelOrTimeout();
+    }
+
     public static <T> T execute(
         RolapConnection connection,
         String component,
@@ -14,6 +14,7 @@ import mondrian.olap.MondrianServer;
 import mondrian.olap4j.CatalogFinder;
 import mondrian.resource.MondrianResource;
 import mondrian.rolap.RolapConnection;
+import mondrian.rolap.RolapResultCache;
 import mondrian.rolap.RolapResultShepherd;
 import mondrian.rolap.RolapSchema;
 import mondrian.rolap.agg.AggregationManager;
@@ -58,6 +59,8 @@ class MondrianServerImpl
 
     private final RolapResultShepherd shepherd;
 
+    private final RolapResultCache resultCache = new RolapResultCache();
+
     /**
      * Map of open connections, by id. Connections are added just after
      * construction, and are removed when they call close. Garbage collection
@@ -199,6 +202,11 @@ class MondrianServerImpl
         return this.shepherd;
     }
 
+    @Override
+    public RolapResultCache getResultCache() {
+        return resultCache;
+    }
+
     public List<String> getKeywords() {
         return KEYWORD_LIST;
     }
@@ -296,6 +304,7 @@ class MondrianServerImpl
         monitor.shutdown();
         repository.shutdown();
         shepherd.shutdown();
+        resultCache.clear();
     }
 
     @Override
@@ -327,6 +327,7 @@ class MonitorImpl
         private int cellCacheSegmentDeleteCount;
         private int cellCacheSegmentCoordinateSum;
         private int cellCacheSegmentCellCount;
+        private long memoryUsed;
 
         public MutableExecutionInfo(
             MutableStatementInfo stmt,
@@ -349,7 +350,8 @@ class MonitorImpl
                 aggSql.endCount,
                 aggSql.rowFetchCount,
                 aggSql.executeNanos,
-                aggSql.cellRequestCount);
+                aggSql.cellRequestCount,
+                memoryUsed);
         }
     }
 
@@ -547,6 +549,7 @@ class MonitorImpl
             exec.cellCacheHitCountDelta = event.hitCount;
             exec.cellCacheMissCountDelta = event.missCount;
             exec.cellCachePendingCountDelta = event.pendingCount;
+            exec.memoryUsed = event.memoryUsed;
         }
 
         public Object visit(ExecutionEndEvent event) {
@@ -588,6 +591,7 @@ class MonitorImpl
             exec.cellCacheHitCountDelta = 0;
             exec.cellCacheMissCountDelta = 0;
             exec.cellCachePendingCountDelta = 0;
+            exec.memoryUsed = event.memoryUsed;
         }
 
         public Object visit(CellCacheSegmentCreateEvent event) {
@@ -20,6 +20,7 @@ public class ExecutionEndEvent extends ExecutionEvent {
     public final int cellCacheHitCount;
     public final int cellCacheMissCount;
     public final int cellCachePendingCount;
+    public final long memoryUsed;
 
     /**
      * Creates an ExecutionEndEvent.
@@ -37,6 +38,8 @@ public class ExecutionEndEvent extends ExecutionEvent {
      * @param cellCacheMissCount Number of cell requests for which cell was
      *   not in cache
      * @param cellCachePendingCount Number of cell requests for which cell was
+     * @param memoryUsed Estimated number of bytes of memory used by the
+     *   execution when it ended
      */
     public ExecutionEndEvent(
         long timestamp,
@@ -48,7 +51,8 @@ public class ExecutionEndEvent extends ExecutionEvent {
         Execution.State state,
         int cellCacheHitCount,
         int cellCacheMissCount,
-        int cellCachePendingCount)
+        int cellCachePendingCount,
+        long memoryUsed)
     {
         super(timestamp, serverId, connectionId, statementId, executionId);
         this.phaseCount = phaseCount;
@@ -56,6 +60,7 @@ public class ExecutionEndEvent extends ExecutionEvent {
         this.cellCacheHitCount = cellCacheHitCount;
         this.cellCacheMissCount = cellCacheMissCount;
         this.cellCachePendingCount = cellCachePendingCount;
+        this.memoryUsed = memoryUsed;
     }
 
     @Override
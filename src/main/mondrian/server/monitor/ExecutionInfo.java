@@ -26,6 +26,13 @@ public class ExecutionInfo extends Info {
     public final long sqlStatementExecuteNanos;
     public final int cellRequestCount;
 
+    /**
+     * Estimated number of bytes of memory used by the execution for its
+     * tuple lists, cells, and the segments loaded on its behalf, as of its
+     * latest phase.
+     */
+    public final long memoryUsed;
+
     public ExecutionInfo(
         long executionId,
         int phaseCount,
@@ -38,7 +45,8 @@ public class ExecutionInfo extends Info {
         int sqlStatementEndCount,
         long sqlStatementRowFetchCount,
         long sqlStatementExecuteNanos,
-        int cellRequestCount)
+        int cellRequestCount,
+        long memoryUsed)
     {
         this.executionId = executionId;
         this.phaseCount = phaseCount;
@@ -52,6 +60,7 @@ public class ExecutionInfo extends Info {
         this.sqlStatementRowFetchCount = sqlStatementRowFetchCount;
         this.sqlStatementExecuteNanos = sqlStatementExecuteNanos;
         this.cellRequestCount = cellRequestCount;
+        this.memoryUsed = memoryUsed;
         assert cellCacheRequestCount
                == cellCacheHitCount
                   + cellCacheMissCount
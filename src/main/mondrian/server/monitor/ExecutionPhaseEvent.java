@@ -23,6 +23,7 @@ public class ExecutionPhaseEvent extends ExecutionEvent {
     public final int hitCount;
     public final int missCount;
     public final int pendingCount;
+    public final long memoryUsed;
 
     /**
      * Creates an ExecutionPhaseEvent.
@@ -36,6 +37,8 @@ public class ExecutionPhaseEvent extends ExecutionEvent {
      * @param hitCount Cache hits this phase
      * @param missCount Cache misses this phase
      * @param pendingCount Cache entries hit but not ready this phase
+     * @param memoryUsed Estimated number of bytes of memory used by the
+     *   execution
      */
     public ExecutionPhaseEvent(
         long timestamp,
@@ -46,13 +49,15 @@ public class ExecutionPhaseEvent extends ExecutionEvent {
         int phase,
         int hitCount,
         int missCount,
-        int pendingCount)
+        int pendingCount,
+        long memoryUsed)
     {
         super(timestamp, serverId, connectionId, statementId, executionId);
         this.phase = phase;
         this.hitCount = hitCount;
         this.missCount = missCount;
         this.pendingCount = pendingCount;
+        this.memoryUsed = memoryUsed;
     }
 
     @Override
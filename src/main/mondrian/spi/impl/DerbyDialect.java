@@ -68,6 +68,10 @@ public class DerbyDialect extends JdbcDialectImpl {
     public boolean supportsGroupByExpressions() {
         return false;
     }
+
+    public String generateLimitOffset(int offset, int limit) {
+        return "offset " + offset + " rows fetch next " + limit + " rows only";
+    }
 }
 
 // End DerbyDialect.java
@@ -885,6 +885,30 @@ public class JdbcDialectImpl implements Dialect {
         return null;
     }
 
+    /**
+     * Generates a clause that limits the rows returned by a query, to be
+     * appended after its ORDER BY clause.
+     *
+     * <p>For example, MySQL and PostgreSQL generate
+     * "<code>limit 10 offset 20</code>", and Derby generates
+     * "<code>offset 20 rows fetch next 10 rows only</code>".
+     *
+     * <p>Dialects that cannot limit the rows of a query return null; the
+     * caller must then skip and limit rows using JDBC.
+     *
+     * <p>This method is not part of the {@link Dialect} interface, so that
+     * dialects that implement that interface directly do not need to change;
+     * callers use {@link mondrian.rolap.sql.SqlQuery#supportsLimit(Dialect)}
+     * to find out whether a dialect can limit rows.
+     *
+     * @param offset Number of rows to skip, or 0 to start from the first row
+     * @param limit Maximum number of rows to return; must be positive
+     * @return Clause, or null if this dialect cannot limit the rows of a query
+     */
+    public String generateLimitOffset(int offset, int limit) {
+        return null;
+    }
+
     public List<StatisticsProvider> getStatisticsProviders() {
         return statisticsProviders;
     }
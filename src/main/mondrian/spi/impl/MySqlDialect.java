@@ -297,6 +297,12 @@ public class MySqlDialect extends JdbcDialectImpl {
         quoteStringLiteral(sb, javaRegex);
         return sb.toString();
     }
+
+    public String generateLimitOffset(int offset, int limit) {
+        return offset > 0
+            ? "limit " + limit + " offset " + offset
+            : "limit " + limit;
+    }
 }
 
 // End MySqlDialect.java
@@ -157,6 +157,12 @@ public class PostgreSqlDialect extends JdbcDialectImpl {
         quoteStringLiteral(sb, javaRegex);
         return sb.toString();
     }
+
+    public String generateLimitOffset(int offset, int limit) {
+        return offset > 0
+            ? "limit " + limit + " offset " + offset
+            : "limit " + limit;
+    }
 }
 
 // End PostgreSqlDialect.java
@@ -0,0 +1,379 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.util;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Compressed set of integers.
+ *
+ * <p>Values are partitioned by their high 16 bits into chunks. A chunk with
+ * few values stores them as a sorted array of their low 16 bits, two bytes
+ * per value; a chunk with more than {@link #MAX_ARRAY} values stores a
+ * bitmap of 2<sup>16</sup> bits (8 KB). So a set of dense keys, such as
+ * customer ids, takes about one bit per possible value, and a sparse set
+ * about two bytes per value.
+ *
+ * <p>The union of two bitmaps is exact; so the number of distinct values in
+ * a coarse cell can be computed from the bitmaps of the finer cells it
+ * contains.
+ *
+ * <p>This class is not thread-safe.
+ *
+ * @author jhyde
+ */
+public class CompressedBitmap implements Serializable {
+    private static final long serialVersionUID = -2386014722180563421L;
+
+    /** Maximum number of values in a chunk stored as an array. */
+    static final int MAX_ARRAY = 4096;
+
+    /** Number of longs in the bitmap of a chunk. */
+    private static final int WORDS = 1 << 10;
+
+    /** Estimated overhead, in bytes, of an object or array. */
+    private static final int OVERHEAD = 16;
+
+    /** High 16 bits of each chunk, sorted. */
+    private char[] keys = new char[4];
+
+    /** Each chunk is either a {@code char[]} or a {@code long[]}. */
+    private Object[] chunks = new Object[4];
+
+    /** Number of values in each chunk. */
+    private int[] counts = new int[4];
+
+    private int chunkCount;
+    private long cardinality;
+    private long sizeInBytes = emptySize();
+
+    /**
+     * Creates an empty bitmap.
+     */
+    public CompressedBitmap() {
+    }
+
+    private static long emptySize() {
+        return 4 * OVERHEAD + 4 * (2 + 4 + 4);
+    }
+
+    /**
+     * Adds a value.
+     *
+     * @param value Value
+     * @return Whether the value was not already present
+     */
+    public boolean add(int value) {
+        final char key = (char) (value >>> 16);
+        final char low = (char) value;
+        int i = findChunk(key);
+        if (i < 0) {
+            i = -i - 1;
+            insertChunk(i, key);
+        }
+        final Object chunk = chunks[i];
+        if (chunk instanceof long[]) {
+            final long[] words = (long[]) chunk;
+            final long bit = 1L << low;
+            if ((words[low >>> 6] & bit) != 0) {
+                return false;
+            }
+            words[low >>> 6] |= bit;
+        } else {
+            char[] values = (char[]) chunk;
+            final int count = counts[i];
+            int j = Arrays.binarySearch(values, 0, count, low);
+            if (j >= 0) {
+                return false;
+            }
+            if (count == MAX_ARRAY) {
+                final long[] words = toWords(values, count);
+                words[low >>> 6] |= 1L << low;
+                chunks[i] = words;
+                sizeInBytes += WORDS * 8 - values.length * 2;
+            } else {
+                j = -j - 1;
+                if (count == values.length) {
+                    final int capacity =
+                        Math.min(MAX_ARRAY, Math.max(4, count * 2));
+                    final char[] newValues = new char[capacity];
+                    System.arraycopy(values, 0, newValues, 0, count);
+                    values = newValues;
+                    chunks[i] = values;
+                    sizeInBytes += (capacity - count) * 2;
+                }
+                System.arraycopy(values, j, values, j + 1, count - j);
+                values[j] = low;
+            }
+        }
+        ++counts[i];
+        ++cardinality;
+        return true;
+    }
+
+    /**
+     * Returns whether this bitmap contains a value.
+     *
+     * @param value Value
+     * @return Whether value is present
+     */
+    public boolean contains(int value) {
+        final int i = findChunk((char) (value >>> 16));
+        if (i < 0) {
+            return false;
+        }
+        final char low = (char) value;
+        final Object chunk = chunks[i];
+        if (chunk instanceof long[]) {
+            return (((long[]) chunk)[low >>> 6] & (1L << low)) != 0;
+        }
+        return Arrays.binarySearch((char[]) chunk, 0, counts[i], low) >= 0;
+    }
+
+    /**
+     * Returns the number of values in this bitmap.
+     *
+     * @return Number of values
+     */
+    public long cardinality() {
+        return cardinality;
+    }
+
+    /**
+     * Returns the estimated number of bytes of memory used by this bitmap.
+     *
+     * @return Estimated size in bytes
+     */
+    public long sizeInBytes() {
+        return sizeInBytes;
+    }
+
+    /**
+     * Adds the values of another bitmap to this bitmap.
+     *
+     * @param other Other bitmap
+     */
+    public void or(CompressedBitmap other) {
+        for (int k = 0; k < other.chunkCount; k++) {
+            final char key = other.keys[k];
+            final Object otherChunk = other.chunks[k];
+            int i = findChunk(key);
+            if (i < 0) {
+                // Chunk is not present in this bitmap. Copy it.
+                i = -i - 1;
+                insertChunk(i, key);
+                sizeInBytes -= size(chunks[i]);
+                chunks[i] =
+                    otherChunk instanceof long[]
+                        ? ((long[]) otherChunk).clone()
+                        : ((char[]) otherChunk).clone();
+                counts[i] = other.counts[k];
+                sizeInBytes += size(chunks[i]);
+                cardinality += counts[i];
+                continue;
+            }
+            if (otherChunk instanceof long[]
+                || counts[i] + other.counts[k] > MAX_ARRAY)
+            {
+                // Union is probably large; merge as bitmaps, and convert the
+                // result back to an array if it turns out to be small.
+                final long[] words = toWords(chunks[i], counts[i]);
+                final long[] otherWords =
+                    toWords(otherChunk, other.counts[k]);
+                int count = 0;
+                for (int w = 0; w < WORDS; w++) {
+                    words[w] |= otherWords[w];
+                    count += Long.bitCount(words[w]);
+                }
+                setChunk(
+                    i,
+                    count > MAX_ARRAY ? words : toValues(words, count),
+                    count);
+            } else {
+                // Merge two sorted arrays.
+                final char[] a = (char[]) chunks[i];
+                final char[] b = (char[]) otherChunk;
+                final int na = counts[i];
+                final int nb = other.counts[k];
+                final char[] merged = new char[na + nb];
+                int x = 0, y = 0, n = 0;
+                while (x < na && y < nb) {
+                    if (a[x] < b[y]) {
+                        merged[n++] = a[x++];
+                    } else if (a[x] > b[y]) {
+                        merged[n++] = b[y++];
+                    } else {
+                        merged[n++] = a[x++];
+                        ++y;
+                    }
+                }
+                while (x < na) {
+                    merged[n++] = a[x++];
+                }
+                while (y < nb) {
+                    merged[n++] = b[y++];
+                }
+                setChunk(i, merged, n);
+            }
+        }
+    }
+
+    /**
+     * Returns the union of a list of bitmaps, or null if the list contains
+     * no bitmaps. Elements that are not bitmaps (such as null) are ignored.
+     * The result is a new object; the bitmaps in the list are not modified.
+     *
+     * @param list List of bitmaps
+     * @return Union of bitmaps, or null
+     */
+    public static CompressedBitmap union(Iterable<?> list) {
+        CompressedBitmap union = null;
+        for (Object o : list) {
+            if (o instanceof CompressedBitmap) {
+                if (union == null) {
+                    union = new CompressedBitmap();
+                }
+                union.or((CompressedBitmap) o);
+            }
+        }
+        return union;
+    }
+
+    /**
+     * Returns the values in this bitmap, in ascending order of their
+     * unsigned value; that is, non-negative values precede negative values.
+     *
+     * @return Array of values
+     */
+    public int[] toArray() {
+        final int[] values = new int[(int) cardinality];
+        int n = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            final int high = keys[i] << 16;
+            final Object chunk = chunks[i];
+            if (chunk instanceof long[]) {
+                final long[] words = (long[]) chunk;
+                for (int w = 0; w < WORDS; w++) {
+                    long word = words[w];
+                    while (word != 0) {
+                        values[n++] =
+                            high | (w << 6) | Long.numberOfTrailingZeros(word);
+                        word &= word - 1;
+                    }
+                }
+            } else {
+                final char[] lows = (char[]) chunk;
+                for (int j = 0; j < counts[i]; j++) {
+                    values[n++] = high | lows[j];
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Returns a copy of this bitmap.
+     *
+     * @return Copy
+     */
+    public CompressedBitmap copy() {
+        final CompressedBitmap copy = new CompressedBitmap();
+        copy.or(this);
+        return copy;
+    }
+
+    private int findChunk(char key) {
+        return Arrays.binarySearch(keys, 0, chunkCount, key);
+    }
+
+    /**
+     * Inserts an empty chunk at a given position.
+     */
+    private void insertChunk(int i, char key) {
+        if (chunkCount == keys.length) {
+            final int capacity = chunkCount * 2;
+            final char[] newKeys = new char[capacity];
+            final Object[] newChunks = new Object[capacity];
+            final int[] newCounts = new int[capacity];
+            System.arraycopy(keys, 0, newKeys, 0, chunkCount);
+            System.arraycopy(chunks, 0, newChunks, 0, chunkCount);
+            System.arraycopy(counts, 0, newCounts, 0, chunkCount);
+            keys = newKeys;
+            chunks = newChunks;
+            counts = newCounts;
+            sizeInBytes += chunkCount * (2 + 4 + 4);
+        }
+        System.arraycopy(keys, i, keys, i + 1, chunkCount - i);
+        System.arraycopy(chunks, i, chunks, i + 1, chunkCount - i);
+        System.arraycopy(counts, i, counts, i + 1, chunkCount - i);
+        keys[i] = key;
+        chunks[i] = new char[4];
+        counts[i] = 0;
+        sizeInBytes += size(chunks[i]);
+        ++chunkCount;
+    }
+
+    private void setChunk(int i, Object chunk, int count) {
+        sizeInBytes += size(chunk) - size(chunks[i]);
+        cardinality += count - counts[i];
+        chunks[i] = chunk;
+        counts[i] = count;
+    }
+
+    private static long size(Object chunk) {
+        return OVERHEAD
+            + (chunk instanceof long[]
+                ? ((long[]) chunk).length * 8
+                : ((char[]) chunk).length * 2);
+    }
+
+    private static long[] toWords(Object chunk, int count) {
+        if (chunk instanceof long[]) {
+            return ((long[]) chunk).clone();
+        }
+        final char[] values = (char[]) chunk;
+        final long[] words = new long[WORDS];
+        for (int j = 0; j < count; j++) {
+            words[values[j] >>> 6] |= 1L << values[j];
+        }
+        return words;
+    }
+
+    private static char[] toValues(long[] words, int count) {
+        final char[] values = new char[count];
+        int n = 0;
+        for (int w = 0; w < WORDS; w++) {
+            long word = words[w];
+            while (word != 0) {
+                values[n++] =
+                    (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return values;
+    }
+
+    public boolean equals(Object obj) {
+        return obj == this
+            || obj instanceof CompressedBitmap
+            && Arrays.equals(toArray(), ((CompressedBitmap) obj).toArray());
+    }
+
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    public String toString() {
+        return "CompressedBitmap(cardinality=" + cardinality + ")";
+    }
+}
+
+// End CompressedBitmap.java
@@ -0,0 +1,300 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.util;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Sketch that estimates the number of distinct values added to it, using the
+ * HyperLogLog algorithm.
+ *
+ * <p>A sketch of precision <i>p</i> has 2<sup><i>p</i></sup> registers of one
+ * byte each, and its estimates have a standard error of about
+ * 1.04 / 2<sup><i>p</i>/2</sup>; for example, 1.6% for precision 12. Adding
+ * the same value again does not change a sketch.
+ *
+ * <p>Sketches are mergeable: the union of two sketches estimates the number
+ * of distinct values added to either, so a sketch for a coarse cell can be
+ * computed from the sketches of the finer cells it contains. Sketches of
+ * different precision can be merged; the result has the lower precision.
+ *
+ * <p>This class is not thread-safe.
+ *
+ * @author jhyde
+ */
+public class HyperLogLog implements Serializable {
+    private static final long serialVersionUID = 6213456795467034017L;
+
+    /** Minimum precision. */
+    public static final int MIN_PRECISION = 4;
+
+    /** Maximum precision. */
+    public static final int MAX_PRECISION = 16;
+
+    private final int precision;
+    private final byte[] registers;
+
+    /**
+     * Creates an empty sketch.
+     *
+     * @param precision Precision, between {@link #MIN_PRECISION} and
+     *   {@link #MAX_PRECISION}
+     */
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException(
+                "precision must be between " + MIN_PRECISION + " and "
+                + MAX_PRECISION + ": " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    private HyperLogLog(int precision, byte[] registers) {
+        this.precision = precision;
+        this.registers = registers;
+    }
+
+    /**
+     * Returns the precision of this sketch.
+     *
+     * @return Precision
+     */
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Returns the relative standard error of estimates made by sketches of
+     * a given precision.
+     *
+     * @param precision Precision
+     * @return Relative standard error, for example 0.01625 for precision 12
+     */
+    public static double standardError(int precision) {
+        return 1.04d / Math.sqrt(1 << precision);
+    }
+
+    /**
+     * Adds a value.
+     *
+     * <p>Numbers with the same integral value have the same hash code,
+     * whatever their class, so that it does not matter whether a JDBC driver
+     * returns an integer column as an {@link Integer}, {@link Long} or
+     * {@link Double}.
+     *
+     * @param value Value, not null
+     */
+    public void add(Object value) {
+        addHash(hash(value));
+    }
+
+    void addHash(long hash) {
+        final int index = (int) (hash >>> (64 - precision));
+        // Set a sentinel bit, so that rho is at most 65 - precision.
+        final long w = (hash << precision) | (1L << (precision - 1));
+        final byte rho = (byte) (Long.numberOfLeadingZeros(w) + 1);
+        if (rho > registers[index]) {
+            registers[index] = rho;
+        }
+    }
+
+    /**
+     * Adds the values of another sketch to this sketch.
+     *
+     * @param other Sketch whose precision is no less than this sketch's
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision < precision) {
+            throw new IllegalArgumentException(
+                "cannot merge sketch of precision " + other.precision
+                + " into sketch of precision " + precision);
+        }
+        final byte[] otherRegisters =
+            other.fold(precision).registers;
+        for (int i = 0; i < registers.length; i++) {
+            if (otherRegisters[i] > registers[i]) {
+                registers[i] = otherRegisters[i];
+            }
+        }
+    }
+
+    /**
+     * Returns the union of a list of sketches, or null if the list contains
+     * no sketches. Elements that are not sketches (such as null) are
+     * ignored. The result has the lowest precision of any of the sketches,
+     * and is a new object; the sketches in the list are not modified.
+     *
+     * @param list List of sketches
+     * @return Union of sketches, or null
+     */
+    public static HyperLogLog union(Iterable<?> list) {
+        int precision = Integer.MAX_VALUE;
+        for (Object o : list) {
+            if (o instanceof HyperLogLog) {
+                precision = Math.min(precision, ((HyperLogLog) o).precision);
+            }
+        }
+        if (precision == Integer.MAX_VALUE) {
+            return null;
+        }
+        final HyperLogLog union = new HyperLogLog(precision);
+        for (Object o : list) {
+            if (o instanceof HyperLogLog) {
+                union.merge((HyperLogLog) o);
+            }
+        }
+        return union;
+    }
+
+    /**
+     * Returns a sketch with lower precision that contains the same values
+     * as this sketch. Returns this sketch if the precision is the same.
+     *
+     * <p>The index of a register at the lower precision consists of the
+     * leading bits of the index at this precision; the remaining bits become
+     * the leading bits of the hash code whose leading zeros the register
+     * counts.
+     *
+     * @param newPrecision Precision, no greater than this sketch's
+     * @return Sketch of the given precision
+     */
+    public HyperLogLog fold(int newPrecision) {
+        if (newPrecision == precision) {
+            return this;
+        }
+        assert newPrecision < precision;
+        final HyperLogLog folded = new HyperLogLog(newPrecision);
+        final int shift = precision - newPrecision;
+        for (int i = 0; i < registers.length; i++) {
+            final byte r = registers[i];
+            if (r == 0) {
+                continue;
+            }
+            final int index = i >>> shift;
+            final int dropped = i & ((1 << shift) - 1);
+            final int rho =
+                dropped == 0
+                    ? shift + r
+                    : Integer.numberOfLeadingZeros(dropped) - (32 - shift) + 1;
+            if (rho > folded.registers[index]) {
+                folded.registers[index] = (byte) rho;
+            }
+        }
+        return folded;
+    }
+
+    /**
+     * Returns a copy of this sketch.
+     *
+     * @return Copy
+     */
+    public HyperLogLog copy() {
+        return new HyperLogLog(precision, registers.clone());
+    }
+
+    /**
+     * Returns the estimated number of distinct values added to this sketch.
+     *
+     * <p>Uses linear counting for small cardinalities, where it is more
+     * accurate than the raw HyperLogLog estimate. Since hash codes have 64
+     * bits, no correction is needed for large cardinalities.
+     *
+     * @return Estimated number of distinct values
+     */
+    public long estimate() {
+        final int m = registers.length;
+        double sum = 0d;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1d / (1L << r);
+            if (r == 0) {
+                ++zeros;
+            }
+        }
+        final double alpha;
+        switch (m) {
+        case 16:
+            alpha = 0.673d;
+            break;
+        case 32:
+            alpha = 0.697d;
+            break;
+        case 64:
+            alpha = 0.709d;
+            break;
+        default:
+            alpha = 0.7213d / (1d + 1.079d / m);
+        }
+        double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5d * m && zeros > 0) {
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Returns a 64-bit hash code of a value.
+     *
+     * @param value Value
+     * @return Hash code
+     */
+    static long hash(Object value) {
+        if (value instanceof Number) {
+            final Number number = (Number) value;
+            final double d = number.doubleValue();
+            final long l = number.longValue();
+            if (d == (double) l) {
+                return mix(l);
+            }
+            return mix(Double.doubleToLongBits(d));
+        }
+        // 64-bit FNV-1a hash of the characters, then mixed.
+        final String s = value.toString();
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    /**
+     * Mixes the bits of a long, so that every bit of the input affects every
+     * bit of the output. This is the finalizer of the MurmurHash3 algorithm.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public boolean equals(Object obj) {
+        return obj == this
+            || obj instanceof HyperLogLog
+            && precision == ((HyperLogLog) obj).precision
+            && Arrays.equals(registers, ((HyperLogLog) obj).registers);
+    }
+
+    public int hashCode() {
+        return Arrays.hashCode(registers);
+    }
+
+    public String toString() {
+        return "HyperLogLog(precision=" + precision + ", estimate="
+            + estimate() + ")";
+    }
+}
+
+// End HyperLogLog.java
@@ -0,0 +1,176 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.util;
+
+import java.util.Arrays;
+
+/**
+ * Set of {@code long} values, implemented as an open-addressing hash table
+ * with linear probing.
+ *
+ * <p>Unlike a {@code java.util.HashSet<Long>}, it does not create an object
+ * per element, so it is suitable for sets of millions of keys.
+ *
+ * <p>Not thread-safe.
+ *
+ * @author jhyde
+ */
+public class LongHashSet {
+    /**
+     * Value that marks an empty slot. The value itself can still be stored;
+     * its presence is recorded in {@link #containsEmptyValue}.
+     */
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] table;
+    private int mask;
+    private int size;
+    private int threshold;
+    private boolean containsEmptyValue;
+
+    /**
+     * Creates an empty LongHashSet with a default capacity.
+     */
+    public LongHashSet() {
+        this(16);
+    }
+
+    /**
+     * Creates an empty LongHashSet that can hold a given number of values
+     * without being resized.
+     *
+     * @param expectedSize Expected number of values
+     */
+    public LongHashSet(int expectedSize) {
+        int capacity = 16;
+        while (capacity * 2 / 3 < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        table = new long[capacity];
+        Arrays.fill(table, EMPTY);
+        mask = capacity - 1;
+        threshold = capacity * 2 / 3;
+    }
+
+    /**
+     * Adds a value to this set.
+     *
+     * @param value Value
+     * @return Whether the value was not already present
+     */
+    public boolean add(long value) {
+        if (value == EMPTY) {
+            if (containsEmptyValue) {
+                return false;
+            }
+            containsEmptyValue = true;
+            ++size;
+            return true;
+        }
+        int i = hash(value) & mask;
+        while (true) {
+            final long v = table[i];
+            if (v == EMPTY) {
+                table[i] = value;
+                if (++size > threshold) {
+                    rehash();
+                }
+                return true;
+            }
+            if (v == value) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Returns whether this set contains a given value.
+     *
+     * @param value Value
+     * @return Whether value is present
+     */
+    public boolean contains(long value) {
+        if (value == EMPTY) {
+            return containsEmptyValue;
+        }
+        int i = hash(value) & mask;
+        while (true) {
+            final long v = table[i];
+            if (v == EMPTY) {
+                return false;
+            }
+            if (v == value) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Returns the number of values in this set.
+     *
+     * @return Number of values
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether this set is empty.
+     *
+     * @return Whether empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all values from this set. Retains the capacity.
+     */
+    public void clear() {
+        Arrays.fill(table, EMPTY);
+        containsEmptyValue = false;
+        size = 0;
+    }
+
+    private void rehash() {
+        final long[] oldTable = table;
+        allocate(oldTable.length * 2);
+        for (long v : oldTable) {
+            if (v != EMPTY) {
+                int i = hash(v) & mask;
+                while (table[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = v;
+            }
+        }
+    }
+
+    /**
+     * Scrambles the bits of a value, so that values which differ only in
+     * their high bits (as packed keys often do) land in different slots.
+     */
+    private static int hash(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return (int) value;
+    }
+}
+
+// End LongHashSet.java
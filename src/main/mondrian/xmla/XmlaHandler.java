@@ -1363,7 +1363,16 @@ public class XmlaHandler {
                     tabFields,
                     rowCountSlot);
             int rowCount = enableRowCount ? rowCountSlot[0] : -1;
-            return new TabularRowSet(resultSet, rowCount);
+
+            // The row set streams rows from the result set while the response
+            // is written, and closes the result set, statement and connection
+            // when it is closed.
+            final TabularRowSet rowSet =
+                new TabularRowSet(resultSet, rowCount, statement, connection);
+            resultSet = null;
+            statement = null;
+            connection = null;
+            return rowSet;
         } catch (XmlaException xex) {
             throw xex;
         } catch (SQLException sqle) {
@@ -1426,6 +1435,14 @@ public class XmlaHandler {
         private final List<Object[]> rows;
         private int totalCount;
 
+        /**
+         * Result set from which rows are read as they are written, or null if
+         * rows are held in {@link #rows}.
+         */
+        private final ResultSet resultSet;
+        private final OlapStatement statement;
+        private final OlapConnection connection;
+
         /**
          * Creates a TabularRowSet based upon a SQL statement result.
          *
@@ -1444,17 +1461,10 @@ public class XmlaHandler {
             throws SQLException
         {
             this.totalCount = totalCount;
-            ResultSetMetaData md = rs.getMetaData();
-            int columnCount = md.getColumnCount();
-
-            // populate column defs
-            for (int i = 0; i < columnCount; i++) {
-                columns.add(
-                    new Column(
-                        md.getColumnLabel(i + 1),
-                        md.getColumnType(i + 1),
-                        md.getScale(i + 1)));
-            }
+            this.resultSet = null;
+            this.statement = null;
+            this.connection = null;
+            final int columnCount = addColumns(rs);
 
             // Populate data; assume that SqlStatement is already positioned
             // on first row (or isDone() is true), and assume that the
@@ -1469,6 +1479,53 @@ public class XmlaHandler {
             }
         }
 
+        /**
+         * Creates a TabularRowSet that reads rows from a SQL statement
+         * result as they are written, rather than holding them in memory.
+         *
+         * <p>The row set takes ownership of the result set, statement and
+         * connection, and closes them when it is closed.
+         *
+         * @param rs Result set
+         * @param totalCount Total number of rows. If >= 0, writes the
+         *   "totalCount" attribute into the XMLA response.
+         * @param statement Statement that produced the result set
+         * @param connection Connection of the statement
+         *
+         * @throws SQLException on error
+         */
+        public TabularRowSet(
+            ResultSet rs,
+            int totalCount,
+            OlapStatement statement,
+            OlapConnection connection)
+            throws SQLException
+        {
+            this.totalCount = totalCount;
+            this.rows = null;
+            this.resultSet = rs;
+            this.statement = statement;
+            this.connection = connection;
+            addColumns(rs);
+        }
+
+        /**
+         * Creates column definitions for the columns of a result set, and
+         * returns the number of columns.
+         */
+        private int addColumns(ResultSet rs) throws SQLException {
+            ResultSetMetaData md = rs.getMetaData();
+            int columnCount = md.getColumnCount();
+            for (int i = 0; i < columnCount; i++) {
+                columns.add(
+                    new Column(
+                        md.getColumnLabel(i + 1),
+                        md.getColumnType(i + 1),
+                        md.getScale(i + 1)));
+            }
+            return columnCount;
+        }
+
         /**
          * Alternate constructor for advanced drill-through.
          *
@@ -1479,6 +1536,9 @@ public class XmlaHandler {
         public TabularRowSet(
             Map<String, List<String>> tableFieldMap, List<String> tableList)
         {
+            this.resultSet = null;
+            this.statement = null;
+            this.connection = null;
             for (String tableName : tableList) {
                 List<String> fieldNames = tableFieldMap.get(tableName);
                 for (String fieldName : fieldNames) {
@@ -1498,8 +1558,20 @@ public class XmlaHandler {
             rows.add(row);
         }
 
-        public void close() {
-            // no resources to close
+        public void close() throws SQLException {
+            if (resultSet == null) {
+                // no resources to close
+                return;
+            }
+            try {
+                resultSet.close();
+            } finally {
+                try {
+                    statement.close();
+                } finally {
+                    connection.close();
+                }
+            }
         }
 
         public void unparse(SaxWriter writer) throws SAXException {
@@ -1515,29 +1587,50 @@ public class XmlaHandler {
                 writer.endElement(); // row
             }
 
-            for (Object[] row : rows) {
-                writer.startElement("row");
-                for (int i = 0; i < row.length; i++) {
-                    writer.startElement(
-                        columns.get(i).encodedName,
-                        new Object[] {
-                            "xsi:type",
-                            columns.get(i).xsdType});
-                    Object value = row[i];
-                    if (value == null) {
-                        writer.characters("null");
-                    } else {
-                        String valueString = value.toString();
-                        if (value instanceof Number) {
-                            valueString =
-                                XmlaUtil.normalizeNumericString(valueString);
-                        }
-                        writer.characters(valueString);
+            if (rows != null) {
+                for (Object[] row : rows) {
+                    unparseRow(writer, row);
+                }
+                return;
+            }
+
+            // Write each row as it is read, so that memory use does not
+            // depend on the number of rows.
+            final Object[] row = new Object[columns.size()];
+            try {
+                while (resultSet.next()) {
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] = resultSet.getObject(i + 1);
                     }
-                    writer.endElement();
+                    unparseRow(writer, row);
                 }
-                writer.endElement(); // row
+            } catch (SQLException e) {
+                throw new SAXException(e);
+            }
+        }
+
+        private void unparseRow(SaxWriter writer, Object[] row) {
+            writer.startElement("row");
+            for (int i = 0; i < row.length; i++) {
+                writer.startElement(
+                    columns.get(i).encodedName,
+                    new Object[] {
+                        "xsi:type",
+                        columns.get(i).xsdType});
+                Object value = row[i];
+                if (value == null) {
+                    writer.characters("null");
+                } else {
+                    String valueString = value.toString();
+                    if (value instanceof Number) {
+                        valueString =
+                            XmlaUtil.normalizeNumericString(valueString);
+                    }
+                    writer.characters(valueString);
+                }
+                writer.endElement();
             }
+            writer.endElement(); // row
         }
 
         /**
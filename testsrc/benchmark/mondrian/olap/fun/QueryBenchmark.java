@@ -0,0 +1,73 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.olap.fun;
+
+import mondrian.olap.*;
+import mondrian.test.BenchmarkContext;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for MDX parsing and for {@link CrossJoinFunDef}.
+ *
+ * <p>Both run against FoodMart in an in-memory database. The crossjoin query
+ * counts tuples rather than evaluating cells, and its members are cached
+ * after the first iteration, so the benchmark measures the engine, not SQL.
+ *
+ * @author jhyde
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class QueryBenchmark {
+    private static final String PARSE_QUERY =
+        "with member [Measures].[Profit Ratio] as\n"
+        + " '([Measures].[Store Sales] - [Measures].[Store Cost])"
+        + " / [Measures].[Store Sales]', format_string = '0.0%'\n"
+        + "select {[Measures].[Unit Sales], [Measures].[Profit Ratio]}"
+        + " on columns,\n"
+        + " non empty Crossjoin([Store].[Store State].Members,\n"
+        + "   Filter([Product].[Product Category].Members,\n"
+        + "     [Measures].[Unit Sales] > 1000)) on rows\n"
+        + "from [Sales]\n"
+        + "where ([Time].[1997].[Q1], [Gender].[F])";
+
+    private static final String CROSSJOIN_QUERY =
+        "with member [Measures].[Tuple Count] as\n"
+        + " 'Count(Crossjoin([Customers].[Name].Members,"
+        + " [Product].[Product Department].Members))'\n"
+        + "select {[Measures].[Tuple Count]} on columns\n"
+        + "from [Sales]";
+
+    private Connection connection;
+
+    @Setup
+    public void setup() {
+        connection = BenchmarkContext.getConnection();
+    }
+
+    @Benchmark
+    public Query parse() {
+        return connection.parseQuery(PARSE_QUERY);
+    }
+
+    @Benchmark
+    public Object crossJoin() {
+        return connection.execute(connection.parseQuery(CROSSJOIN_QUERY))
+            .getCell(new int[] {0}).getValue();
+    }
+}
+
+// End QueryBenchmark.java
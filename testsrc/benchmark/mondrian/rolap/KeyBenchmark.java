@@ -0,0 +1,97 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for {@link CellKey} and {@link BitKey}, which are created and
+ * compared for every cell and every segment request.
+ *
+ * @author jhyde
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class KeyBenchmark {
+    /** Number of axes of the cell keys. */
+    @Param({"2", "4"})
+    public int axisCount;
+
+    /** Number of bits in the bit keys. */
+    @Param({"60", "200"})
+    public int bitCount;
+
+    private final Random random = new Random(1234);
+    private int[][] positions;
+    private Map<CellKey, Integer> cellKeyMap;
+    private BitKey[] bitKeys;
+    private int i;
+
+    @Setup
+    public void setup() {
+        positions = new int[1024][];
+        cellKeyMap = new HashMap<CellKey, Integer>();
+        for (int j = 0; j < positions.length; j++) {
+            final int[] pos = new int[axisCount];
+            for (int k = 0; k < pos.length; k++) {
+                pos[k] = random.nextInt(100);
+            }
+            positions[j] = pos;
+            cellKeyMap.put(CellKey.Generator.newCellKey(pos), j);
+        }
+        bitKeys = new BitKey[256];
+        for (int j = 0; j < bitKeys.length; j++) {
+            final BitKey bitKey = BitKey.Factory.makeBitKey(bitCount);
+            for (int k = 0; k < 5; k++) {
+                bitKey.set(random.nextInt(bitCount));
+            }
+            bitKeys[j] = bitKey;
+        }
+    }
+
+    private int next(int length) {
+        return i = (i + 1) & (length - 1);
+    }
+
+    /**
+     * Creates a cell key and looks it up in a hash map, as
+     * {@link RolapResult} does for each cell.
+     */
+    @Benchmark
+    public Integer cellKeyLookup() {
+        final int[] pos = positions[next(positions.length)];
+        return cellKeyMap.get(CellKey.Generator.newCellKey(pos));
+    }
+
+    /**
+     * Combines and compares bit keys, as the segment cache does when it
+     * matches a request to segments.
+     */
+    @Benchmark
+    public void bitKeyOps(Blackhole blackhole) {
+        final BitKey a = bitKeys[next(bitKeys.length)];
+        final BitKey b = bitKeys[(i + 7) & (bitKeys.length - 1)];
+        final BitKey or = a.or(b);
+        blackhole.consume(or.isSuperSetOf(a));
+        blackhole.consume(a.and(b).isEmpty());
+        blackhole.consume(or.hashCode());
+        blackhole.consume(a.equals(b));
+    }
+}
+
+// End KeyBenchmark.java
@@ -0,0 +1,75 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.*;
+import mondrian.test.BenchmarkContext;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for context switching in {@link RolapEvaluator}: setting members
+ * into the context, and restoring it to a savepoint, as functions do for
+ * each tuple they iterate over.
+ *
+ * @author jhyde
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RolapEvaluatorBenchmark {
+    private RolapEvaluator evaluator;
+    private Member[] stores;
+    private Member[] products;
+    private int i;
+
+    @Setup
+    public void setup() {
+        final Connection connection = BenchmarkContext.getConnection();
+        final Result result =
+            connection.execute(
+                connection.parseQuery(
+                    "select [Store].[Store City].Members on 0,\n"
+                    + " [Product].[Product Family].Members on 1\n"
+                    + "from [Sales]"));
+        stores = members(result.getAxes()[0]);
+        products = members(result.getAxes()[1]);
+        evaluator = (RolapEvaluator) ((RolapResult) result).getEvaluator(
+            new int[] {0, 0});
+    }
+
+    private static Member[] members(Axis axis) {
+        final List<Member> list = new ArrayList<Member>();
+        for (Position position : axis.getPositions()) {
+            list.add(position.get(0));
+        }
+        return list.toArray(new Member[list.size()]);
+    }
+
+    @Benchmark
+    public Member setContext() {
+        i = (i + 1) & Integer.MAX_VALUE;
+        final int savepoint = evaluator.savepoint();
+        evaluator.setContext(stores[i % stores.length]);
+        evaluator.setContext(products[i % products.length]);
+        final Member member = evaluator.getContext(
+            stores[0].getHierarchy());
+        evaluator.restore(savepoint);
+        return member;
+    }
+}
+
+// End RolapEvaluatorBenchmark.java
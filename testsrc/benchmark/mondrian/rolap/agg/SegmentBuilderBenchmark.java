@@ -0,0 +1,103 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.rolap.BitKey;
+import mondrian.rolap.RolapAggregator;
+import mondrian.spi.*;
+import mondrian.util.ByteString;
+import mondrian.util.Pair;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for {@link SegmentBuilder#rollup}, which creates a segment from
+ * cached segments of higher dimensionality instead of running SQL.
+ *
+ * @author jhyde
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SegmentBuilderBenchmark {
+    private static final String[] COLUMNS = {
+        "time_by_day.month_of_year",
+        "store.store_state",
+        "product.product_id",
+    };
+
+    /** Number of values of the last column of the source segment. */
+    @Param({"100", "1000"})
+    public int productCount;
+
+    private final Map<SegmentHeader, SegmentBody> map =
+        new HashMap<SegmentHeader, SegmentBody>();
+    private final Set<String> keepColumns =
+        Collections.singleton(COLUMNS[1]);
+    private final BitKey targetBitKey = BitKey.Factory.makeBitKey(3);
+
+    @Setup
+    public void setup() {
+        final int[] sizes = {12, 10, productCount};
+        final BitKey bitKey = BitKey.Factory.makeBitKey(3);
+        final List<SegmentColumn> columns = new ArrayList<SegmentColumn>();
+        final List<Pair<SortedSet<Comparable>, Boolean>> axes =
+            new ArrayList<Pair<SortedSet<Comparable>, Boolean>>();
+        int cellCount = 1;
+        for (int i = 0; i < COLUMNS.length; i++) {
+            final SortedSet<Comparable> values = new TreeSet<Comparable>();
+            for (int j = 0; j < sizes[i]; j++) {
+                values.add(j);
+            }
+            columns.add(new SegmentColumn(COLUMNS[i], sizes[i], null));
+            axes.add(Pair.of(values, false));
+            bitKey.set(i);
+            cellCount *= sizes[i];
+        }
+        targetBitKey.set(1);
+
+        final Random random = new Random(1234);
+        final double[] values = new double[cellCount];
+        final BitSet nullIndicators = new BitSet(cellCount);
+        for (int i = 0; i < cellCount; i++) {
+            if (random.nextInt(10) == 0) {
+                nullIndicators.set(i);
+            } else {
+                values[i] = random.nextInt(1000);
+            }
+        }
+        map.put(
+            new SegmentHeader(
+                "FoodMart",
+                new ByteString(new byte[0]),
+                "Sales",
+                "Unit Sales",
+                columns,
+                Collections.<String>emptyList(),
+                "sales_fact_1997",
+                bitKey,
+                Collections.<SegmentColumn>emptyList()),
+            new DenseDoubleSegmentBody(nullIndicators, values, axes));
+    }
+
+    @Benchmark
+    public Pair<SegmentHeader, SegmentBody> rollup() {
+        return SegmentBuilder.rollup(
+            map, keepColumns, targetBitKey, RolapAggregator.Sum);
+    }
+}
+
+// End SegmentBuilderBenchmark.java
@@ -0,0 +1,101 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.rolap.cache;
+
+import mondrian.rolap.BitKey;
+import mondrian.spi.*;
+import mondrian.util.ByteString;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for {@link SegmentCacheIndexImpl#locate}, which is called for
+ * each cell request that misses the local cache.
+ *
+ * @author jhyde
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SegmentCacheIndexBenchmark {
+    private static final String YEAR = "time_by_day.the_year";
+    private static final String STATE = "store.store_state";
+
+    /** Number of segments in the index. */
+    @Param({"10", "1000"})
+    public int segmentCount;
+
+    private final ByteString checksum = new ByteString(new byte[0]);
+    private final BitKey bitKey = BitKey.Factory.makeBitKey(2);
+    private SegmentCacheIndexImpl index;
+    private List<Map<String, Comparable>> coordinatesList;
+    private int i;
+
+    @Setup
+    public void setup() {
+        bitKey.set(0);
+        bitKey.set(1);
+
+        // Locate checks that it runs in the index's thread. JMH runs setup
+        // and benchmark methods of a thread-scoped state in the same thread.
+        index = new SegmentCacheIndexImpl(Thread.currentThread());
+        coordinatesList = new ArrayList<Map<String, Comparable>>();
+        for (int j = 0; j < segmentCount; j++) {
+            final Comparable year = 1997 + j % 2;
+            final Comparable state = "S" + j / 2;
+            index.add(
+                new SegmentHeader(
+                    "FoodMart",
+                    checksum,
+                    "Sales",
+                    "Unit Sales",
+                    Arrays.asList(
+                        new SegmentColumn(YEAR, 2, values(year)),
+                        new SegmentColumn(STATE, 100, values(state))),
+                    Collections.<String>emptyList(),
+                    "sales_fact_1997",
+                    bitKey,
+                    Collections.<SegmentColumn>emptyList()),
+                false,
+                null);
+            final Map<String, Comparable> coordinates =
+                new HashMap<String, Comparable>();
+            coordinates.put(YEAR, year);
+            coordinates.put(STATE, state);
+            coordinatesList.add(coordinates);
+        }
+    }
+
+    private static SortedSet<Comparable> values(Comparable value) {
+        return new TreeSet<Comparable>(Collections.singleton(value));
+    }
+
+    @Benchmark
+    public List<SegmentHeader> locate() {
+        i = (i + 1) % segmentCount;
+        return index.locate(
+            "FoodMart",
+            checksum,
+            "Sales",
+            "Unit Sales",
+            "sales_fact_1997",
+            bitKey,
+            coordinatesList.get(i),
+            Collections.<String>emptyList());
+    }
+}
+
+// End SegmentCacheIndexBenchmark.java
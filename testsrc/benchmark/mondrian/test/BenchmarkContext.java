@@ -0,0 +1,107 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.test;
+
+import mondrian.olap.Connection;
+import mondrian.olap.DriverManager;
+import mondrian.olap.Util;
+import mondrian.test.loader.MondrianFoodMartLoader;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Provides the FoodMart database to benchmarks, loaded into an in-memory
+ * HSQLDB database so that benchmarks run offline and without a database
+ * server.
+ *
+ * <p>The database is loaded from <code>demo/FoodMartCreateData.zip</code> the
+ * first time a connection is requested in a JVM. JMH runs each benchmark in a
+ * forked JVM, so benchmarks that need the database should request a
+ * connection in a trial-level setup method, so that the cost of loading is
+ * not measured.
+ *
+ * @author jhyde
+ */
+public class BenchmarkContext {
+    private static final String JDBC_URL = "jdbc:hsqldb:mem:foodmart";
+    private static final String JDBC_DRIVER = "org.hsqldb.jdbcDriver";
+    private static final String CATALOG_URL = "file:demo/FoodMart.xml";
+
+    private static boolean loaded;
+    private static Connection connection;
+
+    private BenchmarkContext() {
+    }
+
+    /**
+     * Returns a connection to FoodMart, loading the database if this is the
+     * first call in this JVM.
+     *
+     * @return Connection to FoodMart
+     */
+    public static synchronized Connection getConnection() {
+        if (connection == null) {
+            load();
+            final Util.PropertyList properties = new Util.PropertyList();
+            properties.put("Provider", "mondrian");
+            properties.put("Jdbc", JDBC_URL);
+            properties.put("JdbcUser", "sa");
+            properties.put("JdbcPassword", "");
+            properties.put("JdbcDrivers", JDBC_DRIVER);
+            properties.put("Catalog", CATALOG_URL);
+            connection = DriverManager.getConnection(properties, null);
+        }
+        return connection;
+    }
+
+    /**
+     * Loads the FoodMart tables, data and indexes into the in-memory
+     * database.
+     */
+    private static void load() {
+        if (loaded) {
+            return;
+        }
+        MondrianFoodMartLoader.main(
+            new String[] {
+                "-tables",
+                "-data",
+                "-indexes",
+                "-jdbcDrivers=" + JDBC_DRIVER,
+                "-outputJdbcURL=" + JDBC_URL,
+                "-outputJdbcUser=sa",
+                "-outputJdbcPassword=",
+            });
+
+        // The loader logs, rather than throws, errors. Make sure that the
+        // data arrived.
+        try {
+            final java.sql.Connection jdbcConnection =
+                java.sql.DriverManager.getConnection(JDBC_URL, "sa", "");
+            try {
+                final ResultSet resultSet =
+                    jdbcConnection.createStatement().executeQuery(
+                        "select count(*) from \"sales_fact_1997\"");
+                if (!resultSet.next() || resultSet.getInt(1) == 0) {
+                    throw new IllegalStateException(
+                        "FoodMart data did not load");
+                }
+            } finally {
+                jdbcConnection.close();
+            }
+        } catch (SQLException e) {
+            throw Util.newError(e, "FoodMart data did not load");
+        }
+        loaded = true;
+    }
+}
+
+// End BenchmarkContext.java
@@ -0,0 +1,57 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.util;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for {@link Format#format(Object)}, which is called for the
+ * formatted value of every cell.
+ *
+ * @author jhyde
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FormatBenchmark {
+    /** Format string. */
+    @Param({"Standard", "#,##0.00", "Currency", "Percent", "yyyy-mm-dd"})
+    public String formatString;
+
+    private Format format;
+    private Object[] values;
+    private int i;
+
+    @Setup
+    public void setup() {
+        format = Format.get(formatString, Locale.US);
+        final Random random = new Random(1234);
+        values = new Object[256];
+        for (int j = 0; j < values.length; j++) {
+            values[j] = formatString.startsWith("yyyy")
+                ? new Date(random.nextInt() * 1000L)
+                : (Object) (random.nextDouble() * 100000d);
+        }
+    }
+
+    @Benchmark
+    public String format() {
+        i = (i + 1) & (values.length - 1);
+        return format.format(values[i]);
+    }
+}
+
+// End FormatBenchmark.java
@@ -12,6 +12,7 @@ package mondrian.olap.fun;
 
 import mondrian.olap.*;
 import mondrian.resource.MondrianResource;
+import mondrian.rolap.ParallelTupleEvaluator;
 import mondrian.test.FoodMartTestCase;
 import mondrian.test.TestContext;
 import mondrian.udf.*;
@@ -6711,6 +6712,54 @@ public class FunctionTest extends FoodMartTestCase {
             + "[Store].[USA].[OR]");
     }
 
+    /**
+     * Tests that Filter and Generate give the same results, in the same
+     * order, when chunks of their input set are evaluated in parallel. The
+     * parallel queries run first, against an empty cache, so that the chunks
+     * have to ask for cells to be loaded. Uses several threads even if there
+     * is only one processor.
+     */
+    public void testFilterAndGenerateParallel() {
+        final String[] queries = {
+            "select {[Measures].[Unit Sales]} on 0,\n"
+            + " Filter([Customers].[Name].Members,\n"
+            + "   [Measures].[Unit Sales] > 100\n"
+            + "   and [Customers].CurrentMember.Parent.Name <> 'Burnaby') on 1\n"
+            + "from [Sales]",
+            "select {[Measures].[Store Sales]} on 0,\n"
+            + " Generate([Product].[Product Name].Members,\n"
+            + "   Filter({[Product].CurrentMember.Parent},\n"
+            + "     [Measures].[Unit Sales] > 250)) on 1\n"
+            + "from [Sales]",
+            "select {[Measures].[Store Sales]} on 0,\n"
+            + " Generate([Product].[Product Name].Members,\n"
+            + "   {[Product].CurrentMember.Parent}, ALL) on 1\n"
+            + "from [Sales]"
+        };
+        final String[] parallelResults = new String[queries.length];
+        getTestContext().flushSchemaCache();
+        propSaver.set(
+            MondrianProperties.instance().ParallelEvaluationThreshold, 10);
+        propSaver.set(
+            MondrianProperties.instance().ParallelEvaluationThreads, 4);
+        for (int i = 0; i < queries.length; i++) {
+            final long parallelCount =
+                ParallelTupleEvaluator.getParallelCount();
+            parallelResults[i] =
+                TestContext.toString(executeQuery(queries[i]));
+            assertTrue(
+                queries[i],
+                ParallelTupleEvaluator.getParallelCount() > parallelCount);
+        }
+        propSaver.set(
+            MondrianProperties.instance().ParallelEvaluationThreshold, 0);
+        for (int i = 0; i < queries.length; i++) {
+            assertEquals(
+                TestContext.toString(executeQuery(queries[i])),
+                parallelResults[i]);
+        }
+    }
+
     public void testGenerateUniqueTuple() {
         assertAxisReturns(
             "Generate({([Store].[USA].[CA],[Product].[All Products]), "
@@ -8477,6 +8526,23 @@ public class FunctionTest extends FoodMartTestCase {
             "[Promotion Media].[No Media]");
     }
 
+    /**
+     * Tests that TopPercent and BottomPercent return the first or last
+     * member if every value is null, as MSAS does. Null values do not
+     * count towards the total.
+     */
+    public void testTopBottomPercentAllNull() {
+        assertAxisReturns(
+            "TopPercent({[Store].[Mexico].Children}, 50, [Measures].[Unit Sales])",
+            "[Store].[Mexico].[DF]");
+        assertAxisReturns(
+            "BottomPercent({[Store].[Mexico].Children}, 50, [Measures].[Unit Sales])",
+            "[Store].[Mexico].[Zacatecas]");
+        assertAxisReturns(
+            "TopPercent({[Store].[Mexico], [Store].[USA].[OR]}, 100, [Measures].[Unit Sales])",
+            "[Store].[USA].[OR]");
+    }
+
     //todo: test precision
 
     public void testTopSum() {
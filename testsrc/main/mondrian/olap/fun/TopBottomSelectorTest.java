@@ -0,0 +1,232 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.olap.fun;
+
+import mondrian.olap.Util;
+import mondrian.test.PerformanceTest;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.Logger;
+
+import java.util.*;
+
+/**
+ * Unit test for {@link TopBottomSelector.KeyHeap}, the heap that implements
+ * <code>TopCount</code>, <code>BottomCount</code>, <code>TopSum</code> and
+ * similar functions. Checks that it returns the same tuples, in the same
+ * order, as the comparator-based sort. There are tests of the MDX functions
+ * in FunctionTest.
+ *
+ * @author jhyde
+ */
+public class TopBottomSelectorTest extends TestCase {
+    private final Random random = new Random(5678);
+
+    /**
+     * Creates an array of random values, as a sort expression would return
+     * them. Includes duplicates, nulls, infinities and NaN.
+     */
+    private Object[] newRandomValues(int size, int distinct) {
+        final Object[] values = new Object[size];
+        for (int i = 0; i < size; i++) {
+            switch (random.nextInt(20)) {
+            case 0:
+                values[i] = Util.nullValue;
+                break;
+            case 1:
+                values[i] = Double.NaN;
+                break;
+            case 2:
+                values[i] = Double.NEGATIVE_INFINITY;
+                break;
+            case 3:
+                values[i] = Double.POSITIVE_INFINITY;
+                break;
+            default:
+                values[i] = (double) (random.nextInt(distinct) - distinct / 2);
+            }
+        }
+        return values;
+    }
+
+    private static TopBottomSelector.KeyHeap newHeap(
+        Object[] values, int capacity, boolean top, boolean bounded)
+    {
+        final TopBottomSelector.KeyHeap heap =
+            new TopBottomSelector.KeyHeap(capacity, top, bounded);
+        for (int i = 0; i < values.length; i++) {
+            final Object value = values[i];
+            if (value == Util.nullValue) {
+                heap.offer(i, FunUtil.DoubleNull, true);
+            } else {
+                heap.offer(i, ((Number) value).doubleValue(), false);
+            }
+        }
+        return heap;
+    }
+
+    /**
+     * Reference implementation: sorts ordinals by
+     * {@link FunUtil#compareValues(double, double)}, with a stable partial
+     * sort, as {@link FunUtil#partiallySortTuples} does.
+     */
+    private static List<Integer> sortRef(
+        Object[] values, boolean top, int limit)
+    {
+        final List<Integer> ordinals = new ArrayList<Integer>();
+        final double[] keys = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            ordinals.add(i);
+            keys[i] =
+                values[i] == Util.nullValue
+                    ? FunUtil.DoubleNull
+                    : ((Number) values[i]).doubleValue();
+        }
+        Comparator<Integer> comparator =
+            new Comparator<Integer>() {
+                public int compare(Integer o1, Integer o2) {
+                    return FunUtil.compareValues(keys[o1], keys[o2]);
+                }
+            };
+        if (top) {
+            comparator = Collections.reverseOrder(comparator);
+        }
+        return FunUtil.stablePartialSort(ordinals, comparator, limit);
+    }
+
+    private static List<Integer> toList(int[] ordinals) {
+        final List<Integer> list = new ArrayList<Integer>();
+        for (int ordinal : ordinals) {
+            list.add(ordinal);
+        }
+        return list;
+    }
+
+    private void checkCount(int size, int distinct, int limit) {
+        final Object[] values = newRandomValues(size, distinct);
+        for (boolean top : new boolean[] {true, false}) {
+            final int capacity = Math.min(limit, size);
+            assertEquals(
+                sortRef(values, top, capacity),
+                toList(newHeap(values, capacity, top, true).drain()));
+            assertEquals(
+                sortRef(values, top, size),
+                toList(newHeap(values, size, top, false).drain()));
+        }
+    }
+
+    public void testSmall() {
+        checkCount(1, 1, 1);
+        checkCount(10, 3, 1);
+        checkCount(10, 3, 5);
+        checkCount(10, 3, 10);
+        checkCount(10, 3, 20);
+        checkCount(100, 1, 7);
+    }
+
+    public void testMedium() {
+        checkCount(10000, 10, 100);
+        checkCount(10000, 100000, 100);
+        checkCount(10000, 100000, 9999);
+    }
+
+    /**
+     * Tests that null values sort above negative infinity and below every
+     * other number, as {@link FunUtil#compareValues(double, double)} orders
+     * them.
+     */
+    public void testNullAndNegativeInfinity() {
+        final Object[] values = {
+            1d, Util.nullValue, Double.NEGATIVE_INFINITY, Util.nullValue,
+            Double.NEGATIVE_INFINITY, 2d
+        };
+        final List<Integer> bottom = Arrays.asList(2, 4, 1, 3, 0, 5);
+        final List<Integer> top = Arrays.asList(5, 0, 1, 3, 2, 4);
+        assertEquals(bottom, sortRef(values, false, values.length));
+        assertEquals(top, sortRef(values, true, values.length));
+        assertEquals(
+            bottom,
+            toList(newHeap(values, values.length, false, false).drain()));
+        assertEquals(
+            top, toList(newHeap(values, values.length, true, false).drain()));
+        assertEquals(
+            bottom.subList(0, 3),
+            toList(newHeap(values, 3, false, true).drain()));
+        assertEquals(
+            top.subList(0, 4), toList(newHeap(values, 4, true, true).drain()));
+    }
+
+    /**
+     * Tests removing entries from an unbounded heap one at a time, as
+     * TopSum does, and that the key and null flag of the root correspond
+     * to the ordinal removed.
+     */
+    public void testPoll() {
+        final Object[] values = newRandomValues(1000, 50);
+        final List<Integer> ref = sortRef(values, false, values.length);
+        final TopBottomSelector.KeyHeap heap =
+            newHeap(values, values.length, false, false);
+        for (int i = 0; i < 100; i++) {
+            final double key = heap.rootKey();
+            final boolean isNull = heap.rootIsNull();
+            final int ordinal = heap.poll();
+            assertEquals(ref.get(i).intValue(), ordinal);
+            assertEquals(values[ordinal] == Util.nullValue, isNull);
+            assertEquals(((Number) values[ordinal]).doubleValue(), key);
+        }
+        assertEquals(values.length - 100, heap.size());
+    }
+
+    /**
+     * Compares the performance of heap selection with the comparator-based
+     * partial sort, for TopCount of 10 and 10,000 on 1 million values.
+     */
+    public void testSpeed() {
+        final Logger logger = PerformanceTest.LOGGER;
+        if (!logger.isDebugEnabled()) {
+            return;
+        }
+        final Object[] values = newRandomValues(1000000, 1000000);
+        for (int limit : new int[] {10, 10000}) {
+            logger.debug("TopCount(" + limit + ") of 1,000,000 values");
+
+            long now = System.currentTimeMillis();
+            sortRef(values, true, limit);
+            logger.debug(
+                " partial sort took "
+                + (System.currentTimeMillis() - now) + " msecs");
+
+            now = System.currentTimeMillis();
+            newHeap(values, limit, true, true).drain();
+            logger.debug(
+                " bounded heap took "
+                + (System.currentTimeMillis() - now) + " msecs");
+        }
+
+        long now = System.currentTimeMillis();
+        sortRef(values, true, values.length);
+        logger.debug(
+            " full sort took "
+            + (System.currentTimeMillis() - now) + " msecs");
+
+        now = System.currentTimeMillis();
+        final TopBottomSelector.KeyHeap heap =
+            newHeap(values, values.length, true, false);
+        for (int i = 0; i < 1000; i++) {
+            heap.poll();
+        }
+        logger.debug(
+            " heapify and take first 1,000 took "
+            + (System.currentTimeMillis() - now) + " msecs");
+    }
+}
+
+// End TopBottomSelectorTest.java
@@ -0,0 +1,252 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.olap.fun;
+
+import mondrian.calc.TupleList;
+import mondrian.calc.impl.*;
+import mondrian.olap.Member;
+import mondrian.olap.MondrianProperties;
+import mondrian.test.PerformanceTest;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.Logger;
+
+import java.util.*;
+
+/**
+ * Unit test for {@link TupleSetOps}, the hash-based implementation of the
+ * <code>Distinct</code>, <code>Except</code>, <code>Intersect</code> and
+ * <code>Union</code> functions. No MDX here; there are tests of those
+ * functions in FunctionTest.
+ *
+ * @author jhyde
+ */
+public class TupleSetOpsTest extends TestCase {
+    private final Random random = new Random(1234);
+
+    /**
+     * Creates a list of random tuples.
+     *
+     * @param members Members for each column
+     * @param size Number of tuples
+     * @param ordinal Whether to create an {@link OrdinalTupleList}
+     * @return List of tuples
+     */
+    private TupleList newRandomList(
+        Member[][] members,
+        int size,
+        boolean ordinal)
+    {
+        final int arity = members.length;
+        final TupleList list =
+            ordinal
+                ? new OrdinalTupleList(arity, size)
+                : arity == 1
+                ? new UnaryTupleList()
+                : new ArrayTupleList(arity, size);
+        final Member[] tuple = new Member[arity];
+        for (int i = 0; i < size; i++) {
+            for (int c = 0; c < arity; c++) {
+                tuple[c] = members[c][random.nextInt(members[c].length)];
+            }
+            list.addTuple(tuple);
+        }
+        return list;
+    }
+
+    private static Member[][] newMembers(int... counts) {
+        final Member[][] members = new Member[counts.length][];
+        for (int c = 0; c < counts.length; c++) {
+            members[c] = new Member[counts[c]];
+            for (int i = 0; i < counts[c]; i++) {
+                members[c][i] = new TestMember("m" + c + "_" + i);
+            }
+        }
+        return members;
+    }
+
+    // Reference implementations, based on java.util collections.
+
+    private static List<List<Member>> distinctRef(List<List<Member>> list) {
+        return new ArrayList<List<Member>>(
+            new LinkedHashSet<List<Member>>(list));
+    }
+
+    private static List<List<Member>> exceptRef(
+        List<List<Member>> list0,
+        List<List<Member>> list1)
+    {
+        final Set<List<Member>> set1 = new HashSet<List<Member>>(list1);
+        final List<List<Member>> result = new ArrayList<List<Member>>();
+        for (List<Member> tuple : list0) {
+            if (!set1.contains(tuple)) {
+                result.add(tuple);
+            }
+        }
+        return result;
+    }
+
+    private static List<List<Member>> intersectRef(
+        List<List<Member>> list0,
+        List<List<Member>> list1,
+        boolean all)
+    {
+        final Set<List<Member>> set1 = new HashSet<List<Member>>(list1);
+        final List<List<Member>> result = new ArrayList<List<Member>>();
+        for (List<Member> tuple : list0) {
+            if (set1.contains(tuple)) {
+                result.add(tuple);
+            }
+        }
+        return all ? result : distinctRef(result);
+    }
+
+    private static List<List<Member>> unionRef(
+        List<List<Member>> list0,
+        List<List<Member>> list1)
+    {
+        final List<List<Member>> result =
+            new ArrayList<List<Member>>(list0);
+        result.addAll(list1);
+        return distinctRef(result);
+    }
+
+    private void checkAll(int[] counts, int size0, int size1) {
+        final Member[][] members = newMembers(counts);
+        for (boolean ordinal : new boolean[] {false, true}) {
+            final TupleList list0 = newRandomList(members, size0, ordinal);
+            final TupleList list1 = newRandomList(members, size1, ordinal);
+            assertEquals(distinctRef(list0), TupleSetOps.distinct(list0));
+            assertEquals(
+                exceptRef(list0, list1), TupleSetOps.except(list0, list1));
+            assertEquals(
+                intersectRef(list0, list1, false),
+                TupleSetOps.intersect(list0, list1, false));
+            assertEquals(
+                intersectRef(list0, list1, true),
+                TupleSetOps.intersect(list0, list1, true));
+            assertEquals(
+                unionRef(list0, list1), TupleSetOps.union(list0, list1));
+        }
+    }
+
+    public void testSmall() {
+        checkAll(new int[] {3}, 10, 5);
+        checkAll(new int[] {3, 4}, 20, 20);
+        checkAll(new int[] {1, 1, 1}, 5, 5);
+        checkAll(new int[] {10, 2, 7}, 100, 0);
+        checkAll(new int[] {10, 2, 7}, 0, 100);
+    }
+
+    public void testMedium() {
+        checkAll(new int[] {100, 50}, 10000, 5000);
+        checkAll(new int[] {1000, 3, 20, 5}, 20000, 20000);
+    }
+
+    /**
+     * Tests that the parallel algorithm gives the same results, in the same
+     * order, as the serial algorithm.
+     */
+    public void testParallel() {
+        final MondrianProperties properties = MondrianProperties.instance();
+        final int threshold = properties.SetOperationParallelThreshold.get();
+        try {
+            properties.SetOperationParallelThreshold.set(100);
+            checkAll(new int[] {100, 50}, 10000, 5000);
+            checkAll(new int[] {7}, 1000, 1000);
+        } finally {
+            properties.SetOperationParallelThreshold.set(threshold);
+        }
+    }
+
+    /**
+     * Tests that if the keys do not fit into a long, the methods return
+     * null, and the caller uses a general algorithm.
+     */
+    public void testKeysTooWide() {
+        // 5 columns of ~15,000 distinct members need 5 * 14 = 70 bits
+        final int[] counts = {20000, 20000, 20000, 20000, 20000};
+        final Member[][] members = newMembers(counts);
+        final TupleList list = newRandomList(members, 30000, false);
+        assertNull(TupleSetOps.distinct(list));
+        assertNull(TupleSetOps.except(list, list));
+    }
+
+    /**
+     * Compares the performance of the hash-based set operations with
+     * operations on {@code HashSet<List<Member>>}, on sets of 1 million
+     * tuples.
+     */
+    public void testSpeed() {
+        final Logger logger = PerformanceTest.LOGGER;
+        if (!logger.isDebugEnabled()) {
+            return;
+        }
+        final Member[][] members = newMembers(1000, 100, 50);
+        for (boolean ordinal : new boolean[] {false, true}) {
+            final TupleList list0 = newRandomList(members, 1000000, ordinal);
+            final TupleList list1 = newRandomList(members, 1000000, ordinal);
+            logger.debug(
+                "set operations on 1,000,000 tuples, "
+                + (ordinal ? "OrdinalTupleList" : "ArrayTupleList"));
+
+            long now = System.currentTimeMillis();
+            distinctRef(list0);
+            logger.debug(
+                " distinct via HashSet took "
+                + (System.currentTimeMillis() - now) + " msecs");
+
+            now = System.currentTimeMillis();
+            TupleSetOps.distinct(list0);
+            logger.debug(
+                " distinct via packed keys took "
+                + (System.currentTimeMillis() - now) + " msecs");
+
+            now = System.currentTimeMillis();
+            exceptRef(list0, list1);
+            logger.debug(
+                " except via HashSet took "
+                + (System.currentTimeMillis() - now) + " msecs");
+
+            now = System.currentTimeMillis();
+            TupleSetOps.except(list0, list1);
+            logger.debug(
+                " except via packed keys took "
+                + (System.currentTimeMillis() - now) + " msecs");
+
+            now = System.currentTimeMillis();
+            intersectRef(list0, list1, false);
+            logger.debug(
+                " intersect via HashSet took "
+                + (System.currentTimeMillis() - now) + " msecs");
+
+            now = System.currentTimeMillis();
+            TupleSetOps.intersect(list0, list1, false);
+            logger.debug(
+                " intersect via packed keys took "
+                + (System.currentTimeMillis() - now) + " msecs");
+
+            now = System.currentTimeMillis();
+            unionRef(list0, list1);
+            logger.debug(
+                " union via HashSet took "
+                + (System.currentTimeMillis() - now) + " msecs");
+
+            now = System.currentTimeMillis();
+            TupleSetOps.union(list0, list1);
+            logger.debug(
+                " union via packed keys took "
+                + (System.currentTimeMillis() - now) + " msecs");
+        }
+    }
+}
+
+// End TupleSetOpsTest.java
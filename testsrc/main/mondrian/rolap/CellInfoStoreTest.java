@@ -0,0 +1,85 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.Util;
+import mondrian.rolap.RolapResult.CellInfo;
+import mondrian.rolap.RolapResult.CellInfoStore;
+import mondrian.rolap.RolapResult.ValueFormatter;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link RolapResult.CellInfoStore}.
+ *
+ * @author jhyde
+ */
+public class CellInfoStoreTest extends TestCase {
+    public CellInfoStoreTest(String name) {
+        super(name);
+    }
+
+    private static void store(
+        CellInfoStore store,
+        int[] pos,
+        Object value,
+        String formatString)
+    {
+        final CellInfo ci = store.create(pos);
+        ci.value = value;
+        ci.formatString = formatString;
+        store.store(ci);
+    }
+
+    /**
+     * Tests that values of each kind, and their format strings, survive a
+     * round trip through the store.
+     */
+    public void testRoundTrip() {
+        final CellInfoStore store = new CellInfoStore(new int[] {3, 2});
+        assertEquals(6, store.getCellCount());
+        store(store, new int[] {0, 0}, 1.5d, "#.00");
+        store(store, new int[] {1, 0}, 7, "#.00");
+        store(store, new int[] {2, 0}, Util.nullValue, null);
+        store(store, new int[] {0, 1}, "abc", "Standard");
+        store(store, new int[] {1, 1}, 2.5d, "#.00");
+        assertEquals(5, store.size());
+
+        CellInfo ci = store.lookup(new int[] {0, 0});
+        assertEquals(1.5d, ci.value);
+        assertEquals("#.00", ci.formatString);
+        ci = store.lookup(new int[] {1, 0});
+        assertEquals(7, ci.value);
+        assertSame(Util.nullValue, store.lookup(new int[] {2, 0}).value);
+        ci = store.lookup(new int[] {0, 1});
+        assertEquals("abc", ci.value);
+        assertEquals("Standard", ci.formatString);
+        assertEquals("#.00", store.lookup(new int[] {1, 1}).formatString);
+
+        // A cell that was never stored, and a cell out of range, are empty.
+        ci = store.lookup(new int[] {2, 1});
+        assertNull(ci.value);
+        assertSame(ValueFormatter.EMPTY, ci.valueFormatter);
+        assertNull(store.lookup(new int[] {3, 0}).value);
+
+        // Overwriting a value clears its previous kind.
+        store(store, new int[] {1, 0}, 3.25d, null);
+        ci = store.lookup(new int[] {1, 0});
+        assertEquals(3.25d, ci.value);
+        assertNull(ci.formatString);
+        assertEquals(5, store.size());
+
+        store.clear();
+        assertEquals(0, store.size());
+        assertNull(store.lookup(new int[] {0, 0}).value);
+    }
+}
+
+// End CellInfoStoreTest.java
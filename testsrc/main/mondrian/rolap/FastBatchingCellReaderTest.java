@@ -9,9 +9,11 @@
 */
 package mondrian.rolap;
 
+import mondrian.olap.CacheControl;
 import mondrian.olap.MondrianProperties;
 import mondrian.olap.MondrianServer;
 import mondrian.rolap.agg.*;
+import mondrian.rolap.sql.SqlQuery;
 import mondrian.server.*;
 import mondrian.spi.Dialect;
 import mondrian.test.SqlPattern;
@@ -179,6 +181,107 @@ public class FastBatchingCellReaderTest extends BatchTestCase {
         assertFalse(fbcr.shouldUseGroupingFunction());
     }
 
+    public void testShouldUseGroupingFunctionOnNonSupportedDBWithEmulation() {
+        propSaver.set(
+            MondrianProperties.instance().EnableGroupingSets,
+            true);
+        propSaver.set(
+            MondrianProperties.instance().EmulateGroupingSets,
+            true);
+        final BatchLoader fbcr = createFbcr(false, salesCube);
+        assertEquals(
+            SqlQuery.canEmulateGroupingSets(getTestContext().getDialect()),
+            fbcr.shouldUseGroupingFunction());
+        propSaver.set(
+            MondrianProperties.instance().EnableGroupingSets,
+            false);
+        assertFalse(createFbcr(false, salesCube).shouldUseGroupingFunction());
+    }
+
+    /**
+     * Tests the SQL generated for grouping sets on a database that does not
+     * support them: a UNION ALL with one branch per grouping set.
+     */
+    public void testEmulatedGroupingSetsSql() {
+        final Dialect dialect =
+            dialectWithGroupingSets(getTestContext().getDialect(), false);
+        if (dialect.requiresGroupByAlias()) {
+            return;
+        }
+        final SqlQuery sqlQuery = new SqlQuery(dialect, false);
+        sqlQuery.addSelect("c0", null, "c0");
+        sqlQuery.addSelect("c1", null, "c1");
+        sqlQuery.addSelect("sum(m)", null, "m1");
+        sqlQuery.addFromTable("s", "t1", "t1alias", null, null, true);
+        sqlQuery.addWhere("a=b");
+        sqlQuery.addGroupingFunction("c0");
+        sqlQuery.addGroupingSet(Arrays.asList("c0", "c1"));
+        sqlQuery.addGroupingSet(Arrays.asList("c1"));
+        final String expected =
+            "select c0 as \"c0\", c1 as \"c1\", sum(m) as \"m1\", "
+            + "0 as \"g0\" from \"s\".\"t1\" =as= \"t1alias\" where a=b "
+            + "group by c0, c1 "
+            + "union all "
+            + "select null as \"c0\", c1 as \"c1\", sum(m) as \"m1\", "
+            + "1 as \"g0\" from \"s\".\"t1\" =as= \"t1alias\" where a=b "
+            + "group by c1";
+        assertEquals(
+            dialectize(dialect.getDatabaseProduct(), expected),
+            dialectize(dialect.getDatabaseProduct(), sqlQuery.toString()));
+    }
+
+    /**
+     * Tests that a multi-level query returns the same result whether or not
+     * grouping sets are emulated. Only runs on databases that do not support
+     * grouping sets. On databases where grouping sets cannot be emulated,
+     * such as Derby, the property is ignored.
+     */
+    public void testEmulatedGroupingSetsResult() {
+        final Dialect dialect = getTestContext().getDialect();
+        if (dialect.supportsGroupingSets()) {
+            return;
+        }
+        final String mdx =
+            "select {[Measures].[Unit Sales], [Measures].[Store Cost]} on 0,\n"
+            + " {[Store].[USA], [Store].[USA].Children}\n"
+            + "   * {[Gender].[All Gender], [Gender].Children} on 1\n"
+            + "from [Sales]";
+        final MondrianProperties props = MondrianProperties.instance();
+        final String expected = executeFlushed(mdx);
+        propSaver.set(props.EnableGroupingSets, true);
+        propSaver.set(props.EmulateGroupingSets, true);
+        assertEquals(expected, executeFlushed(mdx));
+    }
+
+    /**
+     * Tests that a partial rollup gives the right total when the fact count
+     * is cached. The batch that loads the missing region also loads the
+     * fact-count measure, whose segments must not be rolled up with those of
+     * the requested measure.
+     */
+    public void testPartialRollupWithFactCount() {
+        final String mdx =
+            "select {[Measures].[Unit Sales]} on 0,\n"
+            + " {[Store].[USA]} on 1\n"
+            + "from [Sales]";
+        final MondrianProperties props = MondrianProperties.instance();
+        final String expected = executeFlushed(mdx);
+        propSaver.set(props.EnablePartialRollup, true);
+        propSaver.set(props.CacheFactCount, true);
+        executeFlushed(
+            "select {[Measures].[Unit Sales]} on 0,\n"
+            + " {[Store].[USA].[CA], [Store].[USA].[OR]} on 1\n"
+            + "from [Sales]");
+        assertEquals(expected, TestContext.toString(executeQuery(mdx)));
+    }
+
+    private String executeFlushed(String mdx) {
+        final CacheControl cacheControl =
+            getTestContext().getConnection().getCacheControl(null);
+        cacheControl.flush(cacheControl.createMeasuresRegion(salesCube));
+        return TestContext.toString(executeQuery(mdx));
+    }
+
     public void testDoesDBSupportGroupingSets() {
         final Dialect dialect = getTestContext().getDialect();
         FastBatchingCellReader fbcr =
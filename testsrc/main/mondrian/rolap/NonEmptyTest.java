@@ -2254,6 +2254,25 @@ public class NonEmptyTest extends BatchTestCase {
         Assert.assertEquals(21, rowsAxis.getPositions().size());
     }
 
+    /**
+     * Tests that NonEmptyCrossJoin generates only non-empty tuples, so that a
+     * crossjoin whose full product exceeds the result limit succeeds if its
+     * non-empty tuples are within the limit. There is no data for 1998, so
+     * none of the 10,281 combinations with [Time].[1998] are generated.
+     */
+    public void testNonEmptyCrossJoinPrunesWithinResultLimit() {
+        propSaver.set(
+            MondrianProperties.instance().EnableNativeCrossJoin, false);
+        propSaver.set(MondrianProperties.instance().ResultLimit, 10000);
+        Result result = executeQuery(
+            "select {[Measures].[Unit Sales]} on columns,\n"
+            + " NonEmptyCrossJoin({[Time].[1998], [Time].[1997]},\n"
+            + "   [Customers].[Name].Members) on rows\n"
+            + "from [Sales]");
+        final Axis rowsAxis = result.getAxes()[1];
+        Assert.assertEquals(5581, rowsAxis.getPositions().size());
+    }
+
     /**
      * when Mondrian parses a string like
      * "[Store].[All Stores].[USA].[CA].[San Francisco]"
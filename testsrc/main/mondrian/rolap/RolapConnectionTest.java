@@ -14,6 +14,7 @@ package mondrian.rolap;
 
 import mondrian.olap.*;
 import mondrian.spi.Dialect;
+import mondrian.test.PropertySaver;
 import mondrian.test.TestContext;
 import mondrian.util.Pair;
 
@@ -36,10 +37,17 @@ public class RolapConnectionTest extends TestCase {
     private static final ThreadLocal<InitialContext> THREAD_INITIAL_CONTEXT =
         new ThreadLocal<InitialContext>();
 
+    private final PropertySaver propSaver = new PropertySaver();
+
     public RolapConnectionTest(String name) {
         super(name);
     }
 
+    protected void tearDown() throws Exception {
+        propSaver.reset();
+        super.tearDown();
+    }
+
     protected void setUp() throws Exception {
         super.setUp();
 
@@ -464,6 +472,441 @@ public class RolapConnectionTest extends TestCase {
             }
         }
     }
+
+    /**
+     * Creates connection properties for a FoodMart schema that is not in
+     * the schema pool. The schema text is unique, so it has its own key.
+     */
+    private static Util.PropertyList newSchemaProperties(String tag) {
+        final Util.PropertyList properties =
+            TestContext.instance().getConnectionProperties().clone();
+        properties.put(
+            RolapConnectionProperties.CatalogContent.name(),
+            TestContext.getRawFoodMartSchema()
+            + "<!-- " + tag + " " + Util.generateUuidString() + " -->");
+        return properties;
+    }
+
+    /**
+     * Tests that connections which ask for the same schema at the same time
+     * share one schema, loaded once.
+     */
+    public void testSchemaPoolConcurrentLoad() throws Exception {
+        final Util.PropertyList properties =
+            newSchemaProperties("testSchemaPoolConcurrentLoad");
+        final int threadCount = 4;
+        final List<RolapSchema> schemas =
+            Collections.synchronizedList(new ArrayList<RolapSchema>());
+        final List<Throwable> throwables =
+            Collections.synchronizedList(new ArrayList<Throwable>());
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < threadCount; i++) {
+            threads.add(
+                new Thread("testSchemaPoolConcurrentLoad#" + i) {
+                    public void run() {
+                        try {
+                            final RolapConnection connection =
+                                (RolapConnection)
+                                    DriverManager.getConnection(
+                                        properties, null);
+                            schemas.add(connection.getSchema());
+                            connection.close();
+                        } catch (Throwable e) {
+                            throwables.add(e);
+                        }
+                    }
+                });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.<Throwable>emptyList(), throwables);
+        assertEquals(threadCount, schemas.size());
+        for (RolapSchema schema : schemas) {
+            assertSame(schemas.get(0), schema);
+        }
+        assertTrue(RolapSchema.cacheContains(schemas.get(0)));
+        RolapSchema.Pool.instance().remove(schemas.get(0));
+        assertFalse(RolapSchema.cacheContains(schemas.get(0)));
+    }
+
+    /**
+     * Tests that the schema pool holds no more than
+     * {@link MondrianProperties#SchemaPoolMaxSize} schemas, and forgets the
+     * least recently used.
+     */
+    public void testSchemaPoolMaxSize() {
+        RolapSchema schema1 = null;
+        RolapSchema schema2 = null;
+        try {
+            propSaver.set(propSaver.properties.SchemaPoolMaxSize, 1);
+            final Util.PropertyList properties1 =
+                newSchemaProperties("testSchemaPoolMaxSize#1");
+            RolapConnection connection =
+                (RolapConnection)
+                    DriverManager.getConnection(properties1, null);
+            schema1 = connection.getSchema();
+            connection.close();
+            assertTrue(RolapSchema.cacheContains(schema1));
+
+            // Same properties, same schema.
+            connection =
+                (RolapConnection)
+                    DriverManager.getConnection(properties1, null);
+            assertSame(schema1, connection.getSchema());
+            connection.close();
+
+            // A second schema pushes out the first.
+            connection =
+                (RolapConnection)
+                    DriverManager.getConnection(
+                        newSchemaProperties("testSchemaPoolMaxSize#2"),
+                        null);
+            schema2 = connection.getSchema();
+            connection.close();
+            assertNotSame(schema1, schema2);
+            assertTrue(RolapSchema.cacheContains(schema2));
+            assertFalse(RolapSchema.cacheContains(schema1));
+        } finally {
+            RolapSchema.Pool.instance().remove(schema1);
+            RolapSchema.Pool.instance().remove(schema2);
+        }
+    }
+
+    private static RolapConnection connect(String catalogContent) {
+        final Util.PropertyList properties =
+            TestContext.instance().getConnectionProperties().clone();
+        properties.put(
+            RolapConnectionProperties.CatalogContent.name(),
+            catalogContent);
+        return (RolapConnection) DriverManager.getConnection(properties, null);
+    }
+
+    /**
+     * Tests that if {@link MondrianProperties#IncrementalSchemaReload} is
+     * true, a new version of a schema inherits the members and cells of the
+     * previous version, except those of measures that have changed.
+     */
+    public void testIncrementalSchemaReload() {
+        final String rawSchema = TestContext.getRawFoodMartSchema();
+        final String tag =
+            "<!-- testIncrementalSchemaReload "
+            + Util.generateUuidString() + " -->";
+        final List<String> sqlList =
+            Collections.synchronizedList(new ArrayList<String>());
+        RolapSchema schema1 = null;
+        RolapSchema schema2 = null;
+        try {
+            propSaver.set(
+                propSaver.properties.IncrementalSchemaReload, true);
+            RolapConnection connection = connect(rawSchema + tag);
+            schema1 = connection.getSchema();
+            connection.execute(
+                connection.parseQuery(
+                    "select {[Measures].[Unit Sales], [Measures].[Store Cost]}"
+                    + " on 0,\n"
+                    + "[Store].[Store Country].Members on 1\n"
+                    + "from [Sales]"));
+            connection.close();
+
+            // In the new version, Store Cost has a different aggregator.
+            connection =
+                connect(
+                    rawSchema.replace(
+                        "<Measure name=\"Store Cost\" column=\"store_cost\""
+                        + " aggregator=\"sum\"",
+                        "<Measure name=\"Store Cost\" column=\"store_cost\""
+                        + " aggregator=\"max\"")
+                    + tag);
+            schema2 = connection.getSchema();
+            assertNotSame(schema1, schema2);
+            RolapUtil.setHook(
+                new RolapUtil.ExecuteQueryHook() {
+                    public void onExecuteQuery(String sql) {
+                        sqlList.add(sql);
+                    }
+                });
+
+            // Members and cells were carried over.
+            connection.execute(
+                connection.parseQuery(
+                    "select {[Measures].[Unit Sales]} on 0,\n"
+                    + "[Store].[Store Country].Members on 1\n"
+                    + "from [Sales]"));
+            assertEquals(Collections.<String>emptyList(), sqlList);
+
+            // Cells of the changed measure were not.
+            connection.execute(
+                connection.parseQuery(
+                    "select {[Measures].[Store Cost]} on 0,\n"
+                    + "[Store].[Store Country].Members on 1\n"
+                    + "from [Sales]"));
+            assertFalse(sqlList.isEmpty());
+            connection.close();
+        } finally {
+            RolapUtil.setHook(null);
+            RolapSchema.Pool.instance().remove(schema1);
+            RolapSchema.Pool.instance().remove(schema2);
+        }
+    }
+
+    /**
+     * Tests that if the SQL filter of the fact table changes, and nothing
+     * else, the cells of the previous version of the schema are not carried
+     * over.
+     */
+    public void testIncrementalSchemaReloadFilter() {
+        final String rawSchema = TestContext.getRawFoodMartSchema();
+        final String tag =
+            "<!-- testIncrementalSchemaReloadFilter "
+            + Util.generateUuidString() + " -->";
+        final String mdx =
+            "select {[Measures].[Unit Sales]} on 0,\n"
+            + "[Store].[Store Country].Members on 1\n"
+            + "from [Sales]";
+        final List<String> sqlList =
+            Collections.synchronizedList(new ArrayList<String>());
+        RolapSchema schema1 = null;
+        RolapSchema schema2 = null;
+        try {
+            propSaver.set(
+                propSaver.properties.IncrementalSchemaReload, true);
+            RolapConnection connection = connect(rawSchema + tag);
+            schema1 = connection.getSchema();
+            connection.execute(connection.parseQuery(mdx));
+            connection.close();
+
+            // In the new version, the fact table has a filter.
+            final String factTable = "<Table name=\"sales_fact_1997\">";
+            assertTrue(rawSchema.contains(factTable));
+            connection =
+                connect(
+                    rawSchema.replace(
+                        factTable,
+                        factTable
+                        + "<SQL dialect=\"generic\">1 = 1</SQL>")
+                    + tag);
+            schema2 = connection.getSchema();
+            assertNotSame(schema1, schema2);
+            RolapUtil.setHook(
+                new RolapUtil.ExecuteQueryHook() {
+                    public void onExecuteQuery(String sql) {
+                        sqlList.add(sql);
+                    }
+                });
+            connection.execute(connection.parseQuery(mdx));
+            boolean filtered = false;
+            for (String sql : sqlList) {
+                filtered |= sql.contains("1 = 1");
+            }
+            assertTrue(sqlList.toString(), filtered);
+            connection.close();
+        } finally {
+            RolapUtil.setHook(null);
+            RolapSchema.Pool.instance().remove(schema1);
+            RolapSchema.Pool.instance().remove(schema2);
+        }
+    }
+
+    /**
+     * Returns the FoodMart schema plus some generated cubes. Each generated
+     * cube has its own fact table, a view whose SQL is unique, and private
+     * dimensions, so it has nothing in common with other cubes and can be
+     * created in its own thread.
+     *
+     * @param cubeCount Number of generated cubes
+     * @param extra Extra XML to add to the schema, such as another cube
+     * @param tag Comment that makes the schema unique in the pool
+     * @return Schema XML
+     */
+    private static String schemaWithCubes(
+        int cubeCount,
+        String extra,
+        String tag)
+    {
+        final StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < cubeCount; i++) {
+            buf.append("<Cube name=\"Generated ").append(i).append("\">\n")
+                .append("  <View alias=\"fact\">\n")
+                .append("    <SQL dialect=\"generic\">")
+                .append("select * from sales_fact_1997 where ")
+                .append(i).append(" = ").append(i).append("</SQL>\n")
+                .append("  </View>\n")
+                .append("  <Dimension name=\"Gender\"")
+                .append(" foreignKey=\"customer_id\">\n")
+                .append("    <Hierarchy hasAll=\"true\"")
+                .append(" primaryKey=\"customer_id\">\n")
+                .append("      <Table name=\"customer\"/>\n")
+                .append("      <Level name=\"Gender\" column=\"gender\"")
+                .append(" uniqueMembers=\"true\"/>\n")
+                .append("    </Hierarchy>\n")
+                .append("  </Dimension>\n")
+                .append("  <Measure name=\"Unit Sales\" column=\"unit_sales\"")
+                .append(" aggregator=\"sum\"/>\n")
+                .append("</Cube>\n");
+        }
+        buf.append(extra);
+        final String rawSchema = TestContext.getRawFoodMartSchema();
+        final int end = rawSchema.lastIndexOf("</Schema>");
+        return rawSchema.substring(0, end) + buf + rawSchema.substring(end)
+            + "<!-- " + tag + " " + Util.generateUuidString() + " -->";
+    }
+
+    /**
+     * Describes the cubes, dimensions, hierarchies, levels and measures of a
+     * schema, sorted by cube name.
+     */
+    private static String describe(RolapSchema schema) {
+        final List<String> cubeList = new ArrayList<String>();
+        for (RolapCube cube : schema.getCubeList()) {
+            final StringBuilder buf = new StringBuilder();
+            buf.append("cube ").append(cube.getName()).append('\n');
+            for (Dimension dimension : cube.getDimensions()) {
+                buf.append(" dimension ").append(dimension.getUniqueName())
+                    .append('\n');
+                for (Hierarchy hierarchy : dimension.getHierarchies()) {
+                    buf.append("  hierarchy ")
+                        .append(hierarchy.getUniqueName()).append('\n');
+                    for (Level level : hierarchy.getLevels()) {
+                        buf.append("   level ").append(level.getUniqueName())
+                            .append('\n');
+                    }
+                }
+            }
+            for (RolapMember measure : cube.getMeasuresMembers()) {
+                buf.append(" measure ").append(measure.getUniqueName())
+                    .append('\n');
+            }
+            cubeList.add(buf.toString());
+        }
+        Collections.sort(cubeList);
+        return cubeList.toString();
+    }
+
+    /**
+     * Tests that cubes that have nothing in common are created in parallel,
+     * if {@link MondrianProperties#SchemaLoadThreads} is greater than 1, and
+     * that the schema is the same as one loaded serially.
+     */
+    public void testSchemaLoadParallel() {
+        final String mdx =
+            "select {[Measures].[Unit Sales]} on 0,\n"
+            + "[Gender].Members on 1\n"
+            + "from [Generated 3]";
+        RolapSchema serialSchema = null;
+        RolapSchema parallelSchema = null;
+        try {
+            propSaver.set(propSaver.properties.SchemaLoadThreads, 1);
+            RolapConnection connection =
+                connect(schemaWithCubes(4, "", "testSchemaLoadParallel#1"));
+            serialSchema = connection.getSchema();
+            final String serialResult =
+                TestContext.toString(
+                    connection.execute(connection.parseQuery(mdx)));
+            connection.close();
+
+            propSaver.set(propSaver.properties.SchemaLoadThreads, 4);
+            connection =
+                connect(schemaWithCubes(4, "", "testSchemaLoadParallel#2"));
+            parallelSchema = connection.getSchema();
+            assertNotSame(serialSchema, parallelSchema);
+
+            // The generated cubes are in groups of their own, so there is
+            // more than one group, and the cubes are created in parallel.
+            final List<List<MondrianDef.Cube>> groups =
+                RolapSchema.groupCubes(parallelSchema.getXMLSchema());
+            assertTrue(groups.toString(), groups.size() >= 5);
+            for (int i = 0; i < 4; i++) {
+                assertNotNull(
+                    parallelSchema.lookupCube("Generated " + i));
+            }
+            assertEquals(describe(serialSchema), describe(parallelSchema));
+            assertEquals(
+                serialResult,
+                TestContext.toString(
+                    connection.execute(connection.parseQuery(mdx))));
+            connection.close();
+        } finally {
+            RolapSchema.Pool.instance().remove(serialSchema);
+            RolapSchema.Pool.instance().remove(parallelSchema);
+        }
+    }
+
+    /**
+     * Tests that if {@link MondrianProperties#LazyCubeInitialization} is
+     * true, a cube is created when it is first used, and a schema that
+     * contains an invalid cube can still be loaded.
+     */
+    public void testLazyCubeInitialization() {
+        final String brokenCube =
+            "<Cube name=\"Broken\">\n"
+            + "  <Table name=\"sales_fact_1997\"/>\n"
+            + "  <DimensionUsage name=\"Nonexistent\" source=\"Nonexistent\""
+            + " foreignKey=\"store_id\"/>\n"
+            + "  <Measure name=\"Unit Sales\" column=\"unit_sales\""
+            + " aggregator=\"sum\"/>\n"
+            + "</Cube>\n";
+        final String mdx =
+            "select {[Measures].[Unit Sales]} on 0,\n"
+            + "[Gender].Members on 1\n"
+            + "from [Generated 1]";
+
+        // If cubes are created when the schema is loaded, the invalid cube
+        // stops the schema from loading.
+        propSaver.set(propSaver.properties.LazyCubeInitialization, false);
+        try {
+            final RolapConnection connection =
+                connect(
+                    schemaWithCubes(
+                        2, brokenCube, "testLazyCubeInitialization#1"));
+            connection.close();
+            fail("expected error");
+        } catch (RuntimeException e) {
+            assertTrue(
+                Util.getErrorMessage(e),
+                Util.getErrorMessage(e).contains("Nonexistent"));
+        }
+
+        RolapSchema schema = null;
+        try {
+            propSaver.set(propSaver.properties.LazyCubeInitialization, true);
+            final RolapConnection connection =
+                connect(
+                    schemaWithCubes(
+                        2, brokenCube, "testLazyCubeInitialization#2"));
+            schema = connection.getSchema();
+
+            // A valid cube is created on first use.
+            final String result =
+                TestContext.toString(
+                    connection.execute(connection.parseQuery(mdx)));
+            assertTrue(result, result.contains("[Gender].[F]"));
+            assertSame(
+                schema.lookupCube("Generated 1"),
+                schema.lookupCube("Generated 1"));
+
+            // The invalid cube fails when it is first used, and remains
+            // pending, so that each later use fails the same way.
+            for (int i = 0; i < 2; i++) {
+                try {
+                    connection.execute(
+                        connection.parseQuery(
+                            "select from [Broken]"));
+                    fail("expected error");
+                } catch (RuntimeException e) {
+                    assertTrue(
+                        Util.getErrorMessage(e),
+                        Util.getErrorMessage(e).contains("Nonexistent"));
+                }
+            }
+            connection.close();
+        } finally {
+            RolapSchema.Pool.instance().remove(schema);
+        }
+    }
 }
 
 // End RolapConnectionTest.java
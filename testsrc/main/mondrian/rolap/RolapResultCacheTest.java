@@ -0,0 +1,176 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.*;
+import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
+
+/**
+ * Unit test for {@link RolapResultCache}.
+ *
+ * @author jhyde
+ */
+public class RolapResultCacheTest extends FoodMartTestCase {
+    private static final String SALES_QUERY =
+        "select {[Measures].[Unit Sales]} on 0,\n"
+        + " [Gender].Members on 1\n"
+        + "from [Sales]";
+
+    private static final String WAREHOUSE_QUERY =
+        "select {[Measures].[Units Shipped]} on 0\n"
+        + "from [Warehouse]";
+
+    public RolapResultCacheTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        propSaver.set(MondrianProperties.instance().EnableResultCache, true);
+        getResultCache().clear();
+    }
+
+    protected void tearDown() throws Exception {
+        getResultCache().clear();
+        super.tearDown();
+    }
+
+    private RolapResultCache getResultCache() {
+        return ((RolapConnection) getConnection()).getServer()
+            .getResultCache();
+    }
+
+    private void flush(String cubeName) {
+        final Connection connection = getConnection();
+        final CacheControl cacheControl = connection.getCacheControl(null);
+        final Cube cube = connection.getSchema().lookupCube(cubeName, true);
+        cacheControl.flush(cacheControl.createMeasuresRegion(cube));
+    }
+
+    /**
+     * Tests that an identical query, even with different white space, returns
+     * the cached result.
+     */
+    public void testHit() {
+        final RolapResultCache cache = getResultCache();
+        final Result result = executeQuery(SALES_QUERY);
+        assertEquals(1, cache.getResultCount());
+        assertEquals(0, cache.getHitCount());
+
+        final Result result2 =
+            executeQuery(SALES_QUERY.replace("\n", "\n\n   "));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(
+            TestContext.toString(result), TestContext.toString(result2));
+
+        // A query with different MDX misses.
+        executeQuery(WAREHOUSE_QUERY);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getResultCount());
+    }
+
+    /**
+     * Tests that a cached result is a copy that does not depend on the
+     * execution that computed it.
+     */
+    public void testCopy() {
+        final RolapResultCache cache = getResultCache();
+        final Result result = executeQuery(SALES_QUERY);
+        final String expected = TestContext.toString(result);
+        result.close();
+
+        final Result result2 = executeQuery(SALES_QUERY);
+        assertEquals(1, cache.getHitCount());
+        assertNotSame(result.getQuery(), result2.getQuery());
+        assertEquals(expected, TestContext.toString(result2));
+        final Cell cell = result2.getCell(new int[] {0, 2});
+        assertEquals(2, cell.getPropertyValue("CELL_ORDINAL"));
+        assertEquals("Standard", cell.getPropertyValue("FORMAT_STRING"));
+        assertEquals(
+            "[Gender].[M]",
+            cell.getContextMember(
+                result2.getAxes()[1].getPositions().get(2).get(0)
+                    .getHierarchy()).getUniqueName());
+        assertFalse(cell.canDrillThrough());
+    }
+
+    /**
+     * Tests that the result of a query that calls a function whose value
+     * changes over time is not cached.
+     */
+    public void testNonDeterministic() {
+        final RolapResultCache cache = getResultCache();
+        executeQuery(
+            "with member [Measures].[Today] as 'Format(Now(), \"yyyy\")'\n"
+            + "select {[Measures].[Today]} on 0\n"
+            + "from [Sales]");
+        assertEquals(0, cache.getResultCount());
+        assertEquals(0, cache.getMissCount());
+    }
+
+    /**
+     * Tests that a connection with a different role does not see the cached
+     * result.
+     */
+    public void testRole() {
+        final RolapResultCache cache = getResultCache();
+        executeQuery(SALES_QUERY);
+        getTestContext().withRole("California manager")
+            .executeQuery(SALES_QUERY);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, cache.getResultCount());
+    }
+
+    /**
+     * Tests that flushing the cells of a cube removes the results of queries
+     * on that cube, but not of queries on other cubes.
+     */
+    public void testFlush() {
+        final RolapResultCache cache = getResultCache();
+        executeQuery(SALES_QUERY);
+        executeQuery(WAREHOUSE_QUERY);
+        assertEquals(2, cache.getResultCount());
+        flush("Sales");
+        assertEquals(1, cache.getResultCount());
+        executeQuery(WAREHOUSE_QUERY);
+        assertEquals(1, cache.getHitCount());
+        executeQuery(SALES_QUERY);
+        assertEquals(1, cache.getHitCount());
+
+        // A virtual cube is flushed when one of its base cubes is.
+        executeQuery(
+            "select {[Measures].[Unit Sales]} on 0\n"
+            + "from [Warehouse and Sales]");
+        assertEquals(3, cache.getResultCount());
+        flush("Warehouse");
+        assertEquals(1, cache.getResultCount());
+    }
+
+    /**
+     * Tests that results larger than the cache's budget are not cached, and
+     * that the cache can be disabled.
+     */
+    public void testLimits() {
+        final MondrianProperties props = MondrianProperties.instance();
+        final RolapResultCache cache = getResultCache();
+        propSaver.set(props.ResultCacheMaxSize, 10);
+        executeQuery(SALES_QUERY);
+        assertEquals(0, cache.getResultCount());
+
+        propSaver.set(props.ResultCacheMaxSize, 10000000);
+        propSaver.set(props.EnableResultCache, false);
+        executeQuery(SALES_QUERY);
+        assertEquals(0, cache.getResultCount());
+        assertEquals(1, cache.getMissCount());
+    }
+}
+
+// End RolapResultCacheTest.java
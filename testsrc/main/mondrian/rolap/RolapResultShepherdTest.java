@@ -0,0 +1,281 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.*;
+import mondrian.server.Execution;
+import mondrian.test.FoodMartTestCase;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Unit test for {@link RolapResultShepherd}, in particular the scheduling of
+ * executions.
+ *
+ * @author jhyde
+ */
+public class RolapResultShepherdTest extends FoodMartTestCase {
+    private RolapResultShepherd shepherd;
+    private final List<String> log =
+        Collections.synchronizedList(new ArrayList<String>());
+    private final CountDownLatch latch = new CountDownLatch(1);
+
+    public RolapResultShepherdTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        shepherd = new RolapResultShepherd();
+    }
+
+    protected void tearDown() throws Exception {
+        latch.countDown();
+        shepherd.shutdown();
+        shepherd = null;
+        super.tearDown();
+    }
+
+    /**
+     * Creates a connection with a given priority, or the default priority if
+     * null.
+     */
+    private RolapConnection connect(String priority) {
+        final Util.PropertyList properties =
+            getTestContext().getConnectionProperties().clone();
+        if (priority != null) {
+            properties.put(
+                RolapConnectionProperties.Priority.name(), priority);
+        }
+        return (RolapConnection)
+            getTestContext().withProperties(properties).getConnection();
+    }
+
+    private static Execution execution(RolapConnection connection) {
+        return new Execution(
+            connection.parseQuery("select from [Sales]").getStatement(), 0);
+    }
+
+    /**
+     * Submits an execution in a new thread. The execution records its name in
+     * the log, and, if {@code block} is true, waits until the test releases
+     * the latch. Returns when the execution is queued or has been admitted,
+     * or, if it blocks, when it is running.
+     */
+    private Submitter submit(
+        final String name,
+        RolapConnection connection,
+        final boolean block)
+        throws InterruptedException
+    {
+        final Execution execution = execution(connection);
+        final int queued = shepherd.getQueuedCount();
+        final long admitted = shepherd.getAdmittedCount();
+        final Submitter submitter =
+            new Submitter(
+                execution,
+                new Callable<Result>() {
+                    public Result call() throws Exception {
+                        log.add(name);
+                        if (block) {
+                            latch.await();
+                        }
+                        return null;
+                    }
+                });
+        submitter.start();
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (submitter.isAlive()
+            && (block
+                ? !log.contains(name)
+                : shepherd.getQueuedCount() == queued
+                    && shepherd.getAdmittedCount() == admitted))
+        {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+        return submitter;
+    }
+
+    /**
+     * Tests that queued executions run in order of priority, then arrival.
+     */
+    public void testPriority() throws Exception {
+        final MondrianProperties props = MondrianProperties.instance();
+        propSaver.set(props.RolapConnectionShepherdNbThreads, 1);
+        final RolapConnection connection = connect(null);
+        final Submitter blocker = submit("blocker", connection, true);
+        final Submitter normal = submit("normal", connection, false);
+        final Submitter low = submit("low", connect("low"), false);
+        final Submitter high = submit("high", connect("HIGH"), false);
+        assertEquals(3, shepherd.getQueuedCount());
+        latch.countDown();
+        for (Submitter submitter : Arrays.asList(blocker, normal, low, high)) {
+            submitter.finish();
+        }
+        assertEquals(
+            Arrays.asList("blocker", "high", "normal", "low"), log);
+        assertEquals(4, shepherd.getAdmittedCount());
+    }
+
+    /**
+     * Tests that an execution that would exceed its connection's quota waits,
+     * and that an execution of another connection overtakes it.
+     */
+    public void testConnectionQuota() throws Exception {
+        final MondrianProperties props = MondrianProperties.instance();
+        propSaver.set(props.RolapConnectionShepherdMaxQueriesPerConnection, 1);
+        final RolapConnection connection = connect(null);
+        final Submitter a1 = submit("a1", connection, true);
+        final Submitter a2 = submit("a2", connection, false);
+        final Submitter b1 = submit("b1", connect(null), false);
+        b1.finish();
+        assertEquals(Arrays.asList("a1", "b1"), log);
+        assertEquals(1, shepherd.getQueuedCount());
+        latch.countDown();
+        a1.finish();
+        a2.finish();
+        assertEquals(Arrays.asList("a1", "b1", "a2"), log);
+        assertEquals(0, shepherd.getRunningCount());
+    }
+
+    /**
+     * Tests that an execution is rejected if the queue is full.
+     */
+    public void testRejection() throws Exception {
+        final MondrianProperties props = MondrianProperties.instance();
+        propSaver.set(props.RolapConnectionShepherdNbThreads, 1);
+        propSaver.set(props.RolapConnectionShepherdMaxQueuedQueries, 1);
+        final RolapConnection connection = connect(null);
+        final Submitter blocker = submit("blocker", connection, true);
+        final Submitter queued = submit("queued", connection, false);
+        final Submitter rejected = submit("rejected", connection, false);
+        rejected.join();
+        assertTrue(
+            rejected.throwable instanceof ResourceLimitExceededException);
+        assertTrue(
+            rejected.throwable.getMessage(),
+            rejected.throwable.getMessage().indexOf("Query rejected") >= 0);
+        assertEquals(1, shepherd.getRejectedCount());
+        latch.countDown();
+        blocker.finish();
+        queued.finish();
+        assertEquals(Arrays.asList("blocker", "queued"), log);
+    }
+
+    /**
+     * Tests that an execution times out promptly, without waiting for the
+     * shepherd to poll.
+     */
+    public void testTimeout() throws Exception {
+        final Execution execution =
+            new Execution(
+                connect(null).parseQuery("select from [Sales]")
+                    .getStatement(),
+                100);
+        final long start = System.currentTimeMillis();
+        try {
+            shepherd.shepherdExecution(
+                execution,
+                new Callable<Result>() {
+                    public Result call() throws Exception {
+                        execution.getMondrianStatement().start(execution);
+                        latch.await();
+                        return null;
+                    }
+                });
+            fail("expected timeout");
+        } catch (QueryTimeoutException e) {
+            // ok
+        }
+        final long elapsed = System.currentTimeMillis() - start;
+        assertTrue("took " + elapsed + " ms", elapsed < 5000);
+    }
+
+    /**
+     * Tests that heavy executions give up their slot, so that a light
+     * execution can run while they are in progress, and that no more than
+     * the maximum number of heavy executions run at a time.
+     */
+    public void testHeavy() throws Exception {
+        final MondrianProperties props = MondrianProperties.instance();
+        propSaver.set(props.RolapConnectionShepherdNbThreads, 1);
+        propSaver.set(props.RolapConnectionShepherdHeavyQueryCellCount, 10);
+        propSaver.set(props.RolapConnectionShepherdMaxHeavyQueries, 1);
+        final RolapConnection connection = connect(null);
+        final List<Submitter> heavies = new ArrayList<Submitter>();
+        for (final String name : new String[] {"heavy1", "heavy2"}) {
+            final Execution execution = execution(connection);
+            final Submitter submitter =
+                new Submitter(
+                    execution,
+                    new Callable<Result>() {
+                        public Result call() throws Exception {
+                            shepherd.phaseEnded(execution, 0, 100);
+                            log.add(name);
+                            latch.await();
+                            return null;
+                        }
+                    });
+            submitter.start();
+            heavies.add(submitter);
+            final long deadline = System.currentTimeMillis() + 10000;
+            while (shepherd.getHeavyCount() < heavies.size()) {
+                assertTrue(System.currentTimeMillis() < deadline);
+                Thread.sleep(5);
+            }
+        }
+        final Submitter light = submit("light", connection, false);
+        light.finish();
+        assertEquals(Arrays.asList("heavy1", "light"), log);
+        latch.countDown();
+        for (Submitter heavy : heavies) {
+            heavy.finish();
+        }
+        assertEquals(Arrays.asList("heavy1", "light", "heavy2"), log);
+        assertEquals(0, shepherd.getRunningCount());
+    }
+
+    /**
+     * Thread that shepherds an execution, and remembers how it ended.
+     */
+    private class Submitter extends Thread {
+        private final Execution execution;
+        private final Callable<Result> callable;
+        Throwable throwable;
+
+        Submitter(Execution execution, Callable<Result> callable) {
+            this.execution = execution;
+            this.callable = callable;
+        }
+
+        public void run() {
+            try {
+                shepherd.shepherdExecution(execution, callable);
+            } catch (Throwable e) {
+                throwable = e;
+            }
+        }
+
+        /**
+         * Waits for the execution to end, and checks that it succeeded.
+         */
+        void finish() throws Exception {
+            join(10000);
+            assertFalse("execution did not end", isAlive());
+            if (throwable != null) {
+                throw new RuntimeException(throwable);
+            }
+        }
+    }
+}
+
+// End RolapResultShepherdTest.java
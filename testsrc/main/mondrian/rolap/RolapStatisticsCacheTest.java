@@ -0,0 +1,141 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.test.FoodMartTestCase;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Unit test for {@link RolapStatisticsCache}, in particular the collection of
+ * statistics in the background.
+ *
+ * @author jhyde
+ */
+public class RolapStatisticsCacheTest extends FoodMartTestCase {
+    public RolapStatisticsCacheTest(String name) {
+        super(name);
+    }
+
+    private RolapStar getStar() {
+        return ((RolapCube) getConnection().getSchema().lookupCube(
+            "Sales", true)).getStar();
+    }
+
+    /**
+     * Waits until a cache has finished collecting statistics in the
+     * background.
+     */
+    private static void waitForCollection(RolapStatisticsCache cache)
+        throws InterruptedException
+    {
+        final long deadline = System.currentTimeMillis() + 60000;
+        while (cache.isCollecting()) {
+            assertTrue(
+                "statistics not collected within 60 seconds",
+                System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Checks that a cache holds the same statistics as a cache that collected
+     * them in the query thread.
+     */
+    private void assertSameStatistics(
+        RolapStar star,
+        RolapStatisticsCache cache)
+    {
+        final RolapStatisticsCache reference = new RolapStatisticsCache(star);
+        final RolapStar.Table factTable = star.getFactTable();
+        final int rowCount =
+            reference.getRelationCardinality(
+                factTable.getRelation(), factTable.getAlias(), -1);
+        assertTrue(rowCount > 0);
+        assertEquals(
+            rowCount,
+            cache.getRelationCardinality(
+                factTable.getRelation(), factTable.getAlias(), -1));
+        for (int i = 0; i < star.getColumnCount(); i++) {
+            final RolapStar.Column column = star.getColumn(i);
+            if (column instanceof RolapStar.Measure
+                || column.getExpression() == null)
+            {
+                continue;
+            }
+            final RolapStar.Table table = column.getTable();
+            assertEquals(
+                column.getName(),
+                reference.getColumnCardinality(
+                    table.getRelation(), column.getExpression(), -1),
+                cache.getColumnCardinality(
+                    table.getRelation(), column.getExpression(), -1));
+        }
+    }
+
+    /**
+     * Tests that statistics collected in the background are the same as those
+     * collected in the query thread.
+     */
+    public void testCollect() throws Exception {
+        final MondrianProperties props = MondrianProperties.instance();
+        final RolapStar star = getStar();
+        propSaver.set(props.StatisticsBackground, true);
+        final RolapStatisticsCache cache = new RolapStatisticsCache(star);
+        cache.collect();
+        waitForCollection(cache);
+
+        propSaver.set(props.StatisticsBackground, false);
+        assertSameStatistics(star, cache);
+    }
+
+    /**
+     * Tests that statistics saved to a snapshot are read by a new cache,
+     * which does not need to collect them again.
+     */
+    public void testSnapshot() throws Exception {
+        final MondrianProperties props = MondrianProperties.instance();
+        final RolapStar star = getStar();
+        final File dir = File.createTempFile("mondrian-stats", "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Could not create directory " + dir);
+        }
+        try {
+            propSaver.set(props.StatisticsBackground, true);
+            propSaver.set(props.StatisticsSnapshotDir, dir.getAbsolutePath());
+            final RolapStatisticsCache cache = new RolapStatisticsCache(star);
+            cache.collect();
+            waitForCollection(cache);
+            // Saving now also cancels the save that collection scheduled,
+            // which would otherwise run while the test is checking or
+            // deleting the directory.
+            cache.saveSnapshot();
+            assertEquals(1, dir.listFiles().length);
+
+            // The new cache reads every statistic from the snapshot, so has
+            // nothing to collect.
+            final RolapStatisticsCache cache2 = new RolapStatisticsCache(star);
+            cache2.collect();
+            assertFalse(cache2.isCollecting());
+
+            propSaver.set(props.StatisticsBackground, false);
+            assertSameStatistics(star, cache2);
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+}
+
+// End RolapStatisticsCacheTest.java
@@ -0,0 +1,230 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.olap.*;
+import mondrian.rolap.*;
+import mondrian.rolap.aggmatcher.AggStar;
+import mondrian.server.*;
+import mondrian.spi.SegmentColumn;
+import mondrian.spi.SegmentHeader;
+import mondrian.test.TestContext;
+import mondrian.util.ByteString;
+
+import java.util.*;
+
+/**
+ * Unit test for {@link AggregationCostModel}, the cost-based choice between
+ * the fact table, aggregate tables and in-memory rollup.
+ *
+ * <p>Tests that use FoodMart's aggregate tables do nothing unless
+ * {@link MondrianProperties#UseAggregates} and
+ * {@link MondrianProperties#ReadAggregates} are set.
+ *
+ * @author jhyde
+ */
+public class AggregationCostModelTest extends BatchTestCase {
+    public AggregationCostModelTest(String name) {
+        super(name);
+    }
+
+    private static boolean aggregatesEnabled() {
+        final MondrianProperties props = MondrianProperties.instance();
+        return props.UseAggregates.get() && props.ReadAggregates.get();
+    }
+
+    private static SegmentColumn column(
+        String expression, int valueCount, Comparable... values)
+    {
+        return new SegmentColumn(
+            expression,
+            valueCount,
+            values.length == 0
+                ? null
+                : new TreeSet<Comparable>(Arrays.asList(values)));
+    }
+
+    private static SegmentHeader header(SegmentColumn... columns) {
+        return new SegmentHeader(
+            "FoodMart",
+            new ByteString(new byte[0]),
+            "Sales",
+            "Unit Sales",
+            Arrays.asList(columns),
+            Collections.<String>emptyList(),
+            "sales_fact_1997",
+            BitKey.Factory.makeBitKey(columns.length),
+            Collections.<SegmentColumn>emptyList());
+    }
+
+    /**
+     * Tests the estimated cost of rolling up segments, which is proportional
+     * to the number of cells.
+     */
+    public void testRollupCost() {
+        final SegmentColumn year = column("the_year", 2, 1997);
+        final SegmentColumn country = column("store_country", 3);
+        final SegmentColumn state = column("store_state", 10, "CA", "WA");
+        final SegmentColumn unknown = column("store_city", -1);
+        final double c = AggregationCostModel.ROLLUP_CELL_COST;
+
+        // 1 year x 3 countries
+        assertEquals(
+            3 * c,
+            AggregationCostModel.rollupCost(
+                Collections.singletonList(header(year, country))));
+        // 3 + 1 x 2
+        assertEquals(
+            5 * c,
+            AggregationCostModel.rollupCost(
+                Arrays.asList(header(year, country), header(year, state))));
+        // If the number of values of a wildcarded column is not known, cost
+        // is zero, so that rollup is preferred.
+        assertEquals(
+            0d,
+            AggregationCostModel.rollupCost(
+                Arrays.asList(header(year, country), header(unknown))));
+    }
+
+    private BitKey levelBitKey(RolapStar star, String... tableColumns) {
+        final String[] tables = new String[tableColumns.length / 2];
+        final String[] columns = new String[tableColumns.length / 2];
+        for (int i = 0; i < tables.length; i++) {
+            tables[i] = tableColumns[i * 2];
+            columns[i] = tableColumns[i * 2 + 1];
+        }
+        return star.getBitKey(tables, columns);
+    }
+
+    /**
+     * Checks that the aggregate chosen by cost, for a given set of columns,
+     * is the cheapest of the suitable aggregates and the fact table, and
+     * that the choice is recorded in the execution's timings.
+     *
+     * @return Chosen aggregate table, or null if the fact table was chosen
+     */
+    private AggStar checkChoice(BitKey levelBitKey) {
+        final RolapStar.Measure measure =
+            getMeasure("Sales", "[Measures].[Unit Sales]");
+        final RolapStar star = measure.getStar();
+        final BitKey measureBitKey = levelBitKey.emptyCopy();
+        measureBitKey.set(measure.getBitPosition());
+        final BitKey fullBitKey = levelBitKey.or(measureBitKey);
+
+        propSaver.set(
+            MondrianProperties.instance().ChooseAggregateByCost, true);
+        final Statement statement =
+            ((RolapConnection) getTestContext().getConnection())
+                .getInternalStatement();
+        final Execution execution = new Execution(statement, 0);
+        execution.getQueryTiming().init(true);
+        final AggStar chosen =
+            Locus.execute(
+                execution,
+                "AggregationCostModelTest",
+                new Locus.Action<AggStar>() {
+                    public AggStar execute() {
+                        return AggregationManager.findAgg(
+                            star, levelBitKey, measureBitKey, new boolean[1]);
+                    }
+                });
+
+        final double chosenCost =
+            chosen == null
+                ? AggregationCostModel.factCost(star, levelBitKey)
+                : AggregationCostModel.aggCost(chosen, levelBitKey);
+        assertTrue(
+            chosenCost <= AggregationCostModel.factCost(star, levelBitKey));
+        for (AggStar aggStar : star.getAggStars()) {
+            // Unit Sales is not a distinct-count measure, so superset match
+            // is the criterion for a suitable aggregate.
+            if (aggStar.superSetMatch(fullBitKey)) {
+                assertTrue(
+                    aggStar.getFactTable().getName(),
+                    chosenCost
+                    <= AggregationCostModel.aggCost(aggStar, levelBitKey));
+            }
+        }
+        final String expectedKey =
+            "Aggregate choice: "
+            + (chosen == null
+                ? star.getFactTable().getAlias()
+                : chosen.getFactTable().getName());
+        assertTrue(
+            execution.getQueryTiming().getTimingKeys().toString(),
+            execution.getQueryTiming().getTimingKeys().contains(expectedKey));
+        return chosen;
+    }
+
+    /**
+     * Tests choices on FoodMart's aggregate tables. Several small aggregate
+     * tables collapse [Time].[Year], so a query on year alone uses one of
+     * them.
+     */
+    public void testChooseAggStar() {
+        if (!aggregatesEnabled()) {
+            return;
+        }
+        final RolapStar star =
+            getMeasure("Sales", "[Measures].[Unit Sales]").getStar();
+        assertNotNull(
+            checkChoice(levelBitKey(star, "time_by_day", "the_year")));
+        checkChoice(
+            levelBitKey(
+                star,
+                "time_by_day", "the_year",
+                "store", "store_country"));
+        checkChoice(
+            levelBitKey(
+                star,
+                "time_by_day", "month_of_year",
+                "product_class", "product_family",
+                "customer", "gender"));
+        // No aggregate table has store_city with the day of month, so the
+        // fact table is the only choice.
+        assertNull(
+            checkChoice(
+                levelBitKey(
+                    star,
+                    "time_by_day", "day_of_month",
+                    "store", "store_city")));
+    }
+
+    /**
+     * Tests that a query returns the same result whether aggregate tables are
+     * chosen by cost or by size.
+     */
+    public void testSameResult() {
+        if (!aggregatesEnabled()) {
+            return;
+        }
+        final String mdx =
+            "select {[Measures].[Unit Sales], [Measures].[Store Cost]} on 0,\n"
+            + " non empty [Time].[Year].Members\n"
+            + "   * [Store].[Store Country].Members\n"
+            + "   * [Gender].[Gender].Members on 1\n"
+            + "from [Sales]";
+        final String expected = execute(mdx, false);
+        assertEquals(expected, execute(mdx, true));
+    }
+
+    private String execute(String mdx, boolean costBased) {
+        propSaver.set(
+            MondrianProperties.instance().ChooseAggregateByCost, costBased);
+        final Connection connection = getTestContext().getConnection();
+        final CacheControl cacheControl = connection.getCacheControl(null);
+        cacheControl.flush(
+            cacheControl.createMeasuresRegion(
+                connection.getSchema().lookupCube("Sales", true)));
+        return TestContext.toString(executeQuery(mdx));
+    }
+}
+
+// End AggregationCostModelTest.java
@@ -1437,6 +1437,171 @@ public class AggregationOnDistinctCountMeasuresTest extends BatchTestCase {
                     + "Row #0: 1,828\n");
     }
 
+    /**
+     * Tests that an approximate distinct-count measure is within a few
+     * standard errors of the exact distinct-count, both when its cells are
+     * loaded from the database and when they are rolled up in memory from
+     * the sketches of finer cells.
+     */
+    public void testApproxDistinctCount() {
+        final TestContext context = getApproxDistinctCountContext();
+        final double error =
+            4d * mondrian.util.HyperLogLog.standardError(
+                props.DistinctCountSketchPrecision.get());
+
+        // Load sketches at the state level, then roll them up to country.
+        propSaver.set(props.EnableInMemoryRollup, true);
+        for (String set
+            : new String[] {
+                "[Customers].[State Province].Members",
+                "{[Customers].[USA], [Customers].[All Customers]}"})
+        {
+            final Result result =
+                context.executeQuery(
+                    "select {[Measures].[Customer Count],\n"
+                    + "    [Measures].[Approx Customer Count]} on 0,\n"
+                    + "  " + set + " on 1\n"
+                    + "from [Sales]");
+            final int rowCount = result.getAxes()[1].getPositions().size();
+            assertTrue(rowCount > 0);
+            for (int i = 0; i < rowCount; i++) {
+                final Object exact =
+                    result.getCell(new int[] {0, i}).getValue();
+                final Object approx =
+                    result.getCell(new int[] {1, i}).getValue();
+                if (exact == null) {
+                    assertNull(approx);
+                    continue;
+                }
+                final int n = ((Number) exact).intValue();
+                assertTrue(
+                    "expected " + n + ", was " + approx,
+                    Math.abs(((Number) approx).intValue() - n)
+                        <= Math.max(error * n, 1d));
+            }
+        }
+    }
+
+    /**
+     * Tests that a filter on an approximate distinct-count measure is not
+     * evaluated in SQL. SQL would compare the exact count, and could return
+     * different members than a filter on the estimates.
+     */
+    public void testApproxDistinctCountNotNative() {
+        final TestContext context = getApproxDistinctCountContext();
+        final String mdx =
+            "select {[Measures].[Approx Customer Count]} on 0,\n"
+            + "  non empty Filter([Customers].[City].Members,\n"
+            + "    [Measures].[Approx Customer Count] > 100) on 1\n"
+            + "from [Sales]";
+        propSaver.set(props.EnableNativeFilter, false);
+        final String expected = TestContext.toString(context.executeQuery(mdx));
+        propSaver.set(props.EnableNativeFilter, true);
+        flushSalesCube();
+        assertEquals(expected, TestContext.toString(context.executeQuery(mdx)));
+    }
+
+    private TestContext getApproxDistinctCountContext() {
+        return TestContext.instance().createSubstitutingCube(
+            "Sales",
+            null,
+            "<Measure name=\"Approx Customer Count\"\n"
+            + "    column=\"customer_id\"\n"
+            + "    aggregator=\"approx-distinct-count\"\n"
+            + "    formatString=\"#,###\"/>",
+            null,
+            null);
+    }
+
+    /**
+     * Tests that if bitmaps are enabled, cells of a distinct-count measure
+     * are rolled up exactly in memory. Customers buy in several quarters, so
+     * summing quarterly counts would overstate the yearly count.
+     */
+    public void testDistinctCountBitmapRollup() {
+        final String quarterMdx =
+            "select {[Measures].[Customer Count]} on 0,\n"
+            + "  [Time].[1997].Children on 1\n"
+            + "from [Sales]";
+        final String yearMdx =
+            "select {[Measures].[Customer Count]} on 0,\n"
+            + "  {[Time].[1997]} on 1\n"
+            + "from [Sales]";
+        final String sql =
+            "select `time_by_day`.`the_year` as `c0`,"
+            + " `sales_fact_1997`.`customer_id` as `m0`";
+        final SqlPattern[] patterns = {
+            new SqlPattern(
+                EnumSet.of(
+                    Dialect.DatabaseProduct.DERBY,
+                    Dialect.DatabaseProduct.MYSQL),
+                sql,
+                sql.length())
+        };
+        propSaver.set(props.EnableInMemoryRollup, true);
+        flushSalesCube();
+        final String expected =
+            TestContext.toString(executeQuery(quarterMdx));
+
+        propSaver.set(props.EnableDistinctCountBitmaps, true);
+        flushSalesCube();
+        assertEquals(
+            expected, TestContext.toString(executeQuery(quarterMdx)));
+
+        // The yearly count comes from the quarterly bitmaps, not from SQL.
+        assertQuerySqlOrNot(
+            getTestContext(), yearMdx, patterns, true, false, false);
+        assertQueryReturns(
+            yearMdx,
+            "Axis #0:\n"
+            + "{}\n"
+            + "Axis #1:\n"
+            + "{[Measures].[Customer Count]}\n"
+            + "Axis #2:\n"
+            + "{[Time].[1997]}\n"
+            + "Row #0: 5,581\n");
+    }
+
+    /**
+     * Tests that a segment whose bitmaps exceed the size limit holds exact
+     * counts, and that cells are then loaded using SQL, not rolled up.
+     */
+    public void testDistinctCountBitmapLimit() {
+        propSaver.set(props.EnableInMemoryRollup, true);
+        propSaver.set(props.EnableDistinctCountBitmaps, true);
+        propSaver.set(props.DistinctCountBitmapMaxSize, 1);
+        flushSalesCube();
+        assertQueryReturns(
+            "select {[Measures].[Customer Count]} on 0,\n"
+            + "  [Customers].[Country].Members on 1\n"
+            + "from [Sales]",
+            "Axis #0:\n"
+            + "{}\n"
+            + "Axis #1:\n"
+            + "{[Measures].[Customer Count]}\n"
+            + "Axis #2:\n"
+            + "{[Customers].[Canada]}\n"
+            + "{[Customers].[Mexico]}\n"
+            + "{[Customers].[USA]}\n"
+            + "Row #0: \n"
+            + "Row #1: \n"
+            + "Row #2: 5,581\n");
+        assertQueryReturns(
+            "select {[Measures].[Customer Count]} on 0\n"
+            + "from [Sales]",
+            "Axis #0:\n"
+            + "{}\n"
+            + "Axis #1:\n"
+            + "{[Measures].[Customer Count]}\n"
+            + "Row #0: 5,581\n");
+    }
+
+    private void flushSalesCube() {
+        final CacheControl cacheControl =
+            getConnection().getCacheControl(null);
+        cacheControl.flush(cacheControl.createMeasuresRegion(salesCube));
+    }
+
     private boolean tuppleListContains(
         TupleList tuples,
         Member memberByUniqueName)
@@ -0,0 +1,291 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.olap.Aggregator;
+import mondrian.rolap.*;
+import mondrian.spi.*;
+import mondrian.test.PropertySaver;
+import mondrian.util.ByteString;
+import mondrian.util.Pair;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+
+/**
+ * Unit test for {@link SegmentBuilder#rollup}, in particular the rollup of
+ * primitive values by {@link SegmentRollup}.
+ *
+ * @author jhyde
+ */
+public class SegmentBuilderTest extends TestCase {
+    private static final String YEAR = "time_by_day.the_year";
+    private static final String STATE = "store.store_state";
+
+    private final PropertySaver propSaver = new PropertySaver();
+
+    public SegmentBuilderTest(String name) {
+        super(name);
+    }
+
+    protected void tearDown() throws Exception {
+        propSaver.reset();
+        super.tearDown();
+    }
+
+    private static SortedSet<Comparable> values(Comparable... values) {
+        return new TreeSet<Comparable>(Arrays.asList(values));
+    }
+
+    private static SegmentHeader header(
+        SortedSet<Comparable> years,
+        SortedSet<Comparable> states)
+    {
+        final BitKey bitKey = BitKey.Factory.makeBitKey(2);
+        bitKey.set(0);
+        bitKey.set(1);
+        return new SegmentHeader(
+            "FoodMart",
+            new ByteString(new byte[0]),
+            "Sales",
+            "Unit Sales",
+            Arrays.asList(
+                new SegmentColumn(YEAR, 2, years),
+                new SegmentColumn(STATE, 3, states)),
+            Collections.<String>emptyList(),
+            "sales_fact_1997",
+            bitKey,
+            Collections.<SegmentColumn>emptyList());
+    }
+
+    private static List<Pair<SortedSet<Comparable>, Boolean>> axes(
+        SortedSet<Comparable> years,
+        SortedSet<Comparable> states)
+    {
+        final List<Pair<SortedSet<Comparable>, Boolean>> list =
+            new ArrayList<Pair<SortedSet<Comparable>, Boolean>>();
+        list.add(Pair.of(years, false));
+        list.add(Pair.of(states, false));
+        return list;
+    }
+
+    private static CellKey key(int ordinal) {
+        return CellKey.Generator.newCellKey(new int[] {ordinal});
+    }
+
+    private static Map<CellKey, Object> rollupToState(
+        Map<SegmentHeader, SegmentBody> map,
+        Aggregator aggregator)
+    {
+        final BitKey targetBitKey = BitKey.Factory.makeBitKey(2);
+        targetBitKey.set(1);
+        final Pair<SegmentHeader, SegmentBody> pair =
+            SegmentBuilder.rollup(
+                map, Collections.singleton(STATE), targetBitKey, aggregator);
+        assertEquals(
+            values("CA", "OR", "WA"), pair.right.getAxisValueSets()[0]);
+        return pair.right.getValueMap();
+    }
+
+    /**
+     * Tests rollup of a dense segment of doubles, with a null cell, using
+     * sum, min and max.
+     */
+    public void testRollupDense() {
+        final SortedSet<Comparable> years = values(1997, 1998);
+        final SortedSet<Comparable> states = values("CA", "OR", "WA");
+        final BitSet nullIndicators = new BitSet();
+        nullIndicators.set(2);
+        final Map<SegmentHeader, SegmentBody> map =
+            new HashMap<SegmentHeader, SegmentBody>();
+        map.put(
+            header(years, states),
+            new DenseDoubleSegmentBody(
+                nullIndicators,
+                new double[] {1, 2, 0, 4, 5, 6},
+                axes(years, states)));
+
+        Map<CellKey, Object> values =
+            rollupToState(map, RolapAggregator.Sum);
+        assertEquals(5d, values.get(key(0)));
+        assertEquals(7d, values.get(key(1)));
+        assertEquals(6d, values.get(key(2)));
+
+        values = rollupToState(map, RolapAggregator.Min);
+        assertEquals(1d, values.get(key(0)));
+        assertEquals(6d, values.get(key(2)));
+
+        values = rollupToState(map, RolapAggregator.Max);
+        assertEquals(4d, values.get(key(0)));
+        assertEquals(5d, values.get(key(1)));
+    }
+
+    /**
+     * Tests rollup of two segments that hold different years, one dense with
+     * integer values and one sparse.
+     */
+    public void testRollupSeveral() {
+        final SortedSet<Comparable> states = values("CA", "OR", "WA");
+        final Map<SegmentHeader, SegmentBody> map =
+            new HashMap<SegmentHeader, SegmentBody>();
+        map.put(
+            header(values(1997), states),
+            new DenseIntSegmentBody(
+                new BitSet(),
+                new int[] {1, 2, 3},
+                axes(values(1997), states)));
+        final Map<CellKey, Object> data = new HashMap<CellKey, Object>();
+        data.put(CellKey.Generator.newCellKey(new int[] {0, 0}), 10);
+        data.put(CellKey.Generator.newCellKey(new int[] {0, 2}), 30);
+        map.put(
+            header(values(1998), states),
+            new SparseSegmentBody(data, axes(values(1998), states)));
+
+        final Map<CellKey, Object> values =
+            rollupToState(map, RolapAggregator.Sum);
+        assertEquals(11, values.get(key(0)));
+        assertEquals(2, values.get(key(1)));
+        assertEquals(33, values.get(key(2)));
+    }
+
+    /**
+     * Tests that the cells in the excluded region of a segment do not
+     * contribute to a rollup.
+     */
+    public void testRollupExcludedRegion() {
+        final SortedSet<Comparable> years = values(1997, 1998);
+        final SortedSet<Comparable> states = values("CA", "OR", "WA");
+        final Map<SegmentHeader, SegmentBody> map =
+            new HashMap<SegmentHeader, SegmentBody>();
+        map.put(
+            header(years, states).constrain(
+                new SegmentColumn[] {
+                    new SegmentColumn(YEAR, 2, values(1998))
+                }),
+            new DenseDoubleSegmentBody(
+                new BitSet(),
+                new double[] {1, 2, 3, 4, 5, 6},
+                axes(years, states)));
+
+        final Map<CellKey, Object> values =
+            rollupToState(map, RolapAggregator.Sum);
+        assertEquals(1d, values.get(key(0)));
+        assertEquals(2d, values.get(key(1)));
+        assertEquals(3d, values.get(key(2)));
+    }
+
+    /**
+     * Tests that the cells whose value is null are dropped from a rollup if
+     * the null value is in the excluded region of the segment.
+     */
+    public void testRollupExcludedNull() {
+        final SortedSet<Comparable> years = values(1997, 1998);
+        final SortedSet<Comparable> states = values("CA", "OR", "WA");
+        final List<Pair<SortedSet<Comparable>, Boolean>> axes =
+            new ArrayList<Pair<SortedSet<Comparable>, Boolean>>();
+        axes.add(Pair.of(years, true));
+        axes.add(Pair.of(states, false));
+        final double[] cells = {1, 2, 3, 4, 5, 6, 7, 8, 9};
+
+        // Without an excluded region, the cells of the null year (ordinal 2)
+        // are rolled up.
+        final Map<SegmentHeader, SegmentBody> map =
+            new HashMap<SegmentHeader, SegmentBody>();
+        map.put(
+            header(years, states),
+            new DenseDoubleSegmentBody(new BitSet(), cells, axes));
+        Map<CellKey, Object> values = rollupToState(map, RolapAggregator.Sum);
+        assertEquals(12d, values.get(key(0)));
+
+        map.clear();
+        map.put(
+            header(years, states).constrain(
+                new SegmentColumn[] {
+                    new SegmentColumn(YEAR, 2, values(RolapUtil.sqlNullValue))
+                }),
+            new DenseDoubleSegmentBody(new BitSet(), cells, axes));
+        values = rollupToState(map, RolapAggregator.Sum);
+        assertEquals(5d, values.get(key(0)));
+        assertEquals(7d, values.get(key(1)));
+        assertEquals(9d, values.get(key(2)));
+    }
+
+    /**
+     * Tests that the sum of integer values that does not fit in an
+     * <code>int</code> does not overflow.
+     */
+    public void testRollupIntOverflow() {
+        final SortedSet<Comparable> years = values(1997, 1998);
+        final SortedSet<Comparable> states = values("CA", "OR", "WA");
+        final Map<SegmentHeader, SegmentBody> map =
+            new HashMap<SegmentHeader, SegmentBody>();
+        map.put(
+            header(years, states),
+            new DenseIntSegmentBody(
+                new BitSet(),
+                new int[] {Integer.MAX_VALUE, 1, 2, Integer.MAX_VALUE, 3, 4},
+                axes(years, states)));
+
+        // The values are no longer all ints, so all are doubles.
+        Map<CellKey, Object> values =
+            rollupToState(map, RolapAggregator.Sum);
+        assertEquals(2d * Integer.MAX_VALUE, values.get(key(0)));
+        assertEquals(4d, values.get(key(1)));
+        assertEquals(6d, values.get(key(2)));
+
+        values = rollupToState(map, RolapAggregator.Max);
+        assertEquals(Integer.MAX_VALUE, values.get(key(0)));
+        assertEquals(3, values.get(key(1)));
+    }
+
+    /**
+     * Tests that a rollup done in parallel gives the same result as one done
+     * in a single thread. Uses several threads even if there is only one
+     * processor.
+     */
+    public void testRollupParallel() {
+        final SortedSet<Comparable> years = new TreeSet<Comparable>();
+        for (int i = 0; i < 100; i++) {
+            years.add(1900 + i);
+        }
+        final SortedSet<Comparable> states = values("CA", "OR", "WA");
+        final double[] doubles = new double[years.size() * states.size()];
+        for (int i = 0; i < doubles.length; i++) {
+            doubles[i] = i;
+        }
+        final Map<SegmentHeader, SegmentBody> map =
+            new HashMap<SegmentHeader, SegmentBody>();
+        map.put(
+            header(years, states),
+            new DenseDoubleSegmentBody(
+                new BitSet(), doubles, axes(years, states)));
+
+        final List<Map<CellKey, Object>> results =
+            new ArrayList<Map<CellKey, Object>>();
+        propSaver.set(propSaver.properties.RollupParallelThreads, 4);
+        for (int threshold : new int[] {0, 1}) {
+            propSaver.set(
+                propSaver.properties.RollupParallelThreshold, threshold);
+            final long parallelCount = SegmentRollup.getParallelCount();
+            results.add(
+                new HashMap<CellKey, Object>(
+                    rollupToState(map, RolapAggregator.Sum)));
+            assertEquals(
+                parallelCount + (threshold > 0 ? 1 : 0),
+                SegmentRollup.getParallelCount());
+        }
+        assertEquals(results.get(0), results.get(1));
+        // Sum of 0, 3, ..., 297
+        assertEquals(14850d, results.get(0).get(key(0)));
+    }
+}
+
+// End SegmentBuilderTest.java
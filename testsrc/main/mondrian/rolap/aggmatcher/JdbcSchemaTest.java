@@ -0,0 +1,154 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.rolap.aggmatcher;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
+import mondrian.rolap.RolapConnection;
+import mondrian.test.FoodMartTestCase;
+
+import java.io.*;
+import java.util.Collections;
+import javax.sql.DataSource;
+
+/**
+ * Unit test for {@link JdbcSchema}: parallel loading of columns, and
+ * metadata snapshots.
+ *
+ * @author jhyde
+ */
+public class JdbcSchemaTest extends FoodMartTestCase {
+    public JdbcSchemaTest(String name) {
+        super(name);
+    }
+
+    private DataSource getDataSource() {
+        return ((RolapConnection) getConnection()).getDataSource();
+    }
+
+    /**
+     * Tests that loading columns in several threads gives the same tables
+     * and columns as loading them one table at a time.
+     */
+    public void testLoadColumnsParallel() throws Exception {
+        final MondrianProperties props = MondrianProperties.instance();
+        final DataSource dataSource = getDataSource();
+
+        propSaver.set(props.AggregateMetadataThreads, 1);
+        final JdbcSchema serial = new JdbcSchema(dataSource);
+        serial.load();
+        serial.loadColumns(serial.getTables());
+
+        propSaver.set(props.AggregateMetadataThreads, 4);
+        final JdbcSchema parallel = new JdbcSchema(dataSource);
+        parallel.load();
+        parallel.loadColumns(parallel.getTables());
+
+        assertFalse(serial.getTables().isEmpty());
+        assertEquals(serial.toString(), parallel.toString());
+    }
+
+    /**
+     * Tests that columns saved to a snapshot are read back by a new
+     * JdbcSchema without asking JDBC, and that expired entries and entries
+     * whose columns have changed are ignored.
+     */
+    public void testSnapshot() throws Exception {
+        final MondrianProperties props = MondrianProperties.instance();
+        final DataSource dataSource = getDataSource();
+        final File dir = createTempDir();
+        try {
+            propSaver.set(
+                props.AggregateMetadataSnapshotDir, dir.getAbsolutePath());
+
+            final JdbcSchema db = new JdbcSchema(dataSource);
+            db.load();
+            final JdbcSchema.Table table = db.getTables().iterator().next();
+            db.loadColumns(Collections.singletonList(table));
+            assertFalse(table.getColumns().isEmpty());
+            db.saveSnapshot();
+            assertEquals(1, dir.listFiles().length);
+
+            // A new JdbcSchema finds the table's columns after loading only
+            // its tables. (Table.getColumns does not load columns.)
+            final JdbcSchema db2 = new JdbcSchema(dataSource);
+            db2.load();
+            final JdbcSchema.Table table2 = db2.getTable(table.getName());
+            assertEquals(table.toString(), table2.toString());
+
+            // Other tables were not in the snapshot.
+            for (JdbcSchema.Table t : db2.getTables()) {
+                if (t != table2) {
+                    assertTrue(t.getColumns().isEmpty());
+                }
+            }
+
+            // If a column in the snapshot no longer exists in the database,
+            // the table's entry is ignored.
+            final File file = dir.listFiles()[0];
+            final String content = readFile(file);
+            final String columnName =
+                table.getColumns().iterator().next().getName();
+            final String content2 =
+                content.replace(
+                    "column\t" + columnName + "\t",
+                    "column\tno_such_column\t");
+            assertFalse(content.equals(content2));
+            writeFile(file, content2);
+            final JdbcSchema db4 = new JdbcSchema(dataSource);
+            db4.load();
+            assertTrue(
+                db4.getTable(table.getName()).getColumns().isEmpty());
+            writeFile(file, content);
+
+            // With a negative time-to-live, every entry has expired.
+            propSaver.set(props.AggregateMetadataSnapshotTtl, -1);
+            final JdbcSchema db3 = new JdbcSchema(dataSource);
+            db3.load();
+            assertTrue(
+                db3.getTable(table.getName()).getColumns().isEmpty());
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    private static String readFile(File file) throws IOException {
+        final FileReader reader = new FileReader(file);
+        try {
+            return Util.readFully(reader, 1024);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void writeFile(File file, String content)
+        throws IOException
+    {
+        final FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static File createTempDir() throws IOException {
+        final File dir = File.createTempFile("mondrian-jdbc", "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Could not create directory " + dir);
+        }
+        return dir;
+    }
+}
+
+// End JdbcSchemaTest.java
@@ -0,0 +1,176 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.rolap.aggtab;
+
+import mondrian.olap.*;
+import mondrian.rolap.*;
+import mondrian.test.FoodMartTestCase;
+
+import java.util.*;
+
+/**
+ * Unit test for {@link AggAdvisor}.
+ *
+ * @author jhyde
+ */
+public class AggAdvisorTest extends FoodMartTestCase {
+    public AggAdvisorTest(String name) {
+        super(name);
+    }
+
+    private static BitKey bitKey(int... bits) {
+        final BitKey bitKey = BitKey.Factory.makeBitKey(4);
+        for (int bit : bits) {
+            bitKey.set(bit);
+        }
+        return bitKey;
+    }
+
+    private static List<BitKey> bitKeys(List<AggAdvisor.Lattice.View> views) {
+        final List<BitKey> list = new ArrayList<BitKey>();
+        for (AggAdvisor.Lattice.View view : views) {
+            list.add(view.bitKey);
+        }
+        return list;
+    }
+
+    /**
+     * Creates a lattice with a fact table of 1,000 rows over columns 0 to 3,
+     * and a workload that groups by {0} and {1} 10 times each, by {0, 1} 5
+     * times, and by {2} once.
+     */
+    private static AggAdvisor.Lattice createLattice() {
+        final AggAdvisor.Lattice lattice = new AggAdvisor.Lattice();
+        lattice.addMaterialized(bitKey(0, 1, 2, 3), 1000);
+        lattice.addQuery(bitKey(0), 10);
+        lattice.addQuery(bitKey(1), 10);
+        lattice.addQuery(bitKey(0, 1), 5);
+        lattice.addQuery(bitKey(2), 1);
+        lattice.addCandidate(bitKey(0, 1), 100);
+        lattice.addCandidate(bitKey(0), 10);
+        lattice.addCandidate(bitKey(1), 20);
+        lattice.addCandidate(bitKey(0, 1, 2), 500);
+        lattice.addCandidate(bitKey(2), 5);
+        return lattice;
+    }
+
+    /**
+     * Tests the greedy choice of views. Benefit per row is 990 for {0}, then
+     * 490 for {1}, then 199 for {2}, then 45 for {0, 1}; after that {0, 1, 2}
+     * has no benefit.
+     */
+    public void testSelect() {
+        final List<AggAdvisor.Lattice.View> views =
+            createLattice().select(Long.MAX_VALUE, Integer.MAX_VALUE);
+        assertEquals(
+            Arrays.asList(bitKey(0), bitKey(1), bitKey(2), bitKey(0, 1)),
+            bitKeys(views));
+        assertEquals(9900, views.get(0).benefit);
+        assertEquals(9800, views.get(1).benefit);
+        assertEquals(995, views.get(2).benefit);
+        assertEquals(4500, views.get(3).benefit);
+    }
+
+    /**
+     * Tests that the choice stays within the budget of rows and the maximum
+     * number of views.
+     */
+    public void testSelectBudget() {
+        // {0, 1} (100 rows) does not fit after 35 rows are used.
+        assertEquals(
+            Arrays.asList(bitKey(0), bitKey(1), bitKey(2)),
+            bitKeys(createLattice().select(35, Integer.MAX_VALUE)));
+        // {1} (20 rows) does not fit after {0} uses 10 of 25 rows.
+        assertEquals(
+            Arrays.asList(bitKey(0), bitKey(2)),
+            bitKeys(createLattice().select(25, Integer.MAX_VALUE)));
+        assertEquals(
+            Arrays.asList(bitKey(0), bitKey(1)),
+            bitKeys(createLattice().select(Long.MAX_VALUE, 2)));
+        assertEquals(
+            Collections.<BitKey>emptyList(),
+            bitKeys(createLattice().select(1, Integer.MAX_VALUE)));
+    }
+
+    /**
+     * Tests that an existing aggregate table reduces the benefit of the views
+     * it covers.
+     */
+    public void testSelectWithExistingAggregate() {
+        final AggAdvisor.Lattice lattice = createLattice();
+        lattice.addMaterialized(bitKey(0, 1), 50);
+        final List<AggAdvisor.Lattice.View> views =
+            lattice.select(Long.MAX_VALUE, Integer.MAX_VALUE);
+        // {2} (benefit 995 / 5 rows) now beats {0} (400 / 10 rows);
+        // {0, 1} is no smaller than the existing table.
+        assertEquals(
+            Arrays.asList(bitKey(2), bitKey(0), bitKey(1)),
+            bitKeys(views));
+    }
+
+    /**
+     * Runs a query with the workload recorded, and checks that the advisor
+     * recommends a table and generates DDL and an AggName element for it.
+     */
+    public void testRecommend() {
+        final MondrianProperties props = MondrianProperties.instance();
+        propSaver.set(props.AggregateAdvisor, true);
+        final Connection connection = getTestContext().getConnection();
+        final RolapCube cube =
+            (RolapCube) connection.getSchema().lookupCube("Sales", true);
+        final RolapStar star = cube.getStar();
+        final CacheControl cacheControl = connection.getCacheControl(null);
+        cacheControl.flush(cacheControl.createMeasuresRegion(cube));
+        AggAdvisor.clear(star);
+        try {
+            executeQuery(
+                "select {[Measures].[Unit Sales]} on 0,\n"
+                + " [Gender].[Gender].Members\n"
+                + "   * [Marital Status].[Marital Status].Members on 1\n"
+                + "from [Sales]");
+            assertFalse(AggAdvisor.getWorkload(star).isEmpty());
+
+            final AggAdvisor advisor = new AggAdvisor(cube);
+            final List<AggAdvisor.Recommendation> recommendations =
+                advisor.recommend(1000000, 5);
+            assertFalse(recommendations.isEmpty());
+            final AggAdvisor.Recommendation recommendation =
+                recommendations.get(0);
+            assertEquals(
+                "agg_a1_sales_fact_1997", recommendation.getTableName());
+            assertTrue(recommendation.getBenefit() > 0);
+
+            final String script = advisor.generate(recommendations);
+            assertTrue(
+                script,
+                script.contains("CREATE TABLE agg_a1_sales_fact_1997"));
+            assertTrue(
+                script,
+                script.contains("INSERT INTO agg_a1_sales_fact_1997"));
+            assertTrue(
+                script,
+                script.contains("<AggName name=\"agg_a1_sales_fact_1997\">"));
+            assertTrue(
+                script,
+                script.contains(
+                    "<AggMeasure name=\"[Measures].[Unit Sales]\""
+                    + " column=\"unit_sales\"/>"));
+            assertTrue(
+                script,
+                script.contains(
+                    "<AggLevel name=\"[Gender].[Gender]\""
+                    + " column=\"gender\"/>"));
+        } finally {
+            AggAdvisor.clear(star);
+        }
+    }
+}
+
+// End AggAdvisorTest.java
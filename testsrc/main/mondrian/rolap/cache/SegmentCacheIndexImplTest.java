@@ -0,0 +1,327 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.rolap.cache;
+
+import mondrian.rolap.BitKey;
+import mondrian.server.Execution;
+import mondrian.spi.*;
+import mondrian.test.PropertySaver;
+import mondrian.util.ByteString;
+
+import junit.framework.TestCase;
+
+import java.lang.reflect.*;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.Future;
+
+/**
+ * Unit test for {@link SegmentCacheIndexImpl}, in particular the executions
+ * that wait for a segment to load, and the search for segments to roll up.
+ *
+ * @author jhyde
+ */
+public class SegmentCacheIndexImplTest extends TestCase {
+    private static final String YEAR = "time_by_day.the_year";
+    private static final String GENDER = "customer.gender";
+
+    private final PropertySaver propSaver = new PropertySaver();
+
+    public SegmentCacheIndexImplTest(String name) {
+        super(name);
+    }
+
+    protected void tearDown() throws Exception {
+        propSaver.reset();
+        super.tearDown();
+    }
+
+    private static SegmentHeader header(String measureName) {
+        return new SegmentHeader(
+            "FoodMart",
+            new ByteString(new byte[0]),
+            "Sales",
+            measureName,
+            Collections.<SegmentColumn>emptyList(),
+            Collections.<String>emptyList(),
+            "sales_fact_1997",
+            BitKey.Factory.makeBitKey(0),
+            Collections.<SegmentColumn>emptyList());
+    }
+
+    private static SortedSet<Comparable> values(Comparable... values) {
+        return values.length == 0
+            ? null
+            : new TreeSet<Comparable>(Arrays.asList(values));
+    }
+
+    /**
+     * Creates a header with columns year (bit 0) and gender (bit 1). Empty
+     * value lists mean wildcard.
+     */
+    private static SegmentHeader header(
+        SortedSet<Comparable> years,
+        SortedSet<Comparable> genders,
+        SortedSet<Comparable> excludedGenders)
+    {
+        final BitKey bitKey = BitKey.Factory.makeBitKey(2);
+        bitKey.set(0);
+        bitKey.set(1);
+        return new SegmentHeader(
+            "FoodMart",
+            new ByteString(new byte[0]),
+            "Sales",
+            "Unit Sales",
+            Arrays.asList(
+                new SegmentColumn(YEAR, 2, years),
+                new SegmentColumn(GENDER, 2, genders)),
+            Collections.<String>emptyList(),
+            "sales_fact_1997",
+            bitKey,
+            excludedGenders == null
+                ? Collections.<SegmentColumn>emptyList()
+                : Collections.singletonList(
+                    new SegmentColumn(GENDER, 2, excludedGenders)));
+    }
+
+    private static List<List<SegmentHeader>> findRollupCandidates(
+        SegmentCacheIndex index)
+    {
+        return index.findRollupCandidates(
+            "FoodMart", new ByteString(new byte[0]), "Sales", "Unit Sales",
+            "sales_fact_1997", yearBitKey(), yearCoordinates(),
+            Collections.<String>emptyList());
+    }
+
+    private static SegmentCacheIndex.PartialRollup findPartialRollup(
+        SegmentCacheIndex index)
+    {
+        return index.findPartialRollup(
+            "FoodMart", new ByteString(new byte[0]), "Sales", "Unit Sales",
+            "sales_fact_1997", yearBitKey(), yearCoordinates(),
+            Collections.<String>emptyList());
+    }
+
+    private static BitKey yearBitKey() {
+        final BitKey bitKey = BitKey.Factory.makeBitKey(2);
+        bitKey.set(0);
+        return bitKey;
+    }
+
+    private static Map<String, Comparable> yearCoordinates() {
+        return Collections.<String, Comparable>singletonMap(YEAR, 1997);
+    }
+
+    /**
+     * Creates a JDBC statement that does nothing.
+     */
+    private static Statement statement() {
+        return (Statement) Proxy.newProxyInstance(
+            SegmentCacheIndexImplTest.class.getClassLoader(),
+            new Class[] {Statement.class},
+            new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    return null;
+                }
+            });
+    }
+
+    /**
+     * Tests that the statement loading a segment is canceled only when the
+     * last execution waiting for it is canceled, and that a statement that
+     * loads several segments survives while any of them is needed.
+     */
+    public void testCancel() {
+        final SegmentCacheIndex index =
+            new SegmentCacheIndexImpl(Thread.currentThread());
+        final SegmentHeader unitSales = header("Unit Sales");
+        final SegmentHeader storeSales = header("Store Sales");
+        final Execution e1 = new Execution(null, 0);
+        final Execution e2 = new Execution(null, 0);
+        final Execution e3 = new Execution(null, 0);
+        final Statement statement = statement();
+
+        index.add(unitSales, true, null);
+        index.add(storeSales, true, null);
+        final Future<SegmentBody> future = index.getFuture(e1, unitSales);
+        assertSame(future, index.getFuture(e2, unitSales));
+        assertNotNull(index.getFuture(e3, storeSales));
+        assertTrue(index.linkSqlStatement(unitSales, statement));
+        assertTrue(index.linkSqlStatement(storeSales, statement));
+
+        // e2 and e3 are still waiting.
+        assertEquals(0, index.cancel(e1).size());
+        assertEquals(0, index.cancel(e1).size());
+        assertEquals(0, index.cancel(e2).size());
+        assertFalse(future.isDone());
+
+        // No one is waiting now.
+        assertEquals(Collections.singletonList(statement), index.cancel(e3));
+        assertFalse(index.linkSqlStatement(unitSales, statement));
+    }
+
+    /**
+     * Tests that an execution that waits for a segment that has already
+     * loaded is not a client of the segment.
+     */
+    public void testLoaded() {
+        final SegmentCacheIndex index =
+            new SegmentCacheIndexImpl(Thread.currentThread());
+        final SegmentHeader header = header("Unit Sales");
+        final Execution e1 = new Execution(null, 0);
+        final Execution e2 = new Execution(null, 0);
+        index.add(header, true, null);
+        index.getFuture(e1, header);
+        assertTrue(index.linkSqlStatement(header, statement()));
+        index.loadSucceeded(header, null);
+        assertTrue(index.getFuture(e2, header).isDone());
+        assertEquals(0, index.cancel(e1).size());
+        assertEquals(0, index.cancel(e2).size());
+    }
+
+    /**
+     * Tests that segments that hold some of the values of a column that is
+     * aggregated away are found by
+     * {@link SegmentCacheIndex#findPartialRollup}, along with the region
+     * that holds the other values.
+     */
+    public void testPartialRollup() {
+        propSaver.set(propSaver.properties.EnablePartialRollup, true);
+        final SegmentCacheIndex index =
+            new SegmentCacheIndexImpl(Thread.currentThread());
+        final SegmentHeader male =
+            header(values(1997, 1998), values("M"), null);
+        index.add(male, false, null);
+        assertEquals(0, findRollupCandidates(index).size());
+
+        // No segment mentions the other gender value, so the missing region
+        // cannot be described.
+        assertNull(findPartialRollup(index));
+
+        // A segment for another year cannot complete the rollup, but tells
+        // us the other value.
+        index.add(header(values(1996), values("F"), null), false, null);
+        assertEquals(0, findRollupCandidates(index).size());
+        final SegmentCacheIndex.PartialRollup partialRollup =
+            findPartialRollup(index);
+        assertEquals(Collections.singletonList(male), partialRollup.headers);
+        assertEquals(
+            Arrays.asList(
+                new SegmentColumn(YEAR, 2, values(1997, 1998)),
+                new SegmentColumn(GENDER, 2, values("F"))),
+            partialRollup.region);
+
+        // A segment with the same years completes it.
+        final SegmentHeader female =
+            header(values(1997, 1998), values("F"), null);
+        index.add(female, false, null);
+        assertEquals(
+            Collections.singletonList(Arrays.asList(female, male)),
+            findRollupCandidates(index));
+    }
+
+    /**
+     * Tests that a segment excluded from rollups is not a rollup candidate,
+     * but stays in the index.
+     */
+    public void testExcludeFromRollup() {
+        final SegmentCacheIndex index =
+            new SegmentCacheIndexImpl(Thread.currentThread());
+        final SegmentHeader male =
+            header(values(1997, 1998), values("M"), null);
+        final SegmentHeader female =
+            header(values(1997, 1998), values("F"), null);
+        index.add(male, false, null);
+        index.add(female, false, null);
+        assertEquals(1, findRollupCandidates(index).size());
+
+        index.excludeFromRollup(male);
+        assertEquals(0, findRollupCandidates(index).size());
+        assertNull(findPartialRollup(index));
+        assertEquals(
+            Collections.singletonList(male),
+            index.intersectRegion(
+                "FoodMart", new ByteString(new byte[0]), "Sales",
+                "Unit Sales", "sales_fact_1997",
+                new SegmentColumn[] {
+                    new SegmentColumn(GENDER, 2, values("M"))
+                }));
+    }
+
+    /**
+     * Tests that a segment with an excluded region can be rolled up, and that
+     * the excluded region must be loaded to complete it.
+     */
+    public void testPartialRollupExcludedRegion() {
+        propSaver.set(propSaver.properties.EnablePartialRollup, true);
+        final SegmentCacheIndex index =
+            new SegmentCacheIndexImpl(Thread.currentThread());
+        final SegmentHeader header = header(values(), values(), values("F"));
+        index.add(header, false, null);
+        assertEquals(0, findRollupCandidates(index).size());
+
+        final SegmentCacheIndex.PartialRollup partialRollup =
+            findPartialRollup(index);
+        assertEquals(Collections.singletonList(header), partialRollup.headers);
+        assertEquals(
+            Arrays.asList(
+                new SegmentColumn(YEAR, 2, null),
+                new SegmentColumn(GENDER, 2, values("F"))),
+            partialRollup.region);
+
+        // With the excluded values loaded, the segments cover the request.
+        final SegmentHeader female = header(values(), values("F"), null);
+        index.add(female, false, null);
+        assertEquals(
+            Collections.singletonList(Arrays.asList(female, header)),
+            findRollupCandidates(index));
+    }
+
+    /**
+     * Tests that, if partial rollup is disabled, a segment with an excluded
+     * region is never a rollup candidate, and that a segment for other
+     * coordinates is not used to complete a rollup.
+     */
+    public void testRollupWithoutPartialRollup() {
+        propSaver.set(propSaver.properties.EnablePartialRollup, false);
+        final SegmentCacheIndex index =
+            new SegmentCacheIndexImpl(Thread.currentThread());
+        final SegmentHeader header = header(values(), values(), values("F"));
+        final SegmentHeader female = header(values(), values("F"), null);
+        index.add(header, false, null);
+        index.add(female, false, null);
+        assertEquals(0, findRollupCandidates(index).size());
+
+        propSaver.set(propSaver.properties.EnablePartialRollup, true);
+        assertEquals(1, findRollupCandidates(index).size());
+
+        propSaver.set(propSaver.properties.EnablePartialRollup, false);
+        final SegmentCacheIndex index2 =
+            new SegmentCacheIndexImpl(Thread.currentThread());
+        final SegmentHeader male =
+            header(values(1997, 1998), values("M"), null);
+        index2.add(male, false, null);
+        index2.add(header(values(1996), values("F"), null), false, null);
+        assertEquals(0, findRollupCandidates(index2).size());
+
+        final SegmentHeader female2 =
+            header(values(1997, 1998), values("F"), null);
+        index2.add(female2, false, null);
+        final List<List<SegmentHeader>> candidates =
+            findRollupCandidates(index2);
+        assertEquals(1, candidates.size());
+        assertEquals(
+            new HashSet<SegmentHeader>(Arrays.asList(male, female2)),
+            new HashSet<SegmentHeader>(candidates.get(0)));
+    }
+}
+
+// End SegmentCacheIndexImplTest.java
@@ -17,7 +17,14 @@ import mondrian.resource.MondrianResource;
 import mondrian.rolap.*;
 import mondrian.spi.Dialect;
 
+import org.apache.log4j.Logger;
+import org.apache.log4j.SimpleLayout;
+import org.apache.log4j.WriterAppender;
+
+import java.io.StringWriter;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
 import javax.sql.DataSource;
 
 /**
@@ -123,6 +130,67 @@ public class DrillThroughTest extends FoodMartTestCase {
         assertEquals(calcCell.getDrillThroughCount(), 7978);
     }
 
+    /**
+     * Tests that, if the fact count is loaded with the other measures, the
+     * drill-through count is the same as counting the rows of the fact
+     * table. The Warehouse cube has no count measure, so the system creates
+     * one that counts all fact rows. With the fact count cached, counting
+     * executes no SQL.
+     */
+    public void testDrillThroughCountFromCache() {
+        final String mdx =
+            "select {[Measures].[Units Shipped]} on 0,\n"
+            + " [Store Type].Children on 1\n"
+            + "from [Warehouse]";
+        final MondrianProperties props = MondrianProperties.instance();
+        propSaver.set(props.CacheFactCount, false);
+        Result result = executeQuery(mdx);
+        final int rowCount = result.getAxes()[1].getPositions().size();
+        final List<Integer> expected = new ArrayList<Integer>();
+        String sql = getDrillThroughCounts(result, rowCount, expected);
+        assertTrue(sql, sql.length() > 0);
+
+        final mondrian.olap.Connection connection = getConnection();
+        final CacheControl cacheControl = connection.getCacheControl(null);
+        final Cube cube =
+            connection.getSchema().lookupCube("Warehouse", true);
+        cacheControl.flush(cacheControl.createMeasuresRegion(cube));
+        propSaver.set(props.CacheFactCount, true);
+        result = executeQuery(mdx);
+        final List<Integer> actual = new ArrayList<Integer>();
+        sql = getDrillThroughCounts(result, rowCount, actual);
+        assertEquals(expected, actual);
+        assertEquals("", sql);
+    }
+
+    /**
+     * Adds the drill-through count of the first cell of each row of a result
+     * to a list, and returns the SQL that was logged while counting.
+     */
+    private String getDrillThroughCounts(
+        Result result,
+        int rowCount,
+        List<Integer> counts)
+    {
+        final Logger logger = RolapUtil.SQL_LOGGER;
+        final org.apache.log4j.Level level = logger.getLevel();
+        final StringWriter sw = new StringWriter();
+        final WriterAppender appender =
+            new WriterAppender(new SimpleLayout(), sw);
+        try {
+            logger.setLevel(org.apache.log4j.Level.DEBUG);
+            logger.addAppender(appender);
+            for (int i = 0; i < rowCount; i++) {
+                counts.add(
+                    result.getCell(new int[] {0, i}).getDrillThroughCount());
+            }
+        } finally {
+            logger.removeAppender(appender);
+            logger.setLevel(level);
+        }
+        return sw.toString();
+    }
+
     public void testTrivialCalcMemberNotMeasure() {
         // [Product].[My Food] is trivial because it maps to a single member.
         // First, on ROWS axis.
@@ -960,6 +1028,49 @@ public class DrillThroughTest extends FoodMartTestCase {
         resultSet.close();
     }
 
+    /**
+     * Tests that MAXROWS and FIRSTROWSET return the same rows as reading all
+     * rows and skipping, whether they are applied in the drill-through SQL
+     * (if the dialect can limit the rows of a query) or using JDBC.
+     */
+    public void testDrillthroughPage() throws SQLException {
+        final String mdx =
+            " select\n"
+            + "non empty{[Customers].[USA].[CA]} on 0,\n"
+            + "non empty {[Product].[Drink].[Beverages]"
+            + ".[Pure Juice Beverages].[Juice]} on 1\n"
+            + "from\n"
+            + "[Sales]\n"
+            + "where([Measures].[Sales Count], [Time].[1997].[Q3].[8])";
+        final List<String> allRows = drillThroughRows("drillthrough" + mdx);
+        assertEquals(29, allRows.size());
+
+        assertEquals(
+            allRows.subList(6, 10),
+            drillThroughRows("drillthrough maxrows 10 firstrowset 6" + mdx));
+        assertEquals(
+            allRows.subList(0, 3),
+            drillThroughRows("drillthrough maxrows 3" + mdx));
+        assertEquals(
+            allRows.subList(20, 29),
+            drillThroughRows("drillthrough firstrowset 20" + mdx));
+    }
+
+    private List<String> drillThroughRows(String mdx) throws SQLException {
+        final ResultSet resultSet = getTestContext().executeStatement(mdx);
+        final int columnCount = resultSet.getMetaData().getColumnCount();
+        final List<String> rows = new ArrayList<String>();
+        while (resultSet.next()) {
+            final StringBuilder buf = new StringBuilder();
+            for (int i = 0; i < columnCount; i++) {
+                buf.append(resultSet.getObject(i + 1)).append(',');
+            }
+            rows.add(buf.toString());
+        }
+        resultSet.close();
+        return rows;
+    }
+
     public void testDrillthroughNegativeMaxRowsFails() throws SQLException {
         try {
             final ResultSet resultSet = getTestContext().executeStatement(
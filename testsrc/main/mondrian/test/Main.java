@@ -21,6 +21,8 @@ import mondrian.olap.type.TypeTest;
 import mondrian.rolap.*;
 import mondrian.rolap.agg.*;
 import mondrian.rolap.aggmatcher.*;
+import mondrian.rolap.aggtab.AggAdvisorTest;
+import mondrian.rolap.cache.SegmentCacheIndexImplTest;
 import mondrian.rolap.sql.SelectNotInGroupByTest;
 import mondrian.rolap.sql.SqlQueryTest;
 import mondrian.test.build.CodeComplianceTest;
@@ -208,6 +210,10 @@ public class Main extends TestSuite {
             }
             addTest(suite, NativeFilterMatchingTest.class);
             addTest(suite, RolapConnectionTest.class);
+            addTest(suite, RolapStatisticsCacheTest.class);
+            addTest(suite, RolapResultShepherdTest.class);
+            addTest(suite, RolapResultCacheTest.class);
+            addTest(suite, CellInfoStoreTest.class);
             addTest(suite, FilteredIterableTest.class);
             addTest(suite, HighDimensionsTest.class);
             addTest(suite, IndexedValuesTest.class);
@@ -220,6 +226,7 @@ public class Main extends TestSuite {
             addTest(suite, ScenarioTest.class);
             addTest(suite, BasicQueryTest.class);
             addTest(suite, SegmentCacheTest.class);
+            addTest(suite, SegmentBuilderTest.class);
             addTest(suite, CVBasicTest.class, "suite");
             addTest(suite, GrandTotalTest.class, "suite");
             addTest(suite, HangerDimensionTest.class, "suite");
@@ -236,6 +243,8 @@ public class Main extends TestSuite {
             addTest(suite, FunctionTest.class);
             addTest(suite, CurrentDateMemberUdfTest.class);
             addTest(suite, PartialSortTest.class);
+            addTest(suite, TupleSetOpsTest.class);
+            addTest(suite, TopBottomSelectorTest.class);
             addTest(suite, VbaTest.class);
             addTest(suite, ExcelTest.class);
             addTest(suite, HierarchyBugTest.class);
@@ -292,6 +301,9 @@ public class Main extends TestSuite {
             addTest(suite, DataSourceChangeListenerTest.class);
             addTest(suite, ModulosTest.class);
             addTest(suite, PrimeFinderTest.class);
+            addTest(suite, HyperLogLogTest.class);
+            addTest(suite, CompressedBitmapTest.class);
+            addTest(suite, SegmentCacheIndexImplTest.class);
             addTest(suite, CellKeyTest.class);
             addTest(suite, RolapAxisTest.class);
             addTest(suite, CrossJoinTest.class);
@@ -312,7 +324,10 @@ public class Main extends TestSuite {
             addTest(suite, SetFunDefTest.class);
             addTest(suite, VisualTotalsTest.class);
             addTest(suite, AggregationOnDistinctCountMeasuresTest.class);
+            addTest(suite, AggregationCostModelTest.class);
             addTest(suite, NonCollapsedAggTest.class);
+            addTest(suite, JdbcSchemaTest.class);
+            addTest(suite, AggAdvisorTest.class);
             addTest(suite, BitKeyTest.class);
             addTest(suite, TypeTest.class);
             addTest(suite, SteelWheelsSchemaTest.class);
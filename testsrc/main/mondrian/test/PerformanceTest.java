@@ -10,6 +10,7 @@
 package mondrian.test;
 
 import mondrian.olap.*;
+import mondrian.rolap.RolapConnectionProperties;
 import mondrian.util.Bug;
 
 import org.apache.log4j.Logger;
@@ -548,6 +549,95 @@ public class PerformanceTest extends FoodMartTestCase {
             + "1,184,028");
     }
 
+    /**
+     * Measures how long it takes to load a large schema: FoodMart plus 200
+     * generated cubes, each with its own fact table (a view with distinct
+     * SQL, so that each cube has its own star) and private dimensions.
+     * Compares serial loading, parallel loading (see
+     * {@link MondrianProperties#SchemaLoadThreads}) and lazy loading (see
+     * {@link MondrianProperties#LazyCubeInitialization}); for lazy loading,
+     * also measures the first query, which creates the cube it uses.
+     */
+    public void testSchemaLoad() {
+        if (!LOGGER.isDebugEnabled()) {
+            return;
+        }
+        final String cubes =
+            TestContext.repeatString(
+                200,
+                "<Cube name=\"Generated %d\">\n"
+                + "  <View alias=\"fact\">\n"
+                + "    <SQL dialect=\"generic\">"
+                + "select * from sales_fact_1997 where 1 = 1</SQL>\n"
+                + "  </View>\n"
+                + "  <Dimension name=\"Store\" foreignKey=\"store_id\">\n"
+                + "    <Hierarchy hasAll=\"true\" primaryKey=\"store_id\">\n"
+                + "      <Table name=\"store\"/>\n"
+                + "      <Level name=\"Store Country\" column=\"store_country\" uniqueMembers=\"true\"/>\n"
+                + "      <Level name=\"Store State\" column=\"store_state\" uniqueMembers=\"true\"/>\n"
+                + "      <Level name=\"Store City\" column=\"store_city\" uniqueMembers=\"false\"/>\n"
+                + "    </Hierarchy>\n"
+                + "  </Dimension>\n"
+                + "  <Dimension name=\"Gender\" foreignKey=\"customer_id\">\n"
+                + "    <Hierarchy hasAll=\"true\" primaryKey=\"customer_id\">\n"
+                + "      <Table name=\"customer\"/>\n"
+                + "      <Level name=\"Gender\" column=\"gender\" uniqueMembers=\"true\"/>\n"
+                + "    </Hierarchy>\n"
+                + "  </Dimension>\n"
+                + "  <Measure name=\"Unit Sales\" column=\"unit_sales\" aggregator=\"sum\"/>\n"
+                + "  <Measure name=\"Store Sales\" column=\"store_sales\" aggregator=\"sum\"/>\n"
+                + "</Cube>\n");
+        // Make the SQL of each view different; otherwise all cubes would
+        // share a star, and would be created in one thread.
+        final StringBuilder buf = new StringBuilder();
+        int i = 0;
+        for (String cube : cubes.split("where 1 = 1")) {
+            if (i > 0) {
+                buf.append("where ").append(i).append(" = ").append(i);
+            }
+            buf.append(cube);
+            ++i;
+        }
+        final String rawSchema = TestContext.getRawFoodMartSchema();
+        final int end = rawSchema.lastIndexOf("</Schema>");
+        final String schema =
+            rawSchema.substring(0, end) + buf + rawSchema.substring(end);
+
+        propSaver.set(propSaver.properties.LazyCubeInitialization, false);
+        propSaver.set(propSaver.properties.SchemaLoadThreads, 1);
+        loadSchema("testSchemaLoad: serial", schema, null);
+        propSaver.set(propSaver.properties.SchemaLoadThreads, 0);
+        loadSchema("testSchemaLoad: parallel", schema, null);
+        propSaver.set(propSaver.properties.LazyCubeInitialization, true);
+        loadSchema(
+            "testSchemaLoad: lazy",
+            schema,
+            "select [Measures].[Unit Sales] on 0,\n"
+            + "[Store].[Store Country].Members on 1\n"
+            + "from [Generated 100]");
+    }
+
+    private void loadSchema(String desc, String schema, String mdx) {
+        final Statistician statistician = new Statistician(desc);
+        for (int i = 0; i < 5; i++) {
+            // Unique content, so that the schema is not found in the pool.
+            final Util.PropertyList properties =
+                TestContext.instance().getConnectionProperties().clone();
+            properties.put(
+                RolapConnectionProperties.CatalogContent.name(),
+                schema + "<!-- " + Util.generateUuidString() + " -->");
+            final long start = System.currentTimeMillis();
+            final Connection connection =
+                DriverManager.getConnection(properties, null);
+            if (mdx != null) {
+                connection.execute(connection.parseQuery(mdx));
+            }
+            statistician.record(start);
+            connection.close();
+        }
+        statistician.printDurations();
+    }
+
     private static long printDuration(String desc, long t0) {
         final long t1 = System.currentTimeMillis();
         final long duration = t1 - t0;
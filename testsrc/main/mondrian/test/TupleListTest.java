@@ -154,6 +154,135 @@ public class TupleListTest extends FoodMartTestCase {
         checkProject(fm);
     }
 
+    public void testOrdinalTupleList() {
+        final Member genderFMember = xxx("[Gender].[F]");
+        final Member genderMMember = xxx("[Gender].[M]");
+        final Member storeUsaMember = xxx("[Store].[USA]");
+
+        // empty list
+        final TupleList list0 = new OrdinalTupleList(2);
+        assertTrue(list0.isEmpty());
+        assertEquals(0, list0.size());
+        assertEquals(list0, TupleCollections.emptyList(2));
+
+        final OrdinalTupleList list1 = new OrdinalTupleList(2);
+        list1.addTuple(storeUsaMember, genderFMember);
+        list1.add(Arrays.asList(storeUsaMember, genderMMember));
+        list1.addTuple(storeUsaMember, genderFMember);
+        assertEquals(3, list1.size());
+        assertEquals(
+            "[[[Store].[USA], [Gender].[F]], [[Store].[USA], [Gender].[M]], "
+            + "[[Store].[USA], [Gender].[F]]]",
+            list1.toString());
+        try {
+            list1.addTuple(storeUsaMember);
+            fail("expected error");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Tuple length does not match arity", e.getMessage());
+        }
+
+        // Each distinct member is stored once per column.
+        assertEquals(1, list1.getDictionary(0).size());
+        assertEquals(2, list1.getDictionary(1).size());
+        assertTrue(list1.tupleEquals(0, 2));
+        assertFalse(list1.tupleEquals(0, 1));
+        assertEquals(list1.tupleHashCode(0), list1.tupleHashCode(2));
+
+        // Equal to the same tuples in another representation.
+        final TupleList arrayList = new ArrayTupleList(2);
+        arrayList.addAll(list1);
+        assertEquals(arrayList, list1);
+        assertEquals(list1, OrdinalTupleList.of(arrayList));
+
+        list1.remove(1);
+        assertEquals(2, list1.size());
+        assertEquals(
+            "[[[Store].[USA], [Gender].[F]], [[Store].[USA], [Gender].[F]]]",
+            list1.toString());
+        assertEquals(
+            "[[[Store].[USA], [Gender].[F]]]",
+            list1.subList(1, 2).toString());
+
+        // Null members OK.
+        list1.addTuple(storeUsaMember, null);
+        assertNull(list1.get(1, 2));
+
+        TupleList fm = new OrdinalTupleList(2);
+        fm.addTuple(genderFMember, storeUsaMember);
+        fm.addTuple(genderMMember, storeUsaMember);
+        checkProject(fm);
+    }
+
+    /**
+     * Tests that a list does not add members to dictionaries that it shares
+     * with a clone.
+     */
+    public void testOrdinalTupleListSharedDictionaries() {
+        final Member genderFMember = xxx("[Gender].[F]");
+        final Member genderMMember = xxx("[Gender].[M]");
+
+        final OrdinalTupleList list = new OrdinalTupleList(1);
+        list.addTuple(genderFMember);
+        final OrdinalTupleList clone = (OrdinalTupleList) list.cloneList(-1);
+        assertTrue(clone.hasSameDictionaries(list));
+
+        // Adding an existing member keeps the dictionaries shared.
+        clone.addTuple(genderFMember);
+        assertTrue(clone.hasSameDictionaries(list));
+
+        // Adding a new member copies them.
+        clone.addTuple(genderMMember);
+        assertFalse(clone.hasSameDictionaries(list));
+        assertEquals(1, list.getDictionary(0).size());
+        assertEquals(2, clone.getDictionary(0).size());
+        assertEquals(
+            "[[[Gender].[F]], [[Gender].[F]], [[Gender].[M]]]",
+            clone.toString());
+
+        // The original also copies before it adds.
+        list.addTuple(genderMMember);
+        assertEquals(2, list.getDictionary(0).size());
+        assertEquals("[[[Gender].[F]], [[Gender].[M]]]", list.toString());
+    }
+
+    public void testOrdinalTupleListCrossJoin() {
+        final Member genderFMember = xxx("[Gender].[F]");
+        final Member genderMMember = xxx("[Gender].[M]");
+        final Member storeUsaMember = xxx("[Store].[USA]");
+        final Member storeMexicoMember = xxx("[Store].[Mexico]");
+        final Member maritalSMember = xxx("[Marital Status].[S]");
+
+        final TupleList genders =
+            new UnaryTupleList(Arrays.asList(genderFMember, genderMMember));
+        final TupleList stores = new ArrayTupleList(2);
+        stores.addTuple(storeUsaMember, maritalSMember);
+        stores.addTuple(storeMexicoMember, maritalSMember);
+        final TupleList genders2 =
+            new UnaryTupleList(Arrays.asList(genderMMember));
+
+        final TupleList product =
+            OrdinalTupleList.crossJoin(
+                Arrays.asList(genders, stores, genders2));
+        assertEquals(4, product.getArity());
+        assertEquals(4, product.size());
+        assertEquals(
+            "[[[Gender].[F], [Store].[USA], [Marital Status].[S],"
+            + " [Gender].[M]],"
+            + " [[Gender].[F], [Store].[Mexico], [Marital Status].[S],"
+            + " [Gender].[M]],"
+            + " [[Gender].[M], [Store].[USA], [Marital Status].[S],"
+            + " [Gender].[M]],"
+            + " [[Gender].[M], [Store].[Mexico], [Marital Status].[S],"
+            + " [Gender].[M]]]",
+            product.toString());
+
+        // Cross join with an empty list is empty.
+        assertTrue(
+            OrdinalTupleList.crossJoin(
+                Arrays.asList(genders, TupleCollections.emptyList(2)))
+                .isEmpty());
+    }
+
     public void testDelegatingTupleList() {
         final Member genderFMember = xxx("[Gender].[F]");
         final Member genderMMember = xxx("[Gender].[M]");
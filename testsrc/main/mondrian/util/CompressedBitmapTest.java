@@ -0,0 +1,159 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.util;
+
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Unit test for {@link CompressedBitmap}.
+ *
+ * @author jhyde
+ */
+public class CompressedBitmapTest extends TestCase {
+    public CompressedBitmapTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Checks that a bitmap contains the same values as a set, in unsigned
+     * order.
+     */
+    private static void assertSame(
+        SortedSet<Integer> expected,
+        CompressedBitmap bitmap)
+    {
+        assertEquals(expected.size(), bitmap.cardinality());
+        final List<Integer> list = new ArrayList<Integer>();
+        for (int i : bitmap.toArray()) {
+            list.add(i);
+        }
+        assertEquals(new ArrayList<Integer>(expected), list);
+        for (int i : expected) {
+            assertTrue(bitmap.contains(i));
+        }
+    }
+
+    /**
+     * Creates a set that sorts integers as unsigned values, the order that
+     * {@link CompressedBitmap#toArray()} returns them.
+     */
+    private static SortedSet<Integer> unsignedSet() {
+        return new TreeSet<Integer>(
+            new Comparator<Integer>() {
+                public int compare(Integer o1, Integer o2) {
+                    final long l1 = o1 & 0xffffffffL;
+                    final long l2 = o2 & 0xffffffffL;
+                    return l1 < l2 ? -1 : l1 == l2 ? 0 : 1;
+                }
+            });
+    }
+
+    public void testEmpty() {
+        final CompressedBitmap bitmap = new CompressedBitmap();
+        assertEquals(0, bitmap.cardinality());
+        assertEquals(0, bitmap.toArray().length);
+        assertFalse(bitmap.contains(0));
+        assertEquals(new CompressedBitmap(), bitmap);
+        assertNull(CompressedBitmap.union(Arrays.asList(null, "x")));
+    }
+
+    /**
+     * Tests adding values, including duplicates, negative values, and enough
+     * values in one chunk that it converts from an array to a bitmap.
+     */
+    public void testAdd() {
+        final Random random = new Random(1234);
+        for (int range : new int[] {100, 10000, 100000, Integer.MAX_VALUE}) {
+            final SortedSet<Integer> set = unsignedSet();
+            final CompressedBitmap bitmap = new CompressedBitmap();
+            for (int i = 0; i < 20000; i++) {
+                final int value = random.nextInt(range) - range / 2;
+                assertEquals(set.add(value), bitmap.add(value));
+            }
+            assertSame(set, bitmap);
+        }
+    }
+
+    /**
+     * Tests that a dense set of values uses about one bit per value, and a
+     * sparse set about two bytes per value.
+     */
+    public void testSize() {
+        final CompressedBitmap dense = new CompressedBitmap();
+        for (int i = 0; i < 1000000; i++) {
+            dense.add(i);
+        }
+        assertTrue(
+            dense.sizeInBytes() + "",
+            dense.sizeInBytes() < 1000000 / 8 * 11 / 10);
+
+        final CompressedBitmap sparse = new CompressedBitmap();
+        for (int i = 0; i < 1000; i++) {
+            sparse.add(i * 1000);
+        }
+        assertTrue(
+            sparse.sizeInBytes() + "",
+            sparse.sizeInBytes() < 1000 * 2 * 3);
+    }
+
+    /**
+     * Tests the union of bitmaps, with chunks that are arrays and bitmaps,
+     * and that the arguments are not modified.
+     */
+    public void testUnion() {
+        final Random random = new Random(5678);
+        final List<CompressedBitmap> bitmaps =
+            new ArrayList<CompressedBitmap>();
+        final SortedSet<Integer> set = unsignedSet();
+        for (int size : new int[] {10, 3000, 3000, 50000}) {
+            final CompressedBitmap bitmap = new CompressedBitmap();
+            for (int i = 0; i < size; i++) {
+                final int value = random.nextInt(200000);
+                bitmap.add(value);
+                set.add(value);
+            }
+            bitmaps.add(bitmap);
+        }
+        final CompressedBitmap copy = bitmaps.get(1).copy();
+        final CompressedBitmap union = CompressedBitmap.union(bitmaps);
+        assertSame(set, union);
+        assertEquals(copy, bitmaps.get(1));
+
+        // Union in the other order gives the same result.
+        Collections.reverse(bitmaps);
+        assertEquals(union, CompressedBitmap.union(bitmaps));
+    }
+
+    /**
+     * Tests that a bitmap can be serialized, as it is when segments are
+     * stored in an external cache.
+     */
+    public void testSerialize() throws Exception {
+        final CompressedBitmap bitmap = new CompressedBitmap();
+        for (int i = 0; i < 10000; i += 3) {
+            bitmap.add(i);
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(bitmap);
+        out.close();
+        final ObjectInputStream in =
+            new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()));
+        final CompressedBitmap bitmap2 = (CompressedBitmap) in.readObject();
+        assertEquals(bitmap, bitmap2);
+        assertEquals(bitmap.cardinality(), bitmap2.cardinality());
+    }
+}
+
+// End CompressedBitmapTest.java
@@ -0,0 +1,159 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2012-2012 Pentaho
+// All Rights Reserved.
+*/
+package mondrian.util;
+
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Unit test for {@link HyperLogLog}.
+ *
+ * @author jhyde
+ */
+public class HyperLogLogTest extends TestCase {
+    public HyperLogLogTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Asserts that an estimate is within 4 standard errors of the actual
+     * number of distinct values.
+     */
+    private static void assertEstimate(long expected, HyperLogLog sketch) {
+        final double error =
+            4d * HyperLogLog.standardError(sketch.getPrecision()) * expected;
+        final long actual = sketch.estimate();
+        assertTrue(
+            "expected " + expected + " +/- " + error + ", was " + actual,
+            Math.abs(actual - expected) <= Math.max(error, 1d));
+    }
+
+    private static HyperLogLog sketch(int precision, int from, int to) {
+        final HyperLogLog sketch = new HyperLogLog(precision);
+        for (int i = from; i < to; i++) {
+            sketch.add(i);
+        }
+        return sketch;
+    }
+
+    public void testEmpty() {
+        assertEquals(0, new HyperLogLog(12).estimate());
+        assertNull(HyperLogLog.union(Arrays.asList(null, "x")));
+    }
+
+    public void testPrecision() {
+        assertEquals(0.01625d, HyperLogLog.standardError(12), 0.00001d);
+        try {
+            new HyperLogLog(HyperLogLog.MIN_PRECISION - 1);
+            fail("expected error");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+        try {
+            new HyperLogLog(HyperLogLog.MAX_PRECISION + 1);
+            fail("expected error");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+    }
+
+    /**
+     * Tests accuracy over a range of cardinalities and precisions, and that
+     * adding a value twice does not change the sketch.
+     */
+    public void testAccuracy() {
+        for (int precision : new int[] {4, 8, 12, 16}) {
+            for (int n : new int[] {1, 10, 100, 1000, 10000, 100000}) {
+                final HyperLogLog sketch = sketch(precision, 0, n);
+                assertEstimate(n, sketch);
+                final HyperLogLog copy = sketch.copy();
+                for (int i = 0; i < n; i++) {
+                    copy.add(i);
+                }
+                assertEquals(sketch, copy);
+            }
+        }
+        final HyperLogLog sketch = new HyperLogLog(12);
+        for (int i = 0; i < 5000; i++) {
+            sketch.add("customer" + i);
+        }
+        assertEstimate(5000, sketch);
+    }
+
+    /**
+     * Tests that numbers with the same integral value are the same value,
+     * whatever their type.
+     */
+    public void testNumericTypes() {
+        final HyperLogLog sketch = new HyperLogLog(12);
+        sketch.add(7);
+        sketch.add(7L);
+        sketch.add(7d);
+        sketch.add(new java.math.BigDecimal("7"));
+        assertEquals(1, sketch.estimate());
+        sketch.add(7.5d);
+        assertEquals(2, sketch.estimate());
+    }
+
+    /**
+     * Tests that the union of sketches of overlapping ranges estimates the
+     * size of the combined range, and is the same as a sketch built from the
+     * combined range.
+     */
+    public void testUnion() {
+        final HyperLogLog a = sketch(12, 0, 6000);
+        final HyperLogLog b = sketch(12, 4000, 10000);
+        final HyperLogLog union = HyperLogLog.union(Arrays.asList(a, null, b));
+        assertEquals(sketch(12, 0, 10000), union);
+        assertEstimate(10000, union);
+
+        // Arguments are not modified.
+        assertEquals(sketch(12, 0, 6000), a);
+    }
+
+    /**
+     * Tests that folding a sketch gives the same result as building a sketch
+     * of the lower precision, and that sketches of different precision can
+     * be merged.
+     */
+    public void testFold() {
+        final HyperLogLog sketch = sketch(14, 0, 20000);
+        for (int precision = 14; precision >= 4; precision--) {
+            assertEquals(sketch(precision, 0, 20000), sketch.fold(precision));
+        }
+        final HyperLogLog union =
+            HyperLogLog.union(
+                Arrays.asList(sketch(14, 0, 1000), sketch(10, 500, 2000)));
+        assertEquals(10, union.getPrecision());
+        assertEquals(sketch(10, 0, 2000), union);
+    }
+
+    /**
+     * Tests that a sketch can be serialized, as it is when segments are
+     * stored in an external cache.
+     */
+    public void testSerialize() throws Exception {
+        final HyperLogLog sketch = sketch(10, 0, 3000);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(sketch);
+        out.close();
+        final ObjectInputStream in =
+            new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()));
+        final HyperLogLog sketch2 = (HyperLogLog) in.readObject();
+        assertEquals(sketch, sketch2);
+        assertEquals(sketch.estimate(), sketch2.estimate());
+    }
+}
+
+// End HyperLogLogTest.java
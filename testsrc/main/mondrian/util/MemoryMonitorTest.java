@@ -11,7 +11,9 @@ package mondrian.util;
 
 import mondrian.calc.ResultStyle;
 import mondrian.olap.*;
+import mondrian.rolap.RolapConnection;
 import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -340,6 +342,75 @@ Does not work without the notify on add feature.
 //System.out.flush();
         }
     }
+
+    /**
+     * Tests that a query that exceeds its memory budget, or its connection's
+     * budget, fails, and that other queries are not affected.
+     */
+    public void testQueryMemoryLimit() {
+        final MondrianProperties props = MondrianProperties.instance();
+        final String bigQuery =
+            "select {[Measures].[Unit Sales]} on 0,\n"
+            + " Crossjoin([Customers].[Name].Members,\n"
+            + "   [Product].[Product Department].Members) on 1\n"
+            + "from [Sales]";
+        final String smallQuery =
+            "select {[Measures].[Unit Sales]} on 0,\n"
+            + " [Gender].Members on 1\n"
+            + "from [Sales]";
+        propSaver.set(props.QueryMemoryLimit, 1);
+        assertQueryThrows(bigQuery, "exceeding its limit");
+        executeQuery(smallQuery);
+
+        propSaver.set(props.QueryMemoryLimit, 0);
+        propSaver.set(props.ConnectionMemoryLimit, 1);
+        assertQueryThrows(bigQuery, "exceeding the connection's limit");
+        executeQuery(smallQuery);
+
+        // A query that exceeds another resource limit gives back the memory
+        // it allocated before it failed.
+        propSaver.set(props.ConnectionMemoryLimit, 0);
+        propSaver.set(props.ResultLimit, 1000);
+        assertQueryThrows(bigQuery, "exceeded limit");
+
+        // Memory is given back when executions end or fail.
+        assertEquals(
+            0, ((RolapConnection) getConnection()).getMemoryUsed());
+    }
+
+    /**
+     * Tests that the memory of the tuple lists built to evaluate a cell is
+     * given back once the cell has been evaluated. Each cell needs about
+     * 25KB, within the limit, but all cells together need more than 1MB.
+     */
+    public void testQueryMemoryReleased() {
+        final MondrianProperties props = MondrianProperties.instance();
+        propSaver.set(props.QueryMemoryLimit, 1);
+        executeQuery(
+            "with member [Measures].[Count] as\n"
+            + " Count(Crossjoin([Product].CurrentMember.Children,\n"
+            + "   [Customers].[City].Members), INCLUDEEMPTY)\n"
+            + "select {[Measures].[Count]} on 0,\n"
+            + " [Product].[Brand Name].Members on 1\n"
+            + "from [Sales]");
+    }
+
+    /**
+     * Tests that a result with more cells than
+     * {@link MondrianProperties#CellStoreMaxCells} is evaluated without
+     * columnar arrays, and gives the same answer.
+     */
+    public void testCellStoreMaxCells() {
+        final MondrianProperties props = MondrianProperties.instance();
+        final String query =
+            "select {[Measures].[Unit Sales], [Measures].[Store Sales]} on 0,\n"
+            + " [Product].[Product Family].Members on 1\n"
+            + "from [Sales]";
+        final String expected =
+            TestContext.toString(executeQuery(query));
+        propSaver.set(props.CellStoreMaxCells, 4);
+        assertEquals(expected, TestContext.toString(executeQuery(query)));
+    }
 }
 
 // End MemoryMonitorTest.java